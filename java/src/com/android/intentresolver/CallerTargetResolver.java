@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.service.chooser.ChooserTarget;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import dagger.hilt.android.EntryPointAccessors;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Resolves the targets provided by the caller with {@link Intent#EXTRA_CHOOSER_TARGETS}, i.e.
+ * builds the intent sent to each of them and looks up their activity, once per user and off the
+ * main thread. The resolution of a user is started as soon as the request is parsed and its
+ * results are reused whenever the caller targets are added to a list.
+ */
+public final class CallerTargetResolver {
+    private static final String TAG = "CallerTargetResolver";
+
+    private final List<ChooserTarget> mTargets;
+    private final Intent mTargetIntent;
+    // Looked up from the user context if not provided, see #getQueryEngine.
+    @Nullable
+    private final ResolveQueryEngine mQueryEngine;
+    private final Map<ChooserTarget, Integer> mTargetIndices = new IdentityHashMap<>();
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final SparseArray<Resolution> mResolutions = new SparseArray<>();
+
+    public CallerTargetResolver(List<ChooserTarget> targets, Intent targetIntent) {
+        this(targets, targetIntent, null);
+    }
+
+    @VisibleForTesting
+    CallerTargetResolver(
+            List<ChooserTarget> targets,
+            Intent targetIntent,
+            @Nullable ResolveQueryEngine queryEngine) {
+        mTargets = targets;
+        mTargetIntent = targetIntent;
+        mQueryEngine = queryEngine;
+        for (int i = 0; i < targets.size(); i++) {
+            mTargetIndices.put(targets.get(i), i);
+        }
+    }
+
+    /**
+     * Starts resolving the caller targets for the user of the {@code userContext}, unless there
+     * are none or this has already been done.
+     */
+    public void start(Context userContext) {
+        if (!mTargets.isEmpty()) {
+            getResolution(userContext);
+        }
+    }
+
+    /**
+     * Runs the {@code callback} on the {@code executor} once the caller targets are resolved for
+     * the user of the {@code userContext}, starting their resolution if needed. If they already
+     * are, the {@code callback} is run right away on the calling thread.
+     */
+    public void whenResolved(Context userContext, Executor executor, Runnable callback) {
+        getResolution(userContext).whenDone(executor, callback);
+    }
+
+    /**
+     * Returns the {@code target} resolved for the user of the {@code userContext}. The memoized
+     * resolution is used for the caller targets, waiting for it if it's still running; any other
+     * target is resolved on the calling thread.
+     */
+    public ResolvedCallerTarget getResolvedTarget(ChooserTarget target, Context userContext) {
+        final Integer index = mTargetIndices.get(target);
+        if (index == null) {
+            return resolve(target, mTargetIntent, userContext);
+        }
+        return ResolveQueryEngine.getResult(getResolution(userContext)).get(index);
+    }
+
+    /**
+     * Resolves a caller-specified {@code target} for the user of the {@code userContext}.
+     * @param targetIntent a target intent for the Chooser (see {@link Intent#EXTRA_INTENT}).
+     */
+    static ResolvedCallerTarget resolve(
+            ChooserTarget target, Intent targetIntent, Context userContext) {
+        final Intent resolvedIntent = createResolvedIntentForCallerTarget(target, targetIntent);
+        ResolveInfo backupResolveInfo = null;
+        try {
+            backupResolveInfo = userContext.getPackageManager().resolveActivity(
+                    resolvedIntent,
+                    PackageManager.ResolveInfoFlags.of(PackageManager.GET_META_DATA));
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Unable to resolve the caller target " + target.getComponentName(), e);
+        }
+        return new ResolvedCallerTarget(resolvedIntent, backupResolveInfo);
+    }
+
+    /**
+     * Creates a resolved intent for a caller-specified target.
+     * @param target, a caller-specified target.
+     * @param targetIntent, a target intent for the Chooser (see {@link Intent#EXTRA_INTENT}).
+     */
+    private static Intent createResolvedIntentForCallerTarget(
+            ChooserTarget target, Intent targetIntent) {
+        final Intent resolvedIntent = new Intent(targetIntent);
+        resolvedIntent.setComponent(target.getComponentName());
+        resolvedIntent.putExtras(target.getIntentExtras());
+        return resolvedIntent;
+    }
+
+    private List<ResolvedCallerTarget> resolveAll(Context userContext) {
+        final List<ResolvedCallerTarget> resolvedTargets = new ArrayList<>(mTargets.size());
+        for (ChooserTarget target : mTargets) {
+            resolvedTargets.add(resolve(target, mTargetIntent, userContext));
+        }
+        return resolvedTargets;
+    }
+
+    private Resolution getResolution(Context userContext) {
+        final int userId = userContext.getUserId();
+        final Resolution resolution;
+        synchronized (mLock) {
+            final Resolution existing = mResolutions.get(userId);
+            if (existing != null) {
+                return existing;
+            }
+            resolution = new Resolution(userContext);
+            mResolutions.put(userId, resolution);
+        }
+        getQueryEngine(userContext).submit(resolution);
+        return resolution;
+    }
+
+    private ResolveQueryEngine getQueryEngine(Context context) {
+        if (mQueryEngine != null) {
+            return mQueryEngine;
+        }
+        // The resolver is created along with the request, before the activity gets injected.
+        return EntryPointAccessors.fromApplication(
+                        context, ResolveQueryEngine.ResolveQueryEngineEntryPoint.class)
+                .resolveQueryEngine();
+    }
+
+    /** A caller target along with the intent sent to it and its activity, if found. */
+    public static final class ResolvedCallerTarget {
+        private final Intent mResolvedIntent;
+        @Nullable
+        private final ResolveInfo mBackupResolveInfo;
+
+        ResolvedCallerTarget(Intent resolvedIntent, @Nullable ResolveInfo backupResolveInfo) {
+            mResolvedIntent = resolvedIntent;
+            mBackupResolveInfo = backupResolveInfo;
+        }
+
+        public Intent getResolvedIntent() {
+            return mResolvedIntent;
+        }
+
+        @Nullable
+        public ResolveInfo getBackupResolveInfo() {
+            return mBackupResolveInfo;
+        }
+    }
+
+    /** The resolution of all the caller targets for a user, notifying its callbacks when done. */
+    private final class Resolution extends FutureTask<List<ResolvedCallerTarget>> {
+        @GuardedBy("this")
+        private List<Runnable> mPendingCallbacks = new ArrayList<>();
+
+        Resolution(Context userContext) {
+            super(() -> resolveAll(userContext));
+        }
+
+        void whenDone(Executor executor, Runnable callback) {
+            synchronized (this) {
+                if (mPendingCallbacks != null) {
+                    mPendingCallbacks.add(() -> executor.execute(callback));
+                    return;
+                }
+            }
+            callback.run();
+        }
+
+        @Override
+        protected void done() {
+            final List<Runnable> callbacks;
+            synchronized (this) {
+                callbacks = mPendingCallbacks;
+                mPendingCallbacks = null;
+            }
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+        }
+    }
+}
@@ -87,7 +87,9 @@ import com.android.intentresolver.emptystate.NoCrossProfileEmptyStateProvider;
 import com.android.intentresolver.emptystate.NoCrossProfileEmptyStateProvider.DevicePolicyBlockerEmptyState;
 import com.android.intentresolver.grid.ChooserGridAdapter;
 import com.android.intentresolver.icons.DefaultTargetDataLoader;
+import com.android.intentresolver.icons.TargetDataCache;
 import com.android.intentresolver.icons.TargetDataLoader;
+import com.android.intentresolver.inject.Background;
 import com.android.intentresolver.logging.EventLog;
 import com.android.intentresolver.measurements.Tracer;
 import com.android.intentresolver.model.AbstractResolverComparator;
@@ -95,23 +97,25 @@ import com.android.intentresolver.model.AppPredictionServiceResolverComparator;
 import com.android.intentresolver.model.ResolverRankerServiceResolverComparator;
 import com.android.intentresolver.shortcuts.AppPredictorFactory;
 import com.android.intentresolver.shortcuts.ShortcutLoader;
+import com.android.intentresolver.shortcuts.ShortcutSnapshotStore;
 import com.android.intentresolver.widget.ImagePreviewView;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.content.PackageMonitor;
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 
 import dagger.hilt.android.AndroidEntryPoint;
+import dagger.hilt.android.EntryPointAccessors;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.text.Collator;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Consumer;
@@ -176,6 +180,11 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
 
     @Inject public FeatureFlags mFeatureFlags;
     @Inject public EventLog mEventLog;
+    @Inject public TargetDataCache mTargetDataCache;
+    @Inject public ResolveQueryEngine mResolveQueryEngine;
+    @Inject public ResolveResultCache mResolveResultCache;
+    @Inject public ShortcutSnapshotStore mShortcutSnapshotStore;
+    @Inject @Background public Executor mBackgroundExecutor;
 
     private ChooserIntegratedDeviceComponents mIntegratedDeviceComponents;
 
@@ -249,6 +258,12 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
             super_onCreate(null);
             return;
         }
+        // Injected fields are not available until super.onCreate() so the cache is looked up here.
+        EntryPointAccessors.fromApplication(
+                        this, ResolveResultCache.ResolveResultCacheEntryPoint.class)
+                .resolveResultCache()
+                .startMonitoring(this);
+        mChooserRequest.getCallerTargetResolver().start(this);
         mPinnedSharedPrefs = getPinnedSharedPrefs(this);
         mMaxTargetsPerRow = getResources().getInteger(R.integer.config_chooser_max_targets_per_row);
         mShouldDisplayLandscape =
@@ -272,7 +287,7 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                 mChooserRequest.getInitialIntents(),
                 /* resolutionList= */ null,
                 /* supportsAlwaysUseOption= */ false,
-                new DefaultTargetDataLoader(this, getLifecycle(), false),
+                createTargetDataLoader(),
                 /* safeForwardingMode= */ true);
 
         getEventLog().logSharesheetTriggered();
@@ -310,13 +325,22 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                 createChooserActionFactory(),
                 mEnterTransitionAnimationDelegate,
                 new HeadlineGeneratorImpl(this));
+        mChooserContentPreviewUi.setOnContentPreviewReplacedListener(layout ->
+                adjustPreviewWidth(getResources().getConfiguration().orientation, layout));
+        mChooserContentPreviewUi.setOnListContentPreviewInvalidatedListener(() -> {
+            for (int i = 0; i < mChooserMultiProfilePagerAdapter.getItemCount(); i++) {
+                mChooserMultiProfilePagerAdapter.getAdapterForIndex(i)
+                        .notifyContentPreviewChanged();
+            }
+        });
 
         updateStickyContentPreview();
         if (shouldShowStickyContentPreview()
                 || mChooserMultiProfilePagerAdapter
                 .getCurrentRootAdapter().getSystemRowCount() != 0) {
-            getEventLog().logActionShareWithPreview(
-                    mChooserContentPreviewUi.getPreferredContentPreview());
+            // The preview type is only logged once it is final.
+            mChooserContentPreviewUi.whenPreviewTypeFinal(
+                    previewType -> getEventLog().logActionShareWithPreview(previewType));
         }
 
         mChooserShownTime = System.currentTimeMillis();
@@ -338,18 +362,18 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
             Log.d(TAG, "System Time Cost is " + systemCost);
         }
 
-        getEventLog().logShareStarted(
-                getReferrerPackageName(),
-                mChooserRequest.getTargetType(),
-                mChooserRequest.getCallerChooserTargets().size(),
-                (mChooserRequest.getInitialIntents() == null)
-                        ? 0 : mChooserRequest.getInitialIntents().length,
-                isWorkProfile(),
-                mChooserContentPreviewUi.getPreferredContentPreview(),
-                mChooserRequest.getTargetAction(),
-                mChooserRequest.getChooserActions().size(),
-                mChooserRequest.getModifyShareAction() != null
-        );
+        mChooserContentPreviewUi.whenPreviewTypeFinal(previewType ->
+                getEventLog().logShareStarted(
+                        getReferrerPackageName(),
+                        mChooserRequest.getTargetType(),
+                        mChooserRequest.getCallerChooserTargets().size(),
+                        (mChooserRequest.getInitialIntents() == null)
+                                ? 0 : mChooserRequest.getInitialIntents().length,
+                        isWorkProfile(),
+                        previewType,
+                        mChooserRequest.getTargetAction(),
+                        mChooserRequest.getChooserActions().size(),
+                        mChooserRequest.getModifyShareAction() != null));
 
         mEnterTransitionAnimationDelegate.postponeTransition();
     }
@@ -412,13 +436,25 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                 appPredictor,
                 userHandle,
                 targetIntentFilter,
-                callback);
+                callback,
+                mResolveQueryEngine,
+                mShortcutSnapshotStore);
     }
 
     static SharedPreferences getPinnedSharedPrefs(Context context) {
         return context.getSharedPreferences(PINNED_SHARED_PREFS_NAME, MODE_PRIVATE);
     }
 
+    private TargetDataLoader createTargetDataLoader() {
+        // Injected fields are not available until super.onCreate() so the cache is looked up
+        // lazily.
+        return new DefaultTargetDataLoader(
+                this,
+                getLifecycle(),
+                false,
+                () -> mFeatureFlags.targetDataCaching() ? mTargetDataCache : null);
+    }
+
     @Override
     protected ChooserMultiProfilePagerAdapter createMultiProfilePagerAdapter(
             Intent[] initialIntents,
@@ -556,6 +592,9 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         return new PackageMonitor() {
             @Override
             public void onSomePackagesChanged() {
+                // The process-wide monitors of the caches may only be notified after this one.
+                mResolveResultCache.invalidate();
+                mShortcutSnapshotStore.clear();
                 handlePackagesChanged(listAdapter);
             }
         };
@@ -782,12 +821,10 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                     ? getAnnotatedUserHandles().workProfileUserHandle
                     : getAnnotatedUserHandles().personalProfileUserHandle;
             if (mChooserMultiProfilePagerAdapter.getCurrentUserHandle() == defaultUser) {
-                mChooserMultiProfilePagerAdapter.getActiveListAdapter().addServiceResults(
-                        /* origTarget */ null,
+                mChooserMultiProfilePagerAdapter.getActiveListAdapter().addCallerTargets(
+                        mChooserRequest.getCallerTargetResolver(),
                         new ArrayList<>(mChooserRequest.getCallerChooserTargets()),
-                        TARGET_TYPE_DEFAULT,
-                        /* directShareShortcutInfoCache */ Collections.emptyMap(),
-                        /* directShareAppTargetCache */ Collections.emptyMap());
+                        getMainExecutor());
             }
         }
     }
@@ -1273,7 +1310,8 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         if (appPredictor != null) {
             resolverComparator = new AppPredictionServiceResolverComparator(this, getTargetIntent(),
                     getReferrerPackageName(), appPredictor, userHandle, getEventLog(),
-                    getIntegratedDeviceComponents().getNearbySharingComponent());
+                    getIntegratedDeviceComponents().getNearbySharingComponent(),
+                    mBackgroundExecutor);
         } else {
             resolverComparator =
                     new ResolverRankerServiceResolverComparator(
@@ -1557,6 +1595,9 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         ChooserListAdapter adapter =
                 mChooserMultiProfilePagerAdapter.getListAdapterForUserHandle(userHandle);
         if (adapter != null) {
+            if (result.getReplacesSnapshot()) {
+                adapter.removeShortcutServiceTargets();
+            }
             for (ShortcutLoader.ShortcutResultInfo resultInfo : result.getShortcutsByApp()) {
                 adapter.addServiceResults(
                         resultInfo.getAppTarget(),
@@ -1567,7 +1608,14 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                         mDirectShareShortcutInfoCache,
                         mDirectShareAppTargetCache);
             }
-            adapter.completeServiceTargetLoading();
+            if (!result.isSnapshot()) {
+                adapter.completeServiceTargetLoading();
+            }
+        }
+        sendVoiceChoicesIfNeeded();
+        // The shortcuts of a previous session are shown until the loaded ones are delivered.
+        if (result.isSnapshot()) {
+            return;
         }
 
         if (mMultiProfilePagerAdapter.getActiveListAdapter() == adapter) {
@@ -1577,7 +1625,6 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
             }
         }
         logDirectShareTargetReceived(userHandle);
-        sendVoiceChoicesIfNeeded();
         getEventLog().logSharesheetDirectLoadComplete();
     }
 
@@ -1757,6 +1804,7 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         if (mResolverDrawerLayout != null) {
             mResolverDrawerLayout.scrollNestedScrollableChildBackToTop();
         }
+        mChooserMultiProfilePagerAdapter.prioritizeActiveProfileTargetDataLoading();
     }
 
     @Override
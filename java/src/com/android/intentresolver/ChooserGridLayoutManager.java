@@ -19,6 +19,7 @@ package com.android.intentresolver;
 import android.content.Context;
 import android.util.AttributeSet;
 
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -28,8 +29,19 @@ import androidx.recyclerview.widget.RecyclerView;
  */
 public class ChooserGridLayoutManager extends GridLayoutManager {
 
+    /** Listens to changes of the range of the visible adapter positions. */
+    public interface OnVisibleRangeChangedListener {
+        /** Invoked with the first and the last visible adapter positions, inclusive. */
+        void onVisibleRangeChanged(int firstVisiblePosition, int lastVisiblePosition);
+    }
+
     private boolean mVerticalScrollEnabled = true;
 
+    @Nullable
+    private OnVisibleRangeChangedListener mOnVisibleRangeChangedListener;
+    private int mFirstVisiblePosition = RecyclerView.NO_POSITION;
+    private int mLastVisiblePosition = RecyclerView.NO_POSITION;
+
     /**
      * Constructor used when layout manager is set in XML by RecyclerView attribute
      * "layoutManager". If spanCount is not specified in the XML, it defaults to a
@@ -78,4 +90,51 @@ public class ChooserGridLayoutManager extends GridLayoutManager {
     public boolean canScrollVertically() {
         return mVerticalScrollEnabled && super.canScrollVertically();
     }
+
+    public void setOnVisibleRangeChangedListener(
+            @Nullable OnVisibleRangeChangedListener listener) {
+        mOnVisibleRangeChangedListener = listener;
+        mFirstVisiblePosition = RecyclerView.NO_POSITION;
+        mLastVisiblePosition = RecyclerView.NO_POSITION;
+    }
+
+    /**
+     * Notify the {@link OnVisibleRangeChangedListener} about the current visible range even if
+     * it has not changed since the last notification.
+     */
+    public void dispatchVisibleRange() {
+        mFirstVisiblePosition = RecyclerView.NO_POSITION;
+        mLastVisiblePosition = RecyclerView.NO_POSITION;
+        maybeDispatchVisibleRange();
+    }
+
+    @Override
+    public void onLayoutCompleted(RecyclerView.State state) {
+        super.onLayoutCompleted(state);
+        // Any layout may rebind the visible positions to different targets.
+        dispatchVisibleRange();
+    }
+
+    @Override
+    public int scrollVerticallyBy(
+            int dy, RecyclerView.Recycler recycler, RecyclerView.State state) {
+        int scrolled = super.scrollVerticallyBy(dy, recycler, state);
+        maybeDispatchVisibleRange();
+        return scrolled;
+    }
+
+    private void maybeDispatchVisibleRange() {
+        if (mOnVisibleRangeChangedListener == null) {
+            return;
+        }
+        int first = findFirstVisibleItemPosition();
+        int last = findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION
+                || (first == mFirstVisiblePosition && last == mLastVisiblePosition)) {
+            return;
+        }
+        mFirstVisiblePosition = first;
+        mLastVisiblePosition = last;
+        mOnVisibleRangeChangedListener.onVisibleRangeChanged(first, last);
+    }
 }
@@ -16,6 +16,7 @@
 
 package com.android.intentresolver;
 
+import static com.android.intentresolver.ChooserActivity.TARGET_TYPE_DEFAULT;
 import static com.android.intentresolver.ChooserActivity.TARGET_TYPE_SHORTCUTS_FROM_PREDICTION_SERVICE;
 import static com.android.intentresolver.ChooserActivity.TARGET_TYPE_SHORTCUTS_FROM_SHORTCUT_MANAGER;
 
@@ -46,6 +47,8 @@ import android.widget.TextView;
 import androidx.annotation.MainThread;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
 
 import com.android.intentresolver.chooser.DisplayResolveInfo;
 import com.android.intentresolver.chooser.MultiDisplayResolveInfo;
@@ -54,16 +57,18 @@ import com.android.intentresolver.chooser.SelectableTargetInfo;
 import com.android.intentresolver.chooser.TargetInfo;
 import com.android.intentresolver.icons.TargetDataLoader;
 import com.android.intentresolver.logging.EventLog;
+import com.android.intentresolver.util.FrameUpdateCoalescer;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.config.sysui.SystemUiDeviceConfigFlags;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class ChooserListAdapter extends ResolverListAdapter {
@@ -101,7 +106,8 @@ public class ChooserListAdapter extends ResolverListAdapter {
 
     private final EventLog mEventLog;
 
-    private final Set<TargetInfo> mRequestedIcons = new HashSet<>();
+    // The callbacks of the requested direct share icon loads, by target.
+    private final Map<TargetInfo, Consumer<Drawable>> mRequestedIcons = new HashMap<>();
 
     @Nullable
     private final PackageChangeCallback mPackageChangeCallback;
@@ -114,6 +120,13 @@ public class ChooserListAdapter extends ResolverListAdapter {
 
     private final ShortcutSelectionLogic mShortcutSelectionLogic;
 
+    @Nullable
+    private CallerTargetResolver mCallerTargetResolver;
+    // Whether caller-provided targets are being resolved, and the completion of the service target
+    // loading is held back until they are added.
+    private boolean mCallerTargetsPending;
+    private boolean mServiceTargetLoadingCompletePending;
+
     // Sorted list of DisplayResolveInfos for the alphabetical app section.
     private final List<DisplayResolveInfo> mSortedList = new ArrayList<>();
 
@@ -185,9 +198,11 @@ public class ChooserListAdapter extends ResolverListAdapter {
                 targetDataLoader,
                 packageChangeCallback,
                 AsyncTask.SERIAL_EXECUTOR,
-                context.getMainExecutor());
+                context.getMainExecutor(),
+                FrameUpdateCoalescer.NEXT_FRAME_EXECUTOR);
     }
 
+    /** The view updates are applied on the {@code mainExecutor}. */
     @VisibleForTesting
     public ChooserListAdapter(
             Context context,
@@ -208,6 +223,48 @@ public class ChooserListAdapter extends ResolverListAdapter {
             @Nullable PackageChangeCallback packageChangeCallback,
             Executor bgExecutor,
             Executor mainExecutor) {
+        this(
+                context,
+                payloadIntents,
+                initialIntents,
+                rList,
+                filterLastUsed,
+                resolverListController,
+                userHandle,
+                targetIntent,
+                referrerFillInIntent,
+                resolverListCommunicator,
+                packageManager,
+                eventLog,
+                maxRankedTargets,
+                initialIntentsUserSpace,
+                targetDataLoader,
+                packageChangeCallback,
+                bgExecutor,
+                mainExecutor,
+                mainExecutor);
+    }
+
+    private ChooserListAdapter(
+            Context context,
+            List<Intent> payloadIntents,
+            Intent[] initialIntents,
+            List<ResolveInfo> rList,
+            boolean filterLastUsed,
+            ResolverListController resolverListController,
+            UserHandle userHandle,
+            Intent targetIntent,
+            Intent referrerFillInIntent,
+            ResolverListCommunicator resolverListCommunicator,
+            PackageManager packageManager,
+            EventLog eventLog,
+            int maxRankedTargets,
+            UserHandle initialIntentsUserSpace,
+            TargetDataLoader targetDataLoader,
+            @Nullable PackageChangeCallback packageChangeCallback,
+            Executor bgExecutor,
+            Executor mainExecutor,
+            Executor frameExecutor) {
         // Don't send the initial intents through the shared ResolverActivity path,
         // we want to separate them into a different section.
         super(
@@ -223,7 +280,8 @@ public class ChooserListAdapter extends ResolverListAdapter {
                 initialIntentsUserSpace,
                 targetDataLoader,
                 bgExecutor,
-                mainExecutor);
+                mainExecutor,
+                frameExecutor);
 
         mMaxRankedTargets = maxRankedTargets;
         mReferrerFillInIntent = referrerFillInIntent;
@@ -339,6 +397,7 @@ public class ChooserListAdapter extends ResolverListAdapter {
     @Override
     public void onBindView(View view, TargetInfo info, int position) {
         final ViewHolder holder = (ViewHolder) view.getTag();
+        bindTarget(holder, info);
 
         holder.reset();
         // Always remove the spacing listener, attach as needed to direct share targets below.
@@ -415,18 +474,24 @@ public class ChooserListAdapter extends ResolverListAdapter {
     }
 
     private void loadDirectShareIcon(SelectableTargetInfo info) {
-        if (mRequestedIcons.add(info)) {
-            mTargetDataLoader.loadDirectShareIcon(
-                    info,
-                    getUserHandle(),
-                    (drawable) -> onDirectShareIconLoaded(info, drawable));
+        if (!mRequestedIcons.containsKey(info)) {
+            final Consumer<Drawable> callback =
+                    (drawable) -> onDirectShareIconLoaded(info, drawable);
+            mRequestedIcons.put(info, callback);
+            mTargetDataLoader.loadDirectShareIcon(info, getUserHandle(), callback);
         }
     }
 
+    @Override
+    protected void cancelTargetDataLoading(TargetInfo info) {
+        super.cancelTargetDataLoading(info);
+        cancelTargetDataLoading(info, mRequestedIcons.remove(info));
+    }
+
     private void onDirectShareIconLoaded(SelectableTargetInfo mTargetInfo, Drawable icon) {
         if (icon != null && !mTargetInfo.hasDisplayIcon()) {
             mTargetInfo.getDisplayIconHolder().setDisplayIcon(icon);
-            notifyDataSetChanged();
+            notifyTargetChanged(mTargetInfo);
         }
     }
 
@@ -472,9 +537,7 @@ public class ChooserListAdapter extends ResolverListAdapter {
 
             @Override
             protected void onPostExecute(List<DisplayResolveInfo> newList) {
-                mSortedList.clear();
-                mSortedList.addAll(newList);
-                notifyDataSetChanged();
+                onAlphabeticalListUpdated(newList);
             }
 
             private void loadMissingLabels(List<DisplayResolveInfo> targets) {
@@ -485,12 +548,62 @@ public class ChooserListAdapter extends ResolverListAdapter {
         }.execute();
     }
 
+    /**
+     * Replaces the alphabetical list. If the list is shown both before and after the update, and
+     * the changes can be reported by item, only the inserted, removed, moved and changed targets
+     * are reported.
+     */
+    @MainThread
+    private void onAlphabeticalListUpdated(List<DisplayResolveInfo> newList) {
+        final List<DisplayResolveInfo> oldList = new ArrayList<>(mSortedList);
+        final boolean wasShown = getAlphaTargetCount() > 0;
+        mSortedList.clear();
+        mSortedList.addAll(newList);
+        final ListUpdateCallback callback = getListUpdateCallback();
+        if (callback == null || !wasShown || getAlphaTargetCount() == 0) {
+            notifyDataSetChanged();
+            return;
+        }
+        Trace.beginSection("ChooserListAdapter#diffAlphabeticalList");
+        final int offset =
+                getServiceTargetCount() + getCallerTargetCount() + getRankedTargetCount();
+        DiffUtil.calculateDiff(new AlphabeticalListDiffCallback(oldList, newList))
+                .dispatchUpdatesTo(new ListUpdateCallback() {
+                    @Override
+                    public void onInserted(int position, int count) {
+                        callback.onInserted(offset + position, count);
+                    }
+
+                    @Override
+                    public void onRemoved(int position, int count) {
+                        callback.onRemoved(offset + position, count);
+                    }
+
+                    @Override
+                    public void onMoved(int fromPosition, int toPosition) {
+                        callback.onMoved(offset + fromPosition, offset + toPosition);
+                    }
+
+                    @Override
+                    public void onChanged(int position, int count, @Nullable Object payload) {
+                        callback.onChanged(offset + position, count, payload);
+                    }
+                });
+        Trace.endSection();
+    }
+
     @Override
     public int getCount() {
         return getRankedTargetCount() + getAlphaTargetCount()
                 + getSelectableServiceTargetCount() + getCallerTargetCount();
     }
 
+    @Override
+    protected int getPositionCount() {
+        return getServiceTargetCount() + getCallerTargetCount() + getRankedTargetCount()
+                + getAlphaTargetCount();
+    }
+
     @Override
     public int getUnfilteredCount() {
         int appTargets = super.getUnfilteredCount();
@@ -657,6 +770,36 @@ public class ChooserListAdapter extends ResolverListAdapter {
     }
 
 
+    /**
+     * Adds the caller-provided {@code targets} on the {@code executor} once the
+     * {@code callerTargetResolver} has resolved them for this adapter's user. Until then, the
+     * completion of the service target loading is held back, so that they aren't dropped as late
+     * results.
+     */
+    public void addCallerTargets(
+            CallerTargetResolver callerTargetResolver,
+            List<ChooserTarget> targets,
+            Executor executor) {
+        mCallerTargetResolver = callerTargetResolver;
+        mCallerTargetsPending = true;
+        callerTargetResolver.whenResolved(
+                mContext.createContextAsUser(getUserHandle(), 0),
+                executor,
+                () -> {
+                    mCallerTargetsPending = false;
+                    addServiceResults(
+                            /* origTarget */ null,
+                            targets,
+                            TARGET_TYPE_DEFAULT,
+                            /* directShareToShortcutInfos */ Collections.emptyMap(),
+                            /* directShareToAppTargets */ Collections.emptyMap());
+                    if (mServiceTargetLoadingCompletePending) {
+                        mServiceTargetLoadingCompletePending = false;
+                        completeServiceTargetLoading();
+                    }
+                });
+    }
+
     /**
      * Evaluate targets for inclusion in the direct share area. May not be included
      * if score is too low.
@@ -671,6 +814,7 @@ public class ChooserListAdapter extends ResolverListAdapter {
         if ((mServiceTargets.size() == 1) && mServiceTargets.get(0).isEmptyTargetInfo()) {
             return;
         }
+        final int serviceTargetCount = getServiceTargetCount();
         boolean isShortcutResult = targetType == TARGET_TYPE_SHORTCUTS_FROM_SHORTCUT_MANAGER
                 || targetType == TARGET_TYPE_SHORTCUTS_FROM_PREDICTION_SERVICE;
         boolean isUpdated = mShortcutSelectionLogic.addServiceResults(
@@ -684,9 +828,10 @@ public class ChooserListAdapter extends ResolverListAdapter {
                 getTargetIntent(),
                 mReferrerFillInIntent,
                 mMaxRankedTargets,
-                mServiceTargets);
+                mServiceTargets,
+                mCallerTargetResolver);
         if (isUpdated) {
-            notifyDataSetChanged();
+            onServiceTargetsUpdated(serviceTargetCount);
         }
     }
 
@@ -713,17 +858,52 @@ public class ChooserListAdapter extends ResolverListAdapter {
         return score;
     }
 
+    /**
+     * Drops the direct share targets made from shortcuts, e.g. shortcuts of a previous session
+     * being replaced with the up-to-date ones, and accepts service results again. The
+     * caller-provided targets are kept.
+     */
+    public void removeShortcutServiceTargets() {
+        final int serviceTargetCount = getServiceTargetCount();
+        mServiceTargets.removeIf(o -> o.getDirectShareShortcutInfo() != null);
+        mServiceTargets.removeIf(o -> o.isEmptyTargetInfo());
+        if (mServiceTargets.isEmpty()) {
+            createPlaceHolders();
+        }
+        onServiceTargetsUpdated(serviceTargetCount);
+    }
+
     /**
      * Calling this marks service target loading complete, and will attempt to no longer
      * update the direct share area.
      */
     public void completeServiceTargetLoading() {
+        if (mCallerTargetsPending) {
+            mServiceTargetLoadingCompletePending = true;
+            return;
+        }
+        final int serviceTargetCount = getServiceTargetCount();
         mServiceTargets.removeIf(o -> o.isPlaceHolderTargetInfo());
         if (mServiceTargets.isEmpty()) {
             mServiceTargets.add(NotSelectableTargetInfo.newEmptyTargetInfo());
             mEventLog.logSharesheetEmptyDirectShareRow();
         }
-        notifyDataSetChanged();
+        onServiceTargetsUpdated(serviceTargetCount);
+    }
+
+    /**
+     * Schedules the direct share targets to be rebound at the next frame. If their number has
+     * changed, the positions of all the following targets have shifted and the observers are
+     * notified right away, so no stale position is bound in the meantime.
+     */
+    private void onServiceTargetsUpdated(int previousServiceTargetCount) {
+        if (getServiceTargetCount() != previousServiceTargetCount) {
+            notifyDataSetChanged();
+            return;
+        }
+        for (TargetInfo target : mServiceTargets) {
+            notifyTargetChanged(target);
+        }
     }
 
     /**
@@ -745,9 +925,51 @@ public class ChooserListAdapter extends ResolverListAdapter {
         processSortedList(sortedComponents, doPostProcessing);
         if (doPostProcessing) {
             mResolverListCommunicator.updateProfileViewButton();
-            //TODO: this method is different from super's only in that `notifyDataSetChanged` is
-            // called conditionally here; is it really important?
-            notifyDataSetChanged();
+            //TODO: this method is different from super's only in that `notifyDisplayListChanged`
+            // is called conditionally here; is it really important?
+            notifyDisplayListChanged();
+        }
+    }
+
+    /**
+     * Matches the alphabetical list targets by app and user. The grouped targets are created anew
+     * with each update, so only the identical targets have the same contents.
+     */
+    private static class AlphabeticalListDiffCallback extends DiffUtil.Callback {
+        private final List<DisplayResolveInfo> mOldList;
+        private final List<DisplayResolveInfo> mNewList;
+
+        AlphabeticalListDiffCallback(
+                List<DisplayResolveInfo> oldList, List<DisplayResolveInfo> newList) {
+            mOldList = oldList;
+            mNewList = newList;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            final DisplayResolveInfo oldItem = mOldList.get(oldItemPosition);
+            final DisplayResolveInfo newItem = mNewList.get(newItemPosition);
+            return oldItem.isMultiDisplayResolveInfo() == newItem.isMultiDisplayResolveInfo()
+                    && oldItem.getResolvedComponentName().equals(
+                            newItem.getResolvedComponentName())
+                    && Objects.equals(
+                            oldItem.getResolveInfo().userHandle,
+                            newItem.getResolveInfo().userHandle);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldList.get(oldItemPosition) == mNewList.get(newItemPosition);
         }
     }
 }
@@ -33,6 +33,7 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 
 import java.util.Optional;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 /**
@@ -115,6 +116,8 @@ public class ChooserMultiProfilePagerAdapter extends MultiProfilePagerAdapter<
                         () -> makeProfileView(context, featureFlags),
                 bottomPaddingOverrideSupplier);
         mAdapterBinder = adapterBinder;
+        mAdapterBinder.setActiveAdapterChecker(
+                gridAdapter -> gridAdapter.getListAdapter() == getActiveListAdapter());
         mBottomPaddingOverrideSupplier = bottomPaddingOverrideSupplier;
     }
 
@@ -136,6 +139,17 @@ public class ChooserMultiProfilePagerAdapter extends MultiProfilePagerAdapter<
         }
     }
 
+    /**
+     * Prioritize icon and label loads for the targets visible in the active profile, e.g. after a
+     * profile tab switch.
+     */
+    public void prioritizeActiveProfileTargetDataLoading() {
+        RecyclerView.LayoutManager layoutManager = getActiveAdapterView().getLayoutManager();
+        if (layoutManager instanceof ChooserGridLayoutManager) {
+            ((ChooserGridLayoutManager) layoutManager).dispatchVisibleRange();
+        }
+    }
+
     private static ViewGroup makeProfileView(
             Context context, FeatureFlags featureFlags) {
         LayoutInflater inflater = LayoutInflater.from(context);
@@ -186,6 +200,7 @@ public class ChooserMultiProfilePagerAdapter extends MultiProfilePagerAdapter<
     private static class ChooserProfileAdapterBinder implements
             AdapterBinder<RecyclerView, ChooserGridAdapter> {
         private int mMaxTargetsPerRow;
+        private Predicate<ChooserGridAdapter> mIsActiveAdapter = gridAdapter -> true;
 
         ChooserProfileAdapterBinder(int maxTargetsPerRow) {
             mMaxTargetsPerRow = maxTargetsPerRow;
@@ -195,6 +210,10 @@ public class ChooserMultiProfilePagerAdapter extends MultiProfilePagerAdapter<
             mMaxTargetsPerRow = maxTargetsPerRow;
         }
 
+        public void setActiveAdapterChecker(Predicate<ChooserGridAdapter> isActiveAdapter) {
+            mIsActiveAdapter = isActiveAdapter;
+        }
+
         @Override
         public void bind(
                 RecyclerView recyclerView, ChooserGridAdapter chooserGridAdapter) {
@@ -209,6 +228,16 @@ public class ChooserMultiProfilePagerAdapter extends MultiProfilePagerAdapter<
                                     : glm.getSpanCount();
                         }
                     });
+            if (glm instanceof ChooserGridLayoutManager) {
+                // Only the active profile's viewport drives the load priorities.
+                ((ChooserGridLayoutManager) glm).setOnVisibleRangeChangedListener(
+                        (firstVisiblePosition, lastVisiblePosition) -> {
+                            if (mIsActiveAdapter.test(chooserGridAdapter)) {
+                                chooserGridAdapter.onVisibleRangeChanged(
+                                        firstVisiblePosition, lastVisiblePosition);
+                            }
+                        });
+            }
         }
     }
 }
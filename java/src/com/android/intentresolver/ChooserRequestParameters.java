@@ -76,6 +76,7 @@ public class ChooserRequestParameters {
     private final Intent mReferrerFillInIntent;
     private final ImmutableList<ComponentName> mFilteredComponentNames;
     private final ImmutableList<ChooserTarget> mCallerChooserTargets;
+    private final CallerTargetResolver mCallerTargetResolver;
     private final @NonNull ImmutableList<ChooserAction> mChooserActions;
     private final ChooserAction mModifyShareAction;
     private final boolean mRetainInOnStop;
@@ -137,6 +138,7 @@ public class ChooserRequestParameters {
                 : ImmutableList.of();
 
         mCallerChooserTargets = parseCallerTargetsFromClientIntent(clientIntent);
+        mCallerTargetResolver = new CallerTargetResolver(mCallerChooserTargets, mTarget);
 
         mRetainInOnStop = clientIntent.getBooleanExtra(
                 ChooserActivity.EXTRA_PRIVATE_RETAIN_IN_ON_STOP, false);
@@ -192,6 +194,11 @@ public class ChooserRequestParameters {
         return mCallerChooserTargets;
     }
 
+    /** Resolves the {@link #getCallerChooserTargets()} once per user, off the main thread. */
+    public CallerTargetResolver getCallerTargetResolver() {
+        return mCallerTargetResolver;
+    }
+
     @NonNull
     public ImmutableList<ChooserAction> getChooserActions() {
         return mChooserActions;
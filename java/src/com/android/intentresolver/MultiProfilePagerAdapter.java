@@ -359,6 +359,17 @@ public class MultiProfilePagerAdapter<
         return result;
     }
 
+    /**
+     * Starts resolving the targets of the tab that is not currently visible to the user, if such
+     * one exists, so that the resolution proceeds in parallel with the rebuild of the active tab.
+     * The result is used by the next {@link #rebuildInactiveTab}.
+     */
+    public void prefetchInactiveTab() {
+        if (getItemCount() > 1) {
+            getInactiveListAdapter().prefetchResolveList();
+        }
+    }
+
     /**
      * Rebuilds the tab that is not currently visible to the user, if such one exists.
      * <p>Returns {@code true} if rebuild has completed.
@@ -384,6 +395,7 @@ public class MultiProfilePagerAdapter<
 
     private boolean rebuildTab(ListAdapterT activeListAdapter, boolean doPostProcessing) {
         if (shouldSkipRebuild(activeListAdapter)) {
+            activeListAdapter.cancelResolveListPrefetch();
             activeListAdapter.postListReadyRunnable(doPostProcessing, /* rebuildCompleted */ true);
             return false;
         }
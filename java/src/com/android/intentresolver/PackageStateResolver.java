@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tells whether the packages of a user are enabled, i.e. installed, enabled and not suspended,
+ * fetching the state of each package from the PackageManager at most once. States can also be
+ * recorded from applications already fetched along with their resolved activities.
+ */
+public final class PackageStateResolver {
+    private final PackageManager mPackageManager;
+    private final ResolveQueryEngine mQueryEngine;
+    private final Map<String, Boolean> mEnabledStates = new ConcurrentHashMap<>();
+    private final AtomicInteger mFetchCount = new AtomicInteger();
+
+    public PackageStateResolver(PackageManager packageManager, ResolveQueryEngine queryEngine) {
+        mPackageManager = packageManager;
+        mQueryEngine = queryEngine;
+    }
+
+    /** Records the state of the package of the {@code appInfo}, so that it isn't fetched. */
+    public void addKnownState(ApplicationInfo appInfo) {
+        mEnabledStates.put(appInfo.packageName, isEnabled(appInfo));
+    }
+
+    /**
+     * Fetches the states of the {@code packageNames} not known yet, in parallel and once per
+     * package, ahead of their {@link #isPackageEnabled} checks.
+     */
+    public void resolve(Iterable<String> packageNames) {
+        final Set<String> unknownPackages = new LinkedHashSet<>();
+        for (String packageName : packageNames) {
+            if (!TextUtils.isEmpty(packageName) && !mEnabledStates.containsKey(packageName)) {
+                unknownPackages.add(packageName);
+            }
+        }
+        if (unknownPackages.isEmpty()) {
+            return;
+        }
+        final List<String> packages = new ArrayList<>(unknownPackages);
+        final List<Callable<Boolean>> queries = new ArrayList<>(packages.size());
+        for (String packageName : packages) {
+            queries.add(() -> fetchEnabledState(packageName));
+        }
+        final List<Boolean> states = mQueryEngine.runAll(queries);
+        for (int i = 0; i < packages.size(); i++) {
+            mEnabledStates.put(packages.get(i), states.get(i));
+        }
+    }
+
+    /** Whether the package is enabled; its state is fetched if it isn't known yet. */
+    public boolean isPackageEnabled(String packageName) {
+        if (TextUtils.isEmpty(packageName)) {
+            return false;
+        }
+        Boolean state = mEnabledStates.get(packageName);
+        if (state == null) {
+            state = fetchEnabledState(packageName);
+            mEnabledStates.put(packageName, state);
+        }
+        return state;
+    }
+
+    /** The number of package states fetched from the PackageManager. */
+    public int getFetchCount() {
+        return mFetchCount.get();
+    }
+
+    private boolean fetchEnabledState(String packageName) {
+        mFetchCount.incrementAndGet();
+        try {
+            return isEnabled(mPackageManager.getApplicationInfo(
+                    packageName, PackageManager.ApplicationInfoFlags.of(0)));
+        } catch (PackageManager.NameNotFoundException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static boolean isEnabled(ApplicationInfo appInfo) {
+        return appInfo.enabled && (appInfo.flags & ApplicationInfo.FLAG_SUSPENDED) == 0;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import androidx.annotation.VisibleForTesting;
+
+import dagger.hilt.EntryPoint;
+import dagger.hilt.InstallIn;
+import dagger.hilt.components.SingletonComponent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Runs the PackageManager queries that resolve the targets, e.g. one per intent or one per
+ * profile, in parallel on a small process-wide pool. The calling thread takes part in running the
+ * queries it waits for, so a query run on the pool can itself wait for other queries.
+ */
+@Singleton
+public final class ResolveQueryEngine {
+    @VisibleForTesting
+    static final int MAX_PARALLEL_QUERIES = 3;
+
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    private final Executor mExecutor;
+
+    @Inject
+    public ResolveQueryEngine() {
+        this(createExecutor());
+    }
+
+    @VisibleForTesting
+    ResolveQueryEngine(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Runs the {@code queries} in parallel and returns their results in the order of the queries.
+     * An exception thrown by a query is rethrown, after all the queries have completed.
+     */
+    public <T> List<T> runAll(List<Callable<T>> queries) {
+        final int count = queries.size();
+        final List<FutureTask<T>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tasks.add(new FutureTask<>(queries.get(i)));
+        }
+        // The first query is always run on this thread.
+        for (int i = 1; i < count; i++) {
+            mExecutor.execute(tasks.get(i));
+        }
+        // A task is only run once: those already taken by the pool are skipped here.
+        for (int i = 0; i < count; i++) {
+            tasks.get(i).run();
+        }
+        final List<T> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(getResult(tasks.get(i)));
+        }
+        return results;
+    }
+
+    /**
+     * Starts running the {@code query} on the pool. Its result is to be retrieved with
+     * {@link #getResult}, which runs the query on the calling thread if it hasn't started yet.
+     */
+    public <T> Future<T> submit(Callable<T> query) {
+        final FutureTask<T> task = new FutureTask<>(query);
+        mExecutor.execute(task);
+        return task;
+    }
+
+    /**
+     * Starts running the {@code task} on the pool, e.g. a task notifying its completion. As with
+     * {@link #submit(Callable)}, {@link #getResult} runs it on the calling thread if it hasn't
+     * started yet.
+     */
+    public <T> void submit(FutureTask<T> task) {
+        mExecutor.execute(task);
+    }
+
+    /**
+     * Waits for the result of the query. A query {@link #submit}ted but not started yet is run on
+     * the calling thread.
+     */
+    public static <T> T getResult(Future<T> query) {
+        if (query instanceof FutureTask) {
+            ((FutureTask<T>) query).run();
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return query.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static Executor createExecutor() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                MAX_PARALLEL_QUERIES,
+                MAX_PARALLEL_QUERIES,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> new Thread(
+                        runnable, "intentresolver-resolve-" + threadCount.incrementAndGet()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /** Provides the engine to components that are not created by Hilt e.g. ResolverActivity. */
+    @EntryPoint
+    @InstallIn(SingletonComponent.class)
+    public interface ResolveQueryEngineEntryPoint {
+        ResolveQueryEngine resolveQueryEngine();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ResolveInfo;
+import android.os.UserHandle;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.internal.content.PackageMonitor;
+
+import dagger.hilt.EntryPoint;
+import dagger.hilt.InstallIn;
+import dagger.hilt.components.SingletonComponent;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * A process-wide cache of the activities an intent resolves to, so that a chooser session started
+ * for the same kind of intent as a previous one doesn't query the PackageManager again. The
+ * entries are keyed by the parts of the intent that take part in the resolution, the query flags
+ * and the user.
+ * <p>The cache is only used once it {@link #startMonitoring monitors} package changes, as any
+ * package change drops all the entries. Intents with data are not cached, as what they resolve to
+ * also depends on the state of the app links.
+ */
+@Singleton
+public final class ResolveResultCache {
+    private static final String TAG = "ResolveResultCache";
+
+    @VisibleForTesting
+    static final int MAX_ENTRIES = 16;
+
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final LinkedHashMap<Key, List<ResolveInfo>> mEntries =
+            new LinkedHashMap<>(MAX_ENTRIES, 0.75f, /* accessOrder= */ true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, List<ResolveInfo>> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    // Bumped by each invalidation, so that a query started before it doesn't fill the cache.
+    @GuardedBy("mLock")
+    private int mGeneration;
+    @GuardedBy("mLock")
+    private boolean mEnabled;
+    @Nullable
+    @GuardedBy("mLock")
+    private PackageMonitor mPackageMonitor;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    @Inject
+    public ResolveResultCache() {}
+
+    /**
+     * Starts invalidating the cache on the package changes of all the users, for as long as the
+     * process lives, and enables it. Does nothing if this has already been done.
+     */
+    public void startMonitoring(Context context) {
+        synchronized (mLock) {
+            if (mPackageMonitor != null) {
+                return;
+            }
+            mPackageMonitor = new PackageMonitor() {
+                @Override
+                public void onSomePackagesChanged() {
+                    invalidate();
+                }
+            };
+            try {
+                mPackageMonitor.register(
+                        context.getApplicationContext(),
+                        /* thread= */ null,
+                        UserHandle.ALL,
+                        /* externalStorage= */ true);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Unable to monitor package changes, not caching", e);
+                mPackageMonitor = null;
+                return;
+            }
+            setEnabled(true);
+        }
+    }
+
+    @VisibleForTesting
+    void setEnabled(boolean enabled) {
+        synchronized (mLock) {
+            mEnabled = enabled;
+            if (!enabled) {
+                mEntries.clear();
+                mGeneration++;
+            }
+        }
+    }
+
+    /**
+     * Returns what the {@code intent} resolves to with the {@code flags} for the {@code user}:
+     * the cached result if any, otherwise the result of the {@code query}, which is then cached.
+     * The returned list and its items are not shared with other callers.
+     */
+    public List<ResolveInfo> getOrQuery(
+            Intent intent, int flags, UserHandle user, Supplier<List<ResolveInfo>> query) {
+        if (!isCacheable(intent)) {
+            return query.get();
+        }
+        final Key key = new Key(intent, flags, user);
+        final boolean enabled;
+        final int generation;
+        synchronized (mLock) {
+            enabled = mEnabled;
+            generation = mGeneration;
+            final List<ResolveInfo> cached = enabled ? mEntries.get(key) : null;
+            if (cached != null) {
+                mHitCount.incrementAndGet();
+                return copyOf(cached);
+            }
+        }
+        if (!enabled) {
+            return query.get();
+        }
+        mMissCount.incrementAndGet();
+        final List<ResolveInfo> result = query.get();
+        if (result != null) {
+            final List<ResolveInfo> entry = copyOf(result);
+            synchronized (mLock) {
+                if (generation == mGeneration) {
+                    mEntries.put(key, entry);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Drops all the entries, e.g. as a package has changed. */
+    public void invalidate() {
+        synchronized (mLock) {
+            mEntries.clear();
+            mGeneration++;
+        }
+    }
+
+    /** The number of queries answered from the cache. */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /** The number of cacheable queries that were run as they had no entry. */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    private static boolean isCacheable(Intent intent) {
+        return intent.getData() == null && intent.getSelector() == null;
+    }
+
+    private static List<ResolveInfo> copyOf(List<ResolveInfo> infos) {
+        final List<ResolveInfo> copy = new ArrayList<>(infos.size());
+        for (int i = 0, size = infos.size(); i < size; i++) {
+            copy.add(new ResolveInfo(infos.get(i)));
+        }
+        return copy;
+    }
+
+    private static final class Key {
+        // Only holds the fields of the intent taking part in the resolution.
+        private final Intent mFilter;
+        private final int mIntentFlags;
+        private final int mQueryFlags;
+        private final int mUserId;
+
+        Key(Intent intent, int queryFlags, UserHandle user) {
+            mFilter = intent.cloneFilter();
+            mIntentFlags = intent.getFlags();
+            mQueryFlags = queryFlags;
+            mUserId = user.getIdentifier();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mIntentFlags == other.mIntentFlags
+                    && mQueryFlags == other.mQueryFlags
+                    && mUserId == other.mUserId
+                    && mFilter.filterEquals(other.mFilter);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mFilter.filterHashCode();
+            result = 31 * result + mIntentFlags;
+            result = 31 * result + mQueryFlags;
+            result = 31 * result + mUserId;
+            return result;
+        }
+    }
+
+    /** Provides the cache to components that are not created by Hilt e.g. ResolverActivity. */
+    @EntryPoint
+    @InstallIn(SingletonComponent.class)
+    public interface ResolveResultCacheEntryPoint {
+        ResolveResultCache resolveResultCache();
+    }
+}
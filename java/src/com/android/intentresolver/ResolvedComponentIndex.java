@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver;
+
+import android.content.pm.ActivityInfo;
+import android.content.pm.ResolveInfo;
+
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index by component of a list of {@link ResolvedComponentInfo}s, to find the record a
+ * {@link ResolveInfo} is deduped to without scanning the list. The index is built for the list
+ * being resolved and then kept up to date with the records appended to it; it is meant to live
+ * no longer than that one resolution. When the first record of a component has been found, later
+ * records of the same component are not indexed.
+ */
+public final class ResolvedComponentIndex {
+    // Package name to class name to record, so that no key is allocated for a lookup.
+    private final Map<String, Map<String, ResolvedComponentInfo>> mRecords = new HashMap<>();
+
+    /** Creates the index of the records already in the {@code list}. */
+    public ResolvedComponentIndex(List<ResolvedComponentInfo> list) {
+        for (int i = 0, size = list.size(); i < size; i++) {
+            onAppended(list.get(i));
+        }
+    }
+
+    /** Indexes the {@code record} that has just been appended to the list. */
+    public void onAppended(ResolvedComponentInfo record) {
+        mRecords.computeIfAbsent(record.name.getPackageName(), packageName -> new HashMap<>())
+                .putIfAbsent(record.name.getClassName(), record);
+    }
+
+    /** Returns the first record for the component of the {@code info}, if any. */
+    @Nullable
+    public ResolvedComponentInfo get(ResolveInfo info) {
+        final ActivityInfo ai = info.activityInfo;
+        final Map<String, ResolvedComponentInfo> packageRecords = mRecords.get(ai.packageName);
+        return packageRecords == null ? null : packageRecords.get(ai.name);
+    }
+}
@@ -123,6 +123,8 @@ import com.android.internal.logging.MetricsLogger;
 import com.android.internal.logging.nano.MetricsProto;
 import com.android.internal.util.LatencyTracker;
 
+import dagger.hilt.android.EntryPointAccessors;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -331,6 +333,12 @@ public class ResolverActivity extends FragmentActivity implements
         return new PackageMonitor() {
             @Override
             public void onSomePackagesChanged() {
+                // The process-wide monitor of the cache may only be notified after this one.
+                EntryPointAccessors.fromApplication(
+                                ResolverActivity.this,
+                                ResolveResultCache.ResolveResultCacheEntryPoint.class)
+                        .resolveResultCache()
+                        .invalidate();
                 listAdapter.handlePackagesChanged();
                 updateProfileViewButton();
             }
@@ -1752,6 +1760,9 @@ public class ResolverActivity extends FragmentActivity implements
                     + "cannot be null.");
         }
         Trace.beginSection("configureContentView");
+        if (shouldShowTabs()) {
+            mMultiProfilePagerAdapter.prefetchInactiveTab();
+        }
         // We partially rebuild the inactive adapter to determine if we should auto launch
         // isTabLoaded will be true here if the empty state screen is shown instead of the list.
         boolean rebuildCompleted = mMultiProfilePagerAdapter.rebuildActiveTab(true)
@@ -45,21 +45,28 @@ import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
+import androidx.recyclerview.widget.ListUpdateCallback;
 
 import com.android.intentresolver.chooser.DisplayResolveInfo;
 import com.android.intentresolver.chooser.TargetInfo;
 import com.android.intentresolver.icons.LabelInfo;
 import com.android.intentresolver.icons.TargetDataLoader;
+import com.android.intentresolver.util.FrameUpdateCoalescer;
 import com.android.internal.annotations.VisibleForTesting;
 
 import com.google.common.collect.ImmutableList;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class ResolverListAdapter extends BaseAdapter {
     private static final String TAG = "ResolverListAdapter";
@@ -80,8 +87,11 @@ public class ResolverListAdapter extends BaseAdapter {
     private final UserHandle mUserHandle;
     private final Intent mTargetIntent;
 
-    private final Set<DisplayResolveInfo> mRequestedIcons = new HashSet<>();
-    private final Set<DisplayResolveInfo> mRequestedLabels = new HashSet<>();
+    // The callbacks of the requested loads, by target.
+    private final Map<DisplayResolveInfo, Consumer<Drawable>> mRequestedIcons = new HashMap<>();
+    private final Map<DisplayResolveInfo, Consumer<LabelInfo>> mRequestedLabels = new HashMap<>();
+    // The number of views each target is bound to.
+    private final Map<TargetInfo, Integer> mBoundViewCounts = new HashMap<>();
     private final Executor mBgExecutor;
     private final Executor mCallbackExecutor;
     private final AtomicBoolean mDestroyed = new AtomicBoolean();
@@ -93,6 +103,27 @@ public class ResolverListAdapter extends BaseAdapter {
     // This one is the list that the Adapter will actually present.
     private final List<DisplayResolveInfo> mDisplayList;
     private List<ResolvedComponentInfo> mUnfilteredResolveList;
+    // The resolution started ahead of the next rebuild, see #prefetchResolveList.
+    @Nullable
+    private Future<List<ResolvedComponentInfo>> mPrefetchedResolveList;
+
+    // The targets presented in the order of the latest ranking snapshot while the list is being
+    // sorted, reused in the sorted list.
+    private final Map<ResolvedComponentInfo, DisplayResolveInfo> mSeededTargets =
+            new IdentityHashMap<>();
+    @Nullable
+    private List<DisplayResolveInfo> mSeededInitialTargets;
+    // The list presented while sorting, compared to the sorted list in #notifyDisplayListChanged.
+    @Nullable
+    private List<DisplayResolveInfo> mSeededDisplayList;
+    private int mSeededLastChosenPosition = -1;
+
+    // The mutations since the last frame, applied to the views at the next frame.
+    private final FrameUpdateCoalescer mFrameUpdates;
+    private final Set<TargetInfo> mChangedTargets =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+    @Nullable
+    private ListUpdateCallback mListUpdateCallback;
 
     private int mLastChosenPosition = -1;
     private final boolean mFilterLastUsed;
@@ -125,9 +156,11 @@ public class ResolverListAdapter extends BaseAdapter {
                 initialIntentsUserSpace,
                 targetDataLoader,
                 AsyncTask.SERIAL_EXECUTOR,
-                runnable -> context.getMainThreadHandler().post(runnable));
+                runnable -> context.getMainThreadHandler().post(runnable),
+                FrameUpdateCoalescer.NEXT_FRAME_EXECUTOR);
     }
 
+    /** The view updates are applied on the {@code callbackExecutor}. */
     @VisibleForTesting
     public ResolverListAdapter(
             Context context,
@@ -143,6 +176,42 @@ public class ResolverListAdapter extends BaseAdapter {
             TargetDataLoader targetDataLoader,
             Executor bgExecutor,
             Executor callbackExecutor) {
+        this(
+                context,
+                payloadIntents,
+                initialIntents,
+                rList,
+                filterLastUsed,
+                resolverListController,
+                userHandle,
+                targetIntent,
+                resolverListCommunicator,
+                initialIntentsUserSpace,
+                targetDataLoader,
+                bgExecutor,
+                callbackExecutor,
+                callbackExecutor);
+    }
+
+    /**
+     * @param frameExecutor runs the view updates that apply the model mutations made within a
+     *                      frame, see {@link FrameUpdateCoalescer}
+     */
+    protected ResolverListAdapter(
+            Context context,
+            List<Intent> payloadIntents,
+            Intent[] initialIntents,
+            List<ResolveInfo> rList,
+            boolean filterLastUsed,
+            ResolverListController resolverListController,
+            UserHandle userHandle,
+            Intent targetIntent,
+            ResolverListCommunicator resolverListCommunicator,
+            UserHandle initialIntentsUserSpace,
+            TargetDataLoader targetDataLoader,
+            Executor bgExecutor,
+            Executor callbackExecutor,
+            Executor frameExecutor) {
         mContext = context;
         mIntents = payloadIntents;
         mInitialIntents = initialIntents;
@@ -159,6 +228,7 @@ public class ResolverListAdapter extends BaseAdapter {
         mInitialIntentsUserSpace = initialIntentsUserSpace;
         mBgExecutor = bgExecutor;
         mCallbackExecutor = callbackExecutor;
+        mFrameUpdates = new FrameUpdateCoalescer(TAG, frameExecutor, this::applyFrameUpdate);
     }
 
     protected Intent getTargetIntent() {
@@ -263,6 +333,9 @@ public class ResolverListAdapter extends BaseAdapter {
         mDisplayList.clear();
         mIsTabLoaded = false;
         mLastChosenPosition = -1;
+        mSeededTargets.clear();
+        mSeededInitialTargets = null;
+        mSeededDisplayList = null;
 
         List<ResolvedComponentInfo> currentResolveList = getInitialRebuiltResolveList();
 
@@ -331,8 +404,34 @@ public class ResolverListAdapter extends BaseAdapter {
                     mTargetIntent,
                     mBaseResolveList);
             return currentResolveList;
-        } else {
-            return getResolversForUser(mUserHandle);
+        }
+        final Future<List<ResolvedComponentInfo>> prefetched = mPrefetchedResolveList;
+        mPrefetchedResolveList = null;
+        if (prefetched != null) {
+            return ResolveQueryEngine.getResult(prefetched);
+        }
+        return getResolversForUser(mUserHandle);
+    }
+
+    /**
+     * Starts resolving the targets in the background, to be used by the next {@link #rebuildList}
+     * so that it proceeds in parallel with the rebuild of the other profiles.
+     */
+    @MainThread
+    public void prefetchResolveList() {
+        if (mBaseResolveList != null || mPrefetchedResolveList != null) {
+            return;
+        }
+        mPrefetchedResolveList =
+                mResolverListController.submitQuery(() -> getResolversForUser(mUserHandle));
+    }
+
+    /** Drops the resolution started by {@link #prefetchResolveList}, if not used yet. */
+    @MainThread
+    public void cancelResolveListPrefetch() {
+        if (mPrefetchedResolveList != null) {
+            mPrefetchedResolveList.cancel(/* mayInterruptIfRunning= */ false);
+            mPrefetchedResolveList = null;
         }
     }
 
@@ -445,6 +544,9 @@ public class ResolverListAdapter extends BaseAdapter {
             --placeholderCount;
         }
         setPlaceholderCount(placeholderCount);
+        if (doPostProcessing) {
+            seedDisplayList(filteredResolveList);
+        }
 
         // Send an "incomplete" list-ready while the async task is running.
         postListReadyRunnable(doPostProcessing, /* rebuildCompleted */ false);
@@ -467,6 +569,29 @@ public class ResolverListAdapter extends BaseAdapter {
         return false;
     }
 
+    /**
+     * Presents the components in the order of their latest ranking, if there is one, while they
+     * are being sorted, so the sorted list likely only differs slightly from the presented one.
+     */
+    private void seedDisplayList(List<ResolvedComponentInfo> filteredResolveList) {
+        final List<ResolvedComponentInfo> seededList =
+                mResolverListController.orderByRankingSnapshot(filteredResolveList);
+        if (seededList == null) {
+            return;
+        }
+        Trace.beginSection("ResolverListAdapter#seedDisplayList");
+        mSeededInitialTargets = createInitialIntentTargets();
+        for (DisplayResolveInfo dri : mSeededInitialTargets) {
+            addResolveInfo(dri);
+        }
+        for (ResolvedComponentInfo rci : seededList) {
+            if (rci.getResolveInfoAt(0) != null) {
+                mSeededTargets.put(rci, addResolveInfoWithAlternates(rci));
+            }
+        }
+        Trace.endSection();
+    }
+
     @WorkerThread
     protected void sortComponents(List<ResolvedComponentInfo> components) {
         mResolverListController.sort(components);
@@ -476,59 +601,115 @@ public class ResolverListAdapter extends BaseAdapter {
     protected void onComponentsSorted(
             @Nullable List<ResolvedComponentInfo> sortedComponents, boolean doPostProcessing) {
         processSortedList(sortedComponents, doPostProcessing);
-        notifyDataSetChanged();
+        notifyDisplayListChanged();
         if (doPostProcessing) {
             mResolverListCommunicator.updateProfileViewButton();
         }
     }
 
+    /**
+     * Notifies the observers that the list is sorted. If the list was presented in the order of
+     * the ranking snapshot while it was being sorted, only the moved targets are reported as
+     * changed.
+     */
+    @MainThread
+    protected void notifyDisplayListChanged() {
+        final List<DisplayResolveInfo> seededList = mSeededDisplayList;
+        mSeededDisplayList = null;
+        if (seededList == null
+                || seededList.size() != mDisplayList.size()
+                || mSeededLastChosenPosition != mLastChosenPosition) {
+            notifyDataSetChanged();
+            return;
+        }
+        for (int i = 0; i < seededList.size(); i++) {
+            if (seededList.get(i) != mDisplayList.get(i)) {
+                notifyTargetChanged(mDisplayList.get(i));
+            }
+        }
+        // The positions have already changed, don't wait for the next frame.
+        mFrameUpdates.flush();
+    }
+
+    /**
+     * Sets the callback that receives the changes of individual items, in adapter positions. While
+     * it is set, the targets reported by {@link #notifyTargetChanged} are reported to it instead of
+     * to the {@link android.database.DataSetObserver}s; any other change is still reported as a
+     * data set change.
+     */
+    public final void setListUpdateCallback(@Nullable ListUpdateCallback callback) {
+        mListUpdateCallback = callback;
+    }
+
+    @Nullable
+    protected final ListUpdateCallback getListUpdateCallback() {
+        return mListUpdateCallback;
+    }
+
+    @VisibleForTesting
+    public final FrameUpdateCoalescer getFrameUpdates() {
+        return mFrameUpdates;
+    }
+
+    /**
+     * Reports that the data of the {@code target} has changed. The changes reported within a
+     * frame are applied together, at the next frame.
+     */
+    @MainThread
+    protected final void notifyTargetChanged(TargetInfo target) {
+        mChangedTargets.add(target);
+        mFrameUpdates.post();
+    }
+
+    @MainThread
+    private void applyFrameUpdate() {
+        if (mDestroyed.get()) {
+            return;
+        }
+        Trace.beginSection("ResolverListAdapter#applyFrameUpdate:" + mChangedTargets.size());
+        final ListUpdateCallback callback = mListUpdateCallback;
+        if (callback == null) {
+            mChangedTargets.clear();
+            notifyDataSetChanged();
+            Trace.endSection();
+            return;
+        }
+        // The same target can be shown at several positions, report each contiguous range once.
+        final int count = getPositionCount();
+        int rangeStart = -1;
+        for (int position = 0; position <= count; position++) {
+            final boolean changed =
+                    position < count && mChangedTargets.contains(getItem(position));
+            if (changed && rangeStart < 0) {
+                rangeStart = position;
+            } else if (!changed && rangeStart >= 0) {
+                callback.onChanged(rangeStart, position - rangeStart, null);
+                rangeStart = -1;
+            }
+        }
+        mChangedTargets.clear();
+        Trace.endSection();
+    }
+
     protected void processSortedList(
             @Nullable List<ResolvedComponentInfo> sortedComponents, boolean doPostProcessing) {
         final int n = sortedComponents != null ? sortedComponents.size() : 0;
         Trace.beginSection("ResolverListAdapter#processSortedList:" + n);
+        final boolean seeded = mSeededInitialTargets != null;
+        if (seeded) {
+            mSeededDisplayList = new ArrayList<>(mDisplayList);
+            mSeededLastChosenPosition = mLastChosenPosition;
+            mDisplayList.clear();
+            mLastChosenPosition = -1;
+        }
         if (n != 0) {
             // First put the initial items at the top.
-            if (mInitialIntents != null) {
-                for (int i = 0; i < mInitialIntents.length; i++) {
-                    Intent ii = mInitialIntents[i];
-                    if (ii == null) {
-                        continue;
-                    }
-                    // Because of AIDL bug, resolveActivityInfo can't accept subclasses of Intent.
-                    final Intent rii = (ii.getClass() == Intent.class) ? ii : new Intent(ii);
-                    ActivityInfo ai = rii.resolveActivityInfo(mPm, 0);
-                    if (ai == null) {
-                        Log.w(TAG, "No activity found for " + ii);
-                        continue;
-                    }
-                    ResolveInfo ri = new ResolveInfo();
-                    ri.activityInfo = ai;
-                    UserManager userManager =
-                            (UserManager) mContext.getSystemService(Context.USER_SERVICE);
-                    if (ii instanceof LabeledIntent) {
-                        LabeledIntent li = (LabeledIntent) ii;
-                        ri.resolvePackageName = li.getSourcePackage();
-                        ri.labelRes = li.getLabelResource();
-                        ri.nonLocalizedLabel = li.getNonLocalizedLabel();
-                        ri.icon = li.getIconResource();
-                        ri.iconResourceId = ri.icon;
-                    }
-                    if (userManager.isManagedProfile()) {
-                        ri.noResourceId = true;
-                        ri.icon = 0;
-                    }
-
-                    ri.userHandle = mInitialIntentsUserSpace;
-                    addResolveInfo(DisplayResolveInfo.newDisplayResolveInfo(
-                            ii,
-                            ri,
-                            ri.loadLabel(mPm),
-                            null,
-                            ii));
-                }
+            final List<DisplayResolveInfo> initialTargets = seeded
+                    ? mSeededInitialTargets : createInitialIntentTargets();
+            for (DisplayResolveInfo dri : initialTargets) {
+                addResolveInfo(dri);
             }
 
-
             for (ResolvedComponentInfo rci : sortedComponents) {
                 final ResolveInfo ri = rci.getResolveInfoAt(0);
                 if (ri != null) {
@@ -536,6 +717,10 @@ public class ResolverListAdapter extends BaseAdapter {
                 }
             }
         }
+        if (seeded) {
+            mSeededInitialTargets = null;
+            mSeededTargets.clear();
+        }
 
         mResolverListCommunicator.sendVoiceChoicesIfNeeded();
         postListReadyRunnable(doPostProcessing, /* rebuildCompleted */ true);
@@ -543,6 +728,50 @@ public class ResolverListAdapter extends BaseAdapter {
         Trace.endSection();
     }
 
+    private List<DisplayResolveInfo> createInitialIntentTargets() {
+        final List<DisplayResolveInfo> targets = new ArrayList<>();
+        if (mInitialIntents != null) {
+            for (int i = 0; i < mInitialIntents.length; i++) {
+                Intent ii = mInitialIntents[i];
+                if (ii == null) {
+                    continue;
+                }
+                // Because of AIDL bug, resolveActivityInfo can't accept subclasses of Intent.
+                final Intent rii = (ii.getClass() == Intent.class) ? ii : new Intent(ii);
+                ActivityInfo ai = rii.resolveActivityInfo(mPm, 0);
+                if (ai == null) {
+                    Log.w(TAG, "No activity found for " + ii);
+                    continue;
+                }
+                ResolveInfo ri = new ResolveInfo();
+                ri.activityInfo = ai;
+                UserManager userManager =
+                        (UserManager) mContext.getSystemService(Context.USER_SERVICE);
+                if (ii instanceof LabeledIntent) {
+                    LabeledIntent li = (LabeledIntent) ii;
+                    ri.resolvePackageName = li.getSourcePackage();
+                    ri.labelRes = li.getLabelResource();
+                    ri.nonLocalizedLabel = li.getNonLocalizedLabel();
+                    ri.icon = li.getIconResource();
+                    ri.iconResourceId = ri.icon;
+                }
+                if (userManager.isManagedProfile()) {
+                    ri.noResourceId = true;
+                    ri.icon = 0;
+                }
+
+                ri.userHandle = mInitialIntentsUserSpace;
+                targets.add(DisplayResolveInfo.newDisplayResolveInfo(
+                        ii,
+                        ri,
+                        ri.loadLabel(mPm),
+                        null,
+                        ii));
+            }
+        }
+        return targets;
+    }
+
     /**
      * Some necessary methods for creating the list are initiated in onCreate and will also
      * determine the layout known. We therefore can't update the UI inline and post to the
@@ -565,7 +794,13 @@ public class ResolverListAdapter extends BaseAdapter {
         mCallbackExecutor.execute(listReadyRunnable);
     }
 
-    private void addResolveInfoWithAlternates(ResolvedComponentInfo rci) {
+    private DisplayResolveInfo addResolveInfoWithAlternates(ResolvedComponentInfo rci) {
+        final DisplayResolveInfo seeded = mSeededTargets.get(rci);
+        if (seeded != null) {
+            addResolveInfo(seeded);
+            updateLastChosenPosition(seeded.getResolveInfo());
+            return seeded;
+        }
         final int count = rci.getCount();
         final Intent intent = rci.getIntentAt(0);
         final ResolveInfo add = rci.getResolveInfoAt(0);
@@ -591,6 +826,7 @@ public class ResolverListAdapter extends BaseAdapter {
             }
         }
         updateLastChosenPosition(add);
+        return dri;
     }
 
     private void updateLastChosenPosition(ResolveInfo info) {
@@ -664,6 +900,11 @@ public class ResolverListAdapter extends BaseAdapter {
         return mDisplayList.size();
     }
 
+    /** The number of the positions {@link #getItem} resolves, used to report changed items. */
+    protected int getPositionCount() {
+        return getCount();
+    }
+
     @Nullable
     public TargetInfo getItem(int position) {
         if (mFilterLastUsed && mLastChosenPosition >= 0 && position >= mLastChosenPosition) {
@@ -695,10 +936,13 @@ public class ResolverListAdapter extends BaseAdapter {
 
     public final View getView(int position, View convertView, ViewGroup parent) {
         View view = convertView;
+        final TargetInfo info = getItem(position);
         if (view == null) {
             view = createView(parent);
+        } else if (((ViewHolder) view.getTag()).boundTarget != info) {
+            onViewRecycled(view);
         }
-        onBindView(view, getItem(position), position);
+        onBindView(view, info, position);
         return view;
     }
 
@@ -720,6 +964,7 @@ public class ResolverListAdapter extends BaseAdapter {
 
     protected void onBindView(View view, TargetInfo info, int position) {
         final ViewHolder holder = (ViewHolder) view.getTag();
+        bindTarget(holder, info);
         if (info == null) {
             holder.icon.setImageDrawable(loadIconPlaceholder());
             holder.bindLabel("", "");
@@ -744,11 +989,10 @@ public class ResolverListAdapter extends BaseAdapter {
     }
 
     protected final void loadIcon(DisplayResolveInfo info) {
-        if (mRequestedIcons.add(info)) {
-            mTargetDataLoader.loadAppTargetIcon(
-                    info,
-                    getUserHandle(),
-                    (drawable) -> onIconLoaded(info, drawable));
+        if (!mRequestedIcons.containsKey(info)) {
+            final Consumer<Drawable> callback = (drawable) -> onIconLoaded(info, drawable);
+            mRequestedIcons.put(info, callback);
+            mTargetDataLoader.loadAppTargetIcon(info, getUserHandle(), callback);
         }
     }
 
@@ -757,13 +1001,15 @@ public class ResolverListAdapter extends BaseAdapter {
             mResolverListCommunicator.updateProfileViewButton();
         } else if (!displayResolveInfo.hasDisplayIcon()) {
             displayResolveInfo.getDisplayIconHolder().setDisplayIcon(drawable);
-            notifyDataSetChanged();
+            notifyTargetChanged(displayResolveInfo);
         }
     }
 
     protected final void loadLabel(DisplayResolveInfo info) {
-        if (mRequestedLabels.add(info)) {
-            mTargetDataLoader.loadLabel(info, (result) -> onLabelLoaded(info, result));
+        if (!mRequestedLabels.containsKey(info)) {
+            final Consumer<LabelInfo> callback = (result) -> onLabelLoaded(info, result);
+            mRequestedLabels.put(info, callback);
+            mTargetDataLoader.loadLabel(info, callback);
         }
     }
 
@@ -774,17 +1020,71 @@ public class ResolverListAdapter extends BaseAdapter {
         }
         displayResolveInfo.setDisplayLabel(result.getLabel());
         displayResolveInfo.setExtendedInfo(result.getSubLabel());
-        notifyDataSetChanged();
+        notifyTargetChanged(displayResolveInfo);
+    }
+
+    /**
+     * Called when the {@code view} is no longer displayed. Pending icon and label loads for the
+     * target the view has been bound to are cancelled unless the target is still bound to another
+     * view (e.g. both in the ranked row and in the A-Z list); they get requested again if the
+     * target is bound anew.
+     */
+    public final void onViewRecycled(View view) {
+        bindTarget((ViewHolder) view.getTag(), null);
+    }
+
+    /** Records that the {@code holder} now displays the {@code info}, if not already. */
+    protected final void bindTarget(ViewHolder holder, @Nullable TargetInfo info) {
+        final TargetInfo previous = holder.boundTarget;
+        if (previous == info) {
+            return;
+        }
+        holder.boundTarget = info;
+        if (info != null) {
+            mBoundViewCounts.merge(info, 1, Integer::sum);
+        }
+        if (previous != null) {
+            final int count = mBoundViewCounts.getOrDefault(previous, 0) - 1;
+            if (count > 0) {
+                mBoundViewCounts.put(previous, count);
+            } else {
+                mBoundViewCounts.remove(previous);
+                cancelTargetDataLoading(previous);
+            }
+        }
+    }
+
+    /**
+     * Prioritize icon and label loads for the {@code visibleTargets}, followed by the
+     * {@code nearbyTargets}; loads for any other targets are deferred.
+     */
+    public void prioritizeTargetDataLoading(
+            List<TargetInfo> visibleTargets, List<TargetInfo> nearbyTargets) {
+        mTargetDataLoader.prioritize(visibleTargets, nearbyTargets);
+    }
+
+    /** Cancel this adapter's pending icon and label loads for the target. */
+    protected void cancelTargetDataLoading(TargetInfo info) {
+        cancelTargetDataLoading(info, mRequestedIcons.remove(info));
+        cancelTargetDataLoading(info, mRequestedLabels.remove(info));
+    }
+
+    protected final void cancelTargetDataLoading(TargetInfo info, @Nullable Consumer<?> callback) {
+        if (callback != null) {
+            mTargetDataLoader.cancel(info, callback);
+        }
     }
 
     public void onDestroy() {
         mDestroyed.set(true);
+        cancelResolveListPrefetch();
 
         if (mResolverListController != null) {
             mResolverListController.destroy();
         }
         mRequestedIcons.clear();
         mRequestedLabels.clear();
+        mBoundViewCounts.clear();
     }
 
     private static ColorMatrixColorFilter getSuspendedColorMatrix() {
@@ -936,6 +1236,10 @@ public class ResolverListAdapter extends BaseAdapter {
         public TextView text2;
         public ImageView icon;
 
+        /** The target this view has been last bound to. */
+        @Nullable
+        public TargetInfo boundTarget;
+
         public final void reset() {
             text.setText("");
             text.setMaxLines(2);
@@ -27,21 +27,29 @@ import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.os.RemoteException;
+import android.os.Trace;
 import android.os.UserHandle;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import com.android.intentresolver.chooser.DisplayResolveInfo;
 import com.android.intentresolver.chooser.TargetInfo;
 import com.android.intentresolver.model.AbstractResolverComparator;
+import com.android.intentresolver.model.RankingSnapshotStore;
 import com.android.internal.annotations.VisibleForTesting;
 
+import dagger.hilt.android.EntryPointAccessors;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 
 /**
  * A helper for the ResolverActivity that exposes methods to retrieve, filter and sort its list of
@@ -63,6 +71,9 @@ public class ResolverListController {
 
     private AbstractResolverComparator mResolverComparator;
     private boolean isComputed = false;
+    private final RankingSnapshotStore mRankingSnapshotStore;
+    private final ResolveQueryEngine mResolveQueryEngine;
+    private final ResolveResultCache mResolveResultCache;
 
     public ResolverListController(
             Context context,
@@ -72,6 +83,31 @@ public class ResolverListController {
             int launchedFromUid,
             AbstractResolverComparator resolverComparator,
             UserHandle queryIntentsAsUser) {
+        this(context, pm, targetIntent, referrerPackage, launchedFromUid, resolverComparator,
+                queryIntentsAsUser,
+                EntryPointAccessors.fromApplication(
+                                context, RankingSnapshotStore.RankingSnapshotStoreEntryPoint.class)
+                        .rankingSnapshotStore(),
+                EntryPointAccessors.fromApplication(
+                                context, ResolveQueryEngine.ResolveQueryEngineEntryPoint.class)
+                        .resolveQueryEngine(),
+                EntryPointAccessors.fromApplication(
+                                context, ResolveResultCache.ResolveResultCacheEntryPoint.class)
+                        .resolveResultCache());
+    }
+
+    @VisibleForTesting
+    public ResolverListController(
+            Context context,
+            PackageManager pm,
+            Intent targetIntent,
+            String referrerPackage,
+            int launchedFromUid,
+            AbstractResolverComparator resolverComparator,
+            UserHandle queryIntentsAsUser,
+            RankingSnapshotStore rankingSnapshotStore,
+            ResolveQueryEngine resolveQueryEngine,
+            ResolveResultCache resolveResultCache) {
         mContext = context;
         mpm = pm;
         mLaunchedFromUid = launchedFromUid;
@@ -79,6 +115,9 @@ public class ResolverListController {
         mReferrerPackage = referrerPackage;
         mResolverComparator = resolverComparator;
         mQueryIntentsAsUser = queryIntentsAsUser;
+        mRankingSnapshotStore = rankingSnapshotStore;
+        mResolveQueryEngine = resolveQueryEngine;
+        mResolveResultCache = resolveResultCache;
     }
 
     @VisibleForTesting
@@ -116,10 +155,20 @@ public class ResolverListController {
         return getResolversForIntentAsUserInternal(intents, userHandle, baseFlags);
     }
 
+    /**
+     * Starts the {@code query} in the background on the engine the intents are resolved on, see
+     * {@link ResolveQueryEngine#submit(Callable)}.
+     */
+    public <T> Future<T> submitQuery(Callable<T> query) {
+        return mResolveQueryEngine.submit(query);
+    }
+
     private List<ResolvedComponentInfo> getResolversForIntentAsUserInternal(
             List<Intent> intents, UserHandle userHandle, int baseFlags) {
-        List<ResolvedComponentInfo> resolvedComponents = null;
-        for (int i = 0, N = intents.size(); i < N; i++) {
+        final int n = intents.size();
+        final List<Intent> queryIntents = new ArrayList<>(n);
+        final List<Callable<List<ResolveInfo>>> queries = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
             Intent intent = intents.get(i);
             int flags = baseFlags;
             if (intent.isWebIntent()
@@ -127,23 +176,51 @@ public class ResolverListController {
                 flags |= PackageManager.MATCH_INSTANT;
             }
             // Because of AIDL bug, queryIntentActivitiesAsUser can't accept subclasses of Intent.
-            intent = (intent.getClass() == Intent.class) ? intent : new Intent(
+            final Intent queryIntent = (intent.getClass() == Intent.class) ? intent : new Intent(
                     intent);
-            final List<ResolveInfo> infos = mpm.queryIntentActivitiesAsUser(intent, flags,
-                    userHandle);
+            final int queryFlags = flags;
+            queryIntents.add(queryIntent);
+            queries.add(() -> queryIntentActivities(queryIntent, queryFlags, userHandle));
+        }
+        // The queries run in parallel, their results are merged in the order of the intents.
+        final List<List<ResolveInfo>> results = mResolveQueryEngine.runAll(queries);
+        List<ResolvedComponentInfo> resolvedComponents = null;
+        ResolvedComponentIndex index = null;
+        for (int i = 0; i < n; i++) {
+            final List<ResolveInfo> infos = results.get(i);
             if (infos != null) {
                 if (resolvedComponents == null) {
                     resolvedComponents = new ArrayList<>();
+                    index = new ResolvedComponentIndex(resolvedComponents);
                 }
-                addResolveListDedupe(resolvedComponents, intent, infos);
+                addResolveListDedupe(resolvedComponents, index, queryIntents.get(i), infos);
             }
         }
         return resolvedComponents;
     }
 
+    private List<ResolveInfo> queryIntentActivities(Intent intent, int flags, UserHandle user) {
+        Trace.beginSection("ResolverListController#queryIntentActivities:" + user.getIdentifier());
+        try {
+            return mResolveResultCache.getOrQuery(intent, flags, user,
+                    () -> mpm.queryIntentActivitiesAsUser(intent, flags, user));
+        } finally {
+            Trace.endSection();
+        }
+    }
+
     @VisibleForTesting
     public void addResolveListDedupe(
             List<ResolvedComponentInfo> into, Intent intent, List<ResolveInfo> from) {
+        addResolveListDedupe(into, new ResolvedComponentIndex(into), intent, from);
+    }
+
+    /** Dedupes through the {@code index} of {@code into}, updated with the added records. */
+    private void addResolveListDedupe(
+            List<ResolvedComponentInfo> into,
+            ResolvedComponentIndex index,
+            Intent intent,
+            List<ResolveInfo> from) {
         final int fromCount = from.size();
         final int intoCount = into.size();
         for (int i = 0; i < fromCount; i++) {
@@ -152,24 +229,23 @@ public class ResolverListController {
                 Log.w(TAG, "Skipping ResolveInfo with no userHandle: " + newInfo);
                 continue;
             }
-            boolean found = false;
-            // Only loop to the end of into as it was before we started; no dupes in from.
-            for (int j = 0; j < intoCount; j++) {
-                final ResolvedComponentInfo rci = into.get(j);
-                if (isSameResolvedComponent(newInfo, rci)) {
-                    found = true;
-                    rci.add(intent, newInfo);
-                    break;
-                }
-            }
-            if (!found) {
+            // Only match into as it was before we started (the records added below are
+            // indexed at the end); no dupes in from.
+            final ResolvedComponentInfo rci = index.get(newInfo);
+            if (rci != null) {
+                rci.add(intent, newInfo);
+            } else {
                 final ComponentName name = new ComponentName(
                         newInfo.activityInfo.packageName, newInfo.activityInfo.name);
-                final ResolvedComponentInfo rci = new ResolvedComponentInfo(name, intent, newInfo);
-                rci.setPinned(isComponentPinned(name));
-                into.add(rci);
+                final ResolvedComponentInfo newRci =
+                        new ResolvedComponentInfo(name, intent, newInfo);
+                newRci.setPinned(isComponentPinned(name));
+                into.add(newRci);
             }
         }
+        for (int i = intoCount, size = into.size(); i < size; i++) {
+            index.onAppended(into.get(i));
+        }
     }
 
 
@@ -255,6 +331,37 @@ public class ResolverListController {
         isComputed = true;
     }
 
+    /**
+     * Returns a copy of {@code inputList} in the order of the latest ranking of the components
+     * for the same action, type and user, e.g. from a previous session, with the components
+     * missing from that ranking last; or {@code null} if there is no such ranking.
+     */
+    @Nullable
+    public List<ResolvedComponentInfo> orderByRankingSnapshot(
+            List<ResolvedComponentInfo> inputList) {
+        final Map<ComponentName, Integer> positions = mRankingSnapshotStore.getPositions(
+                mTargetIntent.getAction(), mTargetIntent.getType(), mQueryIntentsAsUser);
+        if (positions == null) {
+            return null;
+        }
+        final List<ResolvedComponentInfo> result = new ArrayList<>(inputList);
+        // The sort is stable, the unknown components keep their order.
+        result.sort((lhs, rhs) -> Integer.compare(
+                positions.getOrDefault(lhs.name, Integer.MAX_VALUE),
+                positions.getOrDefault(rhs.name, Integer.MAX_VALUE)));
+        return result;
+    }
+
+    private void saveRankingSnapshot(List<ResolvedComponentInfo> rankedList, int rankedCount) {
+        final int count = Math.min(rankedCount, rankedList.size());
+        final List<ComponentName> rankedComponents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rankedComponents.add(rankedList.get(i).name);
+        }
+        mRankingSnapshotStore.put(mTargetIntent.getAction(), mTargetIntent.getType(),
+                mQueryIntentsAsUser, rankedComponents);
+    }
+
     @WorkerThread
     public void sort(List<ResolvedComponentInfo> inputList) {
         try {
@@ -262,7 +369,10 @@ public class ResolverListController {
             if (!isComputed) {
                 compute(inputList);
             }
-            Collections.sort(inputList, mResolverComparator);
+            if (!mResolverComparator.sortByKeys(inputList, inputList.size())) {
+                Collections.sort(inputList, mResolverComparator);
+            }
+            saveRankingSnapshot(inputList, inputList.size());
 
             long afterRank = System.currentTimeMillis();
             if (DEBUG) {
@@ -289,6 +399,14 @@ public class ResolverListController {
             if (!isComputed) {
                 compute(inputList);
             }
+            if (mResolverComparator.sortByKeys(inputList, k)) {
+                saveRankingSnapshot(inputList, k);
+                if (DEBUG) {
+                    Log.d(TAG, "Time Cost for top " + k + " targets: "
+                            + (System.currentTimeMillis() - beforeRank));
+                }
+                return;
+            }
 
             // Top of this heap has lowest rank.
             PriorityQueue<ResolvedComponentInfo> minHeap = new PriorityQueue<>(k,
@@ -317,6 +435,7 @@ public class ResolverListController {
             while (!minHeap.isEmpty()) {
                 inputList.set(pointer--, minHeap.poll());
             }
+            saveRankingSnapshot(inputList, k);
 
             long afterRank = System.currentTimeMillis();
             if (DEBUG) {
@@ -328,12 +447,6 @@ public class ResolverListController {
         }
     }
 
-    private static boolean isSameResolvedComponent(ResolveInfo a, ResolvedComponentInfo b) {
-        final ActivityInfo ai = a.activityInfo;
-        return ai.packageName.equals(b.name.getPackageName())
-                && ai.name.equals(b.name.getClassName());
-    }
-
     public boolean isComponentFiltered(ComponentName componentName) {
         return false;
     }
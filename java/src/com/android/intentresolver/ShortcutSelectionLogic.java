@@ -17,9 +17,9 @@
 package com.android.intentresolver;
 
 import android.app.prediction.AppTarget;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.pm.ShortcutInfo;
 import android.service.chooser.ChooserTarget;
@@ -33,8 +33,11 @@ import com.android.intentresolver.chooser.TargetInfo;
 
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 class ShortcutSelectionLogic {
     private static final String TAG = "ShortcutSelectionLogic";
@@ -72,6 +75,39 @@ class ShortcutSelectionLogic {
             Intent referrerFillInIntent,
             int maxRankedTargets,
             List<TargetInfo> serviceTargets) {
+        return addServiceResults(
+                origTarget,
+                origTargetScore,
+                targets,
+                isShortcutResult,
+                directShareToShortcutInfos,
+                directShareToAppTargets,
+                userContext,
+                targetIntent,
+                referrerFillInIntent,
+                maxRankedTargets,
+                serviceTargets,
+                /* callerTargetResolver= */ null);
+    }
+
+    /**
+     * Evaluate targets for inclusion in the direct share area. May not be included
+     * if score is too low. Caller-provided targets ({@code origTarget == null}) are taken
+     * resolved from the {@code callerTargetResolver} if there is one, and resolved here otherwise.
+     */
+    public boolean addServiceResults(
+            @Nullable DisplayResolveInfo origTarget,
+            float origTargetScore,
+            List<ChooserTarget> targets,
+            boolean isShortcutResult,
+            Map<ChooserTarget, ShortcutInfo> directShareToShortcutInfos,
+            Map<ChooserTarget, AppTarget> directShareToAppTargets,
+            Context userContext,
+            Intent targetIntent,
+            Intent referrerFillInIntent,
+            int maxRankedTargets,
+            List<TargetInfo> serviceTargets,
+            @Nullable CallerTargetResolver callerTargetResolver) {
         if (DEBUG) {
             Log.d(TAG, "addServiceResults "
                     + (origTarget == null ? null : origTarget.getResolvedComponentName()) + ", "
@@ -86,6 +122,7 @@ class ShortcutSelectionLogic {
                 : MAX_CHOOSER_TARGETS_PER_APP;
         final int targetsLimit = mApplySharingAppLimits ? Math.min(targets.size(), maxTargets)
                 : targets.size();
+        final RankedTargets rankedTargets = new RankedTargets(serviceTargets, maxRankedTargets);
         float lastScore = 0;
         boolean shouldNotify = false;
         for (int i = 0, count = targetsLimit; i < count; i++) {
@@ -104,32 +141,33 @@ class ShortcutSelectionLogic {
             if ((shortcutInfo != null) && shortcutInfo.isPinned()) {
                 targetScore += PINNED_SHORTCUT_TARGET_SCORE_BOOST;
             }
-            ResolveInfo backupResolveInfo;
-            Intent resolvedIntent;
-            if (origTarget == null) {
-                resolvedIntent = createResolvedIntentForCallerTarget(target, targetIntent);
-                backupResolveInfo = userContext.getPackageManager()
-                        .resolveActivity(
+            // Most candidates don't make it to the top: they are dropped before being built.
+            if (rankedTargets.canRank(targetScore)) {
+                ResolveInfo backupResolveInfo;
+                Intent resolvedIntent;
+                if (origTarget == null) {
+                    final CallerTargetResolver.ResolvedCallerTarget resolvedTarget =
+                            callerTargetResolver != null
+                                    ? callerTargetResolver.getResolvedTarget(target, userContext)
+                                    : CallerTargetResolver.resolve(
+                                            target, targetIntent, userContext);
+                    resolvedIntent = resolvedTarget.getResolvedIntent();
+                    backupResolveInfo = resolvedTarget.getBackupResolveInfo();
+                } else {
+                    resolvedIntent = origTarget.getResolvedIntent();
+                    backupResolveInfo = null;
+                }
+                shouldNotify |= rankedTargets.insert(
+                        SelectableTargetInfo.newSelectableTargetInfo(
+                                origTarget,
+                                backupResolveInfo,
                                 resolvedIntent,
-                                PackageManager.ResolveInfoFlags.of(PackageManager.GET_META_DATA));
-            } else {
-                resolvedIntent = origTarget.getResolvedIntent();
-                backupResolveInfo = null;
+                                target,
+                                targetScore,
+                                shortcutInfo,
+                                directShareToAppTargets.get(target),
+                                referrerFillInIntent));
             }
-            boolean isInserted = insertServiceTarget(
-                    SelectableTargetInfo.newSelectableTargetInfo(
-                            origTarget,
-                            backupResolveInfo,
-                            resolvedIntent,
-                            target,
-                            targetScore,
-                            shortcutInfo,
-                            directShareToAppTargets.get(target),
-                            referrerFillInIntent),
-                    maxRankedTargets,
-                    serviceTargets);
-
-            shouldNotify |= isInserted;
 
             if (DEBUG) {
                 Log.d(TAG, " => " + target + " score=" + targetScore
@@ -146,49 +184,107 @@ class ShortcutSelectionLogic {
     }
 
     /**
-     * Creates a resolved intent for a caller-specified target.
-     * @param target, a caller-specified target.
-     * @param targetIntent, a target intent for the Chooser (see {@link Intent#EXTRA_INTENT}).
+     * The top {@code maxRankedTargets} service targets by descending score, held in the service
+     * target list shown by the adapter. As the list is sorted, a target that doesn't beat the last
+     * ranked one is rejected in constant time, and the others are inserted after the targets with
+     * the same or a higher score, found by binary search. Targets pushed out of the top are
+     * dropped. Duplicates are found through a hash of the fields compared by
+     * {@link TargetInfo#isSimilar}.
      */
-    private static Intent createResolvedIntentForCallerTarget(
-            ChooserTarget target, Intent targetIntent) {
-        final Intent resolvedIntent = new Intent(targetIntent);
-        resolvedIntent.setComponent(target.getComponentName());
-        resolvedIntent.putExtras(target.getIntentExtras());
-        return resolvedIntent;
-    }
+    private static final class RankedTargets {
+        private final List<TargetInfo> mTargets;
+        private final int mMaxRankedTargets;
+        private final Set<SimilarityKey> mKeys = new HashSet<>();
 
-    private boolean insertServiceTarget(
-            TargetInfo chooserTargetInfo,
-            int maxRankedTargets,
-            List<TargetInfo> serviceTargets) {
+        RankedTargets(List<TargetInfo> targets, int maxRankedTargets) {
+            mTargets = targets;
+            mMaxRankedTargets = maxRankedTargets;
+            for (TargetInfo target : targets) {
+                if (target != null && target.isChooserTargetInfo()) {
+                    mKeys.add(new SimilarityKey(target));
+                }
+            }
+        }
 
-        // Check for duplicates and abort if found
-        for (TargetInfo otherTargetInfo : serviceTargets) {
-            if (chooserTargetInfo.isSimilar(otherTargetInfo)) {
+        /** Whether a target with the {@code score} would be ranked, unless it's a duplicate. */
+        boolean canRank(float score) {
+            return findPosition(score) < mMaxRankedTargets;
+        }
+
+        boolean insert(TargetInfo target) {
+            final SimilarityKey key = new SimilarityKey(target);
+            if (mKeys.contains(key)) {
                 return false;
             }
+            final int position = findPosition(target.getModifiedScore());
+            if (position >= mMaxRankedTargets) {
+                return false;
+            }
+            if (position < mTargets.size() && mTargets.get(position) == null) {
+                mTargets.set(position, target);
+            } else {
+                mTargets.add(position, target);
+            }
+            mKeys.add(key);
+            while (mTargets.size() > mMaxRankedTargets) {
+                final TargetInfo dropped = mTargets.remove(mTargets.size() - 1);
+                if (dropped != null && dropped.isChooserTargetInfo()) {
+                    mKeys.remove(new SimilarityKey(dropped));
+                }
+            }
+            return true;
         }
 
-        int currentSize = serviceTargets.size();
-        final float newScore = chooserTargetInfo.getModifiedScore();
-        for (int i = 0; i < Math.min(currentSize, maxRankedTargets);
-                i++) {
-            final TargetInfo serviceTarget = serviceTargets.get(i);
-            if (serviceTarget == null) {
-                serviceTargets.set(i, chooserTargetInfo);
-                return true;
-            } else if (newScore > serviceTarget.getModifiedScore()) {
-                serviceTargets.add(i, chooserTargetInfo);
-                return true;
+        /** The index of the first empty slot or target with a lower score than {@code score}. */
+        private int findPosition(float score) {
+            int low = 0;
+            int high = mTargets.size();
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                final TargetInfo target = mTargets.get(mid);
+                if (target != null && target.getModifiedScore() >= score) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
             }
+            return low;
         }
+    }
 
-        if (currentSize < maxRankedTargets) {
-            serviceTargets.add(chooserTargetInfo);
-            return true;
+    /** The fields of a chooser target compared by {@link TargetInfo#isSimilar}. */
+    private static final class SimilarityKey {
+        @Nullable
+        private final ComponentName mComponentName;
+        @Nullable
+        private final String mLabel;
+        @Nullable
+        private final String mExtendedInfo;
+
+        SimilarityKey(TargetInfo target) {
+            mComponentName = target.getChooserTargetComponentName();
+            mLabel = toStringOrNull(target.getDisplayLabel());
+            mExtendedInfo = toStringOrNull(target.getExtendedInfo());
         }
 
-        return false;
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SimilarityKey)) return false;
+            SimilarityKey other = (SimilarityKey) o;
+            return Objects.equals(mComponentName, other.mComponentName)
+                    && Objects.equals(mLabel, other.mLabel)
+                    && Objects.equals(mExtendedInfo, other.mExtendedInfo);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mComponentName, mLabel, mExtendedInfo);
+        }
+
+        @Nullable
+        private static String toStringOrNull(@Nullable CharSequence text) {
+            return text == null ? null : text.toString();
+        }
     }
 }
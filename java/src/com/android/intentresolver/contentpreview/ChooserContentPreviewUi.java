@@ -31,14 +31,17 @@ import android.view.ViewGroup;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.android.intentresolver.widget.ActionRow;
 import com.android.intentresolver.widget.ImagePreviewView.TransitionElementStatusCallback;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
 
 import kotlinx.coroutines.CoroutineScope;
+import kotlinx.coroutines.flow.StateFlow;
 
 /**
  * Collection of helpers for building the content preview UI displayed in
@@ -88,8 +91,30 @@ public final class ChooserContentPreviewUi {
         Consumer<Boolean> getExcludeSharedTextAction();
     }
 
+    private final PreviewDataProvider mPreviewData;
+    private final Intent mTargetIntent;
+    private final MimeTypeClassifier mTypeClassifier = DefaultMimeTypeClassifier.INSTANCE;
+    private final ImageLoader mImageLoader;
+    private final ActionFactory mActionFactory;
+    private final TransitionElementStatusCallback mTransitionElementStatusCallback;
+    private final HeadlineGenerator mHeadlineGenerator;
+
     @VisibleForTesting
-    final ContentPreviewUi mContentPreviewUi;
+    ContentPreviewUi mContentPreviewUi;
+    @ContentPreviewType
+    private int mPreviewType;
+    private boolean mIsSingleImageShare;
+    private boolean mIsPreviewTypeFinal;
+    private TransitionElementStatusCallback mContentPreviewTransitionCallback;
+    private final List<Consumer<Integer>> mPreviewTypeFinalCallbacks = new ArrayList<>();
+    @Nullable
+    private DisplayParams mDisplayParams;
+    @Nullable
+    private ViewGroup mContentPreviewView;
+    @Nullable
+    private Consumer<ViewGroup> mOnContentPreviewReplacedListener;
+    @Nullable
+    private Runnable mOnListContentPreviewInvalidatedListener;
 
     public ChooserContentPreviewUi(
             CoroutineScope scope,
@@ -100,66 +125,168 @@ public final class ChooserContentPreviewUi {
             TransitionElementStatusCallback transitionElementStatusCallback,
             HeadlineGenerator headlineGenerator) {
         mScope = scope;
-        mContentPreviewUi = createContentPreview(
-                previewData,
-                targetIntent,
-                DefaultMimeTypeClassifier.INSTANCE,
-                imageLoader,
-                actionFactory,
-                transitionElementStatusCallback,
-                headlineGenerator);
+        mPreviewData = previewData;
+        mTargetIntent = targetIntent;
+        mImageLoader = imageLoader;
+        mActionFactory = actionFactory;
+        mTransitionElementStatusCallback = transitionElementStatusCallback;
+        mHeadlineGenerator = headlineGenerator;
+
+        // Start with the current, possibly provisional, preview type and upgrade the preview once
+        // the type is determined, instead of blocking on the URI metadata reads.
+        StateFlow<PreviewDataProvider.PreviewTypeState> previewTypeFlow =
+                previewData.getPreviewTypeFlow();
+        PreviewDataProvider.PreviewTypeState previewTypeState = previewTypeFlow.getValue();
+        mPreviewType = previewTypeState.getType();
+        mIsSingleImageShare = isSingleImageShare(previewTypeState);
+        mIsPreviewTypeFinal = previewTypeState.isFinal();
+        // A provisional preview only takes part in the shared element transition if the final
+        // type turns out to be the same.
+        mContentPreviewTransitionCallback = mIsPreviewTypeFinal
+                ? transitionElementStatusCallback
+                : new PendingTransitionElementStatusCallback(transitionElementStatusCallback);
+        mContentPreviewUi = createContentPreview(previewTypeState.getType());
         if (mContentPreviewUi.getType() != CONTENT_PREVIEW_IMAGE) {
-            transitionElementStatusCallback.onAllTransitionElementsReady();
+            mContentPreviewTransitionCallback.onAllTransitionElementsReady();
+        }
+        if (!mIsPreviewTypeFinal) {
+            JavaFlowHelper.collect(mScope, previewTypeFlow, this::onPreviewTypeUpdated);
         }
     }
 
-    private ContentPreviewUi createContentPreview(
-            PreviewDataProvider previewData,
-            Intent targetIntent,
-            MimeTypeClassifier typeClassifier,
-            ImageLoader imageLoader,
-            ActionFactory actionFactory,
-            TransitionElementStatusCallback transitionElementStatusCallback,
-            HeadlineGenerator headlineGenerator) {
+    /**
+     * Sets a listener that is notified with the new content preview view when the displayed one
+     * is replaced, as the preview type becomes known.
+     */
+    public void setOnContentPreviewReplacedListener(@Nullable Consumer<ViewGroup> listener) {
+        mOnContentPreviewReplacedListener = listener;
+    }
+
+    /**
+     * Sets a listener that is notified when the content preview displayed as a list item is out of
+     * date, as the preview type becomes known. A list item can only be replaced by its adapter,
+     * which is expected to display the content preview again.
+     */
+    public void setOnListContentPreviewInvalidatedListener(@Nullable Runnable listener) {
+        mOnListContentPreviewInvalidatedListener = listener;
+    }
 
-        int previewType = previewData.getPreviewType();
+    /**
+     * Runs the {@code callback} with the {@link #getPreferredContentPreview() preview type} once
+     * it is final: right away if it already is, or once it's determined otherwise.
+     */
+    public void whenPreviewTypeFinal(Consumer<Integer> callback) {
+        if (mIsPreviewTypeFinal) {
+            callback.accept(getPreferredContentPreview());
+        } else {
+            mPreviewTypeFinalCallbacks.add(callback);
+        }
+    }
+
+    private boolean isSingleImageShare(PreviewDataProvider.PreviewTypeState previewTypeState) {
+        if (mPreviewData.getUriCount() != 1
+                || previewTypeState.getType() != CONTENT_PREVIEW_IMAGE) {
+            return false;
+        }
+        // The first URI metadata is only available without blocking once the type is known.
+        String mimeType = previewTypeState.isFinal()
+                ? mPreviewData.getFirstFileInfo().getMimeType()
+                : mTargetIntent.getType();
+        return mTypeClassifier.isImageType(mimeType);
+    }
+
+    private void onPreviewTypeUpdated(PreviewDataProvider.PreviewTypeState previewTypeState) {
+        if (!previewTypeState.isFinal() || mIsPreviewTypeFinal) {
+            return;
+        }
+        mIsPreviewTypeFinal = true;
+        PendingTransitionElementStatusCallback provisionalTransitionCallback =
+                (PendingTransitionElementStatusCallback) mContentPreviewTransitionCallback;
+        mContentPreviewTransitionCallback = mTransitionElementStatusCallback;
+        boolean isSingleImageShare = isSingleImageShare(previewTypeState);
+        if (previewTypeState.getType() == mPreviewType
+                && isSingleImageShare == mIsSingleImageShare) {
+            provisionalTransitionCallback.release();
+        } else {
+            provisionalTransitionCallback.discard();
+            mPreviewType = previewTypeState.getType();
+            mIsSingleImageShare = isSingleImageShare;
+            mContentPreviewUi = createContentPreview(previewTypeState.getType());
+            if (mContentPreviewUi.getType() != CONTENT_PREVIEW_IMAGE) {
+                mTransitionElementStatusCallback.onAllTransitionElementsReady();
+            }
+            replaceContentPreview();
+        }
+        for (Consumer<Integer> callback : mPreviewTypeFinalCallbacks) {
+            callback.accept(getPreferredContentPreview());
+        }
+        mPreviewTypeFinalCallbacks.clear();
+    }
+
+    private void replaceContentPreview() {
+        ViewGroup previousView = mContentPreviewView;
+        DisplayParams params = mDisplayParams;
+        if (previousView == null || params == null) {
+            return;
+        }
+        // A list item view can only be replaced by its adapter.
+        if (params.mParent instanceof RecyclerView) {
+            if (mOnListContentPreviewInvalidatedListener != null) {
+                mOnListContentPreviewInvalidatedListener.run();
+            }
+            return;
+        }
+        ViewGroup container = (ViewGroup) previousView.getParent();
+        if (container == null) {
+            return;
+        }
+        ViewGroup view = displayContentPreview(
+                params.mResources, params.mLayoutInflater, params.mParent, params.mHeadlineParent);
+        int index = container.indexOfChild(previousView);
+        container.removeViewAt(index);
+        container.addView(view, index, previousView.getLayoutParams());
+        if (mOnContentPreviewReplacedListener != null) {
+            mOnContentPreviewReplacedListener.accept(view);
+        }
+    }
+
+    private ContentPreviewUi createContentPreview(int previewType) {
         if (previewType == CONTENT_PREVIEW_TEXT) {
             return createTextPreview(
                     mScope,
-                    targetIntent,
-                    actionFactory,
-                    imageLoader,
-                    headlineGenerator);
+                    mTargetIntent,
+                    mActionFactory,
+                    mImageLoader,
+                    mHeadlineGenerator);
         }
         if (previewType == CONTENT_PREVIEW_FILE) {
             FileContentPreviewUi fileContentPreviewUi = new FileContentPreviewUi(
-                    previewData.getUriCount(),
-                    actionFactory,
-                    headlineGenerator);
-            if (previewData.getUriCount() > 0) {
-                previewData.getFirstFileName(mScope, fileContentPreviewUi::setFirstFileName);
+                    mPreviewData.getUriCount(),
+                    mActionFactory,
+                    mHeadlineGenerator);
+            if (mPreviewData.getUriCount() > 0) {
+                mPreviewData.getFirstFileName(mScope, fileContentPreviewUi::setFirstFileName);
             }
             return fileContentPreviewUi;
         }
-        boolean isSingleImageShare = previewData.getUriCount() == 1
-                        && typeClassifier.isImageType(previewData.getFirstFileInfo().getMimeType());
-        CharSequence text = targetIntent.getCharSequenceExtra(Intent.EXTRA_TEXT);
+        CharSequence text = mTargetIntent.getCharSequenceExtra(Intent.EXTRA_TEXT);
         if (!TextUtils.isEmpty(text)) {
             FilesPlusTextContentPreviewUi previewUi =
                     new FilesPlusTextContentPreviewUi(
                             mScope,
-                            isSingleImageShare,
-                            previewData.getUriCount(),
-                            targetIntent.getCharSequenceExtra(Intent.EXTRA_TEXT),
-                            targetIntent.getType(),
-                            actionFactory,
-                            imageLoader,
-                            typeClassifier,
-                            headlineGenerator);
-            if (previewData.getUriCount() > 0) {
+                            mIsSingleImageShare,
+                            mPreviewData.getUriCount(),
+                            mTargetIntent.getCharSequenceExtra(Intent.EXTRA_TEXT),
+                            mTargetIntent.getType(),
+                            mActionFactory,
+                            mImageLoader,
+                            mTypeClassifier,
+                            mHeadlineGenerator);
+            // In the streaming mode, the headline is based on the intent mime type.
+            if (mPreviewData.getUriCount() > 0 && !mPreviewData.isStreaming()) {
                 JavaFlowHelper.collectToList(
                         mScope,
-                        previewData.getImagePreviewFileInfoFlow(),
+                        mPreviewData.getImagePreviewFileInfoFlow(),
                         previewUi::updatePreviewMetadata);
             }
             return previewUi;
@@ -167,15 +294,16 @@ public final class ChooserContentPreviewUi {
 
         return new UnifiedContentPreviewUi(
                 mScope,
-                isSingleImageShare,
-                targetIntent.getType(),
-                actionFactory,
-                imageLoader,
-                typeClassifier,
-                transitionElementStatusCallback,
-                previewData.getImagePreviewFileInfoFlow(),
-                previewData.getUriCount(),
-                headlineGenerator);
+                mIsSingleImageShare,
+                mTargetIntent.getType(),
+                mActionFactory,
+                mImageLoader,
+                mTypeClassifier,
+                mContentPreviewTransitionCallback,
+                mPreviewData.getImagePreviewFileInfoFlow(),
+                mPreviewData.getUriCount(),
+                mHeadlineGenerator,
+                mPreviewData.isStreaming());
     }
 
     public int getPreferredContentPreview() {
@@ -191,8 +319,10 @@ public final class ChooserContentPreviewUi {
             LayoutInflater layoutInflater,
             ViewGroup parent,
             @Nullable View headlineViewParent) {
-
-        return mContentPreviewUi.display(resources, layoutInflater, parent, headlineViewParent);
+        mDisplayParams = new DisplayParams(resources, layoutInflater, parent, headlineViewParent);
+        mContentPreviewView =
+                mContentPreviewUi.display(resources, layoutInflater, parent, headlineViewParent);
+        return mContentPreviewView;
     }
 
     private static TextContentPreviewUi createTextPreview(
@@ -220,4 +350,74 @@ public final class ChooserContentPreviewUi {
                 imageLoader,
                 headlineGenerator);
     }
+
+    /**
+     * Holds back the transition element reports of a provisional preview until the preview type is
+     * final: they are forwarded if the preview is kept, and dropped if it is replaced.
+     */
+    private static final class PendingTransitionElementStatusCallback
+            implements TransitionElementStatusCallback {
+        private final TransitionElementStatusCallback mCallback;
+        private final List<String> mReadyElements = new ArrayList<>();
+        private boolean mAllElementsReady;
+        private boolean mReleased;
+        private boolean mDiscarded;
+
+        PendingTransitionElementStatusCallback(TransitionElementStatusCallback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public void onTransitionElementReady(String name) {
+            if (mReleased) {
+                mCallback.onTransitionElementReady(name);
+            } else if (!mDiscarded) {
+                mReadyElements.add(name);
+            }
+        }
+
+        @Override
+        public void onAllTransitionElementsReady() {
+            if (mReleased) {
+                mCallback.onAllTransitionElementsReady();
+            } else if (!mDiscarded) {
+                mAllElementsReady = true;
+            }
+        }
+
+        void release() {
+            mReleased = true;
+            for (String name : mReadyElements) {
+                mCallback.onTransitionElementReady(name);
+            }
+            mReadyElements.clear();
+            if (mAllElementsReady) {
+                mCallback.onAllTransitionElementsReady();
+            }
+        }
+
+        void discard() {
+            mDiscarded = true;
+            mReadyElements.clear();
+        }
+    }
+
+    private static final class DisplayParams {
+        final Resources mResources;
+        final LayoutInflater mLayoutInflater;
+        final ViewGroup mParent;
+        @Nullable
+        final View mHeadlineParent;
+
+        DisplayParams(
+                Resources resources,
+                LayoutInflater layoutInflater,
+                ViewGroup parent,
+                @Nullable View headlineParent) {
+            mResources = resources;
+            mLayoutInflater = layoutInflater;
+            mParent = parent;
+            mHeadlineParent = headlineParent;
+        }
+    }
 }
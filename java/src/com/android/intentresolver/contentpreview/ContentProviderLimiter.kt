@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.contentpreview
+
+import android.net.Uri
+import android.os.SystemClock
+import android.util.Log
+import androidx.annotation.GuardedBy
+import androidx.annotation.VisibleForTesting
+import dagger.hilt.EntryPoint
+import dagger.hilt.InstallIn
+import dagger.hilt.components.SingletonComponent
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.sync.withPermit
+
+private const val TAG = "ContentProviderLimiter"
+
+/** Maximum number of simultaneous calls to one content provider authority. */
+private const val MAX_PERMITS_PER_AUTHORITY = 4
+/** Maximum number of simultaneous calls to all content providers. */
+private const val MAX_PERMITS = 8
+/** A call that takes longer than this is treated as a failure for the backoff purposes. */
+private const val SLOW_CALL_MS = 1_000L
+private const val BACKOFF_MS = 1_000L
+private const val MAX_BACKOFF_MS = 16_000L
+
+/**
+ * Limits the number of simultaneous content provider calls made by the content preview, per URI
+ * authority and in total, so a slow provider can not take all the permits and hold back loads from
+ * other providers e.g. MediaStore.
+ *
+ * An authority whose call fails or takes longer than `slowCallMs` is backed off: for an
+ * exponentially growing period, its calls are made one at a time. A successful call that is not
+ * slow resets the backoff.
+ *
+ * A global permit is only taken once the authority permit is acquired, so the calls waiting for a
+ * backed off authority do not hold the global permits.
+ */
+@Singleton
+class ContentProviderLimiter
+@VisibleForTesting
+constructor(
+    private val globalPermits: Semaphore,
+    val maxPermitsPerAuthority: Int,
+    private val slowCallMs: Long = SLOW_CALL_MS,
+    private val clock: () -> Long = SystemClock::uptimeMillis,
+) {
+
+    @Inject constructor() : this(Semaphore(MAX_PERMITS), MAX_PERMITS_PER_AUTHORITY)
+
+    constructor(
+        maxPermits: Int,
+        maxPermitsPerAuthority: Int = maxPermits,
+    ) : this(Semaphore(maxPermits), maxPermitsPerAuthority)
+
+    private val authorities = ConcurrentHashMap<String, AuthorityState>()
+
+    /** Runs [block], that makes a content provider call for the [uri], within the limits. */
+    suspend fun <T> withPermit(uri: Uri, block: suspend () -> T): T {
+        val authority = uri.authority ?: ""
+        val state = authorities.computeIfAbsent(authority) { AuthorityState() }
+        return if (state.isBackedOff(clock())) {
+            state.backoffLock.withLock { runWithPermits(authority, state, block) }
+        } else {
+            runWithPermits(authority, state, block)
+        }
+    }
+
+    /** Indicates that calls to the [uri] authority are currently backed off. */
+    @VisibleForTesting
+    fun isBackedOff(uri: Uri): Boolean =
+        authorities[uri.authority ?: ""]?.isBackedOff(clock()) == true
+
+    private suspend fun <T> runWithPermits(
+        authority: String,
+        state: AuthorityState,
+        block: suspend () -> T,
+    ): T =
+        state.permits.withPermit {
+            globalPermits.withPermit {
+                val start = clock()
+                val result =
+                    try {
+                        block()
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (t: Throwable) {
+                        state.onCallFailed(authority, clock())
+                        throw t
+                    }
+                val end = clock()
+                if (end - start > slowCallMs) {
+                    state.onCallFailed(authority, end)
+                } else {
+                    state.onCallSucceeded()
+                }
+                result
+            }
+        }
+
+    private inner class AuthorityState {
+        val permits = Semaphore(maxPermitsPerAuthority)
+        val backoffLock = Mutex()
+
+        @GuardedBy("this") private var failureCount = 0
+        @GuardedBy("this") private var backoffUntil = 0L
+
+        @Synchronized fun isBackedOff(now: Long): Boolean = now < backoffUntil
+
+        @Synchronized
+        fun onCallFailed(authority: String, now: Long) {
+            val backoff = (BACKOFF_MS shl failureCount.coerceAtMost(4)).coerceAtMost(MAX_BACKOFF_MS)
+            failureCount++
+            backoffUntil = now + backoff
+            Log.d(TAG, "backing off $authority for ${backoff}ms")
+        }
+
+        @Synchronized
+        fun onCallSucceeded() {
+            failureCount = 0
+            backoffUntil = 0
+        }
+    }
+
+    /** Provides the limiter to components that are not created by Hilt e.g. view model factories. */
+    @EntryPoint
+    @InstallIn(SingletonComponent::class)
+    interface ContentProviderLimiterEntryPoint {
+        fun contentProviderLimiter(): ContentProviderLimiter
+    }
+}
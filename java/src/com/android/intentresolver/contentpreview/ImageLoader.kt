@@ -18,11 +18,14 @@ package com.android.intentresolver.contentpreview
 
 import android.graphics.Bitmap
 import android.net.Uri
+import android.util.Size
+import com.android.intentresolver.widget.ImageSizeProbe
 import java.util.function.Consumer
 import kotlinx.coroutines.CoroutineScope
 
 /** A content preview image loader. */
-interface ImageLoader : suspend (Uri) -> Bitmap?, suspend (Uri, Boolean) -> Bitmap? {
+interface ImageLoader :
+    suspend (Uri) -> Bitmap?, suspend (Uri, Boolean) -> Bitmap?, ImageSizeProbe {
     /**
      * Load preview image asynchronously; caching is allowed.
      *
@@ -45,4 +48,7 @@ interface ImageLoader : suspend (Uri) -> Bitmap?, suspend (Uri, Boolean) -> Bitm
      * @param caching indicates if the loaded image could be cached.
      */
     override suspend fun invoke(uri: Uri, caching: Boolean): Bitmap?
+
+    /** Reads preview image dimensions without loading the image; not supported by default. */
+    override suspend fun readImageSize(uri: Uri): Size? = null
 }
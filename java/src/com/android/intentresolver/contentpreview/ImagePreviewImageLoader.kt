@@ -17,8 +17,13 @@
 package com.android.intentresolver.contentpreview
 
 import android.content.ContentResolver
+import android.database.Cursor
 import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.media.ExifInterface
 import android.net.Uri
+import android.provider.DocumentsContract
+import android.provider.MediaStore
 import android.util.Log
 import android.util.Size
 import androidx.annotation.GuardedBy
@@ -31,25 +36,35 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.sync.Semaphore
 
 private const val TAG = "ImagePreviewImageLoader"
 
+/** Image dimension columns a provider may report, see [ImagePreviewImageLoader.readImageSize]. */
+private val IMAGE_SIZE_COLUMNS =
+    arrayOf(
+        MediaStore.MediaColumns.WIDTH,
+        MediaStore.MediaColumns.HEIGHT,
+        MediaStore.MediaColumns.ORIENTATION,
+    )
+
+/** Columns, in the order of preference, a provider may report a content modification time in. */
+private val LAST_MODIFIED_COLUMNS =
+    arrayOf(DocumentsContract.Document.COLUMN_LAST_MODIFIED, MediaStore.MediaColumns.DATE_MODIFIED)
+
 /**
  * Implements preview image loading for the content preview UI. Provides requests deduplication,
- * image caching, and a limit on the number of parallel loadings.
+ * image caching, and a limit on the number of parallel loadings (see [ContentProviderLimiter]).
+ * Loaded images are also stored in the process-wide [thumbnailCache], if one is provided, to be
+ * reused by subsequent sessions.
  */
 @VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
-class ImagePreviewImageLoader
-@VisibleForTesting
-constructor(
+class ImagePreviewImageLoader(
     private val scope: CoroutineScope,
     thumbnailSize: Int,
     private val contentResolver: ContentResolver,
     cacheSize: Int,
-    // TODO: consider providing a scope with the dispatcher configured with
-    //  [CoroutineDispatcher#limitedParallelism] instead
-    private val contentResolverSemaphore: Semaphore,
+    private val providerLimiter: ContentProviderLimiter,
+    private val thumbnailCache: ThumbnailCache? = null,
 ) : ImageLoader {
 
     constructor(
@@ -57,14 +72,24 @@ constructor(
         thumbnailSize: Int,
         contentResolver: ContentResolver,
         cacheSize: Int,
-        maxSimultaneousRequests: Int = 4
-    ) : this(scope, thumbnailSize, contentResolver, cacheSize, Semaphore(maxSimultaneousRequests))
+        maxSimultaneousRequests: Int = 4,
+        thumbnailCache: ThumbnailCache? = null,
+    ) : this(
+        scope,
+        thumbnailSize,
+        contentResolver,
+        cacheSize,
+        ContentProviderLimiter(maxSimultaneousRequests),
+        thumbnailCache,
+    )
 
     private val thumbnailSize: Size = Size(thumbnailSize, thumbnailSize)
 
     private val lock = Any()
     @GuardedBy("lock") private val cache = LruCache<Uri, RequestRecord>(cacheSize)
     @GuardedBy("lock") private val runningRequests = HashMap<Uri, RequestRecord>()
+    // The content last-modified values read in this session, see [getLastModified].
+    @GuardedBy("lock") private val lastModifiedValues = HashMap<Uri, Long?>()
 
     override suspend fun invoke(uri: Uri, caching: Boolean): Bitmap? = loadImageAsync(uri, caching)
 
@@ -116,17 +141,67 @@ constructor(
     }
 
     private suspend fun RequestRecord.loadBitmap() {
-        contentResolverSemaphore.acquire()
+        var isLoadedFromProvider = false
+        var lastModified: Long? = null
         val bitmap =
             try {
-                contentResolver.loadThumbnail(uri, thumbnailSize, null)
+                providerLimiter.withPermit(uri) {
+                    thumbnailCache?.get(uri, thumbnailSize) { getLastModified(uri) }
+                        ?: run {
+                            // Read ahead of the load so that an edit in between leaves the stored
+                            // thumbnail outdated rather than served as the edited content.
+                            if (thumbnailCache != null) {
+                                lastModified = getLastModified(uri)
+                            }
+                            // Providers may return thumbnails up to twice the requested size; keep
+                            // only the resolution that is going to be displayed.
+                            contentResolver
+                                .loadThumbnail(uri, thumbnailSize, null)
+                                .downscaleToFit(thumbnailSize)
+                                .also { isLoadedFromProvider = true }
+                        }
+                }
             } catch (t: Throwable) {
                 Log.d(TAG, "failed to load $uri preview", t)
                 null
-            } finally {
-                contentResolverSemaphore.release()
             }
-        complete(bitmap)
+        if (complete(bitmap) && bitmap != null && isLoadedFromProvider) {
+            thumbnailCache?.put(uri, lastModified, thumbnailSize, bitmap)
+        }
+    }
+
+    override suspend fun readImageSize(uri: Uri): Size? =
+        try {
+            providerLimiter.withPermit(uri) {
+                readImageSizeFromMetadata(uri) ?: decodeImageSize(uri)
+            }
+        } catch (t: Throwable) {
+            Log.d(TAG, "failed to read $uri image size", t)
+            null
+        }
+
+    private fun readImageSizeFromMetadata(uri: Uri): Size? =
+        contentResolver.query(uri, IMAGE_SIZE_COLUMNS, null, null)?.use { cursor ->
+            if (!cursor.moveToFirst()) return@use null
+            val width = cursor.readInt(MediaStore.MediaColumns.WIDTH) ?: return@use null
+            val height = cursor.readInt(MediaStore.MediaColumns.HEIGHT) ?: return@use null
+            val orientation = cursor.readInt(MediaStore.MediaColumns.ORIENTATION) ?: 0
+            toDisplayedSize(width, height, orientation)
+        }
+
+    /** Reads image bounds from the image header; only done for image content. */
+    private fun decodeImageSize(uri: Uri): Size? {
+        if (contentResolver.getType(uri)?.startsWith("image/") != true) return null
+        val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        contentResolver.openInputStream(uri)?.use { BitmapFactory.decodeStream(it, null, options) }
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null
+        val orientation =
+            if (ExifInterface.isSupportedMimeType(options.outMimeType ?: "")) {
+                contentResolver.openInputStream(uri)?.use { ExifInterface(it).rotationDegrees }
+            } else {
+                null
+            }
+        return toDisplayedSize(options.outWidth, options.outHeight, orientation ?: 0)
     }
 
     private fun RequestRecord.cancel() {
@@ -136,19 +211,62 @@ constructor(
         }
     }
 
-    private fun RequestRecord.complete(bitmap: Bitmap?) {
+    /** Completes the request and returns whether its image is cached. */
+    private fun RequestRecord.complete(bitmap: Bitmap?): Boolean {
         deferred.complete(bitmap)
-        synchronized(lock) {
+        return synchronized(lock) {
             runningRequests.remove(uri)
-            if (bitmap != null && caching) {
-                cache.put(uri, this)
+            (bitmap != null && caching).also { shouldCache ->
+                if (shouldCache) {
+                    cache.put(uri, this)
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the content last-modified value, read from the provider once per session: the
+     * content is not expected to change while it is being shared.
+     */
+    private fun getLastModified(uri: Uri): Long? {
+        synchronized(lock) {
+            if (lastModifiedValues.containsKey(uri)) {
+                return lastModifiedValues[uri]
             }
         }
+        return readLastModified(uri).also { synchronized(lock) { lastModifiedValues[uri] = it } }
     }
 
+    private fun readLastModified(uri: Uri): Long? =
+        try {
+            contentResolver.query(uri, LAST_MODIFIED_COLUMNS, null, null)?.use { cursor ->
+                if (!cursor.moveToFirst()) return@use null
+                LAST_MODIFIED_COLUMNS.firstNotNullOfOrNull { column ->
+                    cursor
+                        .getColumnIndex(column)
+                        .takeIf { it >= 0 && !cursor.isNull(it) }
+                        ?.let(cursor::getLong)
+                }
+            }
+        } catch (t: Throwable) {
+            // Not all providers can be queried; such thumbnails are cached without a value.
+            Log.d(TAG, "failed to read $uri last modified time", t)
+            null
+        }
+
     private class RequestRecord(
         val uri: Uri,
         val deferred: CompletableDeferred<Bitmap?>,
         @GuardedBy("lock") var caching: Boolean
     )
 }
+
+private fun Cursor.readInt(column: String): Int? =
+    getColumnIndex(column).takeIf { it >= 0 && !isNull(it) }?.let(::getInt)
+
+private fun toDisplayedSize(width: Int, height: Int, orientation: Int): Size? =
+    when {
+        width <= 0 || height <= 0 -> null
+        orientation % 180 != 0 -> Size(height, width)
+        else -> Size(width, height)
+    }
@@ -49,3 +49,7 @@ internal fun <T> collectToList(
 ) {
     clientScope.launch { callback.accept(flow.toList()) }
 }
+
+internal fun <T> collect(clientScope: CoroutineScope, flow: Flow<T>, callback: Consumer<T>) {
+    clientScope.launch { flow.collect { callback.accept(it) } }
+}
@@ -39,11 +39,18 @@ import java.util.function.Consumer
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.async
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.take
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
@@ -63,10 +70,29 @@ val METADATA_COLUMNS =
         Downloads.Impl.COLUMN_TITLE
     )
 private const val TIMEOUT_MS = 1_000L
+/**
+ * Time limit for reading a single URI's metadata while the preview type is determined; a slower URI
+ * is treated as one without a preview so it does not hold back the rest.
+ */
+private const val URI_TIMEOUT_MS = 300L
+/** Shares of more URIs than this are read in the streaming mode, see [PreviewDataProvider]. */
+private const val STREAMING_THRESHOLD = 100
+/** Number of URIs the streaming mode reads, and keeps, ahead of the flow collector. */
+private const val STREAMING_WINDOW = 32
 
 /**
  * Asynchronously loads and stores shared URI metadata (see [Intent.EXTRA_STREAM]) such as mime
  * type, file name, and a preview thumbnail URI.
+ *
+ * Shares of more than `streamingThreshold` URIs are read in a streaming mode: instead of reading
+ * and keeping metadata for all URIs, [imagePreviewFileInfoFlow] reads it, window by window, only as
+ * fast as the flow is collected and keeps nothing but the first URI's metadata.
+ *
+ * The preview type is determined in the background within `previewTypeTimeoutMs`, with each URI
+ * given at most `uriTimeoutMs`; [previewTypeFlow] provides a provisional type right away.
+ *
+ * Content provider calls are made within the `providerLimiter` limits, shared with the preview
+ * image loading.
  */
 @OpenForTesting
 open class PreviewDataProvider
@@ -76,25 +102,65 @@ constructor(
     private val targetIntent: Intent,
     private val contentResolver: ContentInterface,
     private val typeClassifier: MimeTypeClassifier = DefaultMimeTypeClassifier,
+    streamingThreshold: Int = STREAMING_THRESHOLD,
+    private val previewTypeTimeoutMs: Long = TIMEOUT_MS,
+    private val uriTimeoutMs: Long = URI_TIMEOUT_MS,
+    private val providerLimiter: ContentProviderLimiter = ContentProviderLimiter(),
 ) {
 
-    private val records = targetIntent.contentUris.map { UriRecord(it) }
+    private val uris = targetIntent.contentUris
+
+    private val streaming = uris.size > streamingThreshold
+
+    private val records: List<UriRecord> =
+        if (streaming) StreamingRecords() else uris.map { UriRecord(it) }
 
     private val fileInfoSharedFlow: SharedFlow<FileInfo> by lazy {
-        // Alternatively, we could just use [shareIn()] on a [flow] -- and it would be, arguably,
-        //  cleaner -- but we'd lost the ability to trace the traverse as [runTracing] does not
-        //  generally work over suspend function invocations.
+        // Replays all the records so that every collector gets them all, in order.
         MutableSharedFlow<FileInfo>(replay = records.size).apply {
-            scope.launch {
-                runTracing("image-preview-metadata") {
-                    for (record in records) {
-                        tryEmit(FileInfo.Builder(record.uri).readFromRecord(record).build())
+            scope.launch { readFileInfo(records) { tryEmit(it) } }
+        }
+    }
+
+    /**
+     * Reads [FileInfo] for the given URIs, [STREAMING_WINDOW] at a time, as the flow is collected.
+     */
+    private fun streamFileInfo(): Flow<FileInfo> =
+        flow {
+                for (start in records.indices step STREAMING_WINDOW) {
+                    val end = minOf(start + STREAMING_WINDOW, records.size)
+                    // materialize the transient records once
+                    readFileInfo(records.subList(start, end).toList()) { emit(it) }
+                }
+            }
+            // read the next window while the current one is being consumed
+            .buffer(STREAMING_WINDOW)
+            .flowOn(scope.coroutineContext.minusKey(Job))
+
+    /**
+     * Reads [FileInfo] for the [records] in parallel and passes it to [consumer] in the records
+     * order.
+     */
+    private suspend fun readFileInfo(
+        records: List<UriRecord>,
+        consumer: suspend (FileInfo) -> Unit
+    ) = coroutineScope {
+        records
+            .map { record ->
+                async {
+                    providerLimiter.withPermit(record.uri) {
+                        FileInfo.Builder(record.uri).readFromRecord(record).build()
                     }
                 }
             }
-        }
+            .forEach { consumer(it.await()) }
     }
 
+    /** Indicates that the URI metadata is read in the streaming mode. */
+    @get:OpenForTesting
+    open val isStreaming: Boolean
+        get() = streaming
+
     /** returns number of shared URIs, see [Intent.EXTRA_STREAM] */
     @get:OpenForTesting
     open val uriCount: Int
@@ -106,11 +172,69 @@ constructor(
      */
     @get:OpenForTesting
     open val imagePreviewFileInfoFlow: Flow<FileInfo>
-        get() = fileInfoSharedFlow.take(records.size)
+        get() = if (streaming) streamFileInfo() else fileInfoSharedFlow.take(records.size)
+
+    /** Indicates that the preview type needs to be determined from the shared URIs metadata. */
+    private val hasUris: Boolean
+        get() = targetIntent.isSend && records.isNotEmpty()
+
+    /**
+     * A preview type guess that does not require any metadata reads: based on the intent type, as
+     * the common case of sharing images is expected to be declared as such.
+     */
+    @ContentPreviewType
+    private val provisionalPreviewType: Int
+        get() =
+            when {
+                !hasUris -> CONTENT_PREVIEW_TEXT
+                typeClassifier.isImageType(targetIntent.type) -> CONTENT_PREVIEW_IMAGE
+                else -> CONTENT_PREVIEW_FILE
+            }
+
+    @Volatile private var resolvedFirstFileInfo: FileInfo? = null
+
+    private val previewTypeResolution: Deferred<Int> by lazy {
+        scope.async {
+            val previewType =
+                withTimeoutOrNull(previewTypeTimeoutMs) { loadPreviewType() }
+                    ?: CONTENT_PREVIEW_FILE
+            if (previewType == CONTENT_PREVIEW_IMAGE) {
+                // the image preview UI needs the first URI's metadata, read it upfront so
+                // [firstFileInfo] does not block once the type is known.
+                resolvedFirstFileInfo =
+                    records.firstOrNull()?.let { record ->
+                        readWithin(record.uri, uriTimeoutMs) {
+                            FileInfo.Builder(record.uri).readFromRecord(record).build()
+                        } ?: FileInfo.Builder(record.uri).build()
+                    }
+            }
+            previewType
+        }
+    }
+
+    /**
+     * Preview type to use, as a [StateFlow] that never blocks the caller: starts with a provisional
+     * type (see [PreviewTypeState.isFinal]) and is updated once the type is determined from the
+     * URIs metadata within the time limit; the fall-back value is
+     * [ContentPreviewType.CONTENT_PREVIEW_FILE].
+     */
+    @get:OpenForTesting
+    open val previewTypeFlow: StateFlow<PreviewTypeState> by lazy {
+        if (!hasUris) {
+            MutableStateFlow(PreviewTypeState(CONTENT_PREVIEW_TEXT, isFinal = true))
+        } else {
+            MutableStateFlow(PreviewTypeState(provisionalPreviewType, isFinal = false)).apply {
+                scope.launch {
+                    value = PreviewTypeState(previewTypeResolution.await(), isFinal = true)
+                }
+            }
+        }
+    }
 
     /**
      * Preview type to use. The type is determined asynchronously with a timeout; the fall-back
-     * values is [ContentPreviewType.CONTENT_PREVIEW_FILE]
+     * values is [ContentPreviewType.CONTENT_PREVIEW_FILE]. This call waits for the type to be
+     * determined, UI code should use [previewTypeFlow] instead.
      */
     @get:OpenForTesting
     @get:ContentPreviewType
@@ -120,12 +244,12 @@ constructor(
              * that broadly covers all data being shared, such as '*' when sending an image
              * and text. We therefore should inspect each item for the preferred type, in order:
              * IMAGE, FILE, TEXT. */
-            if (!targetIntent.isSend || records.isEmpty()) {
+            if (!hasUris) {
                 CONTENT_PREVIEW_TEXT
             } else {
                 try {
                     runBlocking(scope.coroutineContext) {
-                        withTimeoutOrNull(TIMEOUT_MS) { scope.async { loadPreviewType() }.await() }
+                        withTimeoutOrNull(previewTypeTimeoutMs) { previewTypeResolution.await() }
                             ?: CONTENT_PREVIEW_FILE
                     }
                 } catch (e: CancellationException) {
@@ -141,31 +265,44 @@ constructor(
     }
 
     /**
-     * The first shared URI's metadata. This call wait's for the data to be loaded and falls back to
-     * a crude value if the data is not loaded within a time limit.
+     * The first shared URI's metadata. Once [previewTypeFlow] has reported the final
+     * [ContentPreviewType.CONTENT_PREVIEW_IMAGE] type, the data is readily available; otherwise,
+     * this call wait's for the data to be loaded and falls back to a crude value if the data is not
+     * loaded within a time limit.
      */
     open val firstFileInfo: FileInfo? by lazy {
-        runTracing("first-uri-metadata") {
-            records.firstOrNull()?.let { record ->
-                val builder = FileInfo.Builder(record.uri)
-                try {
-                    runBlocking(scope.coroutineContext) {
-                        withTimeoutOrNull(TIMEOUT_MS) {
-                            scope.async { builder.readFromRecord(record) }.await()
+        resolvedFirstFileInfo
+            ?: runTracing("first-uri-metadata") {
+                records.firstOrNull()?.let { record ->
+                    val builder = FileInfo.Builder(record.uri)
+                    try {
+                        runBlocking(scope.coroutineContext) {
+                            withTimeoutOrNull(TIMEOUT_MS) {
+                                scope.async { builder.readFromRecord(record) }.await()
+                            }
                         }
+                    } catch (e: CancellationException) {
+                        Log.w(
+                            ContentPreviewUi.TAG,
+                            "An attempt to read first file info from a cancelled scope",
+                            e
+                        )
                     }
-                } catch (e: CancellationException) {
-                    Log.w(
-                        ContentPreviewUi.TAG,
-                        "An attempt to read first file info from a cancelled scope",
-                        e
-                    )
+                    builder.build()
                 }
-                builder.build()
             }
-        }
     }
 
+    /**
+     * Runs the blocking [block], that reads the [uri] metadata, in [scope] within the
+     * [providerLimiter] limits and waits for the result for at most [timeoutMs]; the block is not
+     * interrupted on timeout but its result, if any, is discarded.
+     */
+    private suspend fun <T> readWithin(uri: Uri, timeoutMs: Long, block: () -> T): T? =
+        withTimeoutOrNull(timeoutMs) {
+            scope.async { providerLimiter.withPermit(uri) { block() } }.await()
+        }
+
     private fun FileInfo.Builder.readFromRecord(record: UriRecord): FileInfo.Builder {
         withMimeType(record.mimeType)
         val previewUri =
@@ -207,26 +344,33 @@ constructor(
         // logic for the actual [ContentProvider#getType] call. Thus it is possible for one getType
         // call's timeout work against other concurrent getType calls e.g. when a two concurrent
         // calls on the caller side are scheduled on the same thread on the callee side.
-        records
-            .firstOrNull { it.isImageType }
-            ?.run {
+        // A URI that misses its deadline is skipped, its read still runs in the background.
+        for (record in records) {
+            if (readWithin(record.uri, uriTimeoutMs) { record.isImageType } == true) {
                 return CONTENT_PREVIEW_IMAGE
             }
+        }
 
         val resultDeferred = CompletableDeferred<Int>()
         return coroutineScope {
             val job = launch {
                 coroutineScope {
                     val nextIndex = AtomicInteger(0)
-                    repeat(4) {
+                    // more workers would only wait for the provider permits
+                    repeat(providerLimiter.maxPermitsPerAuthority) {
                         launch {
                             while (isActive) {
                                 val i = nextIndex.getAndIncrement()
                                 if (i >= records.size) break
+                                val record = records[i]
                                 val hasPreview =
-                                    with(records[i]) {
-                                        supportsImageType || supportsThumbnail || iconUri != null
-                                    }
+                                    readWithin(record.uri, uriTimeoutMs) {
+                                        with(record) {
+                                            supportsImageType ||
+                                                supportsThumbnail ||
+                                                iconUri != null
+                                        }
+                                    } == true
                                 if (hasPreview) {
                                     resultDeferred.complete(CONTENT_PREVIEW_IMAGE)
                                     break
@@ -304,6 +448,26 @@ constructor(
                 ?: QueryResult()
     }
 
+    /**
+     * Records for the streaming mode: created on access and not retained, except for the first
+     * one that is shared by [firstFileInfo], [getFirstFileName] and the flow.
+     */
+    private inner class StreamingRecords : AbstractList<UriRecord>() {
+        private val firstRecord by lazy { UriRecord(uris[0]) }
+
+        override val size: Int
+            get() = uris.size
+
+        override fun get(index: Int): UriRecord =
+            if (index == 0) firstRecord else UriRecord(uris[index])
+    }
+
+    /**
+     * A preview [type] along with whether it is determined from the URIs metadata ([isFinal]) or is
+     * a provisional guess to start rendering with.
+     */
+    data class PreviewTypeState(@ContentPreviewType val type: Int, val isFinal: Boolean)
+
     private class QueryResult(
         val supportsThumbnail: Boolean = false,
         val title: String = "",
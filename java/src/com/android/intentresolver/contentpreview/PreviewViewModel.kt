@@ -27,6 +27,7 @@ import androidx.lifecycle.viewmodel.CreationExtras
 import com.android.intentresolver.ChooserRequestParameters
 import com.android.intentresolver.R
 import com.android.intentresolver.inject.Background
+import dagger.hilt.android.EntryPointAccessors
 import dagger.hilt.android.lifecycle.HiltViewModel
 import javax.inject.Inject
 import kotlinx.coroutines.CoroutineDispatcher
@@ -39,6 +40,8 @@ class PreviewViewModel
 @Inject
 constructor(
     private val application: Application,
+    private val thumbnailCache: ThumbnailCache,
+    private val providerLimiter: ContentProviderLimiter,
     @Background private val dispatcher: CoroutineDispatcher = Dispatchers.IO,
 ) : BasePreviewViewModel() {
     private var previewDataProvider: PreviewDataProvider? = null
@@ -52,7 +55,8 @@ constructor(
             ?: PreviewDataProvider(
                     viewModelScope + dispatcher,
                     targetIntent,
-                    application.contentResolver
+                    application.contentResolver,
+                    providerLimiter = providerLimiter,
                 )
                 .also { previewDataProvider = it }
 
@@ -66,7 +70,9 @@ constructor(
                             R.dimen.chooser_preview_image_max_dimen
                         ),
                     application.contentResolver,
-                    cacheSize = 16
+                    cacheSize = 16,
+                    providerLimiter,
+                    thumbnailCache,
                 )
                 .also { imageLoader = it }
 
@@ -77,7 +83,22 @@ constructor(
                 override fun <T : ViewModel> create(
                     modelClass: Class<T>,
                     extras: CreationExtras
-                ): T = PreviewViewModel(checkNotNull(extras[APPLICATION_KEY])) as T
+                ): T {
+                    val application = checkNotNull(extras[APPLICATION_KEY])
+                    val thumbnailCache =
+                        EntryPointAccessors.fromApplication(
+                                application,
+                                ThumbnailCache.ThumbnailCacheEntryPoint::class.java
+                            )
+                            .thumbnailCache()
+                    val providerLimiter =
+                        EntryPointAccessors.fromApplication(
+                                application,
+                                ContentProviderLimiter.ContentProviderLimiterEntryPoint::class.java
+                            )
+                            .contentProviderLimiter()
+                    return PreviewViewModel(application, thumbnailCache, providerLimiter) as T
+                }
             }
     }
 }
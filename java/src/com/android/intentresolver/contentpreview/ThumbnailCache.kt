@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.contentpreview
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.res.Configuration
+import android.graphics.Bitmap
+import android.net.Uri
+import android.util.Size
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import androidx.collection.LruCache
+import dagger.hilt.EntryPoint
+import dagger.hilt.InstallIn
+import dagger.hilt.android.qualifiers.ApplicationContext
+import dagger.hilt.components.SingletonComponent
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.math.roundToInt
+
+/**
+ * A process-wide in-memory cache of preview thumbnails that outlives individual sharesheet
+ * sessions, so re-sharing the same content does not decode its thumbnails again.
+ *
+ * Thumbnails are keyed by the content URI and stored along with the provider's last-modified value
+ * for the content, if the provider reports one, so edited content is not served stale. The cache
+ * is bounded by the total bitmap allocation size and releases memory on [onTrimMemory]. Only one
+ * thumbnail, at the size it was loaded for, is kept per content.
+ */
+@Singleton
+class ThumbnailCache
+@VisibleForTesting
+constructor(
+    context: Context,
+    maxSizeBytes: Int,
+) : ComponentCallbacks2 {
+
+    @Inject
+    constructor(
+        @ApplicationContext context: Context
+    ) : this(context, defaultMaxSizeBytes())
+
+    private val cache =
+        object : LruCache<Uri, Entry>(maxSizeBytes) {
+            override fun sizeOf(key: Uri, value: Entry): Int = value.bitmap.allocationByteCount
+        }
+
+    init {
+        context.registerComponentCallbacks(this)
+    }
+
+    /** Total size, in bytes, of the cached bitmaps. */
+    val size: Int
+        get() = cache.size()
+
+    /**
+     * Returns a thumbnail of the [uri] content loaded for [size], or `null` if there is none. The
+     * content's current last-modified value is only read, with [readLastModified], when there is
+     * such a thumbnail; a thumbnail of an earlier version of the content is dropped.
+     */
+    @WorkerThread
+    fun get(uri: Uri, size: Size, readLastModified: () -> Long?): Bitmap? {
+        val entry = cache[uri]?.takeIf { it.size == size } ?: return null
+        if (entry.lastModified != readLastModified()) {
+            cache.remove(uri)
+            return null
+        }
+        return entry.bitmap
+    }
+
+    /**
+     * Stores a [bitmap] of the [uri] content, as of its [lastModified] value, loaded for the
+     * [size], replacing any other thumbnail of the content.
+     */
+    fun put(uri: Uri, lastModified: Long?, size: Size, bitmap: Bitmap) {
+        cache.put(uri, Entry(size, lastModified, bitmap))
+    }
+
+    override fun onTrimMemory(level: Int) {
+        when {
+            // The UI going away alone is not a reason to drop the thumbnails: a subsequent share
+            // of the same content is the case this cache is for.
+            level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND -> cache.evictAll()
+            level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN -> Unit
+            level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL -> cache.evictAll()
+            level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW ->
+                cache.trimToSize(cache.maxSize() / 2)
+        }
+    }
+
+    override fun onLowMemory() {
+        cache.evictAll()
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) = Unit
+
+    private class Entry(val size: Size, val lastModified: Long?, val bitmap: Bitmap)
+
+    /** Provides the cache to components that are not created by Hilt e.g. view model factories. */
+    @EntryPoint
+    @InstallIn(SingletonComponent::class)
+    interface ThumbnailCacheEntryPoint {
+        fun thumbnailCache(): ThumbnailCache
+    }
+}
+
+private fun defaultMaxSizeBytes(): Int =
+    (Runtime.getRuntime().maxMemory() / 16).coerceAtMost(Int.MAX_VALUE.toLong()).toInt()
+
+/**
+ * Returns a copy of the bitmap scaled down, preserving the aspect ratio, to fit into [size], or the
+ * bitmap itself if it already fits.
+ */
+internal fun Bitmap.downscaleToFit(size: Size): Bitmap {
+    if (width <= size.width && height <= size.height) return this
+    val scale = minOf(size.width.toFloat() / width, size.height.toFloat() / height)
+    return Bitmap.createScaledBitmap(
+        this,
+        (width * scale).roundToInt().coerceAtLeast(1),
+        (height * scale).roundToInt().coerceAtLeast(1),
+        /* filter= */ true
+    )
+}
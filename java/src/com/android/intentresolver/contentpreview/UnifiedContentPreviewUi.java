@@ -48,6 +48,7 @@ class UnifiedContentPreviewUi extends ContentPreviewUi {
     private final HeadlineGenerator mHeadlineGenerator;
     private final Flow<FileInfo> mFileInfoFlow;
     private final int mItemCount;
+    private final boolean mIsStreaming;
     @Nullable
     private List<FileInfo> mFiles;
     @Nullable
@@ -66,6 +67,37 @@ class UnifiedContentPreviewUi extends ContentPreviewUi {
             Flow<FileInfo> fileInfoFlow,
             int itemCount,
             HeadlineGenerator headlineGenerator) {
+        this(
+                scope,
+                isSingleImage,
+                intentMimeType,
+                actionFactory,
+                imageLoader,
+                typeClassifier,
+                transitionElementStatusCallback,
+                fileInfoFlow,
+                itemCount,
+                headlineGenerator,
+                /* isStreaming= */ false);
+    }
+
+    /**
+     * @param isStreaming indicates that {@code fileInfoFlow} reads the shared files metadata on
+     * demand (see {@link PreviewDataProvider#isStreaming()}); such flow is only consumed by the
+     * preview view, as it is scrolled, and the headline is based on the intent mime type.
+     */
+    UnifiedContentPreviewUi(
+            CoroutineScope scope,
+            boolean isSingleImage,
+            @Nullable String intentMimeType,
+            ChooserContentPreviewUi.ActionFactory actionFactory,
+            ImageLoader imageLoader,
+            MimeTypeClassifier typeClassifier,
+            TransitionElementStatusCallback transitionElementStatusCallback,
+            Flow<FileInfo> fileInfoFlow,
+            int itemCount,
+            HeadlineGenerator headlineGenerator,
+            boolean isStreaming) {
         mShowEditAction = isSingleImage;
         mIntentMimeType = intentMimeType;
         mActionFactory = actionFactory;
@@ -75,8 +107,11 @@ class UnifiedContentPreviewUi extends ContentPreviewUi {
         mFileInfoFlow = fileInfoFlow;
         mItemCount = itemCount;
         mHeadlineGenerator = headlineGenerator;
+        mIsStreaming = isStreaming;
 
-        JavaFlowHelper.collectToList(scope, fileInfoFlow, this::setFiles);
+        if (!isStreaming) {
+            JavaFlowHelper.collectToList(scope, fileInfoFlow, this::setFiles);
+        }
     }
 
     @Override
@@ -122,6 +157,7 @@ class UnifiedContentPreviewUi extends ContentPreviewUi {
         ScrollableImagePreviewView imagePreview =
                 mContentPreviewView.requireViewById(R.id.scrollable_image_preview);
         imagePreview.setImageLoader(mImageLoader);
+        imagePreview.setImageSizeProbe(mImageLoader);
         imagePreview.setOnNoPreviewCallback(() -> imagePreview.setVisibility(View.GONE));
         imagePreview.setTransitionElementStatusCallback(mTransitionElementStatusCallback);
         imagePreview.setPreviews(
@@ -129,7 +165,8 @@ class UnifiedContentPreviewUi extends ContentPreviewUi {
                         mFileInfoFlow,
                         mTypeClassifier,
                         mShowEditAction ? mActionFactory.getEditButtonRunnable() : null),
-                mItemCount);
+                mItemCount,
+                mIsStreaming);
 
         if (mFiles != null) {
             updatePreviewWithFiles(mContentPreviewView, mHeadlineView, mFiles);
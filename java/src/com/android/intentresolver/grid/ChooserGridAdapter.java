@@ -34,16 +34,21 @@ import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.android.intentresolver.ChooserListAdapter;
 import com.android.intentresolver.FeatureFlags;
 import com.android.intentresolver.R;
 import com.android.intentresolver.ResolverListAdapter.ViewHolder;
+import com.android.intentresolver.chooser.TargetInfo;
 import com.android.internal.annotations.VisibleForTesting;
 
 import com.google.android.collect.Lists;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Adapter for all types of items and targets in ShareSheet.
  * Note that ranked sections like Direct Share - while appearing grid-like - are handled on the
@@ -120,6 +125,8 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
 
     private boolean mAzLabelVisibility = false;
 
+    private int mContentPreviewVersion = 0;
+
     public ChooserGridAdapter(
             Context context,
             ChooserActivityDelegate chooserActivityDelegate,
@@ -155,6 +162,27 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
                 notifyDataSetChanged();
             }
         });
+        wrappedAdapter.setListUpdateCallback(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(getRowPosition(position), count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(getRowPosition(position), count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                notifyItemMoved(getRowPosition(fromPosition), getRowPosition(toPosition));
+            }
+
+            @Override
+            public void onChanged(int position, int count, @Nullable Object payload) {
+                notifyRowsChanged(position, count, payload);
+            }
+        });
     }
 
     @Override
@@ -293,11 +321,7 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
     public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         switch (viewType) {
             case VIEW_TYPE_CONTENT_PREVIEW:
-                return new ItemViewHolder(
-                        mChooserActivityDelegate.buildContentPreview(parent),
-                        viewType,
-                        null,
-                        null);
+                return new ContentPreviewViewHolder(parent, viewType);
             case VIEW_TYPE_PROFILE:
                 return new ItemViewHolder(
                         createProfileView(parent),
@@ -368,10 +392,88 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
             case VIEW_TYPE_NORMAL:
                 bindItemViewHolder(position, (ItemViewHolder) holder);
                 break;
+            case VIEW_TYPE_CONTENT_PREVIEW:
+                bindContentPreviewViewHolder((ContentPreviewViewHolder) holder);
+                break;
             default:
         }
     }
 
+    /**
+     * Displays the content preview again in the content preview row, e.g. once the preview has
+     * been rebuilt for the final preview type.
+     */
+    public void notifyContentPreviewChanged() {
+        mContentPreviewVersion++;
+        if (getSystemRowCount() > 0) {
+            notifyItemChanged(0);
+        }
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull RecyclerView.ViewHolder holder) {
+        int viewType = ((ViewHolderBase) holder).getViewType();
+        switch (viewType) {
+            case VIEW_TYPE_DIRECT_SHARE:
+            case VIEW_TYPE_CALLER_AND_RANK:
+                ItemGroupViewHolder groupHolder = (ItemGroupViewHolder) holder;
+                for (int i = 0; i < groupHolder.getColumnCount(); i++) {
+                    mChooserListAdapter.onViewRecycled(groupHolder.getView(i));
+                }
+                break;
+            case VIEW_TYPE_NORMAL:
+                mChooserListAdapter.onViewRecycled(holder.itemView);
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Prioritize icon and label loads for the targets in the visible adapter positions range (both
+     * ends inclusive), followed by the targets on the next screen.
+     */
+    public void onVisibleRangeChanged(int firstVisiblePosition, int lastVisiblePosition) {
+        List<TargetInfo> visibleTargets = new ArrayList<>();
+        for (int position = firstVisiblePosition; position <= lastVisiblePosition; position++) {
+            collectTargets(position, visibleTargets);
+        }
+        List<TargetInfo> nearbyTargets = new ArrayList<>();
+        int nearbyEnd = Math.min(
+                2 * lastVisiblePosition - firstVisiblePosition + 1, getItemCount() - 1);
+        for (int position = lastVisiblePosition + 1; position <= nearbyEnd; position++) {
+            collectTargets(position, nearbyTargets);
+        }
+        mChooserListAdapter.prioritizeTargetDataLoading(visibleTargets, nearbyTargets);
+    }
+
+    private void collectTargets(int position, List<TargetInfo> targets) {
+        int columnCount;
+        switch (getItemViewType(position)) {
+            case VIEW_TYPE_DIRECT_SHARE:
+                // The direct share row holds two rows of targets.
+                columnCount = 2 * mMaxTargetsPerRow;
+                break;
+            case VIEW_TYPE_CALLER_AND_RANK:
+                columnCount = mMaxTargetsPerRow;
+                break;
+            case VIEW_TYPE_NORMAL:
+                columnCount = 1;
+                break;
+            default:
+                return;
+        }
+        // Mirrors the row composition in bindItemGroupViewHolder().
+        int start = getListPosition(position);
+        int startType = getRowType(start);
+        int end = Math.min(start + columnCount, mChooserListAdapter.getCount());
+        for (int i = start; i < end && getRowType(i) == startType; i++) {
+            TargetInfo info = mChooserListAdapter.getItem(i);
+            if (info != null) {
+                targets.add(info);
+            }
+        }
+    }
+
     @Override
     public int getItemViewType(int position) {
         int count;
@@ -526,6 +628,19 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
         return positionType;
     }
 
+    void bindContentPreviewViewHolder(ContentPreviewViewHolder holder) {
+        if (holder.getPreviewVersion() == mContentPreviewVersion) {
+            return;
+        }
+        ViewGroup container = holder.getContainer();
+        container.removeAllViews();
+        View contentPreview = mChooserActivityDelegate.buildContentPreview(holder.getListView());
+        if (contentPreview != null) {
+            container.addView(contentPreview);
+        }
+        holder.setPreviewVersion(mContentPreviewVersion);
+    }
+
     void bindItemViewHolder(int position, ItemViewHolder holder) {
         View v = holder.itemView;
         int listPosition = getListPosition(position);
@@ -606,6 +721,54 @@ public final class ChooserGridAdapter extends RecyclerView.Adapter<RecyclerView.
         return callerAndRankedCount + serviceCount + position;
     }
 
+    /**
+     * The inverse of {@link #getListPosition}: the row that shows the target at the list
+     * adapter's {@code listPosition}. The positions past the caller and ranked targets map to the
+     * A-Z targets, one per row.
+     */
+    int getRowPosition(int listPosition) {
+        int row = getSystemRowCount() + getProfileRowCount();
+
+        final int serviceCount = mChooserListAdapter.getServiceTargetCount();
+        if (listPosition < serviceCount) {
+            return row + listPosition / mMaxTargetsPerRow;
+        }
+        row += (int) Math.ceil((float) serviceCount / mMaxTargetsPerRow);
+        listPosition -= serviceCount;
+
+        final int callerAndRankedCount =
+                mChooserListAdapter.getCallerTargetCount()
+                + mChooserListAdapter.getRankedTargetCount();
+        if (listPosition < callerAndRankedCount) {
+            return row + listPosition / mMaxTargetsPerRow;
+        }
+        row += getCallerAndRankedTargetRowCount() + getAzLabelRowCount();
+
+        return row + listPosition - callerAndRankedCount;
+    }
+
+    /** Rebinds the rows that show the list adapter's targets in the given range. */
+    private void notifyRowsChanged(int listPosition, int count, @Nullable Object payload) {
+        int firstRow = -1;
+        int lastRow = -1;
+        for (int i = listPosition; i < listPosition + count; i++) {
+            final int row = getRowPosition(i);
+            if (row == lastRow) {
+                continue;
+            }
+            if (firstRow >= 0 && row != lastRow + 1) {
+                notifyItemRangeChanged(firstRow, lastRow - firstRow + 1, payload);
+                firstRow = row;
+            } else if (firstRow < 0) {
+                firstRow = row;
+            }
+            lastRow = row;
+        }
+        if (firstRow >= 0) {
+            notifyItemRangeChanged(firstRow, lastRow - firstRow + 1, payload);
+        }
+    }
+
     public ChooserListAdapter getListAdapter() {
         return mChooserListAdapter;
     }
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.grid;
+
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Used to bind {@link ChooserGridAdapter#VIEW_TYPE_CONTENT_PREVIEW}: the content preview is held
+ * in a container, so that it can be displayed again when it changes.
+ */
+public final class ContentPreviewViewHolder extends ViewHolderBase {
+    private final ViewGroup mListView;
+    private int mPreviewVersion = -1;
+
+    public ContentPreviewViewHolder(ViewGroup listView, int viewType) {
+        super(createContainer(listView), viewType);
+        mListView = listView;
+    }
+
+    /** The list the content preview is displayed in, to inflate the preview for. */
+    public ViewGroup getListView() {
+        return mListView;
+    }
+
+    public ViewGroup getContainer() {
+        return (ViewGroup) itemView;
+    }
+
+    public int getPreviewVersion() {
+        return mPreviewVersion;
+    }
+
+    public void setPreviewVersion(int previewVersion) {
+        mPreviewVersion = previewVersion;
+    }
+
+    private static ViewGroup createContainer(ViewGroup listView) {
+        FrameLayout container = new FrameLayout(listView.getContext());
+        container.setLayoutParams(new RecyclerView.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+        return container;
+    }
+}
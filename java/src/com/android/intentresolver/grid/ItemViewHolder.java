@@ -28,7 +28,6 @@ import java.util.function.Consumer;
 /**
  * Used to bind types of individual item including
  * {@link ChooserGridAdapter#VIEW_TYPE_NORMAL},
- * {@link ChooserGridAdapter#VIEW_TYPE_CONTENT_PREVIEW},
  * {@link ChooserGridAdapter#VIEW_TYPE_PROFILE},
  * and {@link ChooserGridAdapter#VIEW_TYPE_AZ_LABEL}.
  */
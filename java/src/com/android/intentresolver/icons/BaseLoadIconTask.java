@@ -18,33 +18,24 @@ package com.android.intentresolver.icons;
 
 import android.content.Context;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 
 import com.android.intentresolver.R;
 import com.android.intentresolver.TargetPresentationGetter;
 
-import java.util.function.Consumer;
+import java.util.concurrent.Callable;
 
-abstract class BaseLoadIconTask extends AsyncTask<Void, Void, Drawable> {
+abstract class BaseLoadIconTask implements Callable<Drawable> {
     protected final Context mContext;
     protected final TargetPresentationGetter.Factory mPresentationFactory;
-    private final Consumer<Drawable> mCallback;
 
     BaseLoadIconTask(
             Context context,
-            TargetPresentationGetter.Factory presentationFactory,
-            Consumer<Drawable> callback) {
+            TargetPresentationGetter.Factory presentationFactory) {
         mContext = context;
         mPresentationFactory = presentationFactory;
-        mCallback = callback;
     }
 
     protected final Drawable loadIconPlaceholder() {
         return mContext.getDrawable(R.drawable.resolver_icon_placeholder);
     }
-
-    @Override
-    protected final void onPostExecute(Drawable d) {
-        mCallback.accept(d);
-    }
 }
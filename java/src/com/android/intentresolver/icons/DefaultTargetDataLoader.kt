@@ -18,90 +18,138 @@ package com.android.intentresolver.icons
 
 import android.app.ActivityManager
 import android.content.Context
+import android.graphics.drawable.BitmapDrawable
 import android.graphics.drawable.Drawable
-import android.os.AsyncTask
 import android.os.UserHandle
-import android.util.SparseArray
-import androidx.annotation.GuardedBy
-import androidx.lifecycle.DefaultLifecycleObserver
+import androidx.annotation.MainThread
 import androidx.lifecycle.Lifecycle
-import androidx.lifecycle.LifecycleOwner
+import androidx.lifecycle.coroutineScope
 import com.android.intentresolver.TargetPresentationGetter
 import com.android.intentresolver.chooser.DisplayResolveInfo
 import com.android.intentresolver.chooser.SelectableTargetInfo
-import java.util.concurrent.atomic.AtomicInteger
+import com.android.intentresolver.chooser.TargetInfo
 import java.util.function.Consumer
+import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.asExecutor
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 
-/** An actual [TargetDataLoader] implementation. */
-// TODO: replace async tasks with coroutines.
-class DefaultTargetDataLoader(
+private const val MAX_PARALLEL_LOADS = 4
+
+/**
+ * An actual [TargetDataLoader] implementation.
+ *
+ * Loads are run with a bounded parallelism; duplicate requests for the same target share a single
+ * load. Loads for the visible targets run first, then loads for the targets next to them (see
+ * [prioritize]); within the same priority the most recently requested targets (i.e. the most
+ * recently bound views) are loaded first. All methods, but [getOrLoadLabel], are expected to be
+ * called on the main thread and all callbacks are invoked on the main thread.
+ *
+ * App target icons and labels are looked up in the [TargetDataCache] returned by [cacheProvider],
+ * if any, as the first step of their loads, and loaded ones are stored in it. The cache is obtained
+ * on each load as it may not be available when the loader is created. Direct share icons are never
+ * cached.
+ */
+class DefaultTargetDataLoader
+@JvmOverloads
+constructor(
     private val context: Context,
-    private val lifecycle: Lifecycle,
+    lifecycle: Lifecycle,
     private val isAudioCaptureDevice: Boolean,
+    private val cacheProvider: () -> TargetDataCache? = { null },
+    private val backgroundDispatcher: CoroutineDispatcher = Dispatchers.IO,
+    private val maxParallelLoads: Int = MAX_PARALLEL_LOADS,
 ) : TargetDataLoader() {
-    private val presentationFactory =
-        TargetPresentationGetter.Factory(
-            context,
-            context.getSystemService(ActivityManager::class.java)?.launcherLargeIconDensity
-                ?: error("Unable to access ActivityManager")
-        )
-    private val nextTaskId = AtomicInteger(0)
-    @GuardedBy("self") private val activeTasks = SparseArray<AsyncTask<*, *, *>>()
-    private val executor = Dispatchers.IO.asExecutor()
-
-    init {
-        lifecycle.addObserver(
-            object : DefaultLifecycleObserver {
-                override fun onDestroy(owner: LifecycleOwner) {
-                    lifecycle.removeObserver(this)
-                    destroy()
-                }
-            }
-        )
-    }
+    private val iconDpi =
+        context.getSystemService(ActivityManager::class.java)?.launcherLargeIconDensity
+            ?: error("Unable to access ActivityManager")
+    private val presentationFactory = TargetPresentationGetter.Factory(context, iconDpi)
+    private val scope = lifecycle.coroutineScope
+    // All the request bookkeeping is confined to the main thread.
+    private val requests = HashMap<RequestKey, Request<*>>()
+    // Pending requests, bucketed by Priority.
+    private val pendingRequests = Array(Priority.values().size) { ArrayDeque<Request<*>>() }
+    private var runningLoadCount = 0
+    // No viewport information until the first prioritize() call.
+    private var visibleTargets: Set<TargetInfo>? = null
+    private var nearbyTargets: Set<TargetInfo> = emptySet()
 
+    @MainThread
     override fun loadAppTargetIcon(
         info: DisplayResolveInfo,
         userHandle: UserHandle,
         callback: Consumer<Drawable>,
     ) {
-        val taskId = nextTaskId.getAndIncrement()
-        LoadIconTask(context, info, userHandle, presentationFactory) { result ->
-                removeTask(taskId)
-                callback.accept(result)
-            }
-            .also { addTask(taskId, it) }
-            .executeOnExecutor(executor)
+        request(RequestKey(info, RequestType.AppTargetIcon, userHandle), callback) {
+            loadAppTargetIcon(info, userHandle)
+        }
     }
 
+    @MainThread
     override fun loadDirectShareIcon(
         info: SelectableTargetInfo,
         userHandle: UserHandle,
         callback: Consumer<Drawable>,
     ) {
-        val taskId = nextTaskId.getAndIncrement()
-        LoadDirectShareIconTask(
-                context.createContextAsUser(userHandle, 0),
-                info,
-                presentationFactory,
-            ) { result ->
-                removeTask(taskId)
-                callback.accept(result)
-            }
-            .also { addTask(taskId, it) }
-            .executeOnExecutor(executor)
+        request(RequestKey(info, RequestType.DirectShareIcon, userHandle), callback) {
+            LoadDirectShareIconTask(
+                    context.createContextAsUser(userHandle, 0),
+                    info,
+                    presentationFactory,
+                )
+                .call()
+        }
     }
 
+    @MainThread
     override fun loadLabel(info: DisplayResolveInfo, callback: Consumer<LabelInfo>) {
-        val taskId = nextTaskId.getAndIncrement()
-        LoadLabelTask(context, info, isAudioCaptureDevice, presentationFactory) { result ->
-                removeTask(taskId)
-                callback.accept(result)
+        request(RequestKey(info, RequestType.Label, userHandle = null), callback) {
+            loadLabel(info)
+        }
+    }
+
+    private fun loadAppTargetIcon(info: DisplayResolveInfo, userHandle: UserHandle): Drawable {
+        val cache = cacheProvider()
+        val cacheKey = cache?.keyFor(info, userHandle)
+        if (cache == null || cacheKey == null) {
+            return LoadIconTask(context, info, userHandle, presentationFactory).call()
+        }
+        cache.getIcon(cacheKey, iconDpi)?.let {
+            return BitmapDrawable(context.resources, it)
+        }
+        return LoadIconTask(context, info, userHandle, presentationFactory).call().also { icon ->
+            // Placeholders are not bitmaps and are never cached.
+            if (icon is BitmapDrawable) {
+                cache.putIcon(cacheKey, iconDpi, icon.bitmap)
             }
-            .also { addTask(taskId, it) }
-            .executeOnExecutor(executor)
+        }
+    }
+
+    private fun loadLabel(info: DisplayResolveInfo): LabelInfo {
+        val cache = cacheProvider()
+        val cacheKey = cache?.keyFor(info, userHandle = null)
+        if (cache == null || cacheKey == null) {
+            return LoadLabelTask(context, info, isAudioCaptureDevice, presentationFactory).call()
+        }
+        return cache.getLabel(cacheKey)
+            ?: LoadLabelTask(context, info, isAudioCaptureDevice, presentationFactory)
+                .call()
+                .also { cache.putLabel(cacheKey, it) }
+    }
+
+    private fun TargetDataCache.keyFor(
+        info: DisplayResolveInfo,
+        userHandle: UserHandle?,
+    ): TargetDataCache.Key? {
+        // Icons are badged for the user in the ResolveInfo, see LoadIconTask.
+        val user = info.resolveInfo.userHandle ?: userHandle ?: context.user
+        return keyFor(
+            info.resolvedComponentName,
+            user,
+            context.resources.configuration.locales.toLanguageTags(),
+        )
     }
 
     override fun getOrLoadLabel(info: DisplayResolveInfo) {
@@ -113,20 +161,124 @@ class DefaultTargetDataLoader(
         }
     }
 
-    private fun addTask(id: Int, task: AsyncTask<*, *, *>) {
-        synchronized(activeTasks) { activeTasks.put(id, task) }
+    /**
+     * Drops the [callback] from the pending requests for the [info]; a request is dropped once it
+     * has no callbacks left, other callbacks (e.g. another view displaying the same target) keep
+     * it. Running loads are left to complete with all their callbacks: their result is applied to
+     * the target itself.
+     */
+    @MainThread
+    override fun cancel(info: TargetInfo, callback: Consumer<*>) {
+        val iterator = requests.values.iterator()
+        while (iterator.hasNext()) {
+            val request = iterator.next()
+            if (request.key.info !== info || request.job != null) continue
+            if (request.callbacks.removeIf { it === callback } && request.callbacks.isEmpty()) {
+                iterator.remove()
+                pendingRequests[request.priority.ordinal].remove(request)
+            }
+        }
     }
 
-    private fun removeTask(id: Int) {
-        synchronized(activeTasks) { activeTasks.remove(id) }
+    @MainThread
+    override fun prioritize(
+        visibleTargets: Collection<TargetInfo>,
+        nearbyTargets: Collection<TargetInfo>,
+    ) {
+        this.visibleTargets = visibleTargets.toHashSet()
+        this.nearbyTargets = nearbyTargets.toHashSet()
+        val pending = pendingRequests.flatMap { it }
+        pendingRequests.forEach { it.clear() }
+        for (request in pending) {
+            enqueue(request)
+        }
     }
 
-    private fun destroy() {
-        synchronized(activeTasks) {
-            for (i in 0 until activeTasks.size()) {
-                activeTasks.valueAt(i).cancel(false)
+    private fun <T> request(key: RequestKey, callback: Consumer<T>, load: () -> T) {
+        @Suppress("UNCHECKED_CAST") val existing = requests[key] as Request<T>?
+        if (existing != null) {
+            existing.callbacks.add(callback)
+            // A repeated request means the target is (still) being displayed; bump it up.
+            if (pendingRequests[existing.priority.ordinal].remove(existing)) {
+                enqueue(existing)
             }
-            activeTasks.clear()
+            return
         }
+        val request = Request(key, load).apply { callbacks.add(callback) }
+        requests[key] = request
+        enqueue(request)
+        startPendingLoads()
+    }
+
+    private fun enqueue(request: Request<*>) {
+        val info = request.key.info
+        request.priority =
+            when {
+                visibleTargets?.contains(info) ?: true -> Priority.Visible
+                nearbyTargets.contains(info) -> Priority.Nearby
+                else -> Priority.Offscreen
+            }
+        pendingRequests[request.priority.ordinal].addLast(request)
+    }
+
+    private fun startPendingLoads() {
+        while (scope.isActive && runningLoadCount < maxParallelLoads) {
+            // Highest priority first and, within a priority, last in first out: the latest
+            // requests are for the views that have just been bound.
+            val request =
+                pendingRequests.firstNotNullOfOrNull { it.removeLastOrNull() } ?: return
+            runningLoadCount++
+            request.job =
+                scope.launch {
+                    try {
+                        request.run()
+                    } finally {
+                        runningLoadCount--
+                        startPendingLoads()
+                    }
+                }
+        }
+    }
+
+    private suspend fun <T> Request<T>.run() {
+        val result = withContext(backgroundDispatcher) { load() }
+        if (requests[key] === this) {
+            requests.remove(key)
+            callbacks.forEach { it.accept(result) }
+        }
+    }
+
+    private enum class Priority {
+        Visible,
+        Nearby,
+        Offscreen,
+    }
+
+    private enum class RequestType {
+        AppTargetIcon,
+        DirectShareIcon,
+        Label,
+    }
+
+    private class RequestKey(
+        val info: TargetInfo,
+        val type: RequestType,
+        val userHandle: UserHandle?,
+    ) {
+        // Targets are compared by identity.
+        override fun equals(other: Any?): Boolean =
+            other is RequestKey &&
+                info === other.info &&
+                type == other.type &&
+                userHandle == other.userHandle
+
+        override fun hashCode(): Int =
+            (System.identityHashCode(info) * 31 + type.hashCode()) * 31 + userHandle.hashCode()
+    }
+
+    private class Request<T>(val key: RequestKey, val load: () -> T) {
+        val callbacks = ArrayList<Consumer<T>>(1)
+        var priority = Priority.Visible
+        var job: Job? = null
     }
 }
@@ -37,8 +37,6 @@ import com.android.intentresolver.TargetPresentationGetter;
 import com.android.intentresolver.chooser.SelectableTargetInfo;
 import com.android.intentresolver.util.UriFilters;
 
-import java.util.function.Consumer;
-
 /**
  * Loads direct share targets icons.
  */
@@ -49,14 +47,13 @@ class LoadDirectShareIconTask extends BaseLoadIconTask {
     LoadDirectShareIconTask(
             Context context,
             SelectableTargetInfo targetInfo,
-            TargetPresentationGetter.Factory presentationFactory,
-            Consumer<Drawable> callback) {
-        super(context, presentationFactory, callback);
+            TargetPresentationGetter.Factory presentationFactory) {
+        super(context, presentationFactory);
         mTargetInfo = targetInfo;
     }
 
     @Override
-    protected Drawable doInBackground(Void... voids) {
+    public Drawable call() {
         Drawable drawable;
         Trace.beginSection("shortcut-icon");
         try {
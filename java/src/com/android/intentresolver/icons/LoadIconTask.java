@@ -27,8 +27,6 @@ import android.util.Log;
 import com.android.intentresolver.TargetPresentationGetter;
 import com.android.intentresolver.chooser.DisplayResolveInfo;
 
-import java.util.function.Consumer;
-
 class LoadIconTask extends BaseLoadIconTask {
     private static final String TAG = "IconTask";
     protected final DisplayResolveInfo mDisplayResolveInfo;
@@ -38,16 +36,15 @@ class LoadIconTask extends BaseLoadIconTask {
     LoadIconTask(
             Context context, DisplayResolveInfo dri,
             UserHandle userHandle,
-            TargetPresentationGetter.Factory presentationFactory,
-            Consumer<Drawable> callback) {
-        super(context, presentationFactory, callback);
+            TargetPresentationGetter.Factory presentationFactory) {
+        super(context, presentationFactory);
         mUserHandle = userHandle;
         mDisplayResolveInfo = dri;
         mResolveInfo = dri.getResolveInfo();
     }
 
     @Override
-    protected Drawable doInBackground(Void... params) {
+    public Drawable call() {
         Trace.beginSection("app-icon");
         try {
             return loadIconForResolveInfo(mResolveInfo);
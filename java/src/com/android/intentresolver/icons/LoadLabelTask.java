@@ -19,34 +19,30 @@ package com.android.intentresolver.icons;
 import android.content.Context;
 import android.content.PermissionChecker;
 import android.content.pm.ActivityInfo;
-import android.os.AsyncTask;
 import android.os.Trace;
 
 import com.android.intentresolver.R;
 import com.android.intentresolver.TargetPresentationGetter;
 import com.android.intentresolver.chooser.DisplayResolveInfo;
 
-import java.util.function.Consumer;
+import java.util.concurrent.Callable;
 
-class LoadLabelTask extends AsyncTask<Void, Void, LabelInfo> {
+class LoadLabelTask implements Callable<LabelInfo> {
     private final Context mContext;
     private final DisplayResolveInfo mDisplayResolveInfo;
     private final boolean mIsAudioCaptureDevice;
     protected final TargetPresentationGetter.Factory mPresentationFactory;
-    private final Consumer<LabelInfo> mCallback;
 
     LoadLabelTask(Context context, DisplayResolveInfo dri,
-            boolean isAudioCaptureDevice, TargetPresentationGetter.Factory presentationFactory,
-            Consumer<LabelInfo> callback) {
+            boolean isAudioCaptureDevice, TargetPresentationGetter.Factory presentationFactory) {
         mContext = context;
         mDisplayResolveInfo = dri;
         mIsAudioCaptureDevice = isAudioCaptureDevice;
         mPresentationFactory = presentationFactory;
-        mCallback = callback;
     }
 
     @Override
-    protected LabelInfo doInBackground(Void... voids) {
+    public LabelInfo call() {
         try {
             Trace.beginSection("app-label");
             return loadLabel(
@@ -89,9 +85,4 @@ class LoadLabelTask extends AsyncTask<Void, Void, LabelInfo> {
                 pg.getLabel(),
                 pg.getSubLabel());
     }
-
-    @Override
-    protected void onPostExecute(LabelInfo result) {
-        mCallback.accept(result);
-    }
 }
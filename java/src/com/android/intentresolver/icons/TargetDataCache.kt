@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.icons
+
+import android.content.ComponentName
+import android.content.ContentValues
+import android.content.Context
+import android.content.pm.PackageManager
+import android.database.Cursor
+import android.database.DatabaseUtils
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteException
+import android.database.sqlite.SQLiteOpenHelper
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.os.UserHandle
+import android.util.Log
+import androidx.annotation.GuardedBy
+import androidx.annotation.VisibleForTesting
+import androidx.annotation.WorkerThread
+import com.android.internal.content.PackageMonitor
+import dagger.hilt.android.qualifiers.ApplicationContext
+import java.io.ByteArrayOutputStream
+import java.util.concurrent.ConcurrentHashMap
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val TAG = "TargetDataCache"
+private const val DB_NAME = "target_data_cache.db"
+private const val DB_VERSION = 1
+private const val MAX_ENTRIES = 500
+// Number of rows a table may grow past MAX_ENTRIES before its oldest rows are pruned.
+private const val PRUNE_BATCH_SIZE = 100
+
+private const val TABLE_ICONS = "icons"
+private const val TABLE_LABELS = "labels"
+private const val COL_PACKAGE = "package"
+private const val COL_COMPONENT = "component"
+private const val COL_USER_ID = "user_id"
+private const val COL_LAST_UPDATE_TIME = "last_update_time"
+private const val COL_LOCALE = "locale"
+private const val COL_DENSITY = "density"
+private const val COL_ICON = "icon"
+private const val COL_LABEL = "label"
+private const val COL_SUB_LABEL = "sub_label"
+private const val COL_TIMESTAMP = "timestamp"
+
+/**
+ * A persistent, process-wide store of rendered app target icons and labels.
+ *
+ * Entries are keyed by component, user, the package's last update time and the locale (plus the
+ * density, for icons) they were rendered for. Entries for a package are dropped as soon as the
+ * package is changed, updated or removed. Each table keeps at most [maxEntries] most recently
+ * stored entries; the oldest ones are pruned in batches of [pruneBatchSize].
+ */
+@Singleton
+class TargetDataCache
+@VisibleForTesting
+constructor(
+    private val context: Context,
+    private val maxEntries: Int,
+    private val pruneBatchSize: Int,
+) {
+    @Inject
+    constructor(
+        @ApplicationContext context: Context
+    ) : this(context, MAX_ENTRIES, PRUNE_BATCH_SIZE)
+
+    private val dbHelper = DbHelper(context)
+    // Estimated table row counts: replaced rows are counted as added ones, the counts are read
+    // again after each pruning.
+    @GuardedBy("rowCounts") private val rowCounts = HashMap<String, Long>()
+    private val lastUpdateTimes = ConcurrentHashMap<PackageKey, Long>()
+    @GuardedBy("monitoredUsers") private val monitoredUsers = HashSet<UserHandle>()
+
+    /**
+     * Returns a cache key for [component] as seen by [user] rendered for [locale], or `null` if the
+     * component's package can not be found.
+     */
+    @WorkerThread
+    fun keyFor(component: ComponentName, user: UserHandle, locale: String): Key? {
+        ensureMonitored(user)
+        val packageKey = PackageKey(component.packageName, user.identifier)
+        val lastUpdateTime =
+            lastUpdateTimes[packageKey]
+                ?: loadLastUpdateTime(component.packageName, user)?.also {
+                    lastUpdateTimes[packageKey] = it
+                }
+                ?: return null
+        return Key(component, user.identifier, lastUpdateTime, locale)
+    }
+
+    /** Returns a cached icon for the [key], rendered at [density], or `null` if there is none. */
+    @WorkerThread
+    fun getIcon(key: Key, density: Int): Bitmap? =
+        query(TABLE_ICONS, arrayOf(COL_ICON), key, density) { cursor ->
+            cursor.getBlob(0)?.let { BitmapFactory.decodeByteArray(it, 0, it.size) }
+        }
+
+    /** Stores an [icon] rendered at [density] for the [key]. */
+    @WorkerThread
+    fun putIcon(key: Key, density: Int, icon: Bitmap) {
+        val bytes = ByteArrayOutputStream().use { stream ->
+            if (!icon.compress(Bitmap.CompressFormat.PNG, 100, stream)) {
+                return
+            }
+            stream.toByteArray()
+        }
+        insert(TABLE_ICONS, key, density) { put(COL_ICON, bytes) }
+    }
+
+    /** Returns a cached label for the [key], or `null` if there is none. */
+    @WorkerThread
+    fun getLabel(key: Key): LabelInfo? =
+        query(TABLE_LABELS, arrayOf(COL_LABEL, COL_SUB_LABEL), key, density = null) { cursor ->
+            LabelInfo(cursor.getString(0), cursor.getString(1))
+        }
+
+    /** Stores a [label] for the [key]. */
+    @WorkerThread
+    fun putLabel(key: Key, label: LabelInfo) {
+        insert(TABLE_LABELS, key, density = null) {
+            put(COL_LABEL, label.label?.toString())
+            put(COL_SUB_LABEL, label.subLabel?.toString())
+        }
+    }
+
+    /** Drops all entries for the [packageName] in the [user]. */
+    fun invalidatePackage(packageName: String, user: UserHandle) {
+        lastUpdateTimes.remove(PackageKey(packageName, user.identifier))
+        val args = arrayOf(packageName, user.identifier.toString())
+        withDatabase { db ->
+            for (table in arrayOf(TABLE_ICONS, TABLE_LABELS)) {
+                db.delete(table, "$COL_PACKAGE = ? AND $COL_USER_ID = ?", args)
+            }
+        }
+    }
+
+    private fun <T> query(
+        table: String,
+        columns: Array<String>,
+        key: Key,
+        density: Int?,
+        read: (Cursor) -> T?,
+    ): T? {
+        val selection = buildString {
+            append("$COL_COMPONENT = ? AND $COL_USER_ID = ? AND $COL_LAST_UPDATE_TIME = ?")
+            append(" AND $COL_LOCALE = ?")
+            if (density != null) {
+                append(" AND $COL_DENSITY = ?")
+            }
+        }
+        val args = buildList {
+            add(key.component.flattenToString())
+            add(key.userId.toString())
+            add(key.lastUpdateTime.toString())
+            add(key.locale)
+            density?.let { add(it.toString()) }
+        }
+        return withDatabase { db ->
+            db.query(table, columns, selection, args.toTypedArray(), null, null, null).use {
+                if (it.moveToFirst()) read(it) else null
+            }
+        }
+    }
+
+    private fun insert(table: String, key: Key, density: Int?, values: ContentValues.() -> Unit) {
+        val row =
+            ContentValues().apply {
+                put(COL_PACKAGE, key.component.packageName)
+                put(COL_COMPONENT, key.component.flattenToString())
+                put(COL_USER_ID, key.userId)
+                put(COL_LAST_UPDATE_TIME, key.lastUpdateTime)
+                put(COL_LOCALE, key.locale)
+                density?.let { put(COL_DENSITY, it) }
+                put(COL_TIMESTAMP, System.currentTimeMillis())
+                values()
+            }
+        withDatabase { db ->
+            db.insertWithOnConflict(table, null, row, SQLiteDatabase.CONFLICT_REPLACE)
+            if (onRowInserted(db, table)) {
+                db.execSQL(
+                    "DELETE FROM $table WHERE rowid NOT IN " +
+                        "(SELECT rowid FROM $table ORDER BY $COL_TIMESTAMP DESC LIMIT $maxEntries)"
+                )
+                synchronized(rowCounts) {
+                    rowCounts[table] = DatabaseUtils.queryNumEntries(db, table)
+                }
+            }
+        }
+    }
+
+    /** Counts an inserted row and returns whether the [table] is to be pruned. */
+    private fun onRowInserted(db: SQLiteDatabase, table: String): Boolean =
+        synchronized(rowCounts) {
+            val count = rowCounts[table]?.plus(1) ?: DatabaseUtils.queryNumEntries(db, table)
+            rowCounts[table] = count
+            count > maxEntries + pruneBatchSize
+        }
+
+    private fun <T> withDatabase(block: (SQLiteDatabase) -> T): T? =
+        try {
+            block(dbHelper.writableDatabase)
+        } catch (e: SQLiteException) {
+            Log.e(TAG, "Target data cache access failed", e)
+            null
+        }
+
+    private fun loadLastUpdateTime(packageName: String, user: UserHandle): Long? =
+        try {
+            context
+                .createContextAsUser(user, 0)
+                .packageManager
+                .getPackageInfo(packageName, 0)
+                .lastUpdateTime
+        } catch (e: PackageManager.NameNotFoundException) {
+            null
+        }
+
+    private fun ensureMonitored(user: UserHandle) {
+        synchronized(monitoredUsers) {
+            if (monitoredUsers.add(user)) {
+                createPackageMonitor().register(context, null, user, true)
+            }
+        }
+    }
+
+    private fun createPackageMonitor() =
+        object : PackageMonitor() {
+            override fun onPackageRemoved(packageName: String, uid: Int) {
+                invalidatePackage(packageName, UserHandle.of(changingUserId))
+            }
+
+            override fun onPackageUpdateFinished(packageName: String, uid: Int) {
+                invalidatePackage(packageName, UserHandle.of(changingUserId))
+            }
+
+            override fun onPackageModified(packageName: String) {
+                invalidatePackage(packageName, UserHandle.of(changingUserId))
+            }
+
+            override fun onPackageChanged(
+                packageName: String,
+                uid: Int,
+                components: Array<String>
+            ): Boolean {
+                // Component-level changes may affect labels and icons too.
+                return true
+            }
+        }
+
+    /** Identifies a cache entry. */
+    data class Key(
+        val component: ComponentName,
+        val userId: Int,
+        val lastUpdateTime: Long,
+        val locale: String,
+    )
+
+    private data class PackageKey(val packageName: String, val userId: Int)
+
+    private class DbHelper(context: Context) :
+        SQLiteOpenHelper(context, DB_NAME, null, DB_VERSION) {
+        override fun onCreate(db: SQLiteDatabase) {
+            db.execSQL(
+                "CREATE TABLE $TABLE_ICONS (" +
+                    "$COL_PACKAGE TEXT NOT NULL, " +
+                    "$COL_COMPONENT TEXT NOT NULL, " +
+                    "$COL_USER_ID INTEGER NOT NULL, " +
+                    "$COL_LAST_UPDATE_TIME INTEGER NOT NULL, " +
+                    "$COL_LOCALE TEXT NOT NULL, " +
+                    "$COL_DENSITY INTEGER NOT NULL, " +
+                    "$COL_ICON BLOB NOT NULL, " +
+                    "$COL_TIMESTAMP INTEGER NOT NULL, " +
+                    "PRIMARY KEY ($COL_COMPONENT, $COL_USER_ID, $COL_LOCALE, $COL_DENSITY))"
+            )
+            db.execSQL(
+                "CREATE TABLE $TABLE_LABELS (" +
+                    "$COL_PACKAGE TEXT NOT NULL, " +
+                    "$COL_COMPONENT TEXT NOT NULL, " +
+                    "$COL_USER_ID INTEGER NOT NULL, " +
+                    "$COL_LAST_UPDATE_TIME INTEGER NOT NULL, " +
+                    "$COL_LOCALE TEXT NOT NULL, " +
+                    "$COL_LABEL TEXT, " +
+                    "$COL_SUB_LABEL TEXT, " +
+                    "$COL_TIMESTAMP INTEGER NOT NULL, " +
+                    "PRIMARY KEY ($COL_COMPONENT, $COL_USER_ID, $COL_LOCALE))"
+            )
+        }
+
+        override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+            db.execSQL("DROP TABLE IF EXISTS $TABLE_ICONS")
+            db.execSQL("DROP TABLE IF EXISTS $TABLE_LABELS")
+            onCreate(db)
+        }
+    }
+}
@@ -20,6 +20,7 @@ import android.graphics.drawable.Drawable
 import android.os.UserHandle
 import com.android.intentresolver.chooser.DisplayResolveInfo
 import com.android.intentresolver.chooser.SelectableTargetInfo
+import com.android.intentresolver.chooser.TargetInfo
 import java.util.function.Consumer
 
 /** A target data loader contract. Added to support testing. */
@@ -43,4 +44,20 @@ abstract class TargetDataLoader {
 
     /** Loads DisplayResolveInfo's display label synchronously, if needed */
     abstract fun getOrLoadLabel(info: DisplayResolveInfo)
+
+    /**
+     * Cancel the pending icon or label load for the target that the [callback] has been passed to,
+     * if any; the [callback] will not be invoked. Other callbacks for the same target are not
+     * affected.
+     */
+    open fun cancel(info: TargetInfo, callback: Consumer<*>) {}
+
+    /**
+     * Update load priorities: pending loads for [visibleTargets] are run first, then pending loads
+     * for [nearbyTargets] (e.g. the next screen); loads for any other target are deferred.
+     */
+    open fun prioritize(
+        visibleTargets: Collection<TargetInfo>,
+        nearbyTargets: Collection<TargetInfo>,
+    ) {}
 }
@@ -16,10 +16,17 @@
 
 package com.android.intentresolver.inject
 
+import com.android.intentresolver.util.InstrumentedExecutor
 import dagger.Module
 import dagger.Provides
 import dagger.hilt.InstallIn
 import dagger.hilt.components.SingletonComponent
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import javax.inject.Singleton
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
@@ -40,4 +47,36 @@ object ConcurrencyModule {
         CoroutineScope(SupervisorJob() + mainDispatcher)
 
     @Provides @Background fun backgroundDispatcher(): CoroutineDispatcher = Dispatchers.IO
+
+    /**
+     * A shared, bounded, executor for short background tasks e.g. system service callbacks. Its
+     * threads are stopped when idle.
+     */
+    @Provides
+    @Singleton
+    @Background
+    fun backgroundExecutor(): Executor =
+        InstrumentedExecutor(
+            "BackgroundExecutor",
+            ThreadPoolExecutor(
+                    BACKGROUND_EXECUTOR_THREADS,
+                    BACKGROUND_EXECUTOR_THREADS,
+                    BACKGROUND_EXECUTOR_KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS,
+                    LinkedBlockingQueue(),
+                    namedThreadFactory("intentresolver-bg"),
+                )
+                .apply { allowCoreThreadTimeOut(true) },
+        )
+
+    private fun namedThreadFactory(prefix: String): ThreadFactory {
+        val threadCount = AtomicInteger()
+        return ThreadFactory { runnable ->
+            Thread(runnable, "$prefix-${threadCount.incrementAndGet()}")
+        }
+    }
 }
+
+/** The maximum number of threads of the [Background] executor. */
+const val BACKGROUND_EXECUTOR_THREADS = 2
+private const val BACKGROUND_EXECUTOR_KEEP_ALIVE_SECONDS = 10L
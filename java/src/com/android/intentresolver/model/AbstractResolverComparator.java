@@ -37,8 +37,10 @@ import com.android.intentresolver.ResolverListController;
 import com.android.intentresolver.chooser.TargetInfo;
 import com.android.intentresolver.logging.EventLog;
 
+import java.text.CollationKey;
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -73,7 +75,21 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
     // predicting ranking scores.
     private static final int WATCHDOG_TIMEOUT_MILLIS = 500;
 
-    private final Comparator<ResolveInfo> mAzComparator;
+    // Sort key layout, from the most significant bit: the sign bit (unused), the tier of the target
+    // (see #getTier), the quantized score (higher scores first) and the index of the target (to
+    // keep the sort stable).
+    private static final int SORT_KEY_INDEX_BITS = 28;
+    private static final int SORT_KEY_TIER_SHIFT = SORT_KEY_INDEX_BITS + 32;
+    private static final long SORT_KEY_INDEX_MASK = (1L << SORT_KEY_INDEX_BITS) - 1;
+
+    private static final int TIER_PROMOTED = 0;
+    private static final int TIER_PINNED = 1;
+    private static final int TIER_RANKED = 2;
+    private static final int TIER_NON_SPECIFIC_PINNED = 3;
+    private static final int TIER_NON_SPECIFIC_RANKED = 4;
+    private static final int TIER_OTHER_USER = 5;
+
+    private final AzInfoComparator mAzComparator;
     private EventLog mEventLog;
 
     protected final Handler mHandler = new Handler(Looper.getMainLooper()) {
@@ -234,6 +250,163 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
      */
     public abstract int compare(ResolveInfo lhs, ResolveInfo rhs);
 
+    /**
+     * Returns the score of the target, as ranked by the model computed in {@link #compute(List)},
+     * for the targets to be sorted with primitive keys in {@link #sortByKeys(List, int)}: targets
+     * with higher scores go first and targets with the same score are ordered by
+     * {@link #getTieBreakKey(ResolveInfo)}. The order has to be the one of
+     * {@link #compare(ResolveInfo, ResolveInfo)}.
+     *
+     * <p>Default implementation returns {@link Float#NaN}, meaning there is no score for the target
+     * and the targets are sorted with {@link #compare(ResolveInfo, ResolveInfo)}.
+     */
+    protected float getSortScore(ResolveInfo info) {
+        return Float.NaN;
+    }
+
+    /**
+     * Returns the key to order the targets with the same {@link #getSortScore(ResolveInfo)}, or
+     * {@code null} if such targets keep their relative order.
+     */
+    @Nullable
+    protected CollationKey getTieBreakKey(ResolveInfo info) {
+        return null;
+    }
+
+    /**
+     * Sorts {@code targets} so that the {@code k} top ranked ones go first, in the order of
+     * {@link #compare(ResolvedComponentInfo, ResolvedComponentInfo)}, followed by the rest of the
+     * targets in their original order. Instead of calling the comparator for every comparison, a
+     * primitive sort key is built once per target, packing the special cases (the user, the
+     * promoted and pinned targets, a specific URI match) and the model score, and the keys are
+     * sorted.
+     *
+     * @return {@code false}, leaving the targets unchanged, if the model does not provide scores
+     * for all the targets, see {@link #getSortScore(ResolveInfo)}.
+     */
+    public final boolean sortByKeys(List<ResolvedComponentInfo> targets, int k) {
+        final int size = targets.size();
+        if (size > SORT_KEY_INDEX_MASK) {
+            return false;
+        }
+        final long[] keys = new long[size];
+        final ResolveInfo[] infos = new ResolveInfo[size];
+        for (int i = 0; i < size; i++) {
+            final ResolvedComponentInfo target = targets.get(i);
+            final ResolveInfo info = target.getResolveInfoAt(0);
+            final int tier = getTier(target, info);
+            float score = 0;
+            if (tier == TIER_RANKED || tier == TIER_NON_SPECIFIC_RANKED) {
+                score = getSortScore(info);
+                if (Float.isNaN(score)) {
+                    return false;
+                }
+            }
+            infos[i] = info;
+            keys[i] = ((long) tier << SORT_KEY_TIER_SHIFT)
+                    | (descendingScoreBits(score) << SORT_KEY_INDEX_BITS)
+                    | i;
+        }
+        Arrays.sort(keys);
+        sortTies(keys, infos);
+
+        final ResolvedComponentInfo[] original = targets.toArray(new ResolvedComponentInfo[0]);
+        final boolean[] isTop = new boolean[size];
+        final int topCount = Math.min(k, size);
+        for (int i = 0; i < topCount; i++) {
+            final int index = (int) (keys[i] & SORT_KEY_INDEX_MASK);
+            isTop[index] = true;
+            targets.set(i, original[index]);
+        }
+        int position = topCount;
+        for (int i = 0; i < size; i++) {
+            if (!isTop[i]) {
+                targets.set(position++, original[i]);
+            }
+        }
+        return true;
+    }
+
+    private int getTier(ResolvedComponentInfo target, ResolveInfo info) {
+        // See #compare(ResolvedComponentInfo, ResolvedComponentInfo) for the order of the checks.
+        if (info.targetUserId != UserHandle.USER_CURRENT) {
+            return TIER_OTHER_USER;
+        }
+        if (mPromoteToFirst != null
+                && mPromoteToFirst.equals(info.activityInfo.getComponentName())) {
+            return TIER_PROMOTED;
+        }
+        final boolean isNonSpecific = mHttp && !ResolverActivity.isSpecificUriMatch(info.match);
+        if (target.isPinned()) {
+            return isNonSpecific ? TIER_NON_SPECIFIC_PINNED : TIER_PINNED;
+        }
+        return isNonSpecific ? TIER_NON_SPECIFIC_RANKED : TIER_RANKED;
+    }
+
+    /**
+     * Maps the score to 32 bits that, compared as unsigned, order the scores as
+     * {@link Float#compare(float, float)} does, in reverse.
+     */
+    private static long descendingScoreBits(float score) {
+        final int bits = Float.floatToIntBits(score);
+        // Flip the magnitude bits of negative scores so the bits compare as signed ints do.
+        final int signedOrder = bits ^ ((bits >> 31) & 0x7fffffff);
+        final long ascending = (signedOrder ^ 0x80000000) & 0xffffffffL;
+        return 0xffffffffL - ascending;
+    }
+
+    /**
+     * Orders the runs of the sorted keys that only differ by index with the tie-break keys, only
+     * looked up for the targets of such runs.
+     */
+    private void sortTies(long[] keys, ResolveInfo[] infos) {
+        int runStart = 0;
+        while (runStart < keys.length) {
+            final long runKey = keys[runStart] >>> SORT_KEY_INDEX_BITS;
+            int runEnd = runStart + 1;
+            while (runEnd < keys.length && (keys[runEnd] >>> SORT_KEY_INDEX_BITS) == runKey) {
+                runEnd++;
+            }
+            if (runEnd - runStart > 1) {
+                sortRun(keys, infos, runStart, runEnd);
+            }
+            runStart = runEnd;
+        }
+    }
+
+    private void sortRun(long[] keys, ResolveInfo[] infos, int start, int end) {
+        final int tier = (int) (keys[start] >>> SORT_KEY_TIER_SHIFT);
+        final boolean isPinned = tier == TIER_PINNED || tier == TIER_NON_SPECIFIC_PINNED;
+        if (!isPinned && tier != TIER_RANKED && tier != TIER_NON_SPECIFIC_RANKED) {
+            return;
+        }
+        final TieBreakEntry[] entries = new TieBreakEntry[end - start];
+        for (int i = start; i < end; i++) {
+            final ResolveInfo info = infos[(int) (keys[i] & SORT_KEY_INDEX_MASK)];
+            final CollationKey tieBreakKey =
+                    isPinned ? mAzComparator.getCollationKey(info) : getTieBreakKey(info);
+            if (tieBreakKey == null) {
+                return;
+            }
+            entries[i - start] = new TieBreakEntry(keys[i], tieBreakKey);
+        }
+        // Stable, so the targets with equal tie-break keys stay ordered by index.
+        Arrays.sort(entries, (lhs, rhs) -> lhs.mTieBreakKey.compareTo(rhs.mTieBreakKey));
+        for (int i = start; i < end; i++) {
+            keys[i] = entries[i - start].mKey;
+        }
+    }
+
+    private static final class TieBreakEntry {
+        final long mKey;
+        final CollationKey mTieBreakKey;
+
+        TieBreakEntry(long key, CollationKey tieBreakKey) {
+            mKey = key;
+            mTieBreakKey = tieBreakKey;
+        }
+    }
+
     /**
      * Computes features for each target. This will be called before calls to {@link
      * #getScore(TargetInfo)} or {@link #compare(ResolveInfo, ResolveInfo)}, in order to prepare the
@@ -294,6 +467,21 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
         mHandler.sendEmptyMessageDelayed(RANKER_RESULT_TIMEOUT, WATCHDOG_TIMEOUT_MILLIS);
     }
 
+    /**
+     * Restarts the timeout set up in {@link #beforeCompute()} with {@code timeoutMillis}, unless it
+     * has already expired. Used to time the prediction separately from the preceding steps; the
+     * restart is posted to the handler so it is ordered before any result sent afterwards.
+     */
+    final void restartWatchdog(long timeoutMillis) {
+        mHandler.post(() -> {
+            if (mHandler.hasMessages(RANKER_RESULT_TIMEOUT)) {
+                if (DEBUG) Log.d(TAG, "Restarting watchdog timer for " + timeoutMillis + "ms");
+                mHandler.removeMessages(RANKER_RESULT_TIMEOUT);
+                mHandler.sendEmptyMessageDelayed(RANKER_RESULT_TIMEOUT, timeoutMillis);
+            }
+        });
+    }
+
     /**
      * Called when the {@link ResolverActivity} is destroyed. This calls {@link #afterCompute()}. If
      * this call needs to happen at a different time during destroy, the method should be
@@ -324,6 +512,10 @@ public abstract class AbstractResolverComparator implements Comparator<ResolvedC
             }
             return mCollator.compare(lhsp.activityInfo.packageName, rhsp.activityInfo.packageName);
         }
+
+        CollationKey getCollationKey(ResolveInfo info) {
+            return mCollator.getCollationKey(info.activityInfo.packageName);
+        }
     }
 
 }
@@ -31,6 +31,7 @@ import android.os.UserHandle;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.android.intentresolver.ResolvedComponentInfo;
 import com.android.intentresolver.chooser.TargetInfo;
@@ -39,12 +40,14 @@ import com.android.intentresolver.shortcuts.ScopedAppTargetListCallback;
 
 import com.google.android.collect.Lists;
 
+import java.text.CollationKey;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
 /**
  * Uses an {@link AppPredictor} to sort Resolver targets. If the AppPredictionService appears to be
@@ -55,7 +58,8 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
 
     private static final String TAG = "APSResolverComparator";
 
-    private final AppPredictor mAppPredictor;
+    private final AppPredictorProxy mAppPredictor;
+    private final Executor mCallbackExecutor;
     private final Context mContext;
     private final Map<ComponentName, Integer> mTargetRanks = new HashMap<>();
     private final Map<ComponentName, Integer> mTargetScores = new HashMap<>();
@@ -75,11 +79,34 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
             AppPredictor appPredictor,
             UserHandle user,
             EventLog eventLog,
-            @Nullable ComponentName promoteToFirst) {
+            @Nullable ComponentName promoteToFirst,
+            Executor callbackExecutor) {
+        this(
+                context,
+                intent,
+                referrerPackage,
+                new AppPredictorProxy(appPredictor),
+                user,
+                eventLog,
+                promoteToFirst,
+                callbackExecutor);
+    }
+
+    @VisibleForTesting
+    AppPredictionServiceResolverComparator(
+            Context context,
+            Intent intent,
+            String referrerPackage,
+            AppPredictorProxy appPredictor,
+            UserHandle user,
+            EventLog eventLog,
+            @Nullable ComponentName promoteToFirst,
+            Executor callbackExecutor) {
         super(context, intent, Lists.newArrayList(user), promoteToFirst);
         mContext = context;
         mIntent = intent;
         mAppPredictor = appPredictor;
+        mCallbackExecutor = callbackExecutor;
         mUser = user;
         mReferrerPackage = referrerPackage;
         setEventLog(eventLog);
@@ -109,7 +136,7 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
         }
         mAppPredictor.sortTargets(
                 appTargets,
-                Executors.newSingleThreadExecutor(),
+                mCallbackExecutor,
                 new ScopedAppTargetListCallback(
                         mContext,
                         sortedAppTargets -> {
@@ -192,6 +219,17 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
         return mComparatorModel.getScore(targetInfo);
     }
 
+    @Override
+    protected float getSortScore(ResolveInfo info) {
+        return mComparatorModel.getSortScore(info);
+    }
+
+    @Override
+    @Nullable
+    protected CollationKey getTieBreakKey(ResolveInfo info) {
+        return mComparatorModel.getTieBreakKey(info);
+    }
+
     @Override
     public void updateModel(TargetInfo targetInfo) {
         mComparatorModel.notifyOnTargetSelected(targetInfo);
@@ -229,13 +267,13 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
     // TODO: Finish separating behaviors of AbstractResolverComparator, then (probably) make this a
     // standalone class once clients are written in terms of ResolverComparatorModel.
     static class AppPredictionServiceComparatorModel implements ResolverComparatorModel {
-        private final AppPredictor mAppPredictor;
+        private final AppPredictorProxy mAppPredictor;
         private final ResolverRankerServiceResolverComparator mResolverRankerService;
         private final UserHandle mUser;
         private final Map<ComponentName, Integer> mTargetRanks;  // Treat as immutable.
 
         AppPredictionServiceComparatorModel(
-                AppPredictor appPredictor,
+                AppPredictorProxy appPredictor,
                 @Nullable ResolverRankerServiceResolverComparator resolverRankerService,
                 UserHandle user,
                 Map<ComponentName, Integer> targetRanks) {
@@ -266,6 +304,27 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
             };
         }
 
+        /**
+         * Returns the score to sort the target consistently with {@link #getComparator()}: the
+         * targets without a rank go first, then the targets by rank.
+         */
+        float getSortScore(ResolveInfo info) {
+            if (mResolverRankerService != null) {
+                return mResolverRankerService.getSortScore(info);
+            }
+            Integer rank = mTargetRanks.get(
+                    new ComponentName(info.activityInfo.packageName, info.activityInfo.name));
+            return rank == null ? Float.POSITIVE_INFINITY : -rank;
+        }
+
+        @Nullable
+        CollationKey getTieBreakKey(ResolveInfo info) {
+            if (mResolverRankerService != null) {
+                return mResolverRankerService.getTieBreakKey(info);
+            }
+            return null;
+        }
+
         @Override
         public float getScore(TargetInfo targetInfo) {
             if (mResolverRankerService != null) {
@@ -296,4 +355,27 @@ public class AppPredictionServiceResolverComparator extends AbstractResolverComp
                     new AppTargetEvent.Builder(appTarget, ACTION_LAUNCH).build());
         }
     }
+
+    /** A proxy for the final {@link AppPredictor} class, so it can be mocked in tests. */
+    @VisibleForTesting
+    public static class AppPredictorProxy {
+        private final AppPredictor mAppPredictor;
+
+        AppPredictorProxy(AppPredictor appPredictor) {
+            mAppPredictor = appPredictor;
+        }
+
+        /** {@link AppPredictor#sortTargets} */
+        public void sortTargets(
+                List<AppTarget> targets,
+                Executor callbackExecutor,
+                Consumer<List<AppTarget>> callback) {
+            mAppPredictor.sortTargets(targets, callbackExecutor, callback);
+        }
+
+        /** {@link AppPredictor#notifyAppTargetEvent} */
+        public void notifyAppTargetEvent(AppTargetEvent event) {
+            mAppPredictor.notifyAppTargetEvent(event);
+        }
+    }
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.model;
+
+import android.content.ComponentName;
+import android.os.SystemClock;
+import android.os.UserHandle;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import dagger.hilt.EntryPoint;
+import dagger.hilt.InstallIn;
+import dagger.hilt.components.SingletonComponent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * A process-wide store of the latest ranking of the resolved components per action, MIME type and
+ * user, used to show the components in their likely final order while they are being ranked.
+ * A ranking is dropped after {@link #SNAPSHOT_TTL_MILLIS}.
+ */
+@Singleton
+public final class RankingSnapshotStore {
+    @VisibleForTesting
+    static final long SNAPSHOT_TTL_MILLIS = 1000 * 60 * 30;
+
+    private static final int MAX_SNAPSHOTS = 16;
+
+    @VisibleForTesting
+    interface Clock {
+        long elapsedRealtime();
+    }
+
+    private final Clock mClock;
+    @GuardedBy("this")
+    private final LinkedHashMap<Key, Snapshot> mSnapshots =
+            new LinkedHashMap<>(MAX_SNAPSHOTS, 0.75f, /* accessOrder */ true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Snapshot> eldest) {
+                    return size() > MAX_SNAPSHOTS;
+                }
+            };
+
+    @Inject
+    public RankingSnapshotStore() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    RankingSnapshotStore(Clock clock) {
+        mClock = clock;
+    }
+
+    /** Stores the ranked components, the top ranked first. */
+    public synchronized void put(
+            @Nullable String action,
+            @Nullable String mimeType,
+            UserHandle user,
+            List<ComponentName> rankedComponents) {
+        mSnapshots.put(
+                new Key(action, mimeType, user),
+                new Snapshot(new ArrayList<>(rankedComponents), mClock.elapsedRealtime()));
+    }
+
+    /**
+     * Returns the positions of the components in the latest ranking stored for the action, MIME
+     * type and user, or {@code null} if there is no ranking or it has expired.
+     */
+    @Nullable
+    public synchronized Map<ComponentName, Integer> getPositions(
+            @Nullable String action, @Nullable String mimeType, UserHandle user) {
+        Key key = new Key(action, mimeType, user);
+        Snapshot snapshot = mSnapshots.get(key);
+        if (snapshot == null) {
+            return null;
+        }
+        if (mClock.elapsedRealtime() - snapshot.mTime >= SNAPSHOT_TTL_MILLIS) {
+            mSnapshots.remove(key);
+            return null;
+        }
+        return snapshot.getPositions();
+    }
+
+    /** Drops all the stored rankings. */
+    public synchronized void clear() {
+        mSnapshots.clear();
+    }
+
+    private static final class Key {
+        @Nullable
+        private final String mAction;
+        @Nullable
+        private final String mMimeType;
+        private final UserHandle mUser;
+
+        Key(@Nullable String action, @Nullable String mimeType, UserHandle user) {
+            mAction = action;
+            mMimeType = mimeType;
+            mUser = user;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return Objects.equals(mAction, other.mAction)
+                    && Objects.equals(mMimeType, other.mMimeType)
+                    && mUser.equals(other.mUser);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mAction, mMimeType, mUser);
+        }
+    }
+
+    private static final class Snapshot {
+        private final List<ComponentName> mRankedComponents;
+        private final long mTime;
+        @Nullable
+        private Map<ComponentName, Integer> mPositions;
+
+        Snapshot(List<ComponentName> rankedComponents, long time) {
+            mRankedComponents = rankedComponents;
+            mTime = time;
+        }
+
+        // Guarded by the store lock.
+        Map<ComponentName, Integer> getPositions() {
+            if (mPositions == null) {
+                Map<ComponentName, Integer> positions = new HashMap<>();
+                for (int i = 0; i < mRankedComponents.size(); i++) {
+                    positions.putIfAbsent(mRankedComponents.get(i), i);
+                }
+                mPositions = Collections.unmodifiableMap(positions);
+            }
+            return mPositions;
+        }
+    }
+
+    /** Provides the store to components not created by Hilt e.g. ResolverListController. */
+    @EntryPoint
+    @InstallIn(SingletonComponent.class)
+    public interface RankingSnapshotStoreEntryPoint {
+        RankingSnapshotStore rankingSnapshotStore();
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.model;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.pm.ResolveInfo;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.service.resolver.IResolverRankerService;
+import android.service.resolver.ResolverRankerService;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.intentresolver.R;
+
+import dagger.hilt.EntryPoint;
+import dagger.hilt.InstallIn;
+import dagger.hilt.components.SingletonComponent;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Keeps a process-wide, warm, binding to the {@link ResolverRankerService} so back-to-back
+ * sessions do not resolve and bind the service again.
+ * <p>
+ * The ranker component is resolved once and cached until its binding dies; if there is no ranker,
+ * it is looked up again on the next {@link #acquire}. The binding is shared by all the sessions
+ * that {@link #acquire} it and is kept for {@code R.integer.config_rankerServiceIdleTimeoutMillis}
+ * after the last one {@link #release}s it.
+ * </p>
+ */
+@Singleton
+public final class ResolverRankerServiceConnectionPool {
+    private static final String TAG = "RRSConnectionPool";
+
+    private static final boolean DEBUG = false;
+
+    /** Schedules the idle connection unbinding, see {@link Handler#postDelayed}. */
+    @VisibleForTesting
+    interface Scheduler {
+        void schedule(Runnable task, long delayMillis);
+
+        void cancel(Runnable task);
+    }
+
+    private final ToLongFunction<Context> mIdleTimeoutMillis;
+    private final Scheduler mScheduler;
+    private final Runnable mUnbindIfIdle = this::unbindIfIdle;
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private boolean mIsRankerResolved;
+    @GuardedBy("mLock")
+    @Nullable
+    private ComponentName mRankerComponent;
+    @GuardedBy("mLock")
+    @Nullable
+    private Connection mConnection;
+    @GuardedBy("mLock")
+    private int mLeaseCount;
+
+    @Inject
+    public ResolverRankerServiceConnectionPool() {
+        this(
+                context -> context.getResources().getInteger(
+                        R.integer.config_rankerServiceIdleTimeoutMillis),
+                new HandlerScheduler());
+    }
+
+    @VisibleForTesting
+    ResolverRankerServiceConnectionPool(long idleTimeoutMillis, Scheduler scheduler) {
+        this(context -> idleTimeoutMillis, scheduler);
+    }
+
+    private ResolverRankerServiceConnectionPool(
+            ToLongFunction<Context> idleTimeoutMillis, Scheduler scheduler) {
+        mIdleTimeoutMillis = idleTimeoutMillis;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Returns a connection to the ranker service, binding to the service if there is no warm
+     * binding, or {@code null} if there is no suitable ranker service. Each acquired connection
+     * is expected to be {@link #release}d.
+     */
+    @Nullable
+    public Connection acquire(Context context) {
+        Context appContext = context.getApplicationContext();
+        synchronized (mLock) {
+            mScheduler.cancel(mUnbindIfIdle);
+            if (mConnection == null) {
+                ComponentName rankerComponent = getRankerComponentLocked(appContext);
+                if (rankerComponent == null) {
+                    return null;
+                }
+                Connection connection = new Connection(appContext, rankerComponent);
+                Intent intent = new Intent(ResolverRankerService.SERVICE_INTERFACE)
+                        .setComponent(rankerComponent);
+                if (!appContext.bindServiceAsUser(
+                        intent, connection, Context.BIND_AUTO_CREATE, UserHandle.SYSTEM)) {
+                    Log.w(TAG, "Failed to bind to " + rankerComponent);
+                    appContext.unbindService(connection);
+                    mIsRankerResolved = false;
+                    return null;
+                }
+                if (DEBUG) {
+                    Log.d(TAG, "Bound to " + rankerComponent);
+                }
+                mConnection = connection;
+                mLeaseCount = 0;
+            } else if (DEBUG) {
+                Log.d(TAG, "Reusing the warm connection to " + mConnection.mComponent);
+            }
+            mLeaseCount++;
+            return mConnection;
+        }
+    }
+
+    /** Releases a connection obtained with {@link #acquire}. */
+    public void release(Connection connection) {
+        synchronized (mLock) {
+            if (connection != mConnection) {
+                // the connection has already been dropped
+                return;
+            }
+            mLeaseCount--;
+            if (mLeaseCount <= 0) {
+                mScheduler.schedule(
+                        mUnbindIfIdle, mIdleTimeoutMillis.applyAsLong(connection.mContext));
+            }
+        }
+    }
+
+    private void unbindIfIdle() {
+        synchronized (mLock) {
+            if (mConnection != null && mLeaseCount <= 0) {
+                if (DEBUG) {
+                    Log.d(TAG, "Unbinding idle connection to " + mConnection.mComponent);
+                }
+                dropConnectionLocked(mConnection);
+            }
+        }
+    }
+
+    private void onConnectionLost(Connection connection) {
+        synchronized (mLock) {
+            if (connection == mConnection) {
+                dropConnectionLocked(connection);
+                // The component may have been updated or removed.
+                mIsRankerResolved = false;
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void dropConnectionLocked(Connection connection) {
+        mConnection = null;
+        mLeaseCount = 0;
+        connection.mContext.unbindService(connection);
+    }
+
+    @GuardedBy("mLock")
+    @Nullable
+    private ComponentName getRankerComponentLocked(Context context) {
+        if (!mIsRankerResolved) {
+            mRankerComponent = resolveRankerService(context);
+            // A missing ranker is not memoized, it may be installed or enabled later.
+            mIsRankerResolved = mRankerComponent != null;
+        }
+        return mRankerComponent;
+    }
+
+    // resolve the service for ranking.
+    @Nullable
+    private static ComponentName resolveRankerService(Context context) {
+        Intent intent = new Intent(ResolverRankerService.SERVICE_INTERFACE);
+        final List<ResolveInfo> resolveInfos = context.getPackageManager()
+                .queryIntentServices(intent, 0);
+        for (ResolveInfo resolveInfo : resolveInfos) {
+            if (resolveInfo == null || resolveInfo.serviceInfo == null
+                    || resolveInfo.serviceInfo.applicationInfo == null) {
+                if (DEBUG) {
+                    Log.d(TAG, "Failed to retrieve a ranker: " + resolveInfo);
+                }
+                continue;
+            }
+            ComponentName componentName = new ComponentName(
+                    resolveInfo.serviceInfo.applicationInfo.packageName,
+                    resolveInfo.serviceInfo.name);
+            try {
+                final String perm =
+                        context.getPackageManager().getServiceInfo(componentName, 0).permission;
+                if (!ResolverRankerService.BIND_PERMISSION.equals(perm)) {
+                    Log.w(TAG, "ResolverRankerService " + componentName + " does not require"
+                            + " permission " + ResolverRankerService.BIND_PERMISSION
+                            + " - this service will not be queried for "
+                            + "ResolverRankerServiceResolverComparator. add android:permission=\""
+                            + ResolverRankerService.BIND_PERMISSION + "\""
+                            + " to the <service> tag for " + componentName
+                            + " in the manifest.");
+                    continue;
+                }
+                if (PackageManager.PERMISSION_GRANTED != context.getPackageManager()
+                        .checkPermission(ResolverRankerService.HOLD_PERMISSION,
+                                resolveInfo.serviceInfo.packageName)) {
+                    Log.w(TAG, "ResolverRankerService " + componentName + " does not hold"
+                            + " permission " + ResolverRankerService.HOLD_PERMISSION
+                            + " - this service will not be queried for "
+                            + "ResolverRankerServiceResolverComparator.");
+                    continue;
+                }
+            } catch (NameNotFoundException e) {
+                Log.e(TAG, "Could not look up service " + componentName
+                        + "; component name not found");
+                continue;
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Succeeded to retrieve a ranker: " + componentName);
+            }
+            return componentName;
+        }
+        return null;
+    }
+
+    /** A shared connection to the ranker service. */
+    public final class Connection implements ServiceConnection {
+        private final Context mContext;
+        private final ComponentName mComponent;
+        private final CountDownLatch mConnectSignal = new CountDownLatch(1);
+        @Nullable
+        private volatile IResolverRankerService mRanker;
+
+        private Connection(Context context, ComponentName component) {
+            mContext = context;
+            mComponent = component;
+        }
+
+        public ComponentName getComponent() {
+            return mComponent;
+        }
+
+        /**
+         * Waits for the service to get connected for at most {@code timeoutMillis} (the wait is
+         * skipped for a warm connection) and returns the service, or {@code null} if it is not
+         * connected.
+         */
+        @Nullable
+        public IResolverRankerService awaitRanker(long timeoutMillis) throws InterruptedException {
+            mConnectSignal.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            return mRanker;
+        }
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            if (DEBUG) {
+                Log.d(TAG, "onServiceConnected: " + name);
+            }
+            mRanker = IResolverRankerService.Stub.asInterface(service);
+            mConnectSignal.countDown();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            if (DEBUG) {
+                Log.d(TAG, "onServiceDisconnected: " + name);
+            }
+            // The binding is kept and the service will be reconnected.
+            mRanker = null;
+        }
+
+        @Override
+        public void onBindingDied(ComponentName name) {
+            Log.w(TAG, "Binding died: " + name);
+            mRanker = null;
+            onConnectionLost(this);
+        }
+
+        @Override
+        public void onNullBinding(ComponentName name) {
+            Log.w(TAG, "Null binding: " + name);
+            onConnectionLost(this);
+            mConnectSignal.countDown();
+        }
+    }
+
+    private static final class HandlerScheduler implements Scheduler {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            mHandler.postDelayed(task, delayMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            mHandler.removeCallbacks(task);
+        }
+    }
+
+    /** Provides the pool to components not created by Hilt e.g. the resolver comparators. */
+    @EntryPoint
+    @InstallIn(SingletonComponent.class)
+    public interface ResolverRankerServiceConnectionPoolEntryPoint {
+        ResolverRankerServiceConnectionPool resolverRankerServiceConnectionPool();
+    }
+}
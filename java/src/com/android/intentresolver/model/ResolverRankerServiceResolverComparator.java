@@ -21,14 +21,11 @@ import android.app.usage.UsageStats;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.ServiceConnection;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ResolveInfo;
 import android.metrics.LogMaker;
-import android.os.IBinder;
 import android.os.Message;
 import android.os.RemoteException;
 import android.os.UserHandle;
@@ -48,6 +45,9 @@ import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 
 import com.google.android.collect.Lists;
 
+import dagger.hilt.android.EntryPointAccessors;
+
+import java.text.CollationKey;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -55,8 +55,6 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Ranks and compares packages based on usage stats and uses the {@link ResolverRankerService}.
@@ -73,26 +71,44 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
 
     private static final float RECENCY_MULTIPLIER = 2.f;
 
-    // timeout for establishing connections with a ResolverRankerService.
-    private static final int CONNECTION_COST_TIMEOUT_MILLIS = 200;
+    // timeout for establishing a connection with a ResolverRankerService; a warm connection,
+    // shared by the sessions through ResolverRankerServiceConnectionPool, does not wait.
+    private static final long BIND_TIMEOUT_MILLIS = 200;
+
+    // timeout for the ResolverRankerService to send the prediction results once requested.
+    private static final long PREDICT_TIMEOUT_MILLIS = 300;
 
     private final Collator mCollator;
     private final Map<UserHandle, Map<String, UsageStats>> mStatsPerUser;
     private final long mCurrentTime;
-    private final long mSinceTime;
     private final Map<UserHandle, Map<ComponentName, ResolverTarget>> mTargetsDictPerUser;
     private final String mReferrerPackage;
+    private final ResolverRankerServiceConnectionPool mConnectionPool;
     private final Object mLock = new Object();
     private ArrayList<ResolverTarget> mTargets;
     private String mAction;
     private ComponentName mResolvedRankerName;
     private ComponentName mRankerServiceName;
     private IResolverRankerService mRanker;
-    private ResolverRankerServiceConnection mConnection;
+    private ResolverRankerServiceConnectionPool.Connection mConnection;
     private Context mContext;
-    private CountDownLatch mConnectSignal;
     private ResolverRankerServiceComparatorModel mComparatorModel;
 
+    private final IResolverRankerResult mResolverRankerResult = new IResolverRankerResult.Stub() {
+        @Override
+        public void sendResult(List<ResolverTarget> targets) throws RemoteException {
+            if (DEBUG) {
+                Log.d(TAG, "Sending Result back to Resolver: " + targets);
+            }
+            synchronized (mLock) {
+                final Message msg = Message.obtain();
+                msg.what = RANKER_SERVICE_RESULT;
+                msg.obj = targets;
+                mHandler.sendMessage(msg);
+            }
+        }
+    };
+
     /**
      * Constructor to initialize the comparator.
      * @param launchedFromContext the activity calling this comparator
@@ -125,15 +141,22 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
                 launchedFromContext.getResources().getConfiguration().locale);
         mReferrerPackage = referrerPackage;
         mContext = launchedFromContext;
+        mConnectionPool = EntryPointAccessors.fromApplication(
+                        launchedFromContext,
+                        ResolverRankerServiceConnectionPool
+                                .ResolverRankerServiceConnectionPoolEntryPoint.class)
+                .resolverRankerServiceConnectionPool();
+        final UsageStatsStore usageStatsStore = EntryPointAccessors.fromApplication(
+                        launchedFromContext, UsageStatsStore.UsageStatsStoreEntryPoint.class)
+                .usageStatsStore();
 
         mCurrentTime = System.currentTimeMillis();
-        mSinceTime = mCurrentTime - USAGE_STATS_PERIOD;
         mStatsPerUser = new HashMap<>();
         mTargetsDictPerUser = new HashMap<>();
         for (UserHandle user : targetUserSpaceList) {
             mStatsPerUser.put(
                     user,
-                    mUsmMap.get(user).queryAndAggregateUsageStats(mSinceTime, mCurrentTime));
+                    usageStatsStore.getUsageStats(user, mUsmMap.get(user), USAGE_STATS_PERIOD));
             mTargetsDictPerUser.put(user, new LinkedHashMap<>());
         }
         mAction = intent.getAction();
@@ -289,6 +312,16 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
         return mComparatorModel.getScore(targetInfo);
     }
 
+    @Override
+    protected float getSortScore(ResolveInfo info) {
+        return mComparatorModel.getSortScore(info);
+    }
+
+    @Override
+    protected CollationKey getTieBreakKey(ResolveInfo info) {
+        return mComparatorModel.getLabelCollationKey(info);
+    }
+
     // update ranking model when the connection to it is valid.
     @Override
     public void updateModel(TargetInfo targetInfo) {
@@ -297,143 +330,39 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
         }
     }
 
-    // unbind the service and clear unhandled messges.
+    // release the service connection and clear unhandled messges.
     @Override
     public void destroy() {
         mHandler.removeMessages(RANKER_SERVICE_RESULT);
         mHandler.removeMessages(RANKER_RESULT_TIMEOUT);
         if (mConnection != null) {
-            mContext.unbindService(mConnection);
-            mConnection.destroy();
+            mConnectionPool.release(mConnection);
+            mConnection = null;
+            synchronized (mLock) {
+                mRanker = null;
+                mComparatorModel = buildUpdatedModel();
+            }
         }
         afterCompute();
         if (DEBUG) {
-            Log.d(TAG, "Unbinded Resolver Ranker.");
+            Log.d(TAG, "Released Resolver Ranker.");
         }
     }
 
-    // connect to a ranking service.
+    // connect to a ranking service, reusing a warm connection if there is one.
     private void initRanker(Context context) {
-        synchronized (mLock) {
-            if (mConnection != null && mRanker != null) {
-                if (DEBUG) {
-                    Log.d(TAG, "Ranker still exists; reusing the existing one.");
-                }
-                return;
-            }
-        }
-        Intent intent = resolveRankerService();
-        if (intent == null) {
-            return;
-        }
-        mConnectSignal = new CountDownLatch(1);
-        mConnection = new ResolverRankerServiceConnection(mConnectSignal);
-        context.bindServiceAsUser(intent, mConnection, Context.BIND_AUTO_CREATE, UserHandle.SYSTEM);
-    }
-
-    // resolve the service for ranking.
-    private Intent resolveRankerService() {
-        Intent intent = new Intent(ResolverRankerService.SERVICE_INTERFACE);
-        final List<ResolveInfo> resolveInfos = mContext.getPackageManager()
-                .queryIntentServices(intent, 0);
-        for (ResolveInfo resolveInfo : resolveInfos) {
-            if (resolveInfo == null || resolveInfo.serviceInfo == null
-                    || resolveInfo.serviceInfo.applicationInfo == null) {
-                if (DEBUG) {
-                    Log.d(TAG, "Failed to retrieve a ranker: " + resolveInfo);
-                }
-                continue;
-            }
-            ComponentName componentName = new ComponentName(
-                    resolveInfo.serviceInfo.applicationInfo.packageName,
-                    resolveInfo.serviceInfo.name);
-            try {
-                final String perm =
-                        mContext.getPackageManager().getServiceInfo(componentName, 0).permission;
-                if (!ResolverRankerService.BIND_PERMISSION.equals(perm)) {
-                    Log.w(TAG, "ResolverRankerService " + componentName + " does not require"
-                            + " permission " + ResolverRankerService.BIND_PERMISSION
-                            + " - this service will not be queried for "
-                            + "ResolverRankerServiceResolverComparator. add android:permission=\""
-                            + ResolverRankerService.BIND_PERMISSION + "\""
-                            + " to the <service> tag for " + componentName
-                            + " in the manifest.");
-                    continue;
-                }
-                if (PackageManager.PERMISSION_GRANTED != mContext.getPackageManager()
-                        .checkPermission(ResolverRankerService.HOLD_PERMISSION,
-                                resolveInfo.serviceInfo.packageName)) {
-                    Log.w(TAG, "ResolverRankerService " + componentName + " does not hold"
-                            + " permission " + ResolverRankerService.HOLD_PERMISSION
-                            + " - this service will not be queried for "
-                            + "ResolverRankerServiceResolverComparator.");
-                    continue;
-                }
-            } catch (NameNotFoundException e) {
-                Log.e(TAG, "Could not look up service " + componentName
-                        + "; component name not found");
-                continue;
-            }
-            if (DEBUG) {
-                Log.d(TAG, "Succeeded to retrieve a ranker: " + componentName);
-            }
-            mResolvedRankerName = componentName;
-            intent.setComponent(componentName);
-            return intent;
+        if (mConnection != null && mRanker == null) {
+            // the connection may have been lost, get the current one.
+            mConnectionPool.release(mConnection);
+            mConnection = null;
         }
-        return null;
-    }
-
-    private class ResolverRankerServiceConnection implements ServiceConnection {
-        private final CountDownLatch mConnectSignal;
-
-        ResolverRankerServiceConnection(CountDownLatch connectSignal) {
-            mConnectSignal = connectSignal;
-        }
-
-        public final IResolverRankerResult resolverRankerResult =
-                new IResolverRankerResult.Stub() {
-            @Override
-            public void sendResult(List<ResolverTarget> targets) throws RemoteException {
-                if (DEBUG) {
-                    Log.d(TAG, "Sending Result back to Resolver: " + targets);
-                }
-                synchronized (mLock) {
-                    final Message msg = Message.obtain();
-                    msg.what = RANKER_SERVICE_RESULT;
-                    msg.obj = targets;
-                    mHandler.sendMessage(msg);
-                }
-            }
-        };
-
-        @Override
-        public void onServiceConnected(ComponentName name, IBinder service) {
-            if (DEBUG) {
-                Log.d(TAG, "onServiceConnected: " + name);
-            }
-            synchronized (mLock) {
-                mRanker = IResolverRankerService.Stub.asInterface(service);
-                mComparatorModel = buildUpdatedModel();
-                mConnectSignal.countDown();
-            }
-        }
-
-        @Override
-        public void onServiceDisconnected(ComponentName name) {
-            if (DEBUG) {
-                Log.d(TAG, "onServiceDisconnected: " + name);
-            }
-            synchronized (mLock) {
-                destroy();
-            }
+        if (mConnection == null) {
+            mConnection = mConnectionPool.acquire(context);
+        } else if (DEBUG) {
+            Log.d(TAG, "Ranker connection still exists; reusing the existing one.");
         }
-
-        public void destroy() {
-            synchronized (mLock) {
-                mRanker = null;
-                mComparatorModel = buildUpdatedModel();
-            }
+        if (mConnection != null) {
+            mResolvedRankerName = mConnection.getComponent();
         }
     }
 
@@ -458,10 +387,15 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
             }
         } else {
             try {
-                mConnectSignal.await(CONNECTION_COST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                final IResolverRankerService ranker = mConnection.awaitRanker(BIND_TIMEOUT_MILLIS);
                 synchronized (mLock) {
+                    if (ranker != mRanker) {
+                        mRanker = ranker;
+                        mComparatorModel = buildUpdatedModel();
+                    }
                     if (mRanker != null) {
-                        mRanker.predict(targets, mConnection.resolverRankerResult);
+                        restartWatchdog(PREDICT_TIMEOUT_MILLIS);
+                        mRanker.predict(targets, mResolverRankerResult);
                         return;
                     } else {
                         if (DEBUG) {
@@ -592,21 +526,35 @@ public class ResolverRankerServiceResolverComparator extends AbstractResolverCom
                     }
                 }
 
-                CharSequence sa = null;
-                if (mPmMap.containsKey(lhs.userHandle)) {
-                    sa = lhs.loadLabel(mPmMap.get(lhs.userHandle));
-                }
-                if (sa == null) sa = lhs.activityInfo.name;
-                CharSequence sb = null;
-                if (mPmMap.containsKey(rhs.userHandle)) {
-                    sb = rhs.loadLabel(mPmMap.get(rhs.userHandle));
-                }
-                if (sb == null) sb = rhs.activityInfo.name;
-
-                return mCollator.compare(sa.toString().trim(), sb.toString().trim());
+                return mCollator.compare(getLabel(lhs), getLabel(rhs));
             };
         }
 
+        /**
+         * Returns the select probability of the target as the score to sort it, consistent with
+         * {@link #getComparator()}, or {@link Float#NaN} if the target is unknown and is only
+         * ordered by label.
+         */
+        float getSortScore(ResolveInfo info) {
+            final ResolverTarget target =
+                    getActivityResolverTargetForUser(info.activityInfo, info.userHandle);
+            return target == null ? Float.NaN : target.getSelectProbability();
+        }
+
+        /** Returns the key to order the targets with the same select probability by label. */
+        CollationKey getLabelCollationKey(ResolveInfo info) {
+            return mCollator.getCollationKey(getLabel(info));
+        }
+
+        private String getLabel(ResolveInfo info) {
+            CharSequence label = null;
+            if (mPmMap.containsKey(info.userHandle)) {
+                label = info.loadLabel(mPmMap.get(info.userHandle));
+            }
+            if (label == null) label = info.activityInfo.name;
+            return label.toString().trim();
+        }
+
         @Override
         public float getScore(TargetInfo targetInfo) {
             ResolverTarget target = getResolverTargetForUserAndComponent(
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.model;
+
+import android.app.usage.UsageStats;
+import android.app.usage.UsageStatsManager;
+import android.os.Trace;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.VisibleForTesting;
+
+import dagger.hilt.EntryPoint;
+import dagger.hilt.InstallIn;
+import dagger.hilt.components.SingletonComponent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * A process-wide store of usage stats, aggregated by package, used as the ranking features.
+ * <p>
+ * Instead of aggregating a full period of usage stats on every launch, the store keeps the daily
+ * usage stats buckets per user: the buckets that are complete (i.e. a newer bucket has started) do
+ * not change and are kept; a refresh only queries the buckets starting from the latest one. A
+ * snapshot of the aggregated stats is reused for up to {@link #MAX_SNAPSHOT_AGE_MILLIS}.
+ * </p>
+ * <p>
+ * The daily buckets are queried instead of {@link UsageStatsManager#INTERVAL_BEST} as only
+ * fixed-interval buckets can be combined without double-counting.
+ * </p>
+ */
+@Singleton
+public final class UsageStatsStore {
+    @VisibleForTesting
+    static final long MAX_SNAPSHOT_AGE_MILLIS = 1000 * 60 * 5;
+
+    /** Reads usage stats buckets of a user, see {@link UsageStatsManager#queryUsageStats}. */
+    @VisibleForTesting
+    interface BucketSource {
+        List<UsageStats> queryDailyUsageStats(long beginTime, long endTime);
+    }
+
+    @VisibleForTesting
+    interface Clock {
+        long currentTimeMillis();
+    }
+
+    private final Clock mClock;
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    private final Map<UserHandle, UserStats> mStatsPerUser = new HashMap<>();
+
+    @Inject
+    public UsageStatsStore() {
+        this(System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    UsageStatsStore(Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Returns the user's usage stats, aggregated by package name, for the {@code period} up to now.
+     * The result is at most {@link #MAX_SNAPSHOT_AGE_MILLIS} old and must not be modified.
+     */
+    public Map<String, UsageStats> getUsageStats(
+            UserHandle user, UsageStatsManager usageStatsManager, long period) {
+        return getUsageStats(
+                user,
+                (beginTime, endTime) -> usageStatsManager.queryUsageStats(
+                        UsageStatsManager.INTERVAL_DAILY, beginTime, endTime),
+                period);
+    }
+
+    @VisibleForTesting
+    Map<String, UsageStats> getUsageStats(UserHandle user, BucketSource source, long period) {
+        UserStats userStats;
+        synchronized (mLock) {
+            userStats = mStatsPerUser.computeIfAbsent(user, u -> new UserStats());
+        }
+        return userStats.getSnapshot(source, period, mClock.currentTimeMillis());
+    }
+
+    /** Drops all cached stats e.g. when a user is removed. */
+    public void clear() {
+        synchronized (mLock) {
+            mStatsPerUser.clear();
+        }
+    }
+
+    private static final class UserStats {
+        // Daily buckets by their begin time, each bucket is a list of per-package stats.
+        @GuardedBy("this")
+        private final TreeMap<Long, List<UsageStats>> mBuckets = new TreeMap<>();
+        @GuardedBy("this")
+        private Map<String, UsageStats> mSnapshot;
+        @GuardedBy("this")
+        private long mSnapshotTime;
+        @GuardedBy("this")
+        private long mSnapshotPeriod;
+
+        synchronized Map<String, UsageStats> getSnapshot(
+                BucketSource source, long period, long now) {
+            if (mSnapshot != null
+                    && mSnapshotPeriod == period
+                    && now >= mSnapshotTime
+                    && now - mSnapshotTime < MAX_SNAPSHOT_AGE_MILLIS) {
+                return mSnapshot;
+            }
+            Trace.beginSection("UsageStatsStore#refresh");
+            try {
+                refreshBuckets(source, now - period, now);
+                mSnapshot = Collections.unmodifiableMap(aggregate());
+                mSnapshotTime = now;
+                mSnapshotPeriod = period;
+                return mSnapshot;
+            } finally {
+                Trace.endSection();
+            }
+        }
+
+        @GuardedBy("this")
+        private void refreshBuckets(BucketSource source, long sinceTime, long now) {
+            // Drop the buckets that are entirely out of the period.
+            for (Iterator<List<UsageStats>> it = mBuckets.values().iterator(); it.hasNext(); ) {
+                List<UsageStats> bucket = it.next();
+                if (bucket.isEmpty() || bucket.get(0).getLastTimeStamp() < sinceTime) {
+                    it.remove();
+                }
+            }
+            // The latest bucket may not be complete yet and is always queried again.
+            long queryBegin = mBuckets.isEmpty() ? sinceTime : mBuckets.lastKey();
+            List<UsageStats> stats = source.queryDailyUsageStats(queryBegin, now);
+            if (stats == null) {
+                return;
+            }
+            TreeMap<Long, List<UsageStats>> fresh = new TreeMap<>();
+            for (UsageStats packageStats : stats) {
+                if (packageStats.getLastTimeStamp() < sinceTime) {
+                    continue;
+                }
+                fresh.computeIfAbsent(packageStats.getFirstTimeStamp(), t -> new ArrayList<>())
+                        .add(packageStats);
+            }
+            if (!fresh.isEmpty()) {
+                mBuckets.tailMap(fresh.firstKey(), true).clear();
+            }
+            mBuckets.putAll(fresh);
+        }
+
+        @GuardedBy("this")
+        private Map<String, UsageStats> aggregate() {
+            ArrayMap<String, UsageStats> result = new ArrayMap<>();
+            for (List<UsageStats> bucket : mBuckets.values()) {
+                for (UsageStats packageStats : bucket) {
+                    UsageStats aggregated = result.get(packageStats.getPackageName());
+                    if (aggregated == null) {
+                        result.put(packageStats.getPackageName(), copyOf(packageStats));
+                    } else {
+                        // the stats may get references to the added ones' data, so add a copy
+                        aggregated.add(copyOf(packageStats));
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Copies the stats deep enough for {@link UsageStats#add} neither to modify the original nor
+     * to share its data, as the bucket stats are reused by subsequent aggregations.
+     */
+    private static UsageStats copyOf(UsageStats stats) {
+        UsageStats copy = new UsageStats(stats);
+        if (stats.mChooserCounts != null) {
+            copy.mChooserCounts = new ArrayMap<>(stats.mChooserCounts.size());
+            for (int i = 0; i < stats.mChooserCounts.size(); i++) {
+                ArrayMap<String, Integer> counts = stats.mChooserCounts.valueAt(i);
+                copy.mChooserCounts.put(
+                        stats.mChooserCounts.keyAt(i),
+                        counts == null ? null : new ArrayMap<>(counts));
+            }
+        }
+        return copy;
+    }
+
+    /** Provides the store to components not created by Hilt e.g. the resolver comparators. */
+    @EntryPoint
+    @InstallIn(SingletonComponent.class)
+    public interface UsageStatsStoreEntryPoint {
+        UsageStatsStore usageStatsStore();
+    }
+}
@@ -21,20 +21,19 @@ import android.app.prediction.AppTarget
 import android.content.ComponentName
 import android.content.Context
 import android.content.IntentFilter
-import android.content.pm.ApplicationInfo
-import android.content.pm.PackageManager
 import android.content.pm.ShortcutInfo
 import android.content.pm.ShortcutManager
 import android.content.pm.ShortcutManager.ShareShortcutInfo
 import android.os.UserHandle
 import android.os.UserManager
 import android.service.chooser.ChooserTarget
-import android.text.TextUtils
 import android.util.Log
 import androidx.annotation.MainThread
 import androidx.annotation.OpenForTesting
 import androidx.annotation.VisibleForTesting
 import androidx.annotation.WorkerThread
+import com.android.intentresolver.PackageStateResolver
+import com.android.intentresolver.ResolveQueryEngine
 import com.android.intentresolver.chooser.DisplayResolveInfo
 import com.android.intentresolver.measurements.Tracer
 import com.android.intentresolver.measurements.runTracing
@@ -58,7 +57,13 @@ import kotlinx.coroutines.launch
  * A ShortcutLoader instance can be viewed as a per-profile singleton hot stream of shortcut
  * updates. The shortcut loading is triggered in the constructor or by the [reset] method, the
  * processing happens on the [dispatcher] and the result is delivered through the [callback] on the
- * default [scope]'s dispatcher, the main thread.
+ * default [scope]'s dispatcher, the main thread. The enabled states of the shortcut packages are
+ * queried on the [queryEngine].
+ *
+ * With a [snapshotStore], the shortcuts last loaded for the same user and intent filter are
+ * delivered first, marked as [Result.isSnapshot]. The loaded shortcuts follow as a whole: if they
+ * differ from the stored ones in any way, they replace them all ([Result.replacesSnapshot]);
+ * otherwise they are delivered as they are, the stored ones kept.
  */
 @OpenForTesting
 open class ShortcutLoader
@@ -71,7 +76,9 @@ constructor(
     private val isPersonalProfile: Boolean,
     private val targetIntentFilter: IntentFilter?,
     private val dispatcher: CoroutineDispatcher,
-    private val callback: Consumer<Result>
+    private val callback: Consumer<Result>,
+    private val queryEngine: ResolveQueryEngine,
+    private val snapshotStore: ShortcutSnapshotStore? = null,
 ) {
     private val shortcutToChooserTargetConverter = ShortcutToChooserTargetConverter()
     private val userManager = context.getSystemService(Context.USER_SERVICE) as UserManager
@@ -87,6 +94,8 @@ constructor(
         MutableSharedFlow<ShortcutData?>(replay = 1, onBufferOverflow = BufferOverflow.DROP_OLDEST)
     private val isDestroyed
         get() = !scope.isActive
+    // The stored shortcuts shown since the last reset, until the loaded ones are received.
+    @Volatile private var shownSnapshot: ShortcutSnapshotStore.Snapshot? = null
 
     @MainThread
     constructor(
@@ -95,7 +104,9 @@ constructor(
         appPredictor: AppPredictor?,
         userHandle: UserHandle,
         targetIntentFilter: IntentFilter?,
-        callback: Consumer<Result>
+        callback: Consumer<Result>,
+        queryEngine: ResolveQueryEngine,
+        snapshotStore: ShortcutSnapshotStore,
     ) : this(
         context,
         scope,
@@ -104,7 +115,9 @@ constructor(
         userHandle == UserHandle.of(ActivityManager.getCurrentUser()),
         targetIntentFilter,
         Dispatchers.IO,
-        callback
+        callback,
+        queryEngine,
+        snapshotStore.also { it.startMonitoring(context) },
     )
 
     init {
@@ -117,12 +130,7 @@ constructor(
                             null
                         } else {
                             runTracing("filter-shortcuts-${userHandle.identifier}") {
-                                filterShortcuts(
-                                    appTargets,
-                                    shortcutData.shortcuts,
-                                    shortcutData.isFromAppPredictor,
-                                    shortcutData.appPredictorTargets
-                                )
+                                filterShortcuts(appTargets, shortcutData)
                             }
                         }
                     }
@@ -143,6 +151,7 @@ constructor(
         Log.d(TAG, "reset shortcut loader for user $userHandle")
         appTargetSource.tryEmit(null)
         shortcutSource.tryEmit(null)
+        shownSnapshot = null
         scope.launch(dispatcher) { loadShortcuts() }
     }
 
@@ -162,10 +171,28 @@ constructor(
             Log.d(TAG, "skip shortcuts loading for user $userHandle")
             return
         }
+        showSnapshot()
         Log.d(TAG, "querying direct share targets for user $userHandle")
         queryDirectShareTargets(false)
     }
 
+    /** Shows the shortcuts stored by a previous session until the shortcuts are loaded. */
+    @WorkerThread
+    private fun showSnapshot() {
+        val snapshot = targetIntentFilter?.let { snapshotStore?.get(userHandle, it) } ?: return
+        Log.d(TAG, "show the last known shortcuts for user $userHandle")
+        shownSnapshot = snapshot
+        shortcutSource.tryEmit(
+            ShortcutData(
+                snapshot.shortcuts,
+                snapshot.isFromAppPredictor,
+                snapshot.appPredictorTargets,
+                isSnapshot = true,
+                replacesSnapshot = false
+            )
+        )
+    }
+
     @WorkerThread
     private fun queryDirectShareTargets(skipAppPredictionService: Boolean) {
         if (!skipAppPredictionService && appPredictor != null) {
@@ -202,11 +229,13 @@ constructor(
         val selectedProfileContext = context.createContextAsUser(userHandle, 0 /* flags */)
         val sm =
             selectedProfileContext.getSystemService(Context.SHORTCUT_SERVICE) as ShortcutManager?
-        val pm = context.createContextAsUser(userHandle, 0 /* flags */).packageManager
-        return sm?.getShareTargets(targetIntentFilter)?.filter {
-            pm.isPackageEnabled(it.targetComponent.packageName)
+        val shareTargets = sm?.getShareTargets(targetIntentFilter) ?: return emptyList()
+        val packageStates = createPackageStateResolver()
+        packageStates.resolve(shareTargets.map { it.targetComponent.packageName })
+        logPackageStateFetches(packageStates, shareTargets.size)
+        return shareTargets.filter {
+            packageStates.isPackageEnabled(it.targetComponent.packageName)
         }
-            ?: emptyList()
     }
 
     @WorkerThread
@@ -218,18 +247,32 @@ constructor(
             queryDirectShareTargets(true)
             return
         }
-        val pm = context.createContextAsUser(userHandle, 0).packageManager
-        val pair = appPredictorTargets.toShortcuts(pm)
+        val packageStates = createPackageStateResolver()
+        packageStates.resolve(
+            appPredictorTargets.mapNotNull { appTarget ->
+                appTarget.packageName.takeIf {
+                    appTarget.shortcutInfo != null && appTarget.className != null
+                }
+            }
+        )
+        logPackageStateFetches(packageStates, appPredictorTargets.size)
+        val pair = appPredictorTargets.toShortcuts(packageStates)
         sendShareShortcutInfoList(pair.shortcuts, true, pair.appTargets)
     }
 
     @WorkerThread
-    private fun List<AppTarget>.toShortcuts(pm: PackageManager): ShortcutsAppTargetsPair =
+    private fun List<AppTarget>.toShortcuts(
+        packageStates: PackageStateResolver
+    ): ShortcutsAppTargetsPair =
         fold(ShortcutsAppTargetsPair(ArrayList(size), ArrayList(size))) { acc, appTarget ->
             val shortcutInfo = appTarget.shortcutInfo
             val packageName = appTarget.packageName
             val className = appTarget.className
-            if (shortcutInfo != null && className != null && pm.isPackageEnabled(packageName)) {
+            if (
+                shortcutInfo != null &&
+                    className != null &&
+                    packageStates.isPackageEnabled(packageName)
+            ) {
                 (acc.shortcuts as ArrayList<ShareShortcutInfo>).add(
                     ShareShortcutInfo(shortcutInfo, ComponentName(packageName, className))
                 )
@@ -238,21 +281,63 @@ constructor(
             acc
         }
 
+    /**
+     * Creates the package states of a loading run, knowing those of the apps already resolved for
+     * this chooser session.
+     */
+    private fun createPackageStateResolver(): PackageStateResolver =
+        PackageStateResolver(context.createContextAsUser(userHandle, 0).packageManager, queryEngine)
+            .apply {
+                appTargetSource.replayCache.firstOrNull()?.forEach { appTarget ->
+                    appTarget.resolveInfo?.activityInfo?.applicationInfo?.let { addKnownState(it) }
+                }
+            }
+
+    private fun logPackageStateFetches(packageStates: PackageStateResolver, shortcutCount: Int) {
+        Log.d(
+            TAG,
+            "fetched ${packageStates.fetchCount} package states for $shortcutCount shortcuts" +
+                " of user $userHandle"
+        )
+    }
+
     @WorkerThread
     private fun sendShareShortcutInfoList(
         shortcuts: List<ShareShortcutInfo>,
         isFromAppPredictor: Boolean,
         appPredictorTargets: List<AppTarget>?
     ) {
-        shortcutSource.tryEmit(ShortcutData(shortcuts, isFromAppPredictor, appPredictorTargets))
+        val snapshot =
+            ShortcutSnapshotStore.Snapshot(shortcuts, isFromAppPredictor, appPredictorTargets)
+        if (targetIntentFilter != null) {
+            snapshotStore?.put(userHandle, targetIntentFilter, snapshot)
+        }
+        val previousSnapshot = shownSnapshot
+        shownSnapshot = null
+        // The shown snapshot is either kept as a whole or replaced as a whole, no per-shortcut
+        // difference is applied.
+        val isUnchanged = previousSnapshot != null && previousSnapshot.isEquivalentTo(snapshot)
+        if (isUnchanged) {
+            Log.d(TAG, "shortcuts for user $userHandle are unchanged since the last session")
+        }
+        shortcutSource.tryEmit(
+            ShortcutData(
+                shortcuts,
+                isFromAppPredictor,
+                appPredictorTargets,
+                isSnapshot = false,
+                replacesSnapshot = previousSnapshot != null && !isUnchanged
+            )
+        )
     }
 
     private fun filterShortcuts(
         appTargets: Array<DisplayResolveInfo>,
-        shortcuts: List<ShareShortcutInfo>,
-        isFromAppPredictor: Boolean,
-        appPredictorTargets: List<AppTarget>?
+        shortcutData: ShortcutData,
     ): Result {
+        val shortcuts = shortcutData.shortcuts
+        val isFromAppPredictor = shortcutData.isFromAppPredictor
+        val appPredictorTargets = shortcutData.appPredictorTargets
         if (appPredictorTargets != null && appPredictorTargets.size != shortcuts.size) {
             throw RuntimeException(
                 "resultList and appTargets must have the same size." +
@@ -267,15 +352,16 @@ constructor(
         // Match ShareShortcutInfos with DisplayResolveInfos to be able to use the old code path
         // for direct share targets. After ShareSheet is refactored we should use the
         // ShareShortcutInfos directly.
+        val shortcutsByComponent = shortcutData.shortcutsByComponent
         val resultRecords: MutableList<ShortcutResultInfo> = ArrayList()
         for (displayResolveInfo in appTargets) {
-            val matchingShortcuts =
-                shortcuts.filter { it.targetComponent == displayResolveInfo.resolvedComponentName }
-            if (matchingShortcuts.isEmpty()) continue
+            val indices =
+                shortcutsByComponent.indicesOf(displayResolveInfo.resolvedComponentName)
+                    ?: continue
             val chooserTargets =
                 shortcutToChooserTargetConverter.convertToChooserTarget(
-                    matchingShortcuts,
-                    shortcuts,
+                    indices.map { shortcuts[it] },
+                    indices,
                     appPredictorTargets,
                     directShareAppTargetCache,
                     directShareShortcutInfoCache
@@ -288,7 +374,9 @@ constructor(
             appTargets,
             resultRecords.toTypedArray(),
             directShareAppTargetCache,
-            directShareShortcutInfoCache
+            directShareShortcutInfoCache,
+            shortcutData.isSnapshot,
+            shortcutData.replacesSnapshot
         )
     }
 
@@ -308,11 +396,18 @@ constructor(
     private class ShortcutData(
         val shortcuts: List<ShareShortcutInfo>,
         val isFromAppPredictor: Boolean,
-        val appPredictorTargets: List<AppTarget>?
-    )
+        val appPredictorTargets: List<AppTarget>?,
+        val isSnapshot: Boolean,
+        val replacesSnapshot: Boolean
+    ) {
+        /** Built once and reused by the filtering of each update of the app targets. */
+        val shortcutsByComponent by lazy { ShortcutsByComponent(shortcuts) }
+    }
 
     /** Resolved shortcuts with corresponding app targets. */
-    class Result(
+    class Result
+    @JvmOverloads
+    constructor(
         val isFromAppPredictor: Boolean,
         /**
          * Input app targets (see [ShortcutLoader.updateAppTargets] the shortcuts were process
@@ -322,7 +417,18 @@ constructor(
         /** Shortcuts grouped by app target. */
         val shortcutsByApp: Array<ShortcutResultInfo>,
         val directShareAppTargetCache: Map<ChooserTarget, AppTarget>,
-        val directShareShortcutInfoCache: Map<ChooserTarget, ShortcutInfo>
+        val directShareShortcutInfoCache: Map<ChooserTarget, ShortcutInfo>,
+        /**
+         * Whether these shortcuts are the ones stored by a previous session, shown until the
+         * shortcuts are loaded; the loading is not complete yet.
+         */
+        val isSnapshot: Boolean = false,
+        /**
+         * Whether these shortcuts replace all the ones of a previous [isSnapshot] result, that
+         * differ from the ones just loaded. Loaded shortcuts that don't replace the snapshot are
+         * the same as the ones already delivered.
+         */
+        val replacesSnapshot: Boolean = false
     )
 
     /** Shortcuts grouped by app. */
@@ -331,6 +437,41 @@ constructor(
         val shortcuts: List<ChooserTarget?>
     )
 
+    /**
+     * Shortcuts grouped by target component in one pass: the indices of the shortcuts in the list
+     * are sorted by group, preserving their order within a group.
+     */
+    private class ShortcutsByComponent(shortcuts: List<ShareShortcutInfo>) {
+        private val groupIds = HashMap<ComponentName, Int>()
+        private val groupStarts: IntArray
+        private val sortedIndices = IntArray(shortcuts.size)
+
+        init {
+            val shortcutGroupIds = IntArray(shortcuts.size)
+            for (i in shortcuts.indices) {
+                shortcutGroupIds[i] =
+                    groupIds.getOrPut(shortcuts[i].targetComponent) { groupIds.size }
+            }
+            groupStarts = IntArray(groupIds.size + 1)
+            for (groupId in shortcutGroupIds) {
+                groupStarts[groupId + 1]++
+            }
+            for (groupId in 0 until groupIds.size) {
+                groupStarts[groupId + 1] += groupStarts[groupId]
+            }
+            val groupEnds = groupStarts.copyOf(groupIds.size)
+            for (i in shortcuts.indices) {
+                sortedIndices[groupEnds[shortcutGroupIds[i]]++] = i
+            }
+        }
+
+        /** The indices of the shortcuts targeting the [component], in order; `null` if none. */
+        fun indicesOf(component: ComponentName): IntArray? {
+            val groupId = groupIds[component] ?: return null
+            return sortedIndices.copyOfRange(groupStarts[groupId], groupStarts[groupId + 1])
+        }
+    }
+
     private class ShortcutsAppTargetsPair(
         val shortcuts: List<ShareShortcutInfo>,
         val appTargets: List<AppTarget>?
@@ -356,23 +497,6 @@ constructor(
     companion object {
         private const val TAG = "ShortcutLoader"
 
-        private fun PackageManager.isPackageEnabled(packageName: String): Boolean {
-            if (TextUtils.isEmpty(packageName)) {
-                return false
-            }
-            return runCatching {
-                    val appInfo =
-                        getApplicationInfo(
-                            packageName,
-                            PackageManager.ApplicationInfoFlags.of(
-                                PackageManager.GET_META_DATA.toLong()
-                            )
-                        )
-                    appInfo.enabled && (appInfo.flags and ApplicationInfo.FLAG_SUSPENDED) == 0
-                }
-                .getOrDefault(false)
-        }
-
         private fun endAppPredictorQueryTrace(userHandle: UserHandle) {
             val duration = Tracer.endAppPredictorQueryTrace(userHandle)
             Log.d(TAG, "AppPredictor query duration for user $userHandle: $duration ms")
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.shortcuts
+
+import android.app.prediction.AppTarget
+import android.content.Context
+import android.content.IntentFilter
+import android.content.pm.LauncherApps
+import android.content.pm.ShortcutInfo
+import android.content.pm.ShortcutManager.ShareShortcutInfo
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.os.UserHandle
+import android.util.Log
+import androidx.annotation.GuardedBy
+import androidx.annotation.VisibleForTesting
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * A process-wide store of the latest shortcuts loaded per user and share intent filter, used to
+ * show the direct share targets of a new chooser session while its shortcuts are being loaded.
+ * A snapshot is dropped after [SNAPSHOT_TTL_MILLIS] and, once [startMonitoring] has been called,
+ * when the packages or the shortcuts of its user change.
+ */
+@Singleton
+class ShortcutSnapshotStore @VisibleForTesting constructor(private val clock: () -> Long) {
+
+    @Inject constructor() : this(SystemClock::elapsedRealtime)
+
+    private val lock = Any()
+
+    @GuardedBy("lock")
+    private val snapshots =
+        object : LinkedHashMap<Key, Entry>(MAX_SNAPSHOTS, 0.75f, /* accessOrder= */ true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, Entry>) =
+                size > MAX_SNAPSHOTS
+        }
+
+    @GuardedBy("lock") private var launcherAppsCallback: LauncherApps.Callback? = null
+
+    /** Stores the shortcuts loaded for the [user] and the share [intentFilter]. */
+    fun put(user: UserHandle, intentFilter: IntentFilter, snapshot: Snapshot) {
+        synchronized(lock) { snapshots[Key(user, intentFilter)] = Entry(snapshot, clock()) }
+    }
+
+    /**
+     * Returns the latest shortcuts stored for the [user] and the share [intentFilter], or `null`
+     * if there are none or they have expired.
+     */
+    fun get(user: UserHandle, intentFilter: IntentFilter): Snapshot? {
+        val key = Key(user, intentFilter)
+        synchronized(lock) {
+            val entry = snapshots[key] ?: return null
+            if (clock() - entry.time >= SNAPSHOT_TTL_MILLIS) {
+                snapshots.remove(key)
+                return null
+            }
+            return entry.snapshot
+        }
+    }
+
+    /** Drops the snapshots of the [user]. */
+    fun invalidate(user: UserHandle) {
+        synchronized(lock) { snapshots.keys.removeIf { it.userId == user.identifier } }
+    }
+
+    /** Drops all the snapshots. */
+    fun clear() {
+        synchronized(lock) { snapshots.clear() }
+    }
+
+    /**
+     * Starts dropping the snapshots of a user on the package and shortcut changes of that user,
+     * for as long as the process lives. Does nothing if this has already been done.
+     */
+    fun startMonitoring(context: Context) {
+        synchronized(lock) {
+            if (launcherAppsCallback != null) return
+            val launcherApps =
+                context.applicationContext.getSystemService(LauncherApps::class.java) ?: return
+            val callback = InvalidatingCallback()
+            runCatching {
+                    launcherApps.registerCallback(callback, Handler(Looper.getMainLooper()))
+                }
+                .onSuccess { launcherAppsCallback = callback }
+                .onFailure { Log.w(TAG, "Unable to monitor shortcut changes", it) }
+        }
+    }
+
+    /** Shortcuts loaded for a user and a share intent filter. */
+    class Snapshot(
+        val shortcuts: List<ShareShortcutInfo>,
+        val isFromAppPredictor: Boolean,
+        val appPredictorTargets: List<AppTarget>?,
+    ) {
+        /**
+         * Whether the [other] shortcuts would be shown as these ones: the same shortcuts, with the
+         * same labels and ranks, in the same order and from the same source.
+         */
+        fun isEquivalentTo(other: Snapshot): Boolean {
+            if (isFromAppPredictor != other.isFromAppPredictor) return false
+            if (shortcuts.size != other.shortcuts.size) return false
+            for (i in shortcuts.indices) {
+                val shortcut = shortcuts[i]
+                val otherShortcut = other.shortcuts[i]
+                if (
+                    shortcut.targetComponent != otherShortcut.targetComponent ||
+                        !shortcut.shortcutInfo.isEquivalentTo(otherShortcut.shortcutInfo)
+                ) {
+                    return false
+                }
+            }
+            return true
+        }
+
+        private fun ShortcutInfo.isEquivalentTo(other: ShortcutInfo): Boolean =
+            id == other.id &&
+                `package` == other.`package` &&
+                rank == other.rank &&
+                isPinned == other.isPinned &&
+                shortLabel?.toString() == other.shortLabel?.toString() &&
+                longLabel?.toString() == other.longLabel?.toString()
+    }
+
+    private inner class InvalidatingCallback : LauncherApps.Callback() {
+        override fun onPackageRemoved(packageName: String, user: UserHandle) = invalidate(user)
+
+        override fun onPackageAdded(packageName: String, user: UserHandle) = invalidate(user)
+
+        override fun onPackageChanged(packageName: String, user: UserHandle) = invalidate(user)
+
+        override fun onPackagesAvailable(
+            packageNames: Array<out String>,
+            user: UserHandle,
+            replacing: Boolean
+        ) = invalidate(user)
+
+        override fun onPackagesUnavailable(
+            packageNames: Array<out String>,
+            user: UserHandle,
+            replacing: Boolean
+        ) = invalidate(user)
+
+        override fun onPackagesSuspended(packageNames: Array<out String>, user: UserHandle) =
+            invalidate(user)
+
+        override fun onPackagesUnsuspended(packageNames: Array<out String>, user: UserHandle) =
+            invalidate(user)
+
+        override fun onShortcutsChanged(
+            packageName: String,
+            shortcuts: MutableList<ShortcutInfo>,
+            user: UserHandle
+        ) = invalidate(user)
+    }
+
+    private class Entry(val snapshot: Snapshot, val time: Long)
+
+    private data class Key(
+        val userId: Int,
+        val actions: List<String>,
+        val categories: List<String>,
+        val dataTypes: List<String>,
+    ) {
+        constructor(
+            user: UserHandle,
+            intentFilter: IntentFilter
+        ) : this(
+            user.identifier,
+            intentFilter.actionsIterator().toSortedList(),
+            intentFilter.categoriesIterator().toSortedList(),
+            intentFilter.typesIterator().toSortedList(),
+        )
+    }
+
+    companion object {
+        private const val TAG = "ShortcutSnapshotStore"
+        private const val MAX_SNAPSHOTS = 8
+
+        @VisibleForTesting const val SNAPSHOT_TTL_MILLIS = 1000L * 60 * 30
+
+        private fun Iterator<String>?.toSortedList(): List<String> =
+            this?.asSequence()?.sorted()?.toList() ?: emptyList()
+    }
+}
@@ -27,6 +27,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -35,7 +36,8 @@ import java.util.Map;
 class ShortcutToChooserTargetConverter {
 
     /**
-     * Converts a list of ShareShortcutInfos to ChooserTargets.
+     * Converts a list of ShareShortcutInfos to ChooserTargets, looking each of them up in the list
+     * of all the shortcuts. See the overload taking the indices of the shortcuts in that list.
      * @param matchingShortcuts List of shortcuts, all from the same package, that match the current
      *                         share intent filter.
      * @param allShortcuts List of all the shortcuts from all the packages on the device that are
@@ -54,25 +56,61 @@ class ShortcutToChooserTargetConverter {
             @Nullable List<AppTarget> allAppTargets,
             @Nullable Map<ChooserTarget, AppTarget> directShareAppTargetCache,
             @Nullable Map<ChooserTarget, ShortcutInfo> directShareShortcutInfoCache) {
+        int[] indicesInAllShortcuts = new int[matchingShortcuts.size()];
+        for (int i = 0; i < matchingShortcuts.size(); i++) {
+            indicesInAllShortcuts[i] = allShortcuts.indexOf(matchingShortcuts.get(i));
+        }
+        return convertToChooserTarget(
+                matchingShortcuts,
+                indicesInAllShortcuts,
+                allAppTargets,
+                directShareAppTargetCache,
+                directShareShortcutInfoCache);
+    }
+
+    /**
+     * Converts a list of ShareShortcutInfos to ChooserTargets.
+     * @param matchingShortcuts List of shortcuts, all from the same package, that match the current
+     *                         share intent filter.
+     * @param indicesInAllShortcuts The index of each of the matchingShortcuts in the list of all
+     *                             the shortcuts returned for the current sharing action.
+     * @param allAppTargets List of AppTargets. Null if the results are not from prediction service.
+     * @param directShareAppTargetCache An optional map to store mapping for the new ChooserTarget
+     *  instances back to original allAppTargets.
+     * @param directShareShortcutInfoCache An optional map to store mapping from the new
+     *  ChooserTarget instances back to the original matchingShortcuts' {@code getShortcutInfo()}
+     * @return A list of ChooserTargets sorted by score in descending order.
+     */
+    @NonNull
+    public List<ChooserTarget> convertToChooserTarget(
+            @NonNull List<ShortcutManager.ShareShortcutInfo> matchingShortcuts,
+            @NonNull int[] indicesInAllShortcuts,
+            @Nullable List<AppTarget> allAppTargets,
+            @Nullable Map<ChooserTarget, AppTarget> directShareAppTargetCache,
+            @Nullable Map<ChooserTarget, ShortcutInfo> directShareShortcutInfoCache) {
         // If |appTargets| is not null, results are from AppPredictionService and already sorted.
         final boolean isFromAppPredictor = allAppTargets != null;
-        // A set of distinct scores for the matched shortcuts. We use index of a rank in the sorted
-        // list instead of the actual rank value when converting a rank to a score.
-        List<Integer> scoreList = new ArrayList<>();
+        // The distinct ranks of the matched shortcuts, sorted. We use index of a rank in the sorted
+        // ranks instead of the actual rank value when converting a rank to a score.
+        int[] sortedRanks = null;
+        int distinctRankCount = 0;
         if (!isFromAppPredictor) {
+            sortedRanks = new int[matchingShortcuts.size()];
             for (int i = 0; i < matchingShortcuts.size(); i++) {
-                int shortcutRank = matchingShortcuts.get(i).getShortcutInfo().getRank();
-                if (!scoreList.contains(shortcutRank)) {
-                    scoreList.add(shortcutRank);
+                sortedRanks[i] = matchingShortcuts.get(i).getShortcutInfo().getRank();
+            }
+            Arrays.sort(sortedRanks);
+            for (int i = 0; i < sortedRanks.length; i++) {
+                if (i == 0 || sortedRanks[i] != sortedRanks[distinctRankCount - 1]) {
+                    sortedRanks[distinctRankCount++] = sortedRanks[i];
                 }
             }
-            Collections.sort(scoreList);
         }
 
         List<ChooserTarget> chooserTargetList = new ArrayList<>(matchingShortcuts.size());
         for (int i = 0; i < matchingShortcuts.size(); i++) {
             ShortcutInfo shortcutInfo = matchingShortcuts.get(i).getShortcutInfo();
-            int indexInAllShortcuts = allShortcuts.indexOf(matchingShortcuts.get(i));
+            int indexInAllShortcuts = indicesInAllShortcuts[i];
 
             float score;
             if (isFromAppPredictor) {
@@ -80,7 +118,8 @@ class ShortcutToChooserTargetConverter {
                 score = Math.max(1.0f - (0.01f * indexInAllShortcuts), 0.0f);
             } else {
                 // Create a score based on the rank of the shortcut.
-                int rankIndex = scoreList.indexOf(shortcutInfo.getRank());
+                int rankIndex = Arrays.binarySearch(
+                        sortedRanks, 0, distinctRankCount, shortcutInfo.getRank());
                 score = Math.max(1.0f - (0.01f * rankIndex), 0.0f);
             }
 
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.util
+
+import android.os.Trace
+import android.view.Choreographer
+import androidx.annotation.MainThread
+import java.util.concurrent.Executor
+
+/**
+ * Coalesces the model mutations that arrive within a frame into a single UI update: [update] runs
+ * once, at the next frame, however many mutations have been [post]ed since the previous update.
+ * The number of the mutations applied by each update is reported as the "[name] coalesced" trace
+ * counter.
+ */
+@MainThread
+class FrameUpdateCoalescer(
+    name: String,
+    private val frameExecutor: Executor,
+    private val update: Runnable,
+) {
+    private val counterName = "$name coalesced"
+    private val dispatchRunnable = Runnable { dispatch() }
+    private var pendingMutations = 0
+
+    /** The number of the updates run so far. */
+    var updateCount = 0
+        private set
+
+    /** The number of the mutations applied by the updates run so far. */
+    var mutationCount = 0
+        private set
+
+    /** The largest number of the mutations applied by a single update. */
+    var maxMutationsPerUpdate = 0
+        private set
+
+    /** Whether there are mutations waiting for the next update. */
+    val hasPendingMutations: Boolean
+        get() = pendingMutations > 0
+
+    /** Records a model mutation; the update runs at the next frame. */
+    fun post() {
+        if (pendingMutations++ == 0) {
+            frameExecutor.execute(dispatchRunnable)
+        }
+    }
+
+    /** Runs the update now if there are pending mutations, without waiting for the next frame. */
+    fun flush() {
+        dispatch()
+    }
+
+    private fun dispatch() {
+        val mutations = pendingMutations
+        if (mutations == 0) {
+            return
+        }
+        pendingMutations = 0
+        updateCount++
+        mutationCount += mutations
+        maxMutationsPerUpdate = maxOf(maxMutationsPerUpdate, mutations)
+        Trace.setCounter(counterName, mutations.toLong())
+        update.run()
+    }
+
+    companion object {
+        /** Runs the commands at the start of the next frame; to be used on the main thread. */
+        @JvmField
+        val NEXT_FRAME_EXECUTOR = Executor { command ->
+            Choreographer.getInstance().postFrameCallback { command.run() }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.util
+
+import android.os.SystemClock
+import android.os.Trace
+import android.util.Log
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicInteger
+
+private const val TAG = "InstrumentedExecutor"
+/** A task that takes longer than this, from its submission to its completion, is logged. */
+private const val SLOW_TASK_MS = 100L
+
+/**
+ * An [Executor] that reports the number of the pending tasks of the [delegate] as the "[name]
+ * queue" trace counter and logs the tasks that, queueing included, take longer than
+ * [slowTaskMs] to complete.
+ */
+class InstrumentedExecutor(
+    private val name: String,
+    private val delegate: Executor,
+    private val slowTaskMs: Long = SLOW_TASK_MS,
+    private val clock: () -> Long = SystemClock::uptimeMillis,
+) : Executor {
+    private val pendingTasks = AtomicInteger()
+    private val queueCounterName = "$name queue"
+
+    /** The number of the submitted tasks that have not started yet. */
+    val queueDepth: Int
+        get() = pendingTasks.get()
+
+    override fun execute(command: Runnable) {
+        val submitTime = clock()
+        Trace.setCounter(queueCounterName, pendingTasks.incrementAndGet().toLong())
+        delegate.execute {
+            val startTime = clock()
+            Trace.setCounter(queueCounterName, pendingTasks.decrementAndGet().toLong())
+            try {
+                command.run()
+            } finally {
+                val latency = clock() - submitTime
+                if (latency > slowTaskMs) {
+                    Log.w(
+                        TAG,
+                        "$name task took ${latency}ms, queued for ${startTime - submitTime}ms"
+                    )
+                }
+            }
+        }
+    }
+}
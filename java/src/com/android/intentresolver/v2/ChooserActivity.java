@@ -86,6 +86,8 @@ import com.android.intentresolver.EnterTransitionAnimationDelegate;
 import com.android.intentresolver.FeatureFlags;
 import com.android.intentresolver.IntentForwarderActivity;
 import com.android.intentresolver.R;
+import com.android.intentresolver.ResolveQueryEngine;
+import com.android.intentresolver.ResolveResultCache;
 import com.android.intentresolver.ResolverListAdapter;
 import com.android.intentresolver.ResolverListController;
 import com.android.intentresolver.ResolverViewPager;
@@ -100,6 +102,7 @@ import com.android.intentresolver.emptystate.EmptyState;
 import com.android.intentresolver.emptystate.EmptyStateProvider;
 import com.android.intentresolver.grid.ChooserGridAdapter;
 import com.android.intentresolver.icons.TargetDataLoader;
+import com.android.intentresolver.inject.Background;
 import com.android.intentresolver.logging.EventLog;
 import com.android.intentresolver.measurements.Tracer;
 import com.android.intentresolver.model.AbstractResolverComparator;
@@ -107,6 +110,7 @@ import com.android.intentresolver.model.AppPredictionServiceResolverComparator;
 import com.android.intentresolver.model.ResolverRankerServiceResolverComparator;
 import com.android.intentresolver.shortcuts.AppPredictorFactory;
 import com.android.intentresolver.shortcuts.ShortcutLoader;
+import com.android.intentresolver.shortcuts.ShortcutSnapshotStore;
 import com.android.intentresolver.v2.emptystate.NoCrossProfileEmptyStateProvider;
 import com.android.intentresolver.v2.emptystate.NoCrossProfileEmptyStateProvider.DevicePolicyBlockerEmptyState;
 import com.android.intentresolver.v2.platform.ImageEditor;
@@ -122,13 +126,13 @@ import kotlin.Unit;
 
 import java.text.Collator;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicLong;
@@ -189,6 +193,10 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
     @Inject @ImageEditor public Optional<ComponentName> mImageEditor;
     @Inject @NearbyShare public Optional<ComponentName> mNearbyShare;
     @Inject public TargetDataLoader mTargetDataLoader;
+    @Inject public ResolveQueryEngine mResolveQueryEngine;
+    @Inject public ResolveResultCache mResolveResultCache;
+    @Inject public ShortcutSnapshotStore mShortcutSnapshotStore;
+    @Inject @Background public Executor mBackgroundExecutor;
 
     private ChooserRefinementManager mRefinementManager;
 
@@ -259,6 +267,8 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
             //    Skip initializing any additional resources.
             return;
         }
+        mResolveResultCache.startMonitoring(this);
+        requireChooserRequest().getCallerTargetResolver().start(this);
         setTheme(mLogic.getThemeResId());
 
         getEventLog().logSharesheetTriggered();
@@ -295,13 +305,22 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                 createChooserActionFactory(),
                 mEnterTransitionAnimationDelegate,
                 new HeadlineGeneratorImpl(this));
+        mChooserContentPreviewUi.setOnContentPreviewReplacedListener(layout ->
+                adjustPreviewWidth(getResources().getConfiguration().orientation, layout));
+        mChooserContentPreviewUi.setOnListContentPreviewInvalidatedListener(() -> {
+            for (int i = 0; i < mChooserMultiProfilePagerAdapter.getItemCount(); i++) {
+                mChooserMultiProfilePagerAdapter.getAdapterForIndex(i)
+                        .notifyContentPreviewChanged();
+            }
+        });
 
         updateStickyContentPreview();
         if (shouldShowStickyContentPreview()
                 || mChooserMultiProfilePagerAdapter
                 .getCurrentRootAdapter().getSystemRowCount() != 0) {
-            getEventLog().logActionShareWithPreview(
-                    mChooserContentPreviewUi.getPreferredContentPreview());
+            // The preview type is only logged once it is final.
+            mChooserContentPreviewUi.whenPreviewTypeFinal(
+                    previewType -> getEventLog().logActionShareWithPreview(previewType));
         }
 
         mChooserShownTime = System.currentTimeMillis();
@@ -323,18 +342,18 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
             Log.d(TAG, "System Time Cost is " + systemCost);
         }
 
-        getEventLog().logShareStarted(
-                mLogic.getReferrerPackageName(),
-                chooserRequest.getTargetType(),
-                chooserRequest.getCallerChooserTargets().size(),
-                (chooserRequest.getInitialIntents() == null)
-                        ? 0 : chooserRequest.getInitialIntents().length,
-                isWorkProfile(),
-                mChooserContentPreviewUi.getPreferredContentPreview(),
-                chooserRequest.getTargetAction(),
-                chooserRequest.getChooserActions().size(),
-                chooserRequest.getModifyShareAction() != null
-        );
+        mChooserContentPreviewUi.whenPreviewTypeFinal(previewType ->
+                getEventLog().logShareStarted(
+                        mLogic.getReferrerPackageName(),
+                        chooserRequest.getTargetType(),
+                        chooserRequest.getCallerChooserTargets().size(),
+                        (chooserRequest.getInitialIntents() == null)
+                                ? 0 : chooserRequest.getInitialIntents().length,
+                        isWorkProfile(),
+                        previewType,
+                        chooserRequest.getTargetAction(),
+                        chooserRequest.getChooserActions().size(),
+                        chooserRequest.getModifyShareAction() != null));
 
         mEnterTransitionAnimationDelegate.postponeTransition();
     }
@@ -428,7 +447,9 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                 appPredictor,
                 userHandle,
                 targetIntentFilter,
-                callback);
+                callback,
+                mResolveQueryEngine,
+                mShortcutSnapshotStore);
     }
 
     static SharedPreferences getPinnedSharedPrefs(Context context) {
@@ -572,6 +593,9 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         return new PackageMonitor() {
             @Override
             public void onSomePackagesChanged() {
+                // The process-wide monitors of the caches may only be notified after this one.
+                mResolveResultCache.invalidate();
+                mShortcutSnapshotStore.clear();
                 handlePackagesChanged(listAdapter);
             }
         };
@@ -791,12 +815,10 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                     ? requireAnnotatedUserHandles().workProfileUserHandle
                     : requireAnnotatedUserHandles().personalProfileUserHandle;
             if (mChooserMultiProfilePagerAdapter.getCurrentUserHandle() == defaultUser) {
-                mChooserMultiProfilePagerAdapter.getActiveListAdapter().addServiceResults(
-                        /* origTarget */ null,
+                mChooserMultiProfilePagerAdapter.getActiveListAdapter().addCallerTargets(
+                        chooserRequest.getCallerTargetResolver(),
                         new ArrayList<>(chooserRequest.getCallerChooserTargets()),
-                        TARGET_TYPE_DEFAULT,
-                        /* directShareShortcutInfoCache */ Collections.emptyMap(),
-                        /* directShareAppTargetCache */ Collections.emptyMap());
+                        getMainExecutor());
             }
         }
     }
@@ -1289,7 +1311,8 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                     appPredictor,
                     userHandle,
                     getEventLog(),
-                    mNearbyShare.orElse(null)
+                    mNearbyShare.orElse(null),
+                    mBackgroundExecutor
             );
         } else {
             resolverComparator =
@@ -1569,6 +1592,9 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         ChooserListAdapter adapter =
                 mChooserMultiProfilePagerAdapter.getListAdapterForUserHandle(userHandle);
         if (adapter != null) {
+            if (result.getReplacesSnapshot()) {
+                adapter.removeShortcutServiceTargets();
+            }
             for (ShortcutLoader.ShortcutResultInfo resultInfo : result.getShortcutsByApp()) {
                 adapter.addServiceResults(
                         resultInfo.getAppTarget(),
@@ -1579,7 +1605,14 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
                         mDirectShareShortcutInfoCache,
                         mDirectShareAppTargetCache);
             }
-            adapter.completeServiceTargetLoading();
+            if (!result.isSnapshot()) {
+                adapter.completeServiceTargetLoading();
+            }
+        }
+        sendVoiceChoicesIfNeeded();
+        // The shortcuts of a previous session are shown until the loaded ones are delivered.
+        if (result.isSnapshot()) {
+            return;
         }
 
         if (mMultiProfilePagerAdapter.getActiveListAdapter() == adapter) {
@@ -1589,7 +1622,6 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
             }
         }
         logDirectShareTargetReceived(userHandle);
-        sendVoiceChoicesIfNeeded();
         getEventLog().logSharesheetDirectLoadComplete();
     }
 
@@ -1770,6 +1802,7 @@ public class ChooserActivity extends Hilt_ChooserActivity implements
         if (mResolverDrawerLayout != null) {
             mResolverDrawerLayout.scrollNestedScrollableChildBackToTop();
         }
+        mChooserMultiProfilePagerAdapter.prioritizeActiveProfileTargetDataLoading();
     }
 
     @Override
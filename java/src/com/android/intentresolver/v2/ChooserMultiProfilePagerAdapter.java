@@ -25,6 +25,7 @@ import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.viewpager.widget.PagerAdapter;
 
+import com.android.intentresolver.ChooserGridLayoutManager;
 import com.android.intentresolver.ChooserListAdapter;
 import com.android.intentresolver.ChooserRecyclerViewAccessibilityDelegate;
 import com.android.intentresolver.FeatureFlags;
@@ -37,6 +38,7 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 
 import java.util.Optional;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 /**
@@ -119,6 +121,8 @@ public class ChooserMultiProfilePagerAdapter extends MultiProfilePagerAdapter<
                         () -> makeProfileView(context, featureFlags),
                 bottomPaddingOverrideSupplier);
         mAdapterBinder = adapterBinder;
+        mAdapterBinder.setActiveAdapterChecker(
+                gridAdapter -> gridAdapter.getListAdapter() == getActiveListAdapter());
         mBottomPaddingOverrideSupplier = bottomPaddingOverrideSupplier;
     }
 
@@ -141,6 +145,17 @@ public class ChooserMultiProfilePagerAdapter extends MultiProfilePagerAdapter<
         }
     }
 
+    /**
+     * Prioritize icon and label loads for the targets visible in the active profile, e.g. after a
+     * profile tab switch.
+     */
+    public void prioritizeActiveProfileTargetDataLoading() {
+        RecyclerView.LayoutManager layoutManager = getActiveAdapterView().getLayoutManager();
+        if (layoutManager instanceof ChooserGridLayoutManager) {
+            ((ChooserGridLayoutManager) layoutManager).dispatchVisibleRange();
+        }
+    }
+
     private static ViewGroup makeProfileView(
             Context context, FeatureFlags featureFlags) {
         LayoutInflater inflater = LayoutInflater.from(context);
@@ -199,6 +214,7 @@ public class ChooserMultiProfilePagerAdapter extends MultiProfilePagerAdapter<
     private static class ChooserProfileAdapterBinder implements
             AdapterBinder<RecyclerView, ChooserGridAdapter> {
         private int mMaxTargetsPerRow;
+        private Predicate<ChooserGridAdapter> mIsActiveAdapter = gridAdapter -> true;
 
         ChooserProfileAdapterBinder(int maxTargetsPerRow) {
             mMaxTargetsPerRow = maxTargetsPerRow;
@@ -208,6 +224,10 @@ public class ChooserMultiProfilePagerAdapter extends MultiProfilePagerAdapter<
             mMaxTargetsPerRow = maxTargetsPerRow;
         }
 
+        public void setActiveAdapterChecker(Predicate<ChooserGridAdapter> isActiveAdapter) {
+            mIsActiveAdapter = isActiveAdapter;
+        }
+
         @Override
         public void bind(
                 RecyclerView recyclerView, ChooserGridAdapter chooserGridAdapter) {
@@ -222,6 +242,16 @@ public class ChooserMultiProfilePagerAdapter extends MultiProfilePagerAdapter<
                                     : glm.getSpanCount();
                         }
                     });
+            if (glm instanceof ChooserGridLayoutManager) {
+                // Only the active profile's viewport drives the load priorities.
+                ((ChooserGridLayoutManager) glm).setOnVisibleRangeChangedListener(
+                        (firstVisiblePosition, lastVisiblePosition) -> {
+                            if (mIsActiveAdapter.test(chooserGridAdapter)) {
+                                chooserGridAdapter.onVisibleRangeChanged(
+                                        firstVisiblePosition, lastVisiblePosition);
+                            }
+                        });
+            }
         }
     }
 }
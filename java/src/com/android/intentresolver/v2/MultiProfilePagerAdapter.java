@@ -443,6 +443,10 @@ public class MultiProfilePagerAdapter<
         // about. It's not the pager-adapter's business to know "which ones we care about," so maybe
         // they should be rebuilt lazily when-and-if it comes up (e.g. during the evaluation of
         // autolaunch conditions).
+        if (includePartialRebuildOfInactiveTabs && getItemCount() > 1) {
+            // Resolve the inactive tab's targets in parallel with rebuilding the active tab.
+            getInactiveListAdapter().prefetchResolveList();
+        }
         boolean rebuildCompleted = rebuildActiveTab(true) || getActiveListAdapter().isTabLoaded();
         if (includePartialRebuildOfInactiveTabs) {
             boolean rebuildInactiveCompleted =
@@ -488,6 +492,7 @@ public class MultiProfilePagerAdapter<
 
     protected boolean rebuildTab(ListAdapterT activeListAdapter, boolean doPostProcessing) {
         if (shouldSkipRebuild(activeListAdapter)) {
+            activeListAdapter.cancelResolveListPrefetch();
             activeListAdapter.postListReadyRunnable(doPostProcessing, /* rebuildCompleted */ true);
             return false;
         }
@@ -96,6 +96,7 @@ import androidx.viewpager.widget.ViewPager;
 
 import com.android.intentresolver.AnnotatedUserHandles;
 import com.android.intentresolver.R;
+import com.android.intentresolver.ResolveResultCache;
 import com.android.intentresolver.ResolverListAdapter;
 import com.android.intentresolver.ResolverListController;
 import com.android.intentresolver.WorkProfileAvailabilityManager;
@@ -123,6 +124,8 @@ import com.android.internal.logging.MetricsLogger;
 import com.android.internal.logging.nano.MetricsProto;
 import com.android.internal.util.LatencyTracker;
 
+import dagger.hilt.android.EntryPointAccessors;
+
 import kotlin.Unit;
 
 import java.util.ArrayList;
@@ -232,6 +235,12 @@ public class ResolverActivity extends FragmentActivity implements
         return new PackageMonitor() {
             @Override
             public void onSomePackagesChanged() {
+                // The process-wide monitor of the cache may only be notified after this one.
+                EntryPointAccessors.fromApplication(
+                                ResolverActivity.this,
+                                ResolveResultCache.ResolveResultCacheEntryPoint.class)
+                        .resolveResultCache()
+                        .invalidate();
                 listAdapter.handlePackagesChanged();
                 updateProfileViewButton();
             }
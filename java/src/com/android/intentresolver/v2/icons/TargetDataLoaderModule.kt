@@ -18,7 +18,9 @@ package com.android.intentresolver.v2.icons
 
 import android.content.Context
 import androidx.lifecycle.Lifecycle
+import com.android.intentresolver.FeatureFlags
 import com.android.intentresolver.icons.DefaultTargetDataLoader
+import com.android.intentresolver.icons.TargetDataCache
 import com.android.intentresolver.icons.TargetDataLoader
 import com.android.intentresolver.inject.ActivityOwned
 import dagger.Module
@@ -36,5 +38,13 @@ object TargetDataLoaderModule {
     fun targetDataLoader(
         @ActivityContext context: Context,
         @ActivityOwned lifecycle: Lifecycle,
-    ): TargetDataLoader = DefaultTargetDataLoader(context, lifecycle, isAudioCaptureDevice = false)
+        featureFlags: FeatureFlags,
+        targetDataCache: TargetDataCache,
+    ): TargetDataLoader =
+        DefaultTargetDataLoader(
+            context,
+            lifecycle,
+            isAudioCaptureDevice = false,
+            cacheProvider = { targetDataCache.takeIf { featureFlags.targetDataCaching() } },
+        )
 }
@@ -2,8 +2,13 @@ package com.android.intentresolver.v2.listcontroller
 
 import android.content.Intent
 import android.content.pm.PackageManager
+import android.content.pm.ResolveInfo
+import android.os.Trace
 import android.os.UserHandle
+import com.android.intentresolver.ResolveQueryEngine
+import com.android.intentresolver.ResolveResultCache
 import com.android.intentresolver.ResolvedComponentInfo
+import java.util.concurrent.Callable
 
 /** A class for translating [Intent]s to [ResolvedComponentInfo]s. */
 interface IntentResolver {
@@ -20,10 +25,16 @@ interface IntentResolver {
     ): List<ResolvedComponentInfo>
 }
 
-/** Resolves [Intent]s using the [packageManager], deduping using the given [ResolveListDeduper]. */
+/**
+ * Resolves [Intent]s using the [packageManager], deduping using the given [ResolveListDeduper].
+ * The intents are resolved in parallel on the [queryEngine], the results are cached in the
+ * [resultCache].
+ */
 class IntentResolverImpl(
     private val packageManager: PackageManager,
     resolveListDeduper: ResolveListDeduper,
+    private val queryEngine: ResolveQueryEngine,
+    private val resultCache: ResolveResultCache,
 ) : IntentResolver, ResolveListDeduper by resolveListDeduper {
     override fun getResolversForIntentAsUser(
         shouldGetResolvedFilter: Boolean,
@@ -50,21 +61,49 @@ class IntentResolverImpl(
         intents: List<Intent>,
         userHandle: UserHandle,
         baseFlags: Int,
-    ): List<ResolvedComponentInfo> = buildList {
-        for (intent in intents) {
-            var flags = baseFlags
-            if (intent.isWebIntent || intent.flags and Intent.FLAG_ACTIVITY_MATCH_EXTERNAL != 0) {
-                flags = flags or PackageManager.MATCH_INSTANT
-            }
-            // Because of AIDL bug, queryIntentActivitiesAsUser can't accept subclasses of Intent.
-            val fixedIntent =
+    ): List<ResolvedComponentInfo> {
+        val queryIntents =
+            intents.map { intent ->
+                // Because of AIDL bug, queryIntentActivitiesAsUser can't accept subclasses of
+                // Intent.
                 if (intent.javaClass != Intent::class.java) {
                     Intent(intent)
                 } else {
                     intent
                 }
-            val infos = packageManager.queryIntentActivitiesAsUser(fixedIntent, flags, userHandle)
-            addToResolveListWithDedupe(this, fixedIntent, infos)
+            }
+        val queries =
+            queryIntents.map { intent ->
+                var flags = baseFlags
+                if (
+                    intent.isWebIntent ||
+                        intent.flags and Intent.FLAG_ACTIVITY_MATCH_EXTERNAL != 0
+                ) {
+                    flags = flags or PackageManager.MATCH_INSTANT
+                }
+                Callable { queryIntentActivities(intent, flags, userHandle) }
+            }
+        // The queries run in parallel, their results are merged in the order of the intents.
+        val results = queryEngine.runAll(queries)
+        return buildList {
+            queryIntents.forEachIndexed { i, intent ->
+                addToResolveListWithDedupe(this, intent, results[i])
+            }
+        }
+    }
+
+    private fun queryIntentActivities(
+        intent: Intent,
+        flags: Int,
+        userHandle: UserHandle,
+    ): List<ResolveInfo> {
+        Trace.beginSection("IntentResolver#queryIntentActivities:${userHandle.identifier}")
+        try {
+            return resultCache.getOrQuery(intent, flags, userHandle) {
+                packageManager.queryIntentActivitiesAsUser(intent, flags, userHandle)
+            }
+        } finally {
+            Trace.endSection()
         }
     }
 }
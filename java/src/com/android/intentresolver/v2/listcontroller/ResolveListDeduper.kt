@@ -4,6 +4,7 @@ import android.content.ComponentName
 import android.content.Intent
 import android.content.pm.ResolveInfo
 import android.util.Log
+import com.android.intentresolver.ResolvedComponentIndex
 import com.android.intentresolver.ResolvedComponentInfo
 
 /** A class for adding [ResolveInfo]s to a list of [ResolvedComponentInfo]s without duplicates. */
@@ -34,35 +35,33 @@ class ResolveListDeduperImpl(pinnableComponents: PinnableComponents) :
         intent: Intent,
         from: List<ResolveInfo>,
     ) {
+        // Built for this call only: [into] may be changed by other means between calls.
+        val index = ResolvedComponentIndex(into)
         from.forEach { newInfo ->
             if (newInfo.userHandle == null) {
                 Log.w(TAG, "Skipping ResolveInfo with no userHandle: $newInfo")
                 return@forEach
             }
-            val oldInfo = into.firstOrNull { isSameResolvedComponent(newInfo, it) }
+            val oldInfo = index.get(newInfo)
             // If existing resolution found, add to existing and filter out
             if (oldInfo != null) {
                 oldInfo.add(intent, newInfo)
             } else {
                 with(newInfo.activityInfo) {
-                    into.add(
+                    val newRci =
                         ResolvedComponentInfo(
                                 ComponentName(packageName, name),
                                 intent,
                                 newInfo,
                             )
-                            .apply { isPinned = isComponentPinned(name) },
-                    )
+                            .apply { isPinned = isComponentPinned(name) }
+                    into.add(newRci)
+                    index.onAppended(newRci)
                 }
             }
         }
     }
 
-    private fun isSameResolvedComponent(a: ResolveInfo, b: ResolvedComponentInfo): Boolean {
-        val ai = a.activityInfo
-        return ai.packageName == b.name.packageName && ai.name == b.name.className
-    }
-
     companion object {
         const val TAG = "ResolveListDeduper"
     }
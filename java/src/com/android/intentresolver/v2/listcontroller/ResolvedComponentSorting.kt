@@ -62,7 +62,10 @@ class ResolvedComponentSortingImpl(
             try {
                 val beforeRank = System.currentTimeMillis()
                 computeIfNeeded(inputList)
-                val sorted = inputList.sortedWith(resolverComparator)
+                val sorted =
+                    inputList.toMutableList().takeIf {
+                        resolverComparator.sortByKeys(it, it.size)
+                    } ?: inputList.sortedWith(resolverComparator)
                 val afterRank = System.currentTimeMillis()
                 if (DEBUG) {
                     Log.d(TAG, "Time Cost: ${afterRank - beforeRank}")
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.widget
+
+import android.net.Uri
+import android.util.Size
+
+/** Reads preview image dimensions without loading the image itself. */
+interface ImageSizeProbe {
+    /**
+     * Returns the dimensions, as displayed (i.e. with the orientation applied), of the image at
+     * [uri] or `null` if they can not be determined without loading the image.
+     */
+    suspend fun readImageSize(uri: Uri): Size?
+}
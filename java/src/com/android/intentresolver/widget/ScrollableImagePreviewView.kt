@@ -22,6 +22,7 @@ import android.graphics.Rect
 import android.net.Uri
 import android.util.AttributeSet
 import android.util.PluralsMessageFormatter
+import android.util.Size
 import android.util.TypedValue
 import android.view.LayoutInflater
 import android.view.View
@@ -47,10 +48,13 @@ import kotlinx.coroutines.Job
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.takeWhile
 import kotlinx.coroutines.joinAll
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withTimeoutOrNull
 
 private const val TRANSITION_NAME = "screenshot_preview_image"
 private const val PLURALS_COUNT = "count"
@@ -59,6 +63,9 @@ private const val MIN_ASPECT_RATIO = 0.4f
 private const val MIN_ASPECT_RATIO_STRING = "2:5"
 private const val MAX_ASPECT_RATIO = 2.5f
 private const val MAX_ASPECT_RATIO_STRING = "5:2"
+private const val ITEM_SIZE_TIMEOUT_MS = 1_000L
+private const val PREVIEW_WINDOW_SIZE = 32
+private val NO_SIZE = Size(0, 0)
 
 private typealias CachingImageLoader = suspend (Uri, Boolean) -> Bitmap?
 
@@ -110,10 +117,15 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
             }
         val itemAnimator = ItemAnimator()
         super.setItemAnimator(itemAnimator)
-        super.setAdapter(Adapter(context, itemAnimator.getAddDuration()))
+        super.setAdapter(
+            Adapter(context, itemAnimator.getAddDuration()).apply {
+                onItemBound = { position -> batchLoader?.onPreviewBound(position) }
+            }
+        )
     }
 
     private var batchLoader: BatchPreviewLoader? = null
+    private var imageSizeProbe: ImageSizeProbe? = null
     private val previewAdapter
         get() = adapter as Adapter
 
@@ -187,11 +199,25 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
         previewAdapter.imageLoader = imageLoader
     }
 
+    /**
+     * Sets a probe used to lay out previews by their image dimensions without loading the images;
+     * the images are then only loaded for the previews that are bound to views.
+     */
+    fun setImageSizeProbe(imageSizeProbe: ImageSizeProbe?) {
+        this.imageSizeProbe = imageSizeProbe
+    }
+
     fun setLoading(totalItemCount: Int) {
         previewAdapter.reset(totalItemCount)
     }
 
-    fun setPreviews(previews: Flow<Preview>, totalItemCount: Int) {
+    /**
+     * Sets the [previews] to display. A [streaming][isStreaming] flow (see
+     * `PreviewDataProvider.isStreaming`) is only collected [PREVIEW_WINDOW_SIZE] previews ahead of
+     * the last bound one, i.e. as the view is scrolled; other flows are collected right away.
+     */
+    @JvmOverloads
+    fun setPreviews(previews: Flow<Preview>, totalItemCount: Int, isStreaming: Boolean = false) {
         previewAdapter.reset(totalItemCount)
         batchLoader?.cancel()
         batchLoader =
@@ -201,12 +227,17 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
                 totalItemCount,
                 onUpdate = previewAdapter::addPreviews,
                 onCompletion = {
-                    batchLoader = null
+                    // A windowed loader keeps collecting previews as they are bound.
+                    if (!isStreaming) {
+                        batchLoader = null
+                    }
                     if (!previewAdapter.hasPreviews) {
                         onNoPreviewCallback?.run()
                     }
                     previewAdapter.markLoaded()
-                }
+                },
+                imageSizeProbe,
+                windowSize = if (isStreaming) PREVIEW_WINDOW_SIZE else Int.MAX_VALUE,
             )
         maybeLoadAspectRatios()
     }
@@ -247,8 +278,10 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
      *
      * @return adjusted preview width
      */
-    private fun updatePreviewSize(preview: Preview, width: Int, height: Int): Int {
-        val effectiveHeight = if (isLaidOut) height else measuredHeight
+    @VisibleForTesting
+    fun updatePreviewSize(preview: Preview, width: Int, height: Int): Int {
+        // the view's height, not the image one
+        val effectiveHeight = if (isLaidOut) this.height else measuredHeight
         return if (width <= 0 || height <= 0) {
             preview.aspectRatioString = "1:1"
             effectiveHeight
@@ -297,6 +330,7 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
         private val filePreviewDescription =
             context.resources.getString(R.string.file_preview_a11y_description)
         var imageLoader: CachingImageLoader? = null
+        var onItemBound: ((Int) -> Unit)? = null
         private var firstImagePos = -1
         private var totalItemCount: Int = 0
 
@@ -380,6 +414,7 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
             }
 
         override fun onBindViewHolder(vh: ViewHolder, position: Int) {
+            onItemBound?.invoke(position)
             when (vh) {
                 is OtherItemViewHolder -> vh.bind(totalItemCount - previews.size)
                 is LoadingItemViewHolder -> vh.bind()
@@ -640,9 +675,38 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
         private val previews: Flow<Preview>,
         val totalItemCount: Int,
         private val onUpdate: (List<Preview>) -> Unit,
+        /**
+         * Invoked once all the previews are loaded or, with a [windowSize] limit, once the first
+         * [windowSize] previews are; the rest of the previews are still loaded as they are bound.
+         */
         private val onCompletion: () -> Unit,
+        private val imageSizeProbe: ImageSizeProbe? = null,
+        private val itemTimeoutMs: Long = ITEM_SIZE_TIMEOUT_MS,
+        /**
+         * Number of previews to collect ahead of the last bound one (see [onPreviewBound]), the
+         * collection is suspended otherwise; [Int.MAX_VALUE] disables the limit.
+         */
+        private val windowSize: Int = Int.MAX_VALUE,
     ) {
         private var scope: CoroutineScope = createScope()
+        private var boundLimit = windowSize
+        private var failedCount = 0
+        // the number of previews that can be collected; failed previews are never displayed and
+        // are not counted against the window.
+        private val collectLimit = MutableStateFlow(windowSize)
+
+        /** Notifies that the preview at the adapter [position] is bound. */
+        fun onPreviewBound(position: Int) {
+            if (windowSize == Int.MAX_VALUE) return
+            boundLimit = maxOf(boundLimit, position + 1 + windowSize)
+            collectLimit.value = boundLimit + failedCount
+        }
+
+        private fun onPreviewFailed() {
+            if (windowSize == Int.MAX_VALUE) return
+            failedCount++
+            collectLimit.value = boundLimit + failedCount
+        }
 
         private fun createScope() = CoroutineScope(Dispatchers.Main.immediate)
 
@@ -663,6 +727,8 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
 
             // collects updates from [reportFlow] throttling adapter updates;
             scope.launch(Dispatchers.Main) {
+                var updatedCount = 0
+                var isCompleted = false
                 reportFlow
                     .takeWhile { it !== completedEvent }
                     .throttle(ADAPTER_UPDATE_INTERVAL_MS)
@@ -676,9 +742,16 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
                         }
                         if (updates.isNotEmpty()) {
                             onUpdate(updates)
+                            updatedCount += updates.size
+                        }
+                        if (!isCompleted && updatedCount >= windowSize) {
+                            isCompleted = true
+                            onCompletion()
                         }
                     }
-                onCompletion()
+                if (!isCompleted) {
+                    onCompletion()
+                }
             }
 
             // Collects [previews] flow and loads aspect ratios, emits updates into [reportFlow]
@@ -690,6 +763,7 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
 
                 val jobs = ArrayList<Job>()
                 previews.collect { preview ->
+                    collectLimit.first { it > previewInfos.size }
                     val i = previewInfos.size
                     val pair = PreviewWidthInfo(preview)
                     previewInfos.add(pair)
@@ -697,16 +771,23 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
                     val job = launch {
                         pair.width =
                             runCatching {
-                                    // TODO: decide on adding a timeout. The worst case I can
-                                    //  imagine is one of the first images never loads so we never
-                                    //  fill the initial viewport and does not show the previews at
-                                    //  all.
-                                    imageLoader(preview.uri, isFirstBlock)?.let { bitmap ->
-                                        previewSizeUpdater(preview, bitmap.width, bitmap.height)
+                                    val size =
+                                        withTimeoutOrNull(itemTimeoutMs) {
+                                            readPreviewSize(preview, isFirstBlock) ?: NO_SIZE
+                                        }
+                                    when {
+                                        // A preview that takes too long is laid out with the
+                                        // default aspect ratio rather than holding the initial
+                                        // viewport back.
+                                        size == null -> previewSizeUpdater(preview, 0, 0)
+                                        size === NO_SIZE -> 0
+                                        else -> previewSizeUpdater(preview, size.width, size.height)
                                     }
-                                        ?: 0
                                 }
                                 .getOrDefault(0)
+                        if (pair.width == 0) {
+                            onPreviewFailed()
+                        }
 
                         if (i == blockEnd) {
                             while (
@@ -718,7 +799,9 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
                             if (isFirstBlock && blockWidth >= maxWidth) {
                                 isFirstBlock = false
                             }
-                            if (!isFirstBlock) {
+                            // Also report once all the previews the window allows are loaded, the
+                            // collection waits for the previews to be bound then.
+                            if (!isFirstBlock || blockEnd >= collectLimit.value) {
                                 reportFlow.emit(updateEvent)
                             }
                         }
@@ -731,6 +814,22 @@ class ScrollableImagePreviewView : RecyclerView, ImagePreviewView {
                 reportFlow.emit(completedEvent)
             }
         }
+
+        /**
+         * Reads the preview image dimensions with the [imageSizeProbe], falling back to loading
+         * the image. Images of the first block, that are about to be displayed, are still loaded
+         * ahead of time.
+         */
+        private suspend fun readPreviewSize(preview: Preview, isFirstBlock: Boolean): Size? {
+            val probedSize = imageSizeProbe?.readImageSize(preview.uri)
+            if (probedSize != null) {
+                if (isFirstBlock) {
+                    scope.launch { runCatching { imageLoader(preview.uri, true) } }
+                }
+                return probedSize
+            }
+            return imageLoader(preview.uri, isFirstBlock)?.let { Size(it.width, it.height) }
+        }
     }
 
     private class PreviewWidthInfo(val preview: Preview) {
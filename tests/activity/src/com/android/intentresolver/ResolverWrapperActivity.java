@@ -41,7 +41,9 @@ import com.android.intentresolver.emptystate.CrossProfileIntentsChecker;
 import com.android.intentresolver.icons.LabelInfo;
 import com.android.intentresolver.icons.TargetDataLoader;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -241,6 +243,7 @@ public class ResolverWrapperActivity extends ResolverActivity {
     private static class TargetDataLoaderWrapper extends TargetDataLoader {
         private final TargetDataLoader mTargetDataLoader;
         private final CountingIdlingResource mLabelIdlingResource;
+        private final Set<TargetInfo> mPendingLabels = new HashSet<>();
 
         private TargetDataLoaderWrapper(
                 TargetDataLoader targetDataLoader, CountingIdlingResource labelIdlingResource) {
@@ -268,11 +271,15 @@ public class ResolverWrapperActivity extends ResolverActivity {
         public void loadLabel(
                 @NonNull DisplayResolveInfo info,
                 @NonNull Consumer<LabelInfo> callback) {
-            mLabelIdlingResource.increment();
+            if (mPendingLabels.add(info)) {
+                mLabelIdlingResource.increment();
+            }
             mTargetDataLoader.loadLabel(
                     info,
                     (result) -> {
-                        mLabelIdlingResource.decrement();
+                        if (mPendingLabels.remove(info)) {
+                            mLabelIdlingResource.decrement();
+                        }
                         callback.accept(result);
                     });
         }
@@ -281,5 +288,13 @@ public class ResolverWrapperActivity extends ResolverActivity {
         public void getOrLoadLabel(@NonNull DisplayResolveInfo info) {
             mTargetDataLoader.getOrLoadLabel(info);
         }
+
+        @Override
+        public void cancel(@NonNull TargetInfo info) {
+            mTargetDataLoader.cancel(info);
+            if (mPendingLabels.remove(info)) {
+                mLabelIdlingResource.decrement();
+            }
+        }
     }
 }
@@ -47,7 +47,9 @@ import com.android.intentresolver.icons.TargetDataLoader;
 
 import kotlin.Unit;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -245,6 +247,7 @@ public class ResolverWrapperActivity extends ResolverActivity {
     private static class TargetDataLoaderWrapper extends TargetDataLoader {
         private final TargetDataLoader mTargetDataLoader;
         private final CountingIdlingResource mLabelIdlingResource;
+        private final Set<TargetInfo> mPendingLabels = new HashSet<>();
 
         private TargetDataLoaderWrapper(
                 TargetDataLoader targetDataLoader, CountingIdlingResource labelIdlingResource) {
@@ -272,11 +275,15 @@ public class ResolverWrapperActivity extends ResolverActivity {
         public void loadLabel(
                 @NonNull DisplayResolveInfo info,
                 @NonNull Consumer<LabelInfo> callback) {
-            mLabelIdlingResource.increment();
+            if (mPendingLabels.add(info)) {
+                mLabelIdlingResource.increment();
+            }
             mTargetDataLoader.loadLabel(
                     info,
                     (result) -> {
-                        mLabelIdlingResource.decrement();
+                        if (mPendingLabels.remove(info)) {
+                            mLabelIdlingResource.decrement();
+                        }
                         callback.accept(result);
                     });
         }
@@ -285,5 +292,13 @@ public class ResolverWrapperActivity extends ResolverActivity {
         public void getOrLoadLabel(@NonNull DisplayResolveInfo info) {
             mTargetDataLoader.getOrLoadLabel(info);
         }
+
+        @Override
+        public void cancel(@NonNull TargetInfo info) {
+            mTargetDataLoader.cancel(info);
+            if (mPendingLabels.remove(info)) {
+                mLabelIdlingResource.decrement();
+            }
+        }
     }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.ComponentName
+import android.content.Context
+import android.content.Intent
+import android.content.pm.ActivityInfo
+import android.content.pm.PackageManager
+import android.content.pm.PackageManager.ResolveInfoFlags
+import android.content.pm.ResolveInfo
+import com.android.intentresolver.util.TestExecutor
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+
+class CallerTargetResolverTest {
+    private val packageManager =
+        mock<PackageManager> {
+            whenever(resolveActivity(any<Intent>(), any<ResolveInfoFlags>())).thenAnswer {
+                val component = it.getArgument<Intent>(0).component!!
+                ResolveInfo().apply {
+                    activityInfo =
+                        ActivityInfo().apply {
+                            packageName = component.packageName
+                            name = component.className
+                        }
+                }
+            }
+        }
+    private val userContext = createUserContext(userId = 0)
+    private val targets =
+        listOf(
+            createChooserTarget("Target 1", 0.5f, ComponentName("org.pkg1", "Class1"), "id1"),
+            createChooserTarget("Target 2", 0.7f, ComponentName("org.pkg2", "Class2"), "id2"),
+        )
+    private val targetIntent = Intent(Intent.ACTION_SEND).setType("text/plain")
+    private val queryExecutor = TestExecutor()
+    private val testSubject =
+        CallerTargetResolver(targets, targetIntent, ResolveQueryEngine(queryExecutor))
+
+    @Test
+    fun start_resolvedOffTheCallingThreadOnce() {
+        val callbackExecutor = TestExecutor()
+        var callbackCount = 0
+
+        testSubject.start(userContext)
+        testSubject.whenResolved(userContext, callbackExecutor) { callbackCount++ }
+
+        verify(packageManager, never()).resolveActivity(any<Intent>(), any<ResolveInfoFlags>())
+        queryExecutor.runUntilIdle()
+        assertThat(callbackCount).isEqualTo(0)
+        callbackExecutor.runUntilIdle()
+        assertThat(callbackCount).isEqualTo(1)
+
+        testSubject.start(userContext)
+        for (target in targets) {
+            val resolvedTarget = testSubject.getResolvedTarget(target, userContext)
+            assertThat(resolvedTarget.resolvedIntent.component).isEqualTo(target.componentName)
+            assertThat(resolvedTarget.resolvedIntent.action).isEqualTo(Intent.ACTION_SEND)
+            assertThat(resolvedTarget.resolvedIntent.getStringExtra(Intent.EXTRA_SHORTCUT_ID))
+                .isEqualTo(target.intentExtras.getString(Intent.EXTRA_SHORTCUT_ID))
+            assertThat(resolvedTarget.backupResolveInfo?.activityInfo?.name)
+                .isEqualTo(target.componentName.className)
+        }
+        assertThat(queryExecutor.pendingCommandCount).isEqualTo(0)
+        verify(packageManager, times(targets.size))
+            .resolveActivity(any<Intent>(), any<ResolveInfoFlags>())
+    }
+
+    @Test
+    fun whenResolved_alreadyResolved_callbackRunRightAway() {
+        testSubject.start(userContext)
+        queryExecutor.runUntilIdle()
+        var callbackCount = 0
+
+        testSubject.whenResolved(userContext, TestExecutor()) { callbackCount++ }
+
+        assertThat(callbackCount).isEqualTo(1)
+    }
+
+    @Test
+    fun getResolvedTarget_resolutionNotRunYet_resolvedOnTheCallingThreadOnce() {
+        testSubject.start(userContext)
+
+        val resolvedTarget = testSubject.getResolvedTarget(targets[1], userContext)
+        queryExecutor.runUntilIdle()
+
+        assertThat(resolvedTarget.resolvedIntent.component).isEqualTo(targets[1].componentName)
+        verify(packageManager, times(targets.size))
+            .resolveActivity(any<Intent>(), any<ResolveInfoFlags>())
+    }
+
+    @Test
+    fun getResolvedTarget_otherUser_resolvedSeparately() {
+        testSubject.start(userContext)
+        queryExecutor.runUntilIdle()
+
+        testSubject.getResolvedTarget(targets[0], createUserContext(userId = 10))
+
+        verify(packageManager, times(targets.size * 2))
+            .resolveActivity(any<Intent>(), any<ResolveInfoFlags>())
+    }
+
+    @Test
+    fun getResolvedTarget_notACallerTarget_resolvedDirectly() {
+        val otherTarget =
+            createChooserTarget("Other", 0.1f, ComponentName("org.pkg3", "Class3"), "id3")
+
+        val resolvedTarget = testSubject.getResolvedTarget(otherTarget, userContext)
+
+        assertThat(resolvedTarget.resolvedIntent.component).isEqualTo(otherTarget.componentName)
+        assertThat(queryExecutor.pendingCommandCount).isEqualTo(0)
+        verify(packageManager, times(1)).resolveActivity(any<Intent>(), any<ResolveInfoFlags>())
+    }
+
+    private fun createUserContext(userId: Int) =
+        mock<Context> {
+            whenever(this.userId).thenReturn(userId)
+            whenever(this.packageManager).thenReturn(this@CallerTargetResolverTest.packageManager)
+        }
+}
@@ -21,6 +21,8 @@ import android.content.Intent
 import android.content.pm.PackageManager
 import android.content.pm.PackageManager.ResolveInfoFlags
 import android.content.pm.ShortcutInfo
+import android.database.DataSetObserver
+import android.graphics.drawable.Drawable
 import android.os.UserHandle
 import android.view.View
 import android.widget.FrameLayout
@@ -33,11 +35,14 @@ import com.android.intentresolver.chooser.SelectableTargetInfo
 import com.android.intentresolver.chooser.TargetInfo
 import com.android.intentresolver.icons.TargetDataLoader
 import com.android.intentresolver.logging.EventLogImpl
+import com.android.intentresolver.util.TestExecutor
 import com.android.internal.R
 import com.google.common.truth.Truth.assertThat
+import java.util.function.Consumer
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
+import org.mockito.Mockito.never
 import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
 
@@ -137,6 +142,44 @@ class ChooserListAdapterTest {
         verify(mTargetDataLoader, times(1)).loadAppTargetIcon(any(), any(), any())
     }
 
+    @Test
+    fun onViewRecycled_pendingLoadsAreCancelledAndRequestedAgainOnRebind() {
+        val view = createView()
+        view.tag = ResolverListAdapter.ViewHolder(view)
+        val targetInfo = createDisplayResolveInfo()
+        testSubject.onBindView(view, targetInfo, 0)
+
+        testSubject.onViewRecycled(view)
+
+        val iconCallback = withArgCaptor<Consumer<Drawable>> {
+            verify(mTargetDataLoader).loadAppTargetIcon(eq(targetInfo), any(), capture())
+        }
+        verify(mTargetDataLoader, times(1)).cancel(targetInfo, iconCallback)
+
+        testSubject.onBindView(view, targetInfo, 0)
+
+        verify(mTargetDataLoader, times(2)).loadAppTargetIcon(any(), any(), any())
+    }
+
+    @Test
+    fun onViewRecycled_targetStillBoundToAnotherView_loadsNotCancelled() {
+        val rankedRowView = createView()
+        rankedRowView.tag = ResolverListAdapter.ViewHolder(rankedRowView)
+        val listView = createView()
+        listView.tag = ResolverListAdapter.ViewHolder(listView)
+        val targetInfo = createDisplayResolveInfo()
+        testSubject.onBindView(rankedRowView, targetInfo, 0)
+        testSubject.onBindView(listView, targetInfo, 1)
+
+        testSubject.onViewRecycled(rankedRowView)
+
+        verify(mTargetDataLoader, never()).cancel(any(), any())
+
+        testSubject.onViewRecycled(listView)
+
+        verify(mTargetDataLoader, times(1)).cancel(eq(targetInfo), any())
+    }
+
     @Test
     fun onBindView_contentDescription() {
         val view = createView()
@@ -176,6 +219,76 @@ class ChooserListAdapterTest {
         verify(mPackageChangeCallback, times(1)).beforeHandlingPackagesChanged()
     }
 
+    @Test
+    fun addCallerTargets_serviceTargetLoadingCompletedFirst_callerTargetsStillAdded() {
+        val targetIntent = Intent(Intent.ACTION_SEND).setType("text/plain")
+        val callerTargets =
+            listOf(
+                createChooserTarget("Target 1", 0.5f, ComponentName("org.pkg1", "Class1"), "id1"),
+                createChooserTarget("Target 2", 0.7f, ComponentName("org.pkg2", "Class2"), "id2"),
+            )
+        val queryExecutor = TestExecutor()
+        val callerTargetResolver =
+            CallerTargetResolver(callerTargets, targetIntent, ResolveQueryEngine(queryExecutor))
+        val testSubject = createSendTestSubject(targetIntent)
+
+        testSubject.addCallerTargets(
+            callerTargetResolver,
+            callerTargets,
+            TestExecutor(immediate = true)
+        )
+        testSubject.completeServiceTargetLoading()
+        queryExecutor.runUntilIdle()
+
+        assertThat(testSubject.surfacedTargetInfo.map { it.chooserTargetComponentName })
+            .containsExactlyElementsIn(callerTargets.map { it.componentName })
+        assertThat(testSubject.getServiceTargetCount()).isEqualTo(callerTargets.size)
+        verify(mEventLog, never()).logSharesheetEmptyDirectShareRow()
+    }
+
+    @Test
+    fun completeServiceTargetLoading_serviceTargetCountChanged_observersNotifiedRightAway() {
+        val testSubject = createSendTestSubject(Intent(Intent.ACTION_SEND).setType("text/plain"))
+        var changeCount = 0
+        testSubject.registerDataSetObserver(
+            object : DataSetObserver() {
+                override fun onChanged() {
+                    changeCount++
+                }
+            }
+        )
+
+        // the placeholders are replaced with the empty direct share row target
+        testSubject.completeServiceTargetLoading()
+
+        assertThat(testSubject.getServiceTargetCount()).isEqualTo(1)
+        assertThat(changeCount).isEqualTo(1)
+    }
+
+    private fun createSendTestSubject(targetIntent: Intent): ChooserListAdapter {
+        val executor = TestExecutor(immediate = true)
+        return ChooserListAdapter(
+            context,
+            emptyList(),
+            emptyArray(),
+            emptyList(),
+            false,
+            resolverListController,
+            userHandle,
+            targetIntent,
+            Intent(),
+            mock(),
+            packageManager,
+            mEventLog,
+            /* maxRankedTargets = */ 4,
+            null,
+            mTargetDataLoader,
+            mPackageChangeCallback,
+            /* bgExecutor = */ executor,
+            /* mainExecutor = */ executor
+        )
+    }
+
     private fun createSelectableTargetInfo(isPinned: Boolean = false): TargetInfo {
         val shortcutInfo =
             createShortcutInfo("id-1", ComponentName("pkg", "Class"), 1).apply {
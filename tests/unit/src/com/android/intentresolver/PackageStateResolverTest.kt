@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.pm.ApplicationInfo
+import android.content.pm.PackageManager
+import android.content.pm.PackageManager.ApplicationInfoFlags
+import com.android.intentresolver.util.TestExecutor
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.never
+import org.mockito.Mockito.verify
+
+class PackageStateResolverTest {
+    private val packageManager =
+        mock<PackageManager> {
+            whenever(getApplicationInfo(anyString(), any<ApplicationInfoFlags>())).thenAnswer {
+                when (val packageName = it.getArgument<String>(0)) {
+                    MISSING -> throw PackageManager.NameNotFoundException()
+                    DISABLED -> createAppInfo(packageName, enabled = false)
+                    SUSPENDED ->
+                        createAppInfo(packageName, enabled = true).apply {
+                            flags = ApplicationInfo.FLAG_SUSPENDED
+                        }
+                    else -> createAppInfo(packageName, enabled = true)
+                }
+            }
+        }
+    private val testSubject =
+        PackageStateResolver(packageManager, ResolveQueryEngine(TestExecutor()))
+
+    @Test
+    fun resolve_manyShortcutsFromFewPackages_eachPackageFetchedOnce() {
+        val packageNames = (0 until 200).map { "org.package${it % 15}" }
+
+        testSubject.resolve(packageNames)
+
+        assertThat(packageNames.all { testSubject.isPackageEnabled(it) }).isTrue()
+        assertThat(testSubject.fetchCount).isEqualTo(15)
+    }
+
+    @Test
+    fun isPackageEnabled_disabledSuspendedOrMissing_false() {
+        testSubject.resolve(listOf(DISABLED, SUSPENDED, MISSING))
+
+        assertThat(testSubject.isPackageEnabled(DISABLED)).isFalse()
+        assertThat(testSubject.isPackageEnabled(SUSPENDED)).isFalse()
+        assertThat(testSubject.isPackageEnabled(MISSING)).isFalse()
+        assertThat(testSubject.isPackageEnabled("")).isFalse()
+    }
+
+    @Test
+    fun isPackageEnabled_knownState_notFetched() {
+        testSubject.addKnownState(createAppInfo("org.package", enabled = true))
+
+        testSubject.resolve(listOf("org.package"))
+
+        assertThat(testSubject.isPackageEnabled("org.package")).isTrue()
+        verify(packageManager, never()).getApplicationInfo(anyString(), any<ApplicationInfoFlags>())
+    }
+
+    private fun createAppInfo(packageName: String, enabled: Boolean) =
+        ApplicationInfo().apply {
+            this.packageName = packageName
+            this.enabled = enabled
+        }
+
+    private companion object {
+        const val DISABLED = "org.disabled"
+        const val SUSPENDED = "org.suspended"
+        const val MISSING = "org.missing"
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import com.android.intentresolver.util.TestExecutor
+import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.Callable
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import org.junit.Assert.assertThrows
+import org.junit.Test
+
+class ResolveQueryEngineTest {
+    @Test
+    fun runAll_queriesRunInParallel_resultsInQueryOrder() {
+        val executor = Executors.newFixedThreadPool(ResolveQueryEngine.MAX_PARALLEL_QUERIES)
+        val testSubject = ResolveQueryEngine(executor)
+        // Each query only completes once all of them have started.
+        val barrier = CyclicBarrier(3)
+        val queries =
+            (0 until 3).map { i ->
+                Callable {
+                    barrier.await(5, TimeUnit.SECONDS)
+                    "result $i"
+                }
+            }
+
+        val results = testSubject.runAll(queries)
+
+        assertThat(results).containsExactly("result 0", "result 1", "result 2").inOrder()
+        executor.shutdown()
+    }
+
+    @Test
+    fun runAll_queriesNotStartedByThePool_runOnCallingThread() {
+        val testSubject = ResolveQueryEngine(TestExecutor())
+
+        val results = testSubject.runAll(listOf(Callable { 1 }, Callable { 2 }))
+
+        assertThat(results).containsExactly(1, 2).inOrder()
+    }
+
+    @Test
+    fun getResult_queryThrew_exceptionRethrown() {
+        val testSubject = ResolveQueryEngine(TestExecutor())
+
+        val query = testSubject.submit<Int> { throw IllegalStateException() }
+
+        assertThrows(IllegalStateException::class.java) { ResolveQueryEngine.getResult(query) }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.Intent
+import android.content.pm.ActivityInfo
+import android.content.pm.ResolveInfo
+import android.net.Uri
+import android.os.UserHandle
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class ResolveResultCacheTest {
+    private val testSubject = ResolveResultCache().apply { setEnabled(true) }
+    private val user = UserHandle.of(0)
+    private var queryCount = 0
+
+    @Test
+    fun getOrQuery_sameIntentSignature_queriedOnce() {
+        val first = testSubject.getOrQuery(createSendIntent("text/plain"), 0, user, ::query)
+        val second =
+            testSubject.getOrQuery(
+                createSendIntent("text/plain").putExtra(Intent.EXTRA_TEXT, "text"),
+                0,
+                user,
+                ::query
+            )
+
+        assertThat(queryCount).isEqualTo(1)
+        assertThat(second.map { it.activityInfo.name })
+            .containsExactlyElementsIn(first.map { it.activityInfo.name })
+        assertThat(second[0]).isNotSameInstanceAs(first[0])
+        assertThat(testSubject.hitCount).isEqualTo(1)
+        assertThat(testSubject.missCount).isEqualTo(1)
+    }
+
+    @Test
+    fun getOrQuery_differentTypeFlagsOrUser_queriedAgain() {
+        testSubject.getOrQuery(createSendIntent("text/plain"), 0, user, ::query)
+        testSubject.getOrQuery(createSendIntent("image/png"), 0, user, ::query)
+        testSubject.getOrQuery(createSendIntent("text/plain"), 1, user, ::query)
+        testSubject.getOrQuery(createSendIntent("text/plain"), 0, UserHandle.of(10), ::query)
+
+        assertThat(queryCount).isEqualTo(4)
+        assertThat(testSubject.hitCount).isEqualTo(0)
+    }
+
+    @Test
+    fun getOrQuery_afterInvalidate_queriedAgain() {
+        testSubject.getOrQuery(createSendIntent("text/plain"), 0, user, ::query)
+
+        testSubject.invalidate()
+        testSubject.getOrQuery(createSendIntent("text/plain"), 0, user, ::query)
+
+        assertThat(queryCount).isEqualTo(2)
+    }
+
+    @Test
+    fun getOrQuery_intentWithData_notCached() {
+        val intent = Intent(Intent.ACTION_VIEW, Uri.parse("https://example.com"))
+
+        testSubject.getOrQuery(intent, 0, user, ::query)
+        testSubject.getOrQuery(intent, 0, user, ::query)
+
+        assertThat(queryCount).isEqualTo(2)
+        assertThat(testSubject.missCount).isEqualTo(0)
+    }
+
+    private fun createSendIntent(type: String) = Intent(Intent.ACTION_SEND).setType(type)
+
+    private fun query(): List<ResolveInfo> {
+        queryCount++
+        return listOf(
+            ResolveInfo().apply {
+                activityInfo =
+                    ActivityInfo().apply {
+                        packageName = "org.pkg"
+                        name = "Activity$queryCount"
+                    }
+            }
+        )
+    }
+}
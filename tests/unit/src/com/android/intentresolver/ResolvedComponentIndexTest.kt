@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.ComponentName
+import android.content.Intent
+import android.content.pm.ActivityInfo
+import android.content.pm.ResolveInfo
+import android.os.UserHandle
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class ResolvedComponentIndexTest {
+    @Test
+    fun get_returnsFirstRecordOfTheComponent() {
+        val first = createRecord("org.pkg", "Activity")
+        val duplicate = createRecord("org.pkg", "Activity")
+        val other = createRecord("org.pkg", "OtherActivity")
+        val testSubject = ResolvedComponentIndex(mutableListOf(first, duplicate, other))
+
+        assertThat(testSubject.get(createResolveInfo("org.pkg", "Activity")))
+            .isSameInstanceAs(first)
+        assertThat(testSubject.get(createResolveInfo("org.pkg", "OtherActivity")))
+            .isSameInstanceAs(other)
+        assertThat(testSubject.get(createResolveInfo("org.other", "Activity"))).isNull()
+    }
+
+    @Test
+    fun onAppended_recordIndexed() {
+        val list = mutableListOf(createRecord("org.pkg", "Activity"))
+        val testSubject = ResolvedComponentIndex(list)
+        val appended = createRecord("org.pkg.two", "Activity")
+        list.add(appended)
+
+        assertThat(testSubject.get(createResolveInfo("org.pkg.two", "Activity"))).isNull()
+
+        testSubject.onAppended(appended)
+
+        assertThat(testSubject.get(createResolveInfo("org.pkg.two", "Activity")))
+            .isSameInstanceAs(appended)
+    }
+
+    private fun createRecord(packageName: String, className: String) =
+        ResolvedComponentInfo(
+            ComponentName(packageName, className),
+            Intent(),
+            createResolveInfo(packageName, className),
+        )
+
+    private fun createResolveInfo(packageName: String, className: String) =
+        ResolveInfo().apply {
+            userHandle = UserHandle.of(0)
+            activityInfo =
+                ActivityInfo().apply {
+                    this.packageName = packageName
+                    name = className
+                }
+        }
+}
@@ -21,19 +21,25 @@ import android.content.Context
 import android.content.Intent
 import android.content.pm.PackageManager
 import android.content.pm.ResolveInfo
+import android.database.DataSetObserver
 import android.os.UserHandle
 import android.os.UserManager
 import android.view.LayoutInflater
+import androidx.recyclerview.widget.ListUpdateCallback
 import com.android.intentresolver.ResolverDataProvider.createActivityInfo
 import com.android.intentresolver.ResolverListAdapter.ResolverListCommunicator
+import com.android.intentresolver.icons.LabelInfo
 import com.android.intentresolver.icons.TargetDataLoader
 import com.android.intentresolver.util.TestExecutor
 import com.google.common.truth.Truth.assertThat
+import java.util.function.Consumer
 import org.junit.Test
 import org.mockito.Mockito.anyBoolean
 import org.mockito.Mockito.inOrder
 import org.mockito.Mockito.never
+import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
+import org.mockito.Mockito.verifyNoMoreInteractions
 
 private const val PKG_NAME = "org.pkg.app"
 private const val PKG_NAME_TWO = "org.pkg.two.app"
@@ -513,6 +519,120 @@ class ResolverListAdapterTest {
             .isEqualTo(PKG_NAME)
     }
 
+    @Suppress("UNCHECKED_CAST")
+    @Test
+    fun test_rankingSnapshot_targetsPresentedInSnapshotOrderWhileSorting() {
+        val resolvedTargets =
+            createResolvedComponents(
+                ComponentName(PKG_NAME, CLASS_NAME),
+                ComponentName(PKG_NAME_TWO, CLASS_NAME),
+            )
+        whenever(
+                resolverListController.getResolversForIntentAsUser(
+                    true,
+                    resolverListCommunicator.shouldGetActivityMetadata(),
+                    resolverListCommunicator.shouldGetOnlyDefaultActivities(),
+                    payloadIntents,
+                    userHandle
+                )
+            )
+            .thenReturn(resolvedTargets)
+        whenever(resolverListController.orderByRankingSnapshot(any())).thenAnswer { invocation ->
+            (invocation.arguments[0] as List<ResolvedComponentInfo>).reversed()
+        }
+        whenever(resolverListController.sort(any())).thenAnswer { invocation ->
+            val components = invocation.arguments[0] as MutableList<ResolvedComponentInfo>
+            components[0] = components[1].also { components[1] = components[0] }
+            null
+        }
+        val testSubject =
+            ResolverListAdapter(
+                context,
+                payloadIntents,
+                /*initialIntents=*/ null,
+                /*rList=*/ null,
+                /*filterLastUsed=*/ false,
+                resolverListController,
+                userHandle,
+                targetIntent,
+                resolverListCommunicator,
+                /*initialIntentsUserSpace=*/ userHandle,
+                targetDataLoader,
+                backgroundExecutor,
+                immediateExecutor,
+            )
+
+        testSubject.rebuildList(/* doPostProcessing= */ true)
+
+        val seededTargets = testSubject.targetsInCurrentDisplayList
+        assertThat(seededTargets.map { it.resolvedComponentName.packageName })
+            .containsExactly(PKG_NAME_TWO, PKG_NAME)
+            .inOrder()
+
+        backgroundExecutor.runUntilIdle()
+
+        assertThat(testSubject.targetsInCurrentDisplayList)
+            .containsExactlyElementsIn(seededTargets)
+            .inOrder()
+    }
+
+    @Test
+    fun test_labelsLoaded_changesReportedInOneBatch() {
+        val resolvedTargets =
+            createResolvedComponents(
+                ComponentName(PKG_NAME, CLASS_NAME),
+                ComponentName(PKG_NAME_TWO, CLASS_NAME),
+            )
+        whenever(
+                resolverListController.getResolversForIntentAsUser(
+                    true,
+                    resolverListCommunicator.shouldGetActivityMetadata(),
+                    resolverListCommunicator.shouldGetOnlyDefaultActivities(),
+                    payloadIntents,
+                    userHandle
+                )
+            )
+            .thenReturn(resolvedTargets)
+        val queuedCallbacksExecutor = TestExecutor()
+        val testSubject =
+            ResolverListAdapter(
+                context,
+                payloadIntents,
+                /*initialIntents=*/ null,
+                /*rList=*/ null,
+                /*filterLastUsed=*/ false,
+                resolverListController,
+                userHandle,
+                targetIntent,
+                resolverListCommunicator,
+                /*initialIntentsUserSpace=*/ userHandle,
+                targetDataLoader,
+                backgroundExecutor,
+                queuedCallbacksExecutor,
+            )
+        testSubject.rebuildList(/* doPostProcessing= */ false)
+        backgroundExecutor.runUntilIdle()
+        queuedCallbacksExecutor.runUntilIdle()
+        val listUpdateCallback = mock<ListUpdateCallback>()
+        val dataSetObserver = mock<DataSetObserver>()
+        testSubject.setListUpdateCallback(listUpdateCallback)
+        testSubject.registerDataSetObserver(dataSetObserver)
+
+        testSubject.targetsInCurrentDisplayList.forEach { testSubject.loadLabel(it) }
+        val labelCallbacks = argumentCaptor<Consumer<LabelInfo>>()
+        verify(targetDataLoader, times(2)).loadLabel(any(), capture(labelCallbacks))
+        labelCallbacks.allValues.forEach { it.accept(LabelInfo("label", "sublabel")) }
+
+        assertThat(queuedCallbacksExecutor.pendingCommandCount).isEqualTo(1)
+        queuedCallbacksExecutor.runUntilIdle()
+
+        verify(listUpdateCallback).onChanged(0, 2, null)
+        verifyNoMoreInteractions(listUpdateCallback)
+        verify(dataSetObserver, never()).onChanged()
+        assertThat(testSubject.frameUpdates.updateCount).isEqualTo(1)
+        assertThat(testSubject.frameUpdates.mutationCount).isEqualTo(2)
+    }
+
     @Suppress("UNCHECKED_CAST")
     @Test
     fun test_ineligibleActivityFilteredOut_filteredComponentNotPresentInAdapter() {
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver
+
+import android.content.Context
+import android.content.Intent
+import android.os.UserHandle
+import android.service.chooser.ChooserTarget
+import android.util.Log
+import androidx.test.filters.MediumTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.android.intentresolver.chooser.DisplayResolveInfo
+import com.android.intentresolver.chooser.TargetInfo
+import com.google.common.truth.Truth.assertThat
+import kotlin.random.Random
+import org.junit.Test
+
+private const val TAG = "ShortcutSelectionBench"
+private const val APP_COUNT = 50
+private const val SHORTCUTS_PER_APP = 10
+private const val MAX_RANKED_TARGETS = 8
+private const val WARMUP_ITERATIONS = 20
+private const val MEASURED_ITERATIONS = 100
+
+/**
+ * A micro-benchmark of the direct share ranking: 500 shortcuts from 50 apps are added app by app,
+ * as when the shortcuts are loaded. The time per pass is logged; the ranking is checked against a
+ * full sort.
+ */
+@MediumTest
+class ShortcutSelectionLogicBenchmarkTest {
+    private val user: UserHandle =
+        InstrumentationRegistry.getInstrumentation().targetContext.user
+    private val random = Random(42)
+    private val userContext = mock<Context>()
+    private val targetIntent = mock<Intent>()
+    private val referrerFillInIntent = mock<Intent>()
+    private val apps =
+        (0 until APP_COUNT).map { app ->
+            val displayInfo =
+                DisplayResolveInfo.newDisplayResolveInfo(
+                    Intent(),
+                    ResolverDataProvider.createResolveInfo(app, 0, user),
+                    "label $app",
+                    "extended info $app",
+                    Intent()
+                )
+            val targets =
+                (0 until SHORTCUTS_PER_APP).map { i ->
+                    createChooserTarget(
+                        "Shortcut $app-$i",
+                        random.nextFloat(),
+                        displayInfo.resolvedComponentName,
+                        "shortcut-$app-$i"
+                    )
+                }
+            displayInfo to targets
+        }
+
+    @Test
+    fun addServiceResults_500Shortcuts() {
+        val testSubject =
+            ShortcutSelectionLogic(
+                /* maxShortcutTargetsPerApp = */ SHORTCUTS_PER_APP,
+                /* applySharingAppLimits = */ false
+            )
+
+        repeat(WARMUP_ITERATIONS) { rankAll(testSubject) }
+        val start = System.nanoTime()
+        var serviceTargets: List<TargetInfo> = emptyList()
+        repeat(MEASURED_ITERATIONS) { serviceTargets = rankAll(testSubject) }
+        val nanosPerPass = (System.nanoTime() - start) / MEASURED_ITERATIONS
+        Log.i(TAG, "ranked ${APP_COUNT * SHORTCUTS_PER_APP} shortcuts in $nanosPerPass ns")
+
+        val expectedTitles =
+            apps
+                .flatMap { it.second }
+                .sortedByDescending { it.score }
+                .take(MAX_RANKED_TARGETS)
+                .map { it.title.toString() }
+        assertThat(serviceTargets.map { it.displayLabel.toString() })
+            .containsExactlyElementsIn(expectedTitles)
+            .inOrder()
+    }
+
+    private fun rankAll(testSubject: ShortcutSelectionLogic): List<TargetInfo> {
+        val serviceTargets = ArrayList<TargetInfo>()
+        for ((displayInfo, targets) in apps) {
+            testSubject.addServiceResults(
+                /* origTarget = */ displayInfo,
+                /* origTargetScore = */ 1f,
+                /* targets = */ ArrayList<ChooserTarget>(targets),
+                /* isShortcutResult = */ true,
+                /* directShareToShortcutInfos = */ emptyMap(),
+                /* directShareToAppTargets = */ emptyMap(),
+                /* userContext = */ userContext,
+                /* targetIntent = */ targetIntent,
+                /* refererFillInIntent = */ referrerFillInIntent,
+                /* maxRankedTargets = */ MAX_RANKED_TARGETS,
+                /* serviceTargets = */ serviceTargets
+            )
+        }
+        return serviceTargets
+    }
+}
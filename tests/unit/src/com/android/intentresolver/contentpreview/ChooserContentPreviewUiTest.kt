@@ -18,7 +18,13 @@ package com.android.intentresolver.contentpreview
 
 import android.content.Intent
 import android.net.Uri
+import android.view.LayoutInflater
+import android.view.ViewGroup
+import android.widget.FrameLayout
+import androidx.recyclerview.widget.RecyclerView
+import androidx.test.platform.app.InstrumentationRegistry
 import com.android.intentresolver.contentpreview.ChooserContentPreviewUi.ActionFactory
+import com.android.intentresolver.contentpreview.PreviewDataProvider.PreviewTypeState
 import com.android.intentresolver.TestPreviewImageLoader
 import com.android.intentresolver.mock
 import com.android.intentresolver.whenever
@@ -28,6 +34,7 @@ import com.google.common.truth.Truth.assertThat
 import java.util.function.Consumer
 import kotlin.coroutines.EmptyCoroutineContext
 import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.test.TestScope
 import kotlinx.coroutines.test.UnconfinedTestDispatcher
 import org.junit.Test
@@ -52,7 +59,8 @@ class ChooserContentPreviewUiTest {
 
     @Test
     fun test_textPreviewType_useTextPreviewUi() {
-        whenever(previewData.previewType).thenReturn(ContentPreviewType.CONTENT_PREVIEW_TEXT)
+        whenever(previewData.previewTypeFlow)
+            .thenReturn(MutableStateFlow(finalState(ContentPreviewType.CONTENT_PREVIEW_TEXT)))
         val testSubject =
             ChooserContentPreviewUi(
                 testScope,
@@ -71,7 +79,8 @@ class ChooserContentPreviewUiTest {
 
     @Test
     fun test_filePreviewType_useFilePreviewUi() {
-        whenever(previewData.previewType).thenReturn(ContentPreviewType.CONTENT_PREVIEW_FILE)
+        whenever(previewData.previewTypeFlow)
+            .thenReturn(MutableStateFlow(finalState(ContentPreviewType.CONTENT_PREVIEW_FILE)))
         val testSubject =
             ChooserContentPreviewUi(
                 testScope,
@@ -91,7 +100,8 @@ class ChooserContentPreviewUiTest {
     @Test
     fun test_imagePreviewTypeWithText_useFilePlusTextPreviewUi() {
         val uri = Uri.parse("content://org.pkg.app/img.png")
-        whenever(previewData.previewType).thenReturn(ContentPreviewType.CONTENT_PREVIEW_IMAGE)
+        whenever(previewData.previewTypeFlow)
+            .thenReturn(MutableStateFlow(finalState(ContentPreviewType.CONTENT_PREVIEW_IMAGE)))
         whenever(previewData.uriCount).thenReturn(2)
         whenever(previewData.firstFileInfo)
             .thenReturn(FileInfo.Builder(uri).withPreviewUri(uri).withMimeType("image/png").build())
@@ -115,7 +125,8 @@ class ChooserContentPreviewUiTest {
     @Test
     fun test_imagePreviewTypeWithoutText_useImagePreviewUi() {
         val uri = Uri.parse("content://org.pkg.app/img.png")
-        whenever(previewData.previewType).thenReturn(ContentPreviewType.CONTENT_PREVIEW_IMAGE)
+        whenever(previewData.previewTypeFlow)
+            .thenReturn(MutableStateFlow(finalState(ContentPreviewType.CONTENT_PREVIEW_IMAGE)))
         whenever(previewData.uriCount).thenReturn(2)
         whenever(previewData.firstFileInfo)
             .thenReturn(FileInfo.Builder(uri).withPreviewUri(uri).withMimeType("image/png").build())
@@ -136,4 +147,110 @@ class ChooserContentPreviewUiTest {
         verify(previewData, times(1)).imagePreviewFileInfoFlow
         verify(transitionCallback, never()).onAllTransitionElementsReady()
     }
+
+    @Test
+    fun test_provisionalPreviewType_previewUpgradedOnceTheTypeIsKnown() {
+        val previewTypeFlow =
+            MutableStateFlow(PreviewTypeState(ContentPreviewType.CONTENT_PREVIEW_IMAGE, false))
+        whenever(previewData.previewTypeFlow).thenReturn(previewTypeFlow)
+        whenever(previewData.uriCount).thenReturn(2)
+        whenever(previewData.imagePreviewFileInfoFlow).thenReturn(MutableSharedFlow())
+        val testSubject =
+            ChooserContentPreviewUi(
+                testScope,
+                previewData,
+                Intent(Intent.ACTION_SEND),
+                imageLoader,
+                actionFactory,
+                transitionCallback,
+                headlineGenerator,
+            )
+        assertThat(testSubject.mContentPreviewUi).isInstanceOf(UnifiedContentPreviewUi::class.java)
+        verify(transitionCallback, never()).onAllTransitionElementsReady()
+
+        previewTypeFlow.value = finalState(ContentPreviewType.CONTENT_PREVIEW_FILE)
+
+        assertThat(testSubject.preferredContentPreview)
+            .isEqualTo(ContentPreviewType.CONTENT_PREVIEW_FILE)
+        assertThat(testSubject.mContentPreviewUi).isInstanceOf(FileContentPreviewUi::class.java)
+        verify(transitionCallback, times(1)).onAllTransitionElementsReady()
+    }
+
+    @Test
+    fun test_provisionalPreviewTypeKept_transitionReportedOnceTheTypeIsKnown() {
+        val previewTypeFlow =
+            MutableStateFlow(PreviewTypeState(ContentPreviewType.CONTENT_PREVIEW_FILE, false))
+        whenever(previewData.previewTypeFlow).thenReturn(previewTypeFlow)
+        whenever(previewData.uriCount).thenReturn(2)
+        val testSubject =
+            ChooserContentPreviewUi(
+                testScope,
+                previewData,
+                Intent(Intent.ACTION_SEND).setType("*/*"),
+                imageLoader,
+                actionFactory,
+                transitionCallback,
+                headlineGenerator,
+            )
+        val loggedPreviewTypes = ArrayList<Int>()
+        testSubject.whenPreviewTypeFinal { loggedPreviewTypes.add(it) }
+
+        verify(transitionCallback, never()).onAllTransitionElementsReady()
+        assertThat(loggedPreviewTypes).isEmpty()
+
+        previewTypeFlow.value = finalState(ContentPreviewType.CONTENT_PREVIEW_FILE)
+
+        verify(transitionCallback, times(1)).onAllTransitionElementsReady()
+        assertThat(loggedPreviewTypes).containsExactly(ContentPreviewType.CONTENT_PREVIEW_FILE)
+    }
+
+    @Test
+    fun test_provisionalPreviewDisplayedAsListItem_listNotifiedOnceTheTypeIsKnown() {
+        val uri = Uri.parse("content://org.pkg.app/img.png")
+        val previewTypeFlow =
+            MutableStateFlow(PreviewTypeState(ContentPreviewType.CONTENT_PREVIEW_FILE, false))
+        whenever(previewData.previewTypeFlow).thenReturn(previewTypeFlow)
+        whenever(previewData.uriCount).thenReturn(1)
+        whenever(previewData.firstFileInfo)
+            .thenReturn(FileInfo.Builder(uri).withPreviewUri(uri).withMimeType("image/png").build())
+        whenever(previewData.imagePreviewFileInfoFlow).thenReturn(MutableSharedFlow())
+        val testSubject =
+            ChooserContentPreviewUi(
+                testScope,
+                previewData,
+                Intent(Intent.ACTION_SEND).setType("*/*"),
+                imageLoader,
+                actionFactory,
+                transitionCallback,
+                headlineGenerator,
+            )
+        var invalidationCount = 0
+        testSubject.setOnListContentPreviewInvalidatedListener { invalidationCount++ }
+        val replacedViews = ArrayList<ViewGroup>()
+        testSubject.setOnContentPreviewReplacedListener { replacedViews.add(it) }
+        val context = InstrumentationRegistry.getInstrumentation().context
+        val listView = RecyclerView(context)
+        val listItem = FrameLayout(context)
+        val provisionalView =
+            testSubject.displayContentPreview(
+                context.resources,
+                LayoutInflater.from(context),
+                listView,
+                /* headlineViewParent= */ null
+            )
+        listItem.addView(provisionalView)
+
+        previewTypeFlow.value = finalState(ContentPreviewType.CONTENT_PREVIEW_IMAGE)
+
+        assertThat(testSubject.preferredContentPreview)
+            .isEqualTo(ContentPreviewType.CONTENT_PREVIEW_IMAGE)
+        assertThat(testSubject.mContentPreviewUi).isInstanceOf(UnifiedContentPreviewUi::class.java)
+        assertThat(invalidationCount).isEqualTo(1)
+        assertThat(replacedViews).isEmpty()
+        assertThat(listItem.getChildAt(0)).isSameInstanceAs(provisionalView)
+        // The image preview reports its transition elements once displayed.
+        verify(transitionCallback, never()).onAllTransitionElementsReady()
+    }
+
+    private fun finalState(previewType: Int) = PreviewTypeState(previewType, isFinal = true)
 }
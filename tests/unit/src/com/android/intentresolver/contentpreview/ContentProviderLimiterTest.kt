@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.contentpreview
+
+import android.net.Uri
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineStart.UNDISPATCHED
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.test.UnconfinedTestDispatcher
+import kotlinx.coroutines.test.runTest
+import org.junit.Test
+
+@OptIn(ExperimentalCoroutinesApi::class)
+class ContentProviderLimiterTest {
+    private val slowProviderUri = Uri.parse("content://org.pkg.slow/image-1.png")
+    private val otherSlowProviderUri = Uri.parse("content://org.pkg.slow/image-2.png")
+    private val fastProviderUri = Uri.parse("content://org.pkg.fast/image.png")
+    private var now = 0L
+
+    @Test
+    fun withPermit_authorityPermitsTaken_otherAuthorityNotBlocked() =
+        runTest(UnconfinedTestDispatcher()) {
+            val testSubject =
+                ContentProviderLimiter(Semaphore(2), maxPermitsPerAuthority = 1) { now }
+            val slowCall = CompletableDeferred<Unit>()
+            var slowCallsStarted = 0
+            repeat(2) {
+                launch(start = UNDISPATCHED) {
+                    testSubject.withPermit(slowProviderUri) {
+                        slowCallsStarted++
+                        slowCall.await()
+                    }
+                }
+            }
+            var fastCallCompleted = false
+            launch(start = UNDISPATCHED) {
+                testSubject.withPermit(fastProviderUri) { fastCallCompleted = true }
+            }
+
+            assertThat(slowCallsStarted).isEqualTo(1)
+            assertThat(fastCallCompleted).isTrue()
+
+            slowCall.complete(Unit)
+
+            assertThat(slowCallsStarted).isEqualTo(2)
+        }
+
+    @Test
+    fun withPermit_failedCall_authorityBackedOff() =
+        runTest(UnconfinedTestDispatcher()) {
+            val testSubject =
+                ContentProviderLimiter(Semaphore(4), maxPermitsPerAuthority = 4) { now }
+
+            runCatching {
+                testSubject.withPermit(slowProviderUri) { throw SecurityException("test") }
+            }
+
+            assertThat(testSubject.isBackedOff(otherSlowProviderUri)).isTrue()
+            assertThat(testSubject.isBackedOff(fastProviderUri)).isFalse()
+
+            val pendingCall = CompletableDeferred<Unit>()
+            var callsStarted = 0
+            repeat(2) {
+                launch(start = UNDISPATCHED) {
+                    testSubject.withPermit(otherSlowProviderUri) {
+                        callsStarted++
+                        pendingCall.await()
+                    }
+                }
+            }
+
+            assertThat(callsStarted).isEqualTo(1)
+
+            pendingCall.complete(Unit)
+
+            assertThat(callsStarted).isEqualTo(2)
+            assertThat(testSubject.isBackedOff(otherSlowProviderUri)).isFalse()
+        }
+
+    @Test
+    fun withPermit_slowCall_authorityBackedOffForAWhile() =
+        runTest(UnconfinedTestDispatcher()) {
+            val testSubject =
+                ContentProviderLimiter(
+                    Semaphore(4),
+                    maxPermitsPerAuthority = 4,
+                    slowCallMs = 100,
+                ) { now }
+
+            testSubject.withPermit(slowProviderUri) { now += 200 }
+
+            assertThat(testSubject.isBackedOff(slowProviderUri)).isTrue()
+
+            now += 60_000
+
+            assertThat(testSubject.isBackedOff(slowProviderUri)).isFalse()
+        }
+}
@@ -16,15 +16,20 @@
 
 package com.android.intentresolver.contentpreview
 
+import android.content.ComponentCallbacks2
 import android.content.ContentResolver
+import android.database.MatrixCursor
 import android.graphics.Bitmap
 import android.net.Uri
+import android.provider.DocumentsContract
 import android.util.Size
 import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.coroutineScope
 import androidx.lifecycle.testing.TestLifecycleOwner
+import androidx.test.platform.app.InstrumentationRegistry
 import com.android.intentresolver.any
 import com.android.intentresolver.anyOrNull
+import com.android.intentresolver.eq
 import com.android.intentresolver.mock
 import com.android.intentresolver.whenever
 import com.google.common.truth.Truth.assertThat
@@ -58,6 +63,7 @@ import org.junit.After
 import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
+import org.mockito.Mockito.inOrder
 import org.mockito.Mockito.never
 import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
@@ -123,6 +129,141 @@ class ImagePreviewImageLoaderTest {
         verify(contentResolver, times(2)).loadThumbnail(any(), any(), anyOrNull())
     }
 
+    @Test
+    fun invoke_sharedThumbnailCache_reusesImagesAcrossLoaders() = runTest {
+        val thumbnailCache =
+            ThumbnailCache(
+                InstrumentationRegistry.getInstrumentation().context,
+                maxSizeBytes = 1024 * 1024,
+            )
+        val scope = lifecycleOwner.lifecycle.coroutineScope + dispatcher
+        ImagePreviewImageLoader(
+                scope,
+                imageSize.width,
+                contentResolver,
+                cacheSize = 1,
+                thumbnailCache = thumbnailCache,
+            )
+            .invoke(uriOne)
+
+        val image =
+            ImagePreviewImageLoader(
+                    scope,
+                    imageSize.width,
+                    contentResolver,
+                    cacheSize = 1,
+                    thumbnailCache = thumbnailCache,
+                )
+                .invoke(uriOne)
+
+        assertThat(image).isSameInstanceAs(bitmap)
+        verify(contentResolver, times(1)).loadThumbnail(any(), any(), anyOrNull())
+    }
+
+    @Test
+    fun invoke_sharedThumbnailCacheMiss_contentQueriedBeforeTheImageIsLoaded() = runTest {
+        val thumbnailCache =
+            ThumbnailCache(
+                InstrumentationRegistry.getInstrumentation().context,
+                maxSizeBytes = 1024 * 1024,
+            )
+
+        createLoader(thumbnailCache).invoke(uriOne)
+
+        val inOrder = inOrder(contentResolver)
+        inOrder.verify(contentResolver).query(eq(uriOne), any(), anyOrNull(), anyOrNull())
+        inOrder.verify(contentResolver).loadThumbnail(any(), any(), anyOrNull())
+    }
+
+    @Test
+    fun invoke_sharedThumbnailCacheHitsInOneSession_contentQueriedOnce() = runTest {
+        val thumbnailCache =
+            ThumbnailCache(
+                InstrumentationRegistry.getInstrumentation().context,
+                maxSizeBytes = 1024 * 1024,
+            )
+        val testSubject = createLoader(thumbnailCache)
+
+        // the session cache holds one image, uriOne is then served by the shared cache
+        testSubject(uriOne)
+        testSubject(uriTwo)
+        testSubject(uriOne)
+        testSubject(uriTwo)
+        testSubject(uriOne)
+
+        verify(contentResolver, times(1)).loadThumbnail(eq(uriOne), any(), anyOrNull())
+        verify(contentResolver, times(1)).query(eq(uriOne), any(), anyOrNull(), anyOrNull())
+    }
+
+    @Test
+    fun invoke_sharedThumbnailCacheHitOfModifiedContent_imageLoadedAgain() = runTest {
+        val thumbnailCache =
+            ThumbnailCache(
+                InstrumentationRegistry.getInstrumentation().context,
+                maxSizeBytes = 1024 * 1024,
+            )
+        val lastModified = arrayOf(1L)
+        whenever(contentResolver.query(eq(uriOne), any(), anyOrNull(), anyOrNull())).thenAnswer {
+            MatrixCursor(arrayOf(DocumentsContract.Document.COLUMN_LAST_MODIFIED)).apply {
+                addRow(lastModified)
+            }
+        }
+        createLoader(thumbnailCache).invoke(uriOne)
+        createLoader(thumbnailCache).invoke(uriOne)
+
+        verify(contentResolver, times(1)).loadThumbnail(any(), any(), anyOrNull())
+
+        lastModified[0] = 2L
+        createLoader(thumbnailCache).invoke(uriOne)
+
+        verify(contentResolver, times(2)).loadThumbnail(any(), any(), anyOrNull())
+    }
+
+    @Test
+    fun thumbnailCache_onTrimMemory_releasesImages() {
+        val thumbnailCache =
+            ThumbnailCache(
+                InstrumentationRegistry.getInstrumentation().context,
+                maxSizeBytes = 1024 * 1024,
+            )
+        thumbnailCache.put(uriOne, lastModified = null, imageSize, bitmap)
+
+        thumbnailCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+        assertThat(thumbnailCache.size).isEqualTo(bitmap.allocationByteCount)
+
+        thumbnailCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+        assertThat(thumbnailCache.size).isEqualTo(0)
+    }
+
+    @Test
+    fun thumbnailCache_servedForTheSameSizeAndVersionOnly() {
+        val thumbnailCache =
+            ThumbnailCache(
+                InstrumentationRegistry.getInstrumentation().context,
+                maxSizeBytes = 1024 * 1024,
+            )
+        val image = Bitmap.createBitmap(200, 100, Bitmap.Config.ARGB_8888)
+        thumbnailCache.put(uriOne, lastModified = 1L, Size(200, 200), image)
+
+        assertThat(thumbnailCache.get(uriOne, Size(200, 200)) { 1L }).isSameInstanceAs(image)
+        assertThat(thumbnailCache.get(uriOne, Size(100, 100)) { 1L }).isNull()
+        assertThat(thumbnailCache.get(uriOne, Size(200, 200)) { 2L }).isNull()
+        assertThat(thumbnailCache.size).isEqualTo(0)
+    }
+
+    @Test
+    fun thumbnailCache_noCachedThumbnail_lastModifiedNotRead() {
+        val thumbnailCache =
+            ThumbnailCache(
+                InstrumentationRegistry.getInstrumentation().context,
+                maxSizeBytes = 1024 * 1024,
+            )
+
+        val image = thumbnailCache.get(uriOne, imageSize) { error("Unexpected invocation") }
+
+        assertThat(image).isNull()
+    }
+
     @Test
     fun invoke_overlappedRequests_Deduplicate() = runTest {
         val scheduler = TestCoroutineScheduler()
@@ -242,7 +383,7 @@ class ImagePreviewImageLoaderTest {
                 imageSize.width,
                 contentResolver,
                 cacheSize = 1,
-                testSemaphore,
+                ContentProviderLimiter(testSemaphore, maxPermitsPerAuthority = 1),
             )
         testSubject(uriOne, false)
 
@@ -279,7 +420,7 @@ class ImagePreviewImageLoaderTest {
                 imageSize.width,
                 contentResolver,
                 cacheSize = 1,
-                testSemaphore,
+                ContentProviderLimiter(testSemaphore, maxPermitsPerAuthority = 1),
             )
         launch(start = UNDISPATCHED) { testSubject(uriOne, false) }
 
@@ -347,6 +488,15 @@ class ImagePreviewImageLoaderTest {
             }
         }
     }
+
+    private fun createLoader(thumbnailCache: ThumbnailCache) =
+        ImagePreviewImageLoader(
+            lifecycleOwner.lifecycle.coroutineScope + dispatcher,
+            imageSize.width,
+            contentResolver,
+            cacheSize = 1,
+            thumbnailCache = thumbnailCache,
+        )
 }
 
 private class NewThreadDispatcher(
@@ -21,18 +21,23 @@ import android.content.Intent
 import android.database.MatrixCursor
 import android.media.MediaMetadata
 import android.net.Uri
+import android.os.Bundle
 import android.provider.DocumentsContract
+import com.android.intentresolver.contentpreview.PreviewDataProvider.PreviewTypeState
 import com.android.intentresolver.mock
 import com.android.intentresolver.whenever
 import com.google.common.truth.Truth.assertThat
 import kotlin.coroutines.EmptyCoroutineContext
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.test.StandardTestDispatcher
 import kotlinx.coroutines.test.TestScope
 import kotlinx.coroutines.test.UnconfinedTestDispatcher
+import kotlinx.coroutines.test.runCurrent
 import kotlinx.coroutines.test.runTest
 import org.junit.Test
 import org.mockito.Mockito.any
+import org.mockito.Mockito.eq
 import org.mockito.Mockito.never
 import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
@@ -364,4 +369,102 @@ class PreviewDataProviderTest {
             verify(contentResolver, times(1)).getType(uri2)
             verify(contentResolver, times(1)).getStreamTypes(uri2, "*/*")
         }
+
+    @Test
+    fun test_multipleMediaStoreUris_eachUriReadIndividually() =
+        testScope.runTest {
+            // The sharesheet commonly has per-URI grants only, a collection query would not return
+            // the shared items.
+            val collection = Uri.parse("content://media/external/images/media")
+            val uris = List(3) { Uri.withAppendedPath(collection, (it + 1).toString()) }
+            val targetIntent =
+                Intent(Intent.ACTION_SEND_MULTIPLE).apply {
+                    putExtra(Intent.EXTRA_STREAM, ArrayList(uris))
+                }
+            whenever(contentResolver.getType(uris[0])).thenReturn("image/jpeg")
+            whenever(contentResolver.getType(uris[1])).thenReturn("video/mp4")
+            whenever(contentResolver.getType(uris[2])).thenReturn("image/png")
+            val testSubject =
+                PreviewDataProvider(testScope, targetIntent, contentResolver, mimeTypeClassifier)
+
+            val fileInfos = testSubject.imagePreviewFileInfoFlow.toList()
+
+            assertThat(fileInfos.map { it.uri }).containsExactlyElementsIn(uris).inOrder()
+            assertThat(fileInfos.map { it.mimeType })
+                .containsExactly("image/jpeg", "video/mp4", "image/png")
+                .inOrder()
+            assertThat(testSubject.previewType)
+                .isEqualTo(ContentPreviewType.CONTENT_PREVIEW_IMAGE)
+            verify(contentResolver, never())
+                .query(eq(collection), any(), any(Bundle::class.java), any())
+            for (uri in uris) {
+                verify(contentResolver, times(1)).getType(uri)
+            }
+        }
+
+    @Test
+    fun test_streamingMode_fileInfoReadInOrderOnCollection() =
+        testScope.runTest {
+            val uris = List(5) { Uri.parse("content://org.pkg.app/image-$it.png") }
+            val targetIntent =
+                Intent(Intent.ACTION_SEND_MULTIPLE).apply {
+                    putExtra(Intent.EXTRA_STREAM, ArrayList(uris))
+                }
+            uris.forEach { whenever(contentResolver.getType(it)).thenReturn("image/png") }
+            val testSubject =
+                PreviewDataProvider(
+                    testScope,
+                    targetIntent,
+                    contentResolver,
+                    mimeTypeClassifier,
+                    streamingThreshold = 2,
+                )
+
+            assertThat(testSubject.isStreaming).isTrue()
+            assertThat(testSubject.uriCount).isEqualTo(uris.size)
+            verify(contentResolver, never()).getType(any())
+
+            val fileInfos = testSubject.imagePreviewFileInfoFlow.toList()
+
+            assertThat(fileInfos.map { it.uri }).containsExactlyElementsIn(uris).inOrder()
+            assertThat(fileInfos.map { it.previewUri }).containsExactlyElementsIn(uris).inOrder()
+        }
+
+    @Test
+    fun test_imageIntentType_provisionalImagePreviewTypeThenResolved() {
+        val uri = Uri.parse("content://org.pkg.app/paper.pdf")
+        val targetIntent =
+            Intent(Intent.ACTION_SEND).apply {
+                putExtra(Intent.EXTRA_STREAM, uri)
+                type = "image/*"
+            }
+        whenever(contentResolver.getType(uri)).thenReturn("application/pdf")
+        val pendingScope = TestScope(EmptyCoroutineContext + StandardTestDispatcher())
+        val testSubject =
+            PreviewDataProvider(pendingScope, targetIntent, contentResolver, mimeTypeClassifier)
+
+        assertThat(testSubject.previewTypeFlow.value)
+            .isEqualTo(PreviewTypeState(ContentPreviewType.CONTENT_PREVIEW_IMAGE, false))
+        verify(contentResolver, never()).getType(any())
+
+        pendingScope.runCurrent()
+
+        assertThat(testSubject.previewTypeFlow.value)
+            .isEqualTo(PreviewTypeState(ContentPreviewType.CONTENT_PREVIEW_FILE, true))
+    }
+
+    @Test
+    fun test_nonSendIntentAction_finalTextPreviewTypeState() {
+        val testSubject =
+            PreviewDataProvider(
+                testScope,
+                Intent(Intent.ACTION_VIEW),
+                contentResolver,
+                mimeTypeClassifier
+            )
+
+        assertThat(testSubject.previewTypeFlow.value)
+            .isEqualTo(PreviewTypeState(ContentPreviewType.CONTENT_PREVIEW_TEXT, true))
+        verify(contentResolver, never()).getType(any())
+    }
 }
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.grid
+
+import android.view.View
+import android.view.ViewGroup
+import android.widget.FrameLayout
+import androidx.recyclerview.widget.RecyclerView
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.android.intentresolver.ChooserListAdapter
+import com.android.intentresolver.FeatureFlags
+import com.android.intentresolver.chooser.TargetInfo
+import com.android.intentresolver.mock
+import com.android.intentresolver.whenever
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito.anyInt
+import org.mockito.Mockito.verify
+
+@RunWith(AndroidJUnit4::class)
+class ChooserGridAdapterTest {
+    private val context = InstrumentationRegistry.getInstrumentation().context
+    private val contentPreviews = ArrayList<View>()
+    private val delegate =
+        object : ChooserGridAdapter.ChooserActivityDelegate {
+            override fun shouldShowTabs(): Boolean = false
+
+            override fun buildContentPreview(parent: ViewGroup): View =
+                FrameLayout(context).also { contentPreviews.add(it) }
+
+            override fun onTargetSelected(itemIndex: Int) {}
+
+            override fun onTargetLongPressed(itemIndex: Int) {}
+
+            override fun updateProfileViewButton(newButtonFromProfileRow: View) {}
+        }
+    private val listAdapter = mock<ChooserListAdapter> { whenever(count).thenReturn(10) }
+
+    @Test
+    fun notifyContentPreviewChanged_contentPreviewRowDisplaysThePreviewAgain() {
+        val testSubject = createTestSubject()
+        val holder =
+            testSubject.onCreateViewHolder(RecyclerView(context), testSubject.getItemViewType(0))
+                as ContentPreviewViewHolder
+
+        testSubject.onBindViewHolder(holder, 0)
+        testSubject.onBindViewHolder(holder, 0)
+
+        assertThat(contentPreviews).hasSize(1)
+        assertThat(holder.container.getChildAt(0)).isSameInstanceAs(contentPreviews[0])
+
+        testSubject.notifyContentPreviewChanged()
+        testSubject.onBindViewHolder(holder, 0)
+
+        assertThat(contentPreviews).hasSize(2)
+        assertThat(holder.container.childCount).isEqualTo(1)
+        assertThat(holder.container.getChildAt(0)).isSameInstanceAs(contentPreviews[1])
+    }
+
+    @Test
+    fun onVisibleRangeChanged_targetsOfTheVisibleAndNextRowsPrioritized() {
+        // Rows: content preview, direct share, caller and ranked, A-Z label, 10 A-Z targets, footer
+        val targets =
+            stubTargets(serviceCount = 4, callerCount = 1, rankedCount = 3, alphaCount = 10)
+        val testSubject = createTestSubject()
+
+        testSubject.onVisibleRangeChanged(0, 5)
+
+        // the direct share row, the caller and ranked row and the first two A-Z targets, then
+        // the next six A-Z targets
+        verify(listAdapter)
+            .prioritizeTargetDataLoading(targets.subList(0, 10), targets.subList(10, 16))
+    }
+
+    @Test
+    fun onVisibleRangeChanged_directShareRowOfFewerTargets_rowTargetsOnly() {
+        val targets =
+            stubTargets(serviceCount = 2, callerCount = 0, rankedCount = 4, alphaCount = 6)
+        val testSubject = createTestSubject()
+
+        testSubject.onVisibleRangeChanged(1, 2)
+
+        // the direct share row stops at the last service target, the ranked row follows; the next
+        // rows are the A-Z label and the first A-Z target
+        verify(listAdapter)
+            .prioritizeTargetDataLoading(targets.subList(0, 6), targets.subList(6, 7))
+    }
+
+    @Test
+    fun onVisibleRangeChanged_scrolledToTheEnd_noNearbyTargets() {
+        val targets =
+            stubTargets(serviceCount = 4, callerCount = 1, rankedCount = 3, alphaCount = 10)
+        val testSubject = createTestSubject()
+
+        testSubject.onVisibleRangeChanged(8, 14)
+
+        verify(listAdapter).prioritizeTargetDataLoading(targets.subList(12, 18), emptyList())
+    }
+
+    @Test
+    fun getRowPosition_inverseOfGetListPosition() {
+        stubTargets(serviceCount = 4, callerCount = 1, rankedCount = 3, alphaCount = 10)
+
+        val testSubject = createTestSubject()
+
+        // content preview, direct share, caller and ranked, A-Z label, 10 A-Z targets, footer
+        assertThat(testSubject.itemCount).isEqualTo(15)
+        assertRowPositionsRoundTrip(testSubject, listOf(1, 2) + (4..13))
+    }
+
+    @Test
+    fun getRowPosition_withProfileRow_inverseOfGetListPosition() {
+        stubTargets(serviceCount = 2, callerCount = 2, rankedCount = 2, alphaCount = 10)
+        whenever(listAdapter.otherProfile).thenReturn(mock())
+
+        val testSubject = createTestSubject()
+
+        // content preview, profile, direct share, caller and ranked, A-Z label, 10 A-Z targets,
+        // footer
+        assertThat(testSubject.itemCount).isEqualTo(16)
+        assertRowPositionsRoundTrip(testSubject, listOf(2, 3) + (5..14))
+    }
+
+    @Test
+    fun getRowPosition_withoutSystemRow_inverseOfGetListPosition() {
+        stubTargets(serviceCount = 4, callerCount = 0, rankedCount = 4, alphaCount = 7)
+
+        val testSubject = createTestSubject(isScrollablePreview = true)
+
+        // direct share, ranked, A-Z label, 7 A-Z targets, footer
+        assertThat(testSubject.itemCount).isEqualTo(11)
+        assertRowPositionsRoundTrip(testSubject, listOf(0, 1) + (3..9))
+    }
+
+    @Test
+    fun getRowPosition_severalCallerAndRankedRows_inverseOfGetListPosition() {
+        stubTargets(serviceCount = 3, callerCount = 3, rankedCount = 3, alphaCount = 0)
+        whenever(listAdapter.otherProfile).thenReturn(mock())
+
+        val testSubject = createTestSubject(maxTargetsPerRow = 3, isScrollablePreview = true)
+
+        // profile, direct share, two caller and ranked rows, footer
+        assertThat(testSubject.itemCount).isEqualTo(5)
+        assertRowPositionsRoundTrip(testSubject, listOf(1, 2, 3))
+    }
+
+    private fun assertRowPositionsRoundTrip(testSubject: ChooserGridAdapter, rows: List<Int>) {
+        for (row in rows) {
+            assertThat(testSubject.getRowPosition(testSubject.getListPosition(row))).isEqualTo(row)
+        }
+    }
+
+    /**
+     * Stubs the list adapter with the given number of targets of each type, in the list adapter's
+     * order, and returns them.
+     */
+    private fun stubTargets(
+        serviceCount: Int,
+        callerCount: Int,
+        rankedCount: Int,
+        alphaCount: Int,
+    ): List<TargetInfo> {
+        val targets =
+            List(serviceCount + callerCount + rankedCount + alphaCount) { mock<TargetInfo>() }
+        whenever(listAdapter.count).thenReturn(targets.size)
+        whenever(listAdapter.serviceTargetCount).thenReturn(serviceCount)
+        whenever(listAdapter.callerTargetCount).thenReturn(callerCount)
+        whenever(listAdapter.rankedTargetCount).thenReturn(rankedCount)
+        whenever(listAdapter.alphaTargetCount).thenReturn(alphaCount)
+        whenever(listAdapter.getItem(anyInt())).thenAnswer { targets.getOrNull(it.getArgument(0)) }
+        whenever(listAdapter.getPositionTargetType(anyInt())).thenAnswer {
+            val position: Int = it.getArgument(0)
+            when {
+                position < serviceCount -> ChooserListAdapter.TARGET_SERVICE
+                position < serviceCount + callerCount -> ChooserListAdapter.TARGET_CALLER
+                position < serviceCount + callerCount + rankedCount ->
+                    ChooserListAdapter.TARGET_STANDARD
+                position < targets.size -> ChooserListAdapter.TARGET_STANDARD_AZ
+                else -> ChooserListAdapter.TARGET_BAD
+            }
+        }
+        return targets
+    }
+
+    private fun createTestSubject(
+        maxTargetsPerRow: Int = MAX_TARGETS_PER_ROW,
+        isScrollablePreview: Boolean = false,
+    ) =
+        ChooserGridAdapter(
+            context,
+            delegate,
+            listAdapter,
+            /* shouldShowContentPreview= */ true,
+            maxTargetsPerRow,
+            mock<FeatureFlags> { whenever(scrollablePreview()).thenReturn(isScrollablePreview) },
+        )
+
+    private companion object {
+        const val MAX_TARGETS_PER_ROW = 4
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.icons
+
+import android.content.ComponentName
+import android.content.Intent
+import android.os.UserHandle
+import androidx.lifecycle.Lifecycle
+import androidx.lifecycle.testing.TestLifecycleOwner
+import androidx.test.platform.app.InstrumentationRegistry
+import com.android.intentresolver.ResolverDataProvider
+import com.android.intentresolver.chooser.DisplayResolveInfo
+import com.android.intentresolver.util.TestExecutor
+import com.google.common.truth.Truth.assertThat
+import java.util.function.Consumer
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.test.UnconfinedTestDispatcher
+import kotlinx.coroutines.test.resetMain
+import kotlinx.coroutines.test.setMain
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+@OptIn(ExperimentalCoroutinesApi::class)
+class DefaultTargetDataLoaderTest {
+    private val context = InstrumentationRegistry.getInstrumentation().context
+    private val userHandle: UserHandle = context.user
+    // Each pending command is a load running in the background.
+    private val backgroundExecutor = TestExecutor()
+    private val loadedLabels = ArrayList<String>()
+    private lateinit var lifecycleOwner: TestLifecycleOwner
+
+    @Before
+    fun setup() {
+        Dispatchers.setMain(UnconfinedTestDispatcher())
+        lifecycleOwner = TestLifecycleOwner()
+    }
+
+    @After
+    fun cleanup() {
+        lifecycleOwner.handleLifecycleEvent(Lifecycle.Event.ON_DESTROY)
+        Dispatchers.resetMain()
+    }
+
+    @Test
+    fun load_parallelLoadsBounded() {
+        val testSubject = createTestSubject(maxParallelLoads = 2)
+        val targets = List(5) { createTarget(it) }
+
+        targets.forEachIndexed { i, target -> testSubject.loadLabel(target) { onLoaded("$i") } }
+
+        assertThat(backgroundExecutor.pendingCommandCount).isEqualTo(2)
+
+        backgroundExecutor.runUntilIdle()
+
+        assertThat(loadedLabels).hasSize(targets.size)
+    }
+
+    @Test
+    fun load_pendingRequestsLoadedLastInFirstOut() {
+        val testSubject = createTestSubject(maxParallelLoads = 1)
+        val targets = List(4) { createTarget(it) }
+
+        targets.forEachIndexed { i, target -> testSubject.loadLabel(target) { onLoaded("$i") } }
+        backgroundExecutor.runUntilIdle()
+
+        // The first request starts right away, the most recent pending one goes next.
+        assertThat(loadedLabels).containsExactly("0", "3", "2", "1").inOrder()
+    }
+
+    @Test
+    fun load_identicalRequestsShareOneLoad() {
+        val testSubject = createTestSubject(maxParallelLoads = 2)
+        val target = createTarget(0)
+
+        testSubject.loadLabel(target) { onLoaded("first") }
+        testSubject.loadLabel(target) { onLoaded("second") }
+
+        assertThat(backgroundExecutor.pendingCommandCount).isEqualTo(1)
+
+        backgroundExecutor.runUntilIdle()
+
+        assertThat(loadedLabels).containsExactly("first", "second").inOrder()
+    }
+
+    @Test
+    fun cancel_pendingRequestDropped() {
+        val testSubject = createTestSubject(maxParallelLoads = 1)
+        val runningTarget = createTarget(0)
+        val pendingTarget = createTarget(1)
+        testSubject.loadLabel(runningTarget) { onLoaded("running") }
+        val pendingCallback = Consumer<LabelInfo> { onLoaded("pending") }
+        testSubject.loadLabel(pendingTarget, pendingCallback)
+
+        testSubject.cancel(pendingTarget, pendingCallback)
+        backgroundExecutor.runUntilIdle()
+
+        assertThat(loadedLabels).containsExactly("running")
+    }
+
+    @Test
+    fun cancel_pendingRequestWithOtherCallbacks_onlyCancelledCallbackDropped() {
+        val testSubject = createTestSubject(maxParallelLoads = 1)
+        val runningTarget = createTarget(0)
+        val pendingTarget = createTarget(1)
+        testSubject.loadLabel(runningTarget) { onLoaded("running") }
+        val recycledViewCallback = Consumer<LabelInfo> { onLoaded("recycled view") }
+        testSubject.loadLabel(pendingTarget, recycledViewCallback)
+        testSubject.loadLabel(pendingTarget) { onLoaded("displayed view") }
+
+        testSubject.cancel(pendingTarget, recycledViewCallback)
+        backgroundExecutor.runUntilIdle()
+
+        assertThat(loadedLabels).containsExactly("running", "displayed view")
+    }
+
+    @Test
+    fun cancel_sharedRunningLoadNotCancelled() {
+        val testSubject = createTestSubject(maxParallelLoads = 1)
+        val target = createTarget(0)
+        val recycledViewCallback = Consumer<LabelInfo> { onLoaded("recycled view") }
+        testSubject.loadLabel(target, recycledViewCallback)
+        testSubject.loadLabel(target) { onLoaded("displayed view") }
+
+        testSubject.cancel(target, recycledViewCallback)
+        backgroundExecutor.runUntilIdle()
+
+        assertThat(loadedLabels).containsExactly("recycled view", "displayed view")
+    }
+
+    @Test
+    fun cancel_loadRequestedAgainWhileRunning_loadShared() {
+        val testSubject = createTestSubject(maxParallelLoads = 1)
+        val target = createTarget(0)
+        val recycledViewCallback = Consumer<LabelInfo> { onLoaded("recycled view") }
+        testSubject.loadLabel(target, recycledViewCallback)
+
+        testSubject.cancel(target, recycledViewCallback)
+        testSubject.loadLabel(target) { onLoaded("rebound view") }
+
+        assertThat(backgroundExecutor.pendingCommandCount).isEqualTo(1)
+
+        backgroundExecutor.runUntilIdle()
+
+        assertThat(loadedLabels).containsExactly("recycled view", "rebound view")
+    }
+
+    @Test
+    fun prioritize_visibleRequestsLoadedAheadOfOffscreenOnes() {
+        val testSubject = createTestSubject(maxParallelLoads = 1)
+        val targets = List(4) { createTarget(it) }
+        testSubject.prioritize(visibleTargets = listOf(targets[0]), nearbyTargets = emptyList())
+
+        // requested while offscreen, but for target 0 that takes the only load slot
+        targets.forEachIndexed { i, target -> testSubject.loadLabel(target) { onLoaded("$i") } }
+        testSubject.prioritize(
+            visibleTargets = listOf(targets[1]),
+            nearbyTargets = listOf(targets[2]),
+        )
+        backgroundExecutor.runUntilIdle()
+
+        assertThat(loadedLabels).containsExactly("0", "1", "2", "3").inOrder()
+    }
+
+    @Test
+    fun prioritize_requestsForNewlyVisibleTargetsLoadedFirst() {
+        val testSubject = createTestSubject(maxParallelLoads = 1)
+        val targets = List(4) { createTarget(it) }
+        testSubject.prioritize(visibleTargets = targets.subList(0, 2), nearbyTargets = emptyList())
+
+        targets.forEachIndexed { i, target -> testSubject.loadLabel(target) { onLoaded("$i") } }
+        backgroundExecutor.runUntilIdle()
+
+        // the visible target 1 goes ahead of the more recently requested offscreen ones
+        assertThat(loadedLabels).containsExactly("0", "1", "3", "2").inOrder()
+    }
+
+    @Test
+    fun load_cachedLabel_lookedUpInTheBoundedLoad() {
+        val cache = TargetDataCache(context)
+        val component = ComponentName(context.packageName, "TestActivity")
+        val locales = context.resources.configuration.locales.toLanguageTags()
+        cache.putLabel(
+            requireNotNull(cache.keyFor(component, userHandle, locales)),
+            LabelInfo("cached", null),
+        )
+        val testSubject = createTestSubject(maxParallelLoads = 1, cache)
+        val targets =
+            List(2) {
+                DisplayResolveInfo.newDisplayResolveInfo(
+                    Intent(),
+                    ResolverDataProvider.createResolveInfo(component, userHandle.identifier),
+                    /* displayLabel = */ null,
+                    /* extendedInfo = */ null,
+                    Intent(),
+                )
+            }
+
+        targets.forEach { target -> testSubject.loadLabel(target) { onLoaded("${it.label}") } }
+
+        assertThat(backgroundExecutor.pendingCommandCount).isEqualTo(1)
+        assertThat(loadedLabels).isEmpty()
+
+        backgroundExecutor.runUntilIdle()
+
+        assertThat(loadedLabels).containsExactly("cached", "cached")
+        context.deleteDatabase("target_data_cache.db")
+    }
+
+    private fun onLoaded(label: String) {
+        loadedLabels.add(label)
+    }
+
+    private fun createTestSubject(
+        maxParallelLoads: Int,
+        cache: TargetDataCache? = null,
+    ) =
+        DefaultTargetDataLoader(
+            context,
+            lifecycleOwner.lifecycle,
+            isAudioCaptureDevice = false,
+            cacheProvider = { cache },
+            backgroundExecutor.asCoroutineDispatcher(),
+            maxParallelLoads,
+        )
+
+    private fun createTarget(i: Int): DisplayResolveInfo =
+        DisplayResolveInfo.newDisplayResolveInfo(
+            Intent(),
+            ResolverDataProvider.createResolveInfo(i, 0, userHandle),
+            /* displayLabel = */ null,
+            /* extendedInfo = */ null,
+            Intent(),
+        )
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.icons
+
+import android.content.ComponentName
+import android.graphics.Bitmap
+import androidx.test.platform.app.InstrumentationRegistry
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Test
+
+class TargetDataCacheTest {
+    private val context = InstrumentationRegistry.getInstrumentation().context
+    private val component = ComponentName(context.packageName, "TestActivity")
+    private val testSubject = TargetDataCache(context)
+
+    @After
+    fun cleanup() {
+        context.deleteDatabase("target_data_cache.db")
+    }
+
+    @Test
+    fun test_keyForInstalledPackage_isCreated() {
+        val key = testSubject.keyFor(component, context.user, "en-US")
+
+        assertThat(key).isNotNull()
+        assertThat(key?.component).isEqualTo(component)
+        assertThat(key?.userId).isEqualTo(context.user.identifier)
+    }
+
+    @Test
+    fun test_keyForMissingPackage_isNull() {
+        val key =
+            testSubject.keyFor(
+                ComponentName("com.android.intentresolver.missing", "Activity"),
+                context.user,
+                "en-US",
+            )
+
+        assertThat(key).isNull()
+    }
+
+    @Test
+    fun test_storedIcon_isReturnedForSameDensityOnly() {
+        val key = requireNotNull(testSubject.keyFor(component, context.user, "en-US"))
+        val icon = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888)
+
+        testSubject.putIcon(key, 480, icon)
+
+        assertThat(testSubject.getIcon(key, 480)?.width).isEqualTo(8)
+        assertThat(testSubject.getIcon(key, 320)).isNull()
+    }
+
+    @Test
+    fun test_storedLabel_isReturnedForSameLocaleOnly() {
+        val key = requireNotNull(testSubject.keyFor(component, context.user, "en-US"))
+
+        testSubject.putLabel(key, LabelInfo("label", "subLabel"))
+
+        val label = testSubject.getLabel(key)
+        assertThat(label?.label).isEqualTo("label")
+        assertThat(label?.subLabel).isEqualTo("subLabel")
+        assertThat(testSubject.getLabel(key.copy(locale = "fr-FR"))).isNull()
+    }
+
+    @Test
+    fun test_packageLastUpdateTimeChange_missesStoredEntries() {
+        val key = requireNotNull(testSubject.keyFor(component, context.user, "en-US"))
+        testSubject.putLabel(key, LabelInfo("label", null))
+
+        assertThat(testSubject.getLabel(key.copy(lastUpdateTime = key.lastUpdateTime + 1)))
+            .isNull()
+    }
+
+    @Test
+    fun test_entriesPastTheLimit_oldestPrunedInBatches() {
+        val testSubject = TargetDataCache(context, maxEntries = 2, pruneBatchSize = 2)
+        val keys =
+            List(5) {
+                TargetDataCache.Key(ComponentName("org.pkg", "Activity$it"), 0, 1L, "en-US")
+            }
+
+        keys.take(4).forEach { testSubject.putLabel(it, LabelInfo("label", null)) }
+
+        assertThat(keys.count { testSubject.getLabel(it) != null }).isEqualTo(4)
+
+        testSubject.putLabel(keys[4], LabelInfo("label", null))
+
+        assertThat(keys.count { testSubject.getLabel(it) != null }).isEqualTo(2)
+    }
+
+    @Test
+    fun test_invalidatePackage_dropsStoredEntries() {
+        val key = requireNotNull(testSubject.keyFor(component, context.user, "en-US"))
+        testSubject.putIcon(key, 480, Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888))
+        testSubject.putLabel(key, LabelInfo("label", null))
+
+        testSubject.invalidatePackage(component.packageName, context.user)
+
+        assertThat(testSubject.getIcon(key, 480)).isNull()
+        assertThat(testSubject.getLabel(key)).isNull()
+    }
+}
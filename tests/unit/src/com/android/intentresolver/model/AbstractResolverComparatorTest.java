@@ -16,6 +16,8 @@
 
 package com.android.intentresolver.model;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import static junit.framework.Assert.assertEquals;
 
 import android.content.ComponentName;
@@ -34,7 +36,14 @@ import com.google.android.collect.Lists;
 
 import org.junit.Test;
 
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 public class AbstractResolverComparatorTest {
 
@@ -101,6 +110,157 @@ public class AbstractResolverComparatorTest {
         assertEquals("Pinned ranks under PromoteToFirst", 1, comparator.compare(r2, r1));
     }
 
+    @Test
+    public void testSortByKeysMatchesComparator() {
+        ComponentName promoteToFirst = new ComponentName("package-promoted", "class");
+        Map<ComponentName, Float> scores = new HashMap<>();
+        List<ResolvedComponentInfo> targets = createScoredTargets(300, promoteToFirst, scores);
+        Context context = InstrumentationRegistry.getTargetContext();
+        AbstractResolverComparator comparator =
+                getScoringTestComparator(context, promoteToFirst, scores);
+
+        List<ResolvedComponentInfo> expected = new ArrayList<>(targets);
+        Collections.sort(expected, comparator);
+        List<ResolvedComponentInfo> actual = new ArrayList<>(targets);
+
+        assertThat(comparator.sortByKeys(actual, actual.size())).isTrue();
+        assertThat(actual).containsExactlyElementsIn(expected).inOrder();
+    }
+
+    @Test
+    public void testSortByKeysTopK() {
+        Map<ComponentName, Float> scores = new HashMap<>();
+        List<ResolvedComponentInfo> targets = createScoredTargets(300, null, scores);
+        Context context = InstrumentationRegistry.getTargetContext();
+        AbstractResolverComparator comparator = getScoringTestComparator(context, null, scores);
+
+        List<ResolvedComponentInfo> expected = new ArrayList<>(targets);
+        Collections.sort(expected, comparator);
+        List<ResolvedComponentInfo> actual = new ArrayList<>(targets);
+
+        assertThat(comparator.sortByKeys(actual, 10)).isTrue();
+        assertThat(actual.subList(0, 10)).containsExactlyElementsIn(expected.subList(0, 10))
+                .inOrder();
+        assertThat(actual).containsExactlyElementsIn(targets);
+    }
+
+    @Test
+    public void testSortByKeysWithoutScores() {
+        List<ResolvedComponentInfo> targets = Lists.newArrayList(
+                createResolvedComponentInfo(new ComponentName("zackage", "zlass")),
+                createResolvedComponentInfo(new ComponentName("package", "class")));
+        Context context = InstrumentationRegistry.getTargetContext();
+        AbstractResolverComparator comparator = getTestComparator(context, null);
+
+        assertThat(comparator.sortByKeys(targets, targets.size())).isFalse();
+        assertThat(targets.get(0).name.getPackageName()).isEqualTo("zackage");
+    }
+
+    @Test
+    public void testSortByKeysLooksUpTieBreakKeysOfTiedTargetsOnly() {
+        Map<ComponentName, Float> scores = new HashMap<>();
+        List<ResolvedComponentInfo> targets = new ArrayList<>();
+        String[] packages = {"package-a", "package-d", "package-c", "package-b"};
+        float[] packageScores = {0.9f, 0.5f, 0.5f, 0.1f};
+        for (int i = 0; i < packages.length; i++) {
+            ComponentName component = new ComponentName(packages[i], "class");
+            scores.put(component, packageScores[i]);
+            targets.add(createResolvedComponentInfo(component));
+        }
+        List<String> tieBreakKeyLookups = new ArrayList<>();
+        Context context = InstrumentationRegistry.getTargetContext();
+        Collator collator = Collator.getInstance();
+        AbstractResolverComparator comparator =
+                new AbstractResolverComparator(context, new Intent(),
+                        Lists.newArrayList(context.getUser()), null) {
+
+                    @Override
+                    public int compare(ResolveInfo lhs, ResolveInfo rhs) {
+                        return Float.compare(getSortScore(rhs), getSortScore(lhs));
+                    }
+
+                    @Override
+                    protected float getSortScore(ResolveInfo info) {
+                        return scores.get(info.activityInfo.getComponentName());
+                    }
+
+                    @Override
+                    protected CollationKey getTieBreakKey(ResolveInfo info) {
+                        tieBreakKeyLookups.add(info.activityInfo.packageName);
+                        return collator.getCollationKey(info.activityInfo.packageName);
+                    }
+
+                    @Override
+                    public void doCompute(List<ResolvedComponentInfo> targets) {}
+
+                    @Override
+                    public float getScore(TargetInfo targetInfo) {
+                        return 0;
+                    }
+
+                    @Override
+                    public void handleResultMessage(Message message) {}
+                };
+
+        assertThat(comparator.sortByKeys(targets, targets.size())).isTrue();
+
+        assertThat(tieBreakKeyLookups).containsExactly("package-d", "package-c");
+        List<String> sortedPackages = new ArrayList<>();
+        for (ResolvedComponentInfo target : targets) {
+            sortedPackages.add(target.name.getPackageName());
+        }
+        assertThat(sortedPackages)
+                .containsExactly("package-a", "package-c", "package-d", "package-b")
+                .inOrder();
+    }
+
+    private List<ResolvedComponentInfo> createScoredTargets(
+            int count, ComponentName promoteToFirst, Map<ComponentName, Float> scores) {
+        Random random = new Random(42);
+        List<ResolvedComponentInfo> targets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ComponentName component = new ComponentName("package" + (i % 50), "class" + i);
+            ResolvedComponentInfo target = createResolvedComponentInfo(component);
+            target.setPinned(i % 37 == 0);
+            // Quantize the scores to get ties.
+            scores.put(component, random.nextInt(20) / 20f);
+            targets.add(target);
+        }
+        if (promoteToFirst != null) {
+            targets.add(count / 2, createResolvedComponentInfo(promoteToFirst));
+            scores.put(promoteToFirst, 0f);
+        }
+        return targets;
+    }
+
+    private AbstractResolverComparator getScoringTestComparator(
+            Context context, ComponentName promoteToFirst, Map<ComponentName, Float> scores) {
+        return new AbstractResolverComparator(context, new Intent(),
+                Lists.newArrayList(context.getUser()), promoteToFirst) {
+
+            @Override
+            public int compare(ResolveInfo lhs, ResolveInfo rhs) {
+                return Float.compare(getSortScore(rhs), getSortScore(lhs));
+            }
+
+            @Override
+            protected float getSortScore(ResolveInfo info) {
+                return scores.get(info.activityInfo.getComponentName());
+            }
+
+            @Override
+            public void doCompute(List<ResolvedComponentInfo> targets) {}
+
+            @Override
+            public float getScore(TargetInfo targetInfo) {
+                return 0;
+            }
+
+            @Override
+            public void handleResultMessage(Message message) {}
+        };
+    }
+
     private ResolvedComponentInfo createResolvedComponentInfo(ComponentName component) {
         ResolveInfo info = new ResolveInfo();
         info.activityInfo = new ActivityInfo();
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.model;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.app.prediction.AppTarget;
+import android.app.prediction.AppTargetId;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ResolveInfo;
+
+import androidx.test.InstrumentationRegistry;
+
+import com.android.intentresolver.ResolvedComponentInfo;
+import com.android.intentresolver.inject.ConcurrencyModule;
+import com.android.intentresolver.inject.ConcurrencyModuleKt;
+import com.android.intentresolver.logging.EventLog;
+import com.android.intentresolver.util.TestExecutor;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+public class AppPredictionServiceResolverComparatorTest {
+    private static final int COMPUTE_COUNT = 20;
+    private static final ComponentName TARGET_ONE = new ComponentName("org.pkg1", "Activity");
+    private static final ComponentName TARGET_TWO = new ComponentName("org.pkg2", "Activity");
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final AppPredictionServiceResolverComparator.AppPredictorProxy mAppPredictor =
+            mock(AppPredictionServiceResolverComparator.AppPredictorProxy.class);
+
+    @Test
+    public void compute_sortedTargetsCallbackRunOnTheInjectedExecutor() {
+        TestExecutor executor = new TestExecutor(false);
+        AppPredictionServiceResolverComparator comparator = createComparator(executor);
+        AtomicInteger computeDoneCount = new AtomicInteger();
+        comparator.setCallBack(computeDoneCount::incrementAndGet);
+        ResolvedComponentInfo targetOne = createResolvedComponentInfo(TARGET_ONE);
+        ResolvedComponentInfo targetTwo = createResolvedComponentInfo(TARGET_TWO);
+
+        comparator.compute(List.of(targetOne, targetTwo));
+
+        ArgumentCaptor<Executor> executorCaptor = ArgumentCaptor.forClass(Executor.class);
+        ArgumentCaptor<Consumer<List<AppTarget>>> callbackCaptor =
+                ArgumentCaptor.forClass(Consumer.class);
+        verify(mAppPredictor)
+                .sortTargets(anyList(), executorCaptor.capture(), callbackCaptor.capture());
+        assertThat(executorCaptor.getValue()).isSameInstanceAs(executor);
+
+        // the prediction service posts the result to the executor
+        executor.execute(() -> callbackCaptor.getValue().accept(
+                List.of(createAppTarget(TARGET_TWO), createAppTarget(TARGET_ONE))));
+        assertThat(computeDoneCount.get()).isEqualTo(0);
+
+        executor.runUntilIdle();
+
+        assertThat(computeDoneCount.get()).isEqualTo(1);
+        assertThat(comparator.compare(targetTwo.getResolveInfoAt(0), targetOne.getResolveInfoAt(0)))
+                .isLessThan(0);
+    }
+
+    @Test
+    public void repeatedComputes_callbacksRunOnTheSharedExecutor() throws Exception {
+        Executor executor = ConcurrencyModule.INSTANCE.backgroundExecutor();
+        CountDownLatch callbacksDone = new CountDownLatch(COMPUTE_COUNT);
+        int threadsBefore = countCallbackThreads();
+        List<ResolvedComponentInfo> targets = List.of(createResolvedComponentInfo(TARGET_ONE));
+        // Mimic the prediction service that posts the result to the callback executor.
+        doAnswer(invocation -> {
+            List<AppTarget> appTargets = invocation.getArgument(0);
+            Executor callbackExecutor = invocation.getArgument(1);
+            Consumer<List<AppTarget>> callback = invocation.getArgument(2);
+            callbackExecutor.execute(() -> {
+                callback.accept(appTargets);
+                callbacksDone.countDown();
+            });
+            return null;
+        }).when(mAppPredictor).sortTargets(anyList(), any(Executor.class), any(Consumer.class));
+
+        for (int i = 0; i < COMPUTE_COUNT; i++) {
+            createComparator(executor).compute(targets);
+        }
+
+        assertThat(callbacksDone.await(5, TimeUnit.SECONDS)).isTrue();
+        // no per-compute executor
+        verify(mAppPredictor, times(COMPUTE_COUNT))
+                .sortTargets(anyList(), same(executor), any(Consumer.class));
+        assertThat(countCallbackThreads() - threadsBefore)
+                .isAtMost(ConcurrencyModuleKt.BACKGROUND_EXECUTOR_THREADS);
+    }
+
+    private AppPredictionServiceResolverComparator createComparator(Executor executor) {
+        return new AppPredictionServiceResolverComparator(
+                mContext,
+                new Intent(Intent.ACTION_SEND),
+                "org.referrer",
+                mAppPredictor,
+                mContext.getUser(),
+                mock(EventLog.class),
+                null,
+                executor);
+    }
+
+    private AppTarget createAppTarget(ComponentName component) {
+        return new AppTarget.Builder(
+                new AppTargetId(component.flattenToString()),
+                component.getPackageName(),
+                mContext.getUser())
+                .setClassName(component.getClassName())
+                .build();
+    }
+
+    private static int countCallbackThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith("intentresolver-bg")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static ResolvedComponentInfo createResolvedComponentInfo(ComponentName component) {
+        ResolveInfo info = new ResolveInfo();
+        info.activityInfo = new ActivityInfo();
+        info.activityInfo.packageName = component.getPackageName();
+        info.activityInfo.name = component.getClassName();
+        return new ResolvedComponentInfo(component, new Intent(), info);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.model;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.os.UserHandle;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+public class RankingSnapshotStoreTest {
+    private static final UserHandle USER = UserHandle.of(10);
+    private static final ComponentName FIRST = new ComponentName("org.pkg.one", "Activity");
+    private static final ComponentName SECOND = new ComponentName("org.pkg.two", "Activity");
+
+    private long mNow = 1000;
+    private final RankingSnapshotStore mStore = new RankingSnapshotStore(() -> mNow);
+
+    @Test
+    public void getPositions_storedForTheSameKey_returnsRanking() {
+        mStore.put(Intent.ACTION_SEND, "image/png", USER, List.of(FIRST, SECOND));
+
+        Map<ComponentName, Integer> positions =
+                mStore.getPositions(Intent.ACTION_SEND, "image/png", USER);
+
+        assertThat(positions).containsExactly(FIRST, 0, SECOND, 1);
+        assertThat(mStore.getPositions(Intent.ACTION_SEND, "text/plain", USER)).isNull();
+        assertThat(mStore.getPositions(Intent.ACTION_SEND, "image/png", UserHandle.of(11)))
+                .isNull();
+    }
+
+    @Test
+    public void getPositions_expired_returnsNull() {
+        mStore.put(Intent.ACTION_SEND, null, USER, List.of(FIRST, SECOND));
+
+        mNow += RankingSnapshotStore.SNAPSHOT_TTL_MILLIS;
+
+        assertThat(mStore.getPositions(Intent.ACTION_SEND, null, USER)).isNull();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.model;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.pm.ServiceInfo;
+import android.os.UserHandle;
+import android.service.resolver.ResolverRankerService;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+
+public class ResolverRankerServiceConnectionPoolTest {
+    private static final long IDLE_TIMEOUT_MILLIS = 1000;
+    private static final ComponentName RANKER = new ComponentName("org.pkg", "org.pkg.Ranker");
+
+    private final Context mContext = mock(Context.class);
+    private final PackageManager mPackageManager = mock(PackageManager.class);
+    private final ResolverRankerServiceConnectionPool.Scheduler mScheduler =
+            mock(ResolverRankerServiceConnectionPool.Scheduler.class);
+    private final ResolverRankerServiceConnectionPool mPool =
+            new ResolverRankerServiceConnectionPool(IDLE_TIMEOUT_MILLIS, mScheduler);
+    private final ResolveInfo mRankerResolveInfo = new ResolveInfo();
+
+    @Before
+    public void setup() throws Exception {
+        mRankerResolveInfo.serviceInfo = new ServiceInfo();
+        mRankerResolveInfo.serviceInfo.packageName = RANKER.getPackageName();
+        mRankerResolveInfo.serviceInfo.name = RANKER.getClassName();
+        mRankerResolveInfo.serviceInfo.applicationInfo = new ApplicationInfo();
+        mRankerResolveInfo.serviceInfo.applicationInfo.packageName = RANKER.getPackageName();
+        ServiceInfo serviceInfo = new ServiceInfo();
+        serviceInfo.permission = ResolverRankerService.BIND_PERMISSION;
+
+        when(mContext.getApplicationContext()).thenReturn(mContext);
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
+        when(mPackageManager.queryIntentServices(any(Intent.class), anyInt()))
+                .thenReturn(List.of(mRankerResolveInfo));
+        when(mPackageManager.getServiceInfo(eq(RANKER), anyInt())).thenReturn(serviceInfo);
+        when(mPackageManager.checkPermission(
+                ResolverRankerService.HOLD_PERMISSION, RANKER.getPackageName()))
+                .thenReturn(PackageManager.PERMISSION_GRANTED);
+        when(mContext.bindServiceAsUser(
+                any(Intent.class), any(ServiceConnection.class), anyInt(), any(UserHandle.class)))
+                .thenReturn(true);
+    }
+
+    @Test
+    public void acquire_afterRelease_warmConnectionReused() {
+        ResolverRankerServiceConnectionPool.Connection first = mPool.acquire(mContext);
+        mPool.release(first);
+        ResolverRankerServiceConnectionPool.Connection second = mPool.acquire(mContext);
+
+        assertThat(second).isSameInstanceAs(first);
+        assertThat(second.getComponent()).isEqualTo(RANKER);
+        verify(mContext, times(1)).bindServiceAsUser(
+                any(Intent.class), any(ServiceConnection.class), anyInt(), any(UserHandle.class));
+        verify(mPackageManager, times(1)).queryIntentServices(any(Intent.class), anyInt());
+        verify(mContext, never()).unbindService(any(ServiceConnection.class));
+    }
+
+    @Test
+    public void release_idleTimeoutPassed_unbound() {
+        ResolverRankerServiceConnectionPool.Connection connection = mPool.acquire(mContext);
+        mPool.release(connection);
+
+        ArgumentCaptor<Runnable> unbindCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(mScheduler).schedule(unbindCaptor.capture(), eq(IDLE_TIMEOUT_MILLIS));
+        unbindCaptor.getValue().run();
+
+        verify(mContext).unbindService(connection);
+        assertThat(mPool.acquire(mContext)).isNotSameInstanceAs(connection);
+        // the resolved ranker is still cached
+        verify(mPackageManager, times(1)).queryIntentServices(any(Intent.class), anyInt());
+    }
+
+    @Test
+    public void bindingDied_rankerResolvedAgain() {
+        ResolverRankerServiceConnectionPool.Connection connection = mPool.acquire(mContext);
+
+        connection.onBindingDied(RANKER);
+        mPool.release(connection);
+
+        verify(mContext).unbindService(connection);
+        verify(mScheduler, never()).schedule(any(Runnable.class), anyLong());
+        assertThat(mPool.acquire(mContext)).isNotSameInstanceAs(connection);
+        verify(mPackageManager, times(2)).queryIntentServices(any(Intent.class), anyInt());
+    }
+
+    @Test
+    public void acquire_noRanker_rankerResolvedAgainOnNextAcquire() {
+        when(mPackageManager.queryIntentServices(any(Intent.class), anyInt()))
+                .thenReturn(List.of())
+                .thenReturn(List.of(mRankerResolveInfo));
+
+        assertThat(mPool.acquire(mContext)).isNull();
+        ResolverRankerServiceConnectionPool.Connection connection = mPool.acquire(mContext);
+
+        assertThat(connection).isNotNull();
+        assertThat(connection.getComponent()).isEqualTo(RANKER);
+    }
+}
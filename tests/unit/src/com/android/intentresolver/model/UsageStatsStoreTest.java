@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.model;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.app.usage.UsageStats;
+import android.os.UserHandle;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class UsageStatsStoreTest {
+    private static final long DAY = 1000 * 60 * 60 * 24;
+    private static final long PERIOD = 7 * DAY;
+    private static final UserHandle USER = UserHandle.of(10);
+
+    private long mNow = 100 * DAY;
+    private final UsageStatsStore mStore = new UsageStatsStore(() -> mNow);
+    private final List<long[]> mQueries = new ArrayList<>();
+
+    @Test
+    public void getUsageStats_freshSnapshot_reused() {
+        UsageStatsStore.BucketSource source = (begin, end) -> {
+            mQueries.add(new long[] {begin, end});
+            return List.of(createStats("org.pkg.app", 98 * DAY, 99 * DAY, 3));
+        };
+
+        Map<String, UsageStats> first = mStore.getUsageStats(USER, source, PERIOD);
+        mNow += UsageStatsStore.MAX_SNAPSHOT_AGE_MILLIS - 1;
+        Map<String, UsageStats> second = mStore.getUsageStats(USER, source, PERIOD);
+
+        assertThat(second).isSameInstanceAs(first);
+        assertThat(mQueries).hasSize(1);
+        assertThat(mQueries.get(0)[0]).isEqualTo(100 * DAY - PERIOD);
+        assertThat(first.get("org.pkg.app").mLaunchCount).isEqualTo(3);
+    }
+
+    @Test
+    public void getUsageStats_staleSnapshot_onlyLatestBucketQueriedAgain() {
+        List<UsageStats> initialBuckets = List.of(
+                createStats("org.pkg.app", 98 * DAY, 99 * DAY, 3),
+                createStats("org.pkg.app", 99 * DAY, 100 * DAY, 1),
+                createStats("org.pkg.other", 99 * DAY, 100 * DAY, 2));
+        mStore.getUsageStats(USER, (begin, end) -> initialBuckets, PERIOD);
+
+        mNow += UsageStatsStore.MAX_SNAPSHOT_AGE_MILLIS;
+        Map<String, UsageStats> stats = mStore.getUsageStats(
+                USER,
+                (begin, end) -> {
+                    mQueries.add(new long[] {begin, end});
+                    return List.of(
+                            createStats("org.pkg.app", 99 * DAY, mNow, 4),
+                            createStats("org.pkg.other", 99 * DAY, mNow, 2));
+                },
+                PERIOD);
+
+        assertThat(mQueries).hasSize(1);
+        assertThat(mQueries.get(0)[0]).isEqualTo(99 * DAY);
+        assertThat(stats.get("org.pkg.app").mLaunchCount).isEqualTo(7);
+        assertThat(stats.get("org.pkg.other").mLaunchCount).isEqualTo(2);
+        assertThat(initialBuckets.get(0).mLaunchCount).isEqualTo(3);
+    }
+
+    @Test
+    public void getUsageStats_bucketsOutOfPeriod_dropped() {
+        mStore.getUsageStats(
+                USER,
+                (begin, end) -> List.of(createStats("org.pkg.app", 93 * DAY, 94 * DAY, 3)),
+                PERIOD);
+
+        mNow += 2 * DAY;
+        Map<String, UsageStats> stats = mStore.getUsageStats(
+                USER, (begin, end) -> new ArrayList<>(), PERIOD);
+
+        assertThat(stats).isEmpty();
+    }
+
+    private static UsageStats createStats(
+            String packageName, long beginTime, long endTime, int launchCount) {
+        UsageStats stats = new UsageStats();
+        stats.mPackageName = packageName;
+        stats.mBeginTimeStamp = beginTime;
+        stats.mEndTimeStamp = endTime;
+        stats.mLastTimeUsed = endTime;
+        stats.mLaunchCount = launchCount;
+        return stats;
+    }
+}
@@ -17,6 +17,7 @@
 package com.android.intentresolver.shortcuts
 
 import android.app.prediction.AppPredictor
+import android.app.prediction.AppTarget
 import android.content.ComponentName
 import android.content.Context
 import android.content.IntentFilter
@@ -27,6 +28,7 @@ import android.content.pm.ShortcutManager
 import android.os.UserHandle
 import android.os.UserManager
 import androidx.test.filters.SmallTest
+import com.android.intentresolver.ResolveQueryEngine
 import com.android.intentresolver.any
 import com.android.intentresolver.argumentCaptor
 import com.android.intentresolver.capture
@@ -83,6 +85,7 @@ class ShortcutLoaderTest {
     private val intentFilter = mock<IntentFilter>()
     private val appPredictor = mock<ShortcutLoader.AppPredictorProxy>()
     private val callback = mock<Consumer<ShortcutLoader.Result>>()
+    private val queryEngine = ResolveQueryEngine()
     private val componentName = ComponentName("pkg", "Class")
     private val appTarget =
         mock<DisplayResolveInfo> { whenever(resolvedComponentName).thenReturn(componentName) }
@@ -101,7 +104,8 @@ class ShortcutLoaderTest {
                     true,
                     intentFilter,
                     dispatcher,
-                    callback
+                    callback,
+                    queryEngine
                 )
 
             testSubject.updateAppTargets(appTargets)
@@ -170,7 +174,8 @@ class ShortcutLoaderTest {
                     true,
                     intentFilter,
                     dispatcher,
-                    callback
+                    callback,
+                    queryEngine
                 )
 
             testSubject.updateAppTargets(appTargets)
@@ -223,7 +228,8 @@ class ShortcutLoaderTest {
                     true,
                     intentFilter,
                     dispatcher,
-                    callback
+                    callback,
+                    queryEngine
                 )
 
             testSubject.updateAppTargets(appTargets)
@@ -284,7 +290,8 @@ class ShortcutLoaderTest {
                     true,
                     intentFilter,
                     dispatcher,
-                    callback
+                    callback,
+                    queryEngine
                 )
 
             testSubject.updateAppTargets(appTargets)
@@ -327,7 +334,8 @@ class ShortcutLoaderTest {
                 true,
                 intentFilter,
                 dispatcher,
-                callback
+                callback,
+                queryEngine
             )
 
             verify(appPredictor, times(1)).requestPredictionUpdate()
@@ -357,7 +365,8 @@ class ShortcutLoaderTest {
                     true,
                     intentFilter,
                     dispatcher,
-                    callback
+                    callback,
+                    queryEngine
                 )
 
             verify(shortcutManager, times(1)).getShareTargets(any())
@@ -374,6 +383,78 @@ class ShortcutLoaderTest {
             verify(callback, times(1)).accept(any())
         }
 
+    @Test
+    fun test_storedShortcutsUnchanged_loadedShortcutsKeepThem() =
+        scope.runTest {
+            val matchingAppTarget = createAppTarget(matchingShortcutInfo)
+            val snapshotStore = ShortcutSnapshotStore { 0L }
+            snapshotStore.put(
+                UserHandle.of(0),
+                intentFilter,
+                ShortcutSnapshotStore.Snapshot(
+                    listOf(ShortcutManager.ShareShortcutInfo(matchingShortcutInfo, componentName)),
+                    true,
+                    listOf(matchingAppTarget)
+                )
+            )
+            val testSubject = createLoaderWithAppPredictor(snapshotStore)
+
+            testSubject.updateAppTargets(appTargets)
+            verify(callback, times(1)).accept(any())
+
+            deliverAppPredictorTargets(listOf(matchingAppTarget))
+
+            val resultCaptor = argumentCaptor<ShortcutLoader.Result>()
+            verify(callback, times(2)).accept(capture(resultCaptor))
+            val (storedResult, loadedResult) = resultCaptor.allValues
+            assertTrue("A snapshot is expected", storedResult.isSnapshot)
+            assertFalse("Unexpected snapshot", loadedResult.isSnapshot)
+            assertFalse("Unexpected replacement", loadedResult.replacesSnapshot)
+            assertEquals(
+                "Wrong loaded shortcut",
+                matchingShortcutInfo,
+                loadedResult.directShareShortcutInfoCache.values.single()
+            )
+        }
+
+    @Test
+    fun test_storedShortcutsChanged_loadedShortcutsReplaceThem() =
+        scope.runTest {
+            val storedShortcutInfo = createShortcutInfo("id-stored", componentName, 1)
+            val snapshotStore = ShortcutSnapshotStore { 0L }
+            snapshotStore.put(
+                UserHandle.of(0),
+                intentFilter,
+                ShortcutSnapshotStore.Snapshot(
+                    listOf(ShortcutManager.ShareShortcutInfo(storedShortcutInfo, componentName)),
+                    true,
+                    listOf(createAppTarget(storedShortcutInfo))
+                )
+            )
+            val testSubject = createLoaderWithAppPredictor(snapshotStore)
+
+            testSubject.updateAppTargets(appTargets)
+            deliverAppPredictorTargets(listOf(createAppTarget(matchingShortcutInfo)))
+
+            val resultCaptor = argumentCaptor<ShortcutLoader.Result>()
+            verify(callback, times(2)).accept(capture(resultCaptor))
+            val (storedResult, loadedResult) = resultCaptor.allValues
+            assertTrue("A snapshot is expected", storedResult.isSnapshot)
+            assertFalse("Unexpected replacement", storedResult.replacesSnapshot)
+            assertEquals(
+                "Wrong stored shortcut",
+                storedShortcutInfo,
+                storedResult.directShareShortcutInfoCache.values.single()
+            )
+            assertFalse("Unexpected snapshot", loadedResult.isSnapshot)
+            assertTrue("A replacement is expected", loadedResult.replacesSnapshot)
+            assertEquals(
+                "Wrong loaded shortcut",
+                matchingShortcutInfo,
+                loadedResult.directShareShortcutInfoCache.values.single()
+            )
+        }
+
     @Test
     fun test_OnScopeCancellation_unsubscribeFromAppPredictor() {
         scope.runTest {
@@ -385,7 +466,8 @@ class ShortcutLoaderTest {
                 true,
                 intentFilter,
                 dispatcher,
-                callback
+                callback,
+                queryEngine
             )
 
             verify(appPredictor, never()).unregisterPredictionUpdates(any())
@@ -448,7 +530,8 @@ class ShortcutLoaderTest {
                     false,
                     intentFilter,
                     dispatcher,
-                    callback
+                    callback,
+                    queryEngine
                 )
 
             testSubject.updateAppTargets(arrayOf<DisplayResolveInfo>(mock()))
@@ -480,11 +563,33 @@ class ShortcutLoaderTest {
                     true,
                     intentFilter,
                     dispatcher,
-                    callback
+                    callback,
+                    queryEngine
                 )
 
             testSubject.updateAppTargets(arrayOf<DisplayResolveInfo>(mock()))
 
             verify(appPredictor, times(1)).requestPredictionUpdate()
         }
+
+    private fun TestScope.createLoaderWithAppPredictor(snapshotStore: ShortcutSnapshotStore) =
+        ShortcutLoader(
+            context,
+            backgroundScope,
+            appPredictor,
+            UserHandle.of(0),
+            true,
+            intentFilter,
+            dispatcher,
+            callback,
+            queryEngine,
+            snapshotStore
+        )
+
+    private fun deliverAppPredictorTargets(targets: List<AppTarget>) {
+        val appPredictorCallbackCaptor = argumentCaptor<AppPredictor.Callback>()
+        verify(appPredictor, atLeastOnce())
+            .registerPredictionUpdates(any(), capture(appPredictorCallbackCaptor))
+        appPredictorCallbackCaptor.value.onTargetsAvailable(targets)
+    }
 }
@@ -139,6 +139,29 @@ class ShortcutToChooserTargetConverterTest {
         assertShortcutInfoCache(chooserTargets, shortcutInfoCache)
     }
 
+    @Test
+    fun testConvertToChooserTarget_predictionService_withIndicesInAllShortcuts() {
+        val appTargets = shortcuts.map { createAppTarget(it.shortcutInfo) }
+        val appTargetCache = HashMap<ChooserTarget, AppTarget>()
+        val subset = listOf(shortcuts[1], shortcuts[3])
+
+        val chooserTargets = testSubject.convertToChooserTarget(
+            subset,
+            intArrayOf(1, 3),
+            appTargets,
+            appTargetCache,
+            null,
+        )
+
+        assertCorrectShortcutToChooserTargetConversion(
+            shortcuts,
+            chooserTargets,
+            intArrayOf(1, 3),
+            floatArrayOf(0.99f, 0.97f),
+        )
+        assertEquals(appTargets[3], appTargetCache[chooserTargets[1]])
+    }
+
     private fun assertCorrectShortcutToChooserTargetConversion(
         shortcuts: List<ShareShortcutInfo>,
         chooserTargets: List<ChooserTarget>,
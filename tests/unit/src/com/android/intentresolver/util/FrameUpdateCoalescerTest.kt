@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.intentresolver.util
+
+import androidx.test.platform.app.InstrumentationRegistry
+import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import org.junit.Test
+
+class FrameUpdateCoalescerTest {
+    private val frameExecutor = TestExecutor()
+    private var updates = 0
+    private val testSubject = FrameUpdateCoalescer("test", frameExecutor) { updates++ }
+
+    @Test
+    fun mutationsWithinAFrame_appliedByOneUpdate() {
+        repeat(5) { testSubject.post() }
+
+        assertThat(frameExecutor.pendingCommandCount).isEqualTo(1)
+        assertThat(updates).isEqualTo(0)
+
+        frameExecutor.runUntilIdle()
+        testSubject.post()
+        frameExecutor.runUntilIdle()
+
+        assertThat(updates).isEqualTo(2)
+        assertThat(testSubject.updateCount).isEqualTo(2)
+        assertThat(testSubject.mutationCount).isEqualTo(6)
+        assertThat(testSubject.maxMutationsPerUpdate).isEqualTo(5)
+        assertThat(testSubject.hasPendingMutations).isFalse()
+    }
+
+    @Test
+    fun flush_appliesPendingMutationsOnce() {
+        testSubject.post()
+        testSubject.post()
+
+        testSubject.flush()
+        frameExecutor.runUntilIdle()
+        testSubject.flush()
+
+        assertThat(updates).isEqualTo(1)
+        assertThat(testSubject.mutationCount).isEqualTo(2)
+    }
+
+    @Test
+    fun nextFrameExecutor_mutationsAppliedAtTheNextFrame() {
+        val updated = CountDownLatch(1)
+        var mainThreadUpdates = 0
+        val testSubject =
+            FrameUpdateCoalescer("test", FrameUpdateCoalescer.NEXT_FRAME_EXECUTOR) {
+                mainThreadUpdates++
+                updated.countDown()
+            }
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync {
+            repeat(3) { testSubject.post() }
+            assertThat(mainThreadUpdates).isEqualTo(0)
+        }
+
+        assertThat(updated.await(5, TimeUnit.SECONDS)).isTrue()
+        InstrumentationRegistry.getInstrumentation().runOnMainSync {
+            assertThat(mainThreadUpdates).isEqualTo(1)
+            assertThat(testSubject.mutationCount).isEqualTo(3)
+            assertThat(testSubject.hasPendingMutations).isFalse()
+        }
+    }
+}
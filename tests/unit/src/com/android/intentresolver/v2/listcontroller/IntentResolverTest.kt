@@ -24,6 +24,8 @@ import android.content.pm.PackageManager
 import android.content.pm.ResolveInfo
 import android.net.Uri
 import android.os.UserHandle
+import com.android.intentresolver.ResolveQueryEngine
+import com.android.intentresolver.ResolveResultCache
 import com.android.intentresolver.any
 import com.android.intentresolver.eq
 import com.android.intentresolver.kotlinArgumentCaptor
@@ -56,7 +58,12 @@ class IntentResolverTest {
         MockitoAnnotations.initMocks(this)
 
         intentResolver =
-            IntentResolverImpl(mockPackageManager, ResolveListDeduperImpl(fakePinnableComponents))
+            IntentResolverImpl(
+                mockPackageManager,
+                ResolveListDeduperImpl(fakePinnableComponents),
+                ResolveQueryEngine(),
+                ResolveResultCache(),
+            )
     }
 
     @Test
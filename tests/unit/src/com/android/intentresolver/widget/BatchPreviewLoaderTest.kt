@@ -18,6 +18,9 @@ package com.android.intentresolver.widget
 
 import android.graphics.Bitmap
 import android.net.Uri
+import android.util.Size
+import android.view.View.MeasureSpec
+import androidx.test.platform.app.InstrumentationRegistry
 import com.android.intentresolver.captureMany
 import com.android.intentresolver.mock
 import com.android.intentresolver.widget.ScrollableImagePreviewView.BatchPreviewLoader
@@ -29,6 +32,7 @@ import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.awaitCancellation
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.asFlow
@@ -163,6 +167,152 @@ class BatchPreviewLoaderTest {
         assertThat(list).containsExactly(*expectedUris).inOrder()
     }
 
+    @Test
+    fun test_imageSizeProbe_imagesNotLoadedBeyondFirstBlock() {
+        val uris = Array(10) { createUri(it) }
+        val loadedUris = ArrayList<Pair<Uri, Boolean>>()
+        val imageLoader: suspend (Uri, Boolean) -> Bitmap? = { uri, caching ->
+            loadedUris.add(uri to caching)
+            null
+        }
+        val imageSizeProbe =
+            object : ImageSizeProbe {
+                override suspend fun readImageSize(uri: Uri) = Size(100, 100)
+            }
+        val testSubject =
+            BatchPreviewLoader(
+                imageLoader,
+                previews(*uris),
+                uris.size,
+                onUpdate,
+                onCompletion,
+                imageSizeProbe,
+            )
+        testSubject.loadAspectRatios(200) { _, _, _ -> 100 }
+        dispatcher.scheduler.advanceUntilIdle()
+
+        verify(onCompletion, times(1)).invoke()
+        val list =
+            captureMany { verify(onUpdate, atLeast(1)).invoke(capture()) }
+                .fold(ArrayList<Preview>()) { acc, update -> acc.apply { addAll(update) } }
+                .map { it.uri }
+        assertThat(list).containsExactly(*uris).inOrder()
+        assertThat(loadedUris).containsExactly(uris[0] to true, uris[1] to true)
+    }
+
+    @Test
+    fun test_previewSizeTimesOut_previewLaidOutWithDefaultAspectRatio() {
+        val uri = createUri(1)
+        val imageLoader: suspend (Uri, Boolean) -> Bitmap? = { _, _ -> awaitCancellation() }
+        val testSubject =
+            BatchPreviewLoader(
+                imageLoader,
+                previews(uri),
+                totalItemCount = 1,
+                onUpdate,
+                onCompletion,
+                itemTimeoutMs = 100,
+            )
+        val reportedSizes = ArrayList<Size>()
+        testSubject.loadAspectRatios(200) { _, width, height ->
+            reportedSizes.add(Size(width, height))
+            100
+        }
+        dispatcher.scheduler.advanceUntilIdle()
+
+        verify(onCompletion, times(1)).invoke()
+        assertThat(reportedSizes).containsExactly(Size(0, 0))
+        val list = withArgCaptor { verify(onUpdate, times(1)).invoke(capture()) }.map { it.uri }
+        assertThat(list).containsExactly(uri)
+    }
+
+    @Test
+    fun test_previewSizeTimesOutOnLaidOutView_previewNotDropped() {
+        val uri = createUri(1)
+        val imageLoader: suspend (Uri, Boolean) -> Bitmap? = { _, _ -> awaitCancellation() }
+        val view =
+            ScrollableImagePreviewView(InstrumentationRegistry.getInstrumentation().context)
+                .apply {
+                    measure(
+                        MeasureSpec.makeMeasureSpec(400, MeasureSpec.EXACTLY),
+                        MeasureSpec.makeMeasureSpec(100, MeasureSpec.EXACTLY),
+                    )
+                    layout(0, 0, 400, 100)
+                }
+        val testSubject =
+            BatchPreviewLoader(
+                imageLoader,
+                previews(uri),
+                totalItemCount = 1,
+                onUpdate,
+                onCompletion,
+                itemTimeoutMs = 100,
+            )
+        testSubject.loadAspectRatios(200, view::updatePreviewSize)
+        dispatcher.scheduler.advanceUntilIdle()
+
+        verify(onCompletion, times(1)).invoke()
+        val list = withArgCaptor { verify(onUpdate, times(1)).invoke(capture()) }.map { it.uri }
+        assertThat(list).containsExactly(uri)
+    }
+
+    @Test
+    fun test_windowSize_previewsCollectedAsTheyAreBound() {
+        val uris = Array(10) { createUri(it) }
+        val testSubject =
+            BatchPreviewLoader(
+                TestImageLoader(testScope),
+                previews(*uris),
+                uris.size,
+                onUpdate,
+                onCompletion,
+                windowSize = 2,
+            )
+        testSubject.loadAspectRatios(200) { _, _, _ -> 100 }
+        dispatcher.scheduler.advanceUntilIdle()
+
+        // completion is signalled once the first window is loaded
+        verify(onCompletion, times(1)).invoke()
+        assertThat(collectUpdates().map { it.uri }).containsExactly(uris[0], uris[1]).inOrder()
+
+        testSubject.onPreviewBound(1)
+        dispatcher.scheduler.advanceUntilIdle()
+
+        assertThat(collectUpdates().map { it.uri })
+            .containsExactlyElementsIn(uris.take(4))
+            .inOrder()
+
+        testSubject.onPreviewBound(3)
+        testSubject.onPreviewBound(uris.size - 1)
+        dispatcher.scheduler.advanceUntilIdle()
+
+        verify(onCompletion, times(1)).invoke()
+        assertThat(collectUpdates().map { it.uri }).containsExactly(*uris).inOrder()
+    }
+
+    @Test
+    fun test_windowNarrowerThanViewport_completionSignalledOnceWindowLoaded() {
+        val uris = Array(10) { createUri(it) }
+        val testSubject =
+            BatchPreviewLoader(
+                TestImageLoader(testScope),
+                previews(*uris),
+                uris.size,
+                onUpdate,
+                onCompletion,
+                windowSize = 2,
+            )
+        testSubject.loadAspectRatios(1000) { _, _, _ -> 100 }
+        dispatcher.scheduler.advanceUntilIdle()
+
+        verify(onCompletion, times(1)).invoke()
+        assertThat(collectUpdates().map { it.uri }).containsExactly(uris[0], uris[1]).inOrder()
+    }
+
+    private fun collectUpdates(): List<Preview> =
+        captureMany { verify(onUpdate, atLeast(1)).invoke(capture()) }
+            .fold(ArrayList<Preview>()) { acc, update -> acc.apply { addAll(update) } }
+
     private fun createUri(idx: Int): Uri = Uri.parse("content://org.pkg.app/image-$idx.png")
 
     private fun fail(uri: Uri) = uri to false